@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lets another thread stop a running solve, e.g. the slower one of two hedged requests.
+ * Solvers register an action that stops their native solve while it runs. An aborted solve
+ * ends as soon as the solver notices, either with the best solution found so far or with
+ * a MIPException if there is none.
+ * <p>
+ * The handle also carries the deadline of the request through every hop: each hop drops the solve
+ * if the deadline passed before it could start, and the solver limits its time to what is left.
+ */
+public class AbortHandle {
+
+    private volatile boolean aborted = false;
+    private volatile long deadline = Long.MAX_VALUE;
+    private final List<Runnable> actions = new CopyOnWriteArrayList<>();
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Aborts the solve, running the registered actions.
+     */
+    public void abort() {
+        aborted = true;
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /**
+     * Registers an action to stop the solve, running it right away if the handle was aborted already.
+     */
+    public void register(Runnable action) {
+        actions.add(action);
+        if (aborted) {
+            action.run();
+        }
+    }
+
+    /**
+     * Removes the action once the solve it stops is over.
+     */
+    public void unregister(Runnable action) {
+        actions.remove(action);
+    }
+
+    /**
+     * Sets the time, in millis since the epoch, by which the result is needed, unless an earlier one
+     * is set already.
+     */
+    public synchronized void setDeadline(long deadline) {
+        this.deadline = Math.min(this.deadline, deadline);
+    }
+
+    /**
+     * @return the deadline in millis since the epoch, or Long.MAX_VALUE if there is none
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean hasDeadline() {
+        return deadline != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the millis left until the deadline, or Long.MAX_VALUE if there is none
+     */
+    public long getRemainingMillis() {
+        return hasDeadline() ? deadline - System.currentTimeMillis() : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return getRemainingMillis() <= 0;
+    }
+
+    /**
+     * @param stage what was going on, for the message
+     * @throws MIPException if the deadline has passed
+     */
+    public void checkDeadline(String stage) throws MIPException {
+        long remaining = getRemainingMillis();
+        if (remaining <= 0) {
+            throw new MIPException("Deadline passed " + stage + ", " + -remaining + " millis ago");
+        }
+    }
+
+    /**
+     * @param timeLimit the time limit of the solver in seconds, negative if there is none
+     * @return the smaller of the time limit and the seconds left until the deadline, negative if there is neither
+     */
+    public double getTimeLimit(double timeLimit) {
+        if (!hasDeadline()) {
+            return timeLimit;
+        }
+        double remaining = Math.max(0, getRemainingMillis()) / 1000d;
+        return timeLimit < 0 ? remaining : Math.min(timeLimit, remaining);
+    }
+
+    /**
+     * Takes the deadline from SolveParam.DEADLINE of the mip, unless the handle has one already.
+     */
+    public void setDeadline(IMIP mip) {
+        if (!hasDeadline() && mip.isSolveParamSpecified(SolveParam.DEADLINE)) {
+            setDeadline((long) mip.getDoubleSolveParam(SolveParam.DEADLINE));
+        }
+    }
+}
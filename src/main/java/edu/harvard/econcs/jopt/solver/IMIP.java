@@ -36,6 +36,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.ConstraintGenerator;
 import edu.harvard.econcs.jopt.solver.mip.LinearTerm;
 import edu.harvard.econcs.jopt.solver.mip.QuadraticTerm;
 import edu.harvard.econcs.jopt.solver.mip.Term;
@@ -82,7 +83,8 @@ public interface IMIP extends Serializable {
 	/**
 	 * Removes a variable from the MIP formulation. Depending on the implementation
 	 * this may not actually communicate with the solver, if this variable is unused
-	 * by the solver.
+	 * by the solver. Its terms are removed from the constraints and the objective,
+	 * and indicator constraints on it are removed entirely.
 	 */
 	void remove(Variable var);
 
@@ -91,6 +93,12 @@ public interface IMIP extends Serializable {
 	 */
 	int getNumVars();
 
+	/**
+	 * @return true if the model of this MIP can't be changed anymore, e.g. because it was
+	 * built by a {@link edu.harvard.econcs.jopt.solver.mip.ConcurrentMIPBuilder}.
+	 */
+	boolean isFrozen();
+
 	/**
 	 * Variables of interest can be used for finding the k best solutions to an optimization
 	 * in combination with SOLUTION_POOL_MODE = 3 or SOLUTION_POOL_MODE = 4. They form the set
@@ -269,22 +277,64 @@ public interface IMIP extends Serializable {
 	 * @return the number of constraints in the system
 	 */
 	int getNumConstraints();
+
+	/**
+	 * @return the constraint with the given id, or null if it was removed
+	 */
+	Constraint getConstraint(int id);
+
+	/**
+	 * @return the number of constraint ids handed out so far; all ids are smaller than this.
+	 * Results index their duals, slacks and violations by these ids. The ids of removed constraints
+	 * aren't reused, see {@link edu.harvard.econcs.jopt.solver.mip.MIP#compactConstraintIds()}.
+	 */
+	int getNumConstraintIds();
 	
 
 	/**
-	 * Adds a new constraint
+	 * Adds a new constraint and assigns it the next constraint id, which stays stable for
+	 * the lifetime of this MIP, even if other constraints are removed, unless the ids are
+	 * compacted (see {@link edu.harvard.econcs.jopt.solver.mip.MIP#compactConstraintIds()}). A constraint belongs
+	 * to a single MIP; to use it in another one, add a copy (see {@link Constraint#typedClone()}).
+	 * <p>
+	 * This breaks code that added the same constraint object to several MIPs, which used to work
+	 * before constraints carried their id. It isn't copied silently, as the results of the other
+	 * MIP would then be looked up under the id of the original.
 	 * @param constraint the constraint to add
-	 * @return constraintId should be a UNIQUE number; useful for getting the dual of this constraint
+	 * @throws MIPException if the constraint was added to a MIP already and not removed from it
 	 */
 	void add(Constraint constraint);
 
 
 	/**
-     * removes a constraint from the formulation.
+     * removes a constraint from the formulation. This takes constant time for a constraint
+     * that was added to this MIP; otherwise an equal constraint is searched for and removed.
      * @param constraint
-	 * @return 
+	 * @return true if a constraint was removed
      */
 	boolean remove(Constraint constraint);
+
+	/**
+	 * Removes the constraint with the given id in constant time.
+	 * @return the removed constraint, or null if there was none
+	 */
+	Constraint removeConstraint(int id);
+
+	/**
+	 * @return the constraints that use the given variable, in a term or as their indicator
+	 */
+	List<Constraint> getConstraintsContaining(Variable var);
+
+	/**
+	 * Registers a generator whose constraints are only created while the solver loads the MIP.
+	 * See {@link ConstraintGenerator} for how they differ from stored constraints.
+	 */
+	void addConstraintGenerator(ConstraintGenerator generator);
+
+	/**
+	 * @return the registered constraint generators, in the order they were added
+	 */
+	List<ConstraintGenerator> getConstraintGenerators();
 	
 	// Solve Parameters:
 	////////////////////
@@ -346,6 +396,15 @@ public interface IMIP extends Serializable {
 	
 	/** reset behavior is solver specific; see implementing class */
 	void resetDefaultSolveParams();
+
+	/**
+	 * Attaches a shared profile whose params replace any values set on this MIP so far;
+	 * params set afterwards take precedence over the profile. Null detaches the profile.
+	 */
+	void setSolveParamProfile(SolveParamProfile profile);
+
+	/** @return the attached profile, or null */
+	SolveParamProfile getSolveParamProfile();
 	
 	// General Functions:
 	/////////////////////
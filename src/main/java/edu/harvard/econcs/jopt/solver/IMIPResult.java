@@ -31,6 +31,7 @@
 package edu.harvard.econcs.jopt.solver;
 
 import java.io.Serializable;
+import java.util.Map;
 import java.util.Queue;
 
 import edu.harvard.econcs.jopt.solver.mip.Constraint;
@@ -45,12 +46,45 @@ import edu.harvard.econcs.jopt.solver.mip.PoolSolution;
  **/
 public interface IMIPResult extends Serializable, ISolution {
 	
-	/** Returns the dual of a constraint that was added with IMIP.add(constraint, constraintId) */
+	/** Returns the dual of a constraint that was added with IMIP.add(constraint) */
 	double getDual(Constraint constraint);
 
+	/** Returns the dual of the constraint with the given id, NaN if the constraint has none */
+	double getDual(int constraintId);
+
+	/** Returns the duals indexed by constraint id, or null if SolveParam.CALC_DUALS wasn't set */
+	double[] getDuals();
+
+	/** Returns the slack of a constraint, i.e. how far it is from being binding */
+	double getSlack(Constraint constraint);
+
+	/** Returns the slack of the constraint with the given id */
+	double getSlack(int constraintId);
+
+	/** Returns the slacks indexed by constraint id, or null if SolveParam.CALC_DUALS wasn't set */
+	double[] getSlacks();
+
 	/** Dump the results out to std out, using the MIP to make it pretty **/
 	String toString(IMIP mip);
 	
 	/** Get the Queue of pool solutions, if available **/
 	Queue<PoolSolution> getPoolSolutions();
+
+	/** True if the MIP was infeasible and this is the solution of its feasibility relaxation **/
+	boolean isRelaxed();
+
+	/** Returns by how much the constraint is violated in a relaxed solution, 0 if it is satisfied **/
+	double getViolation(Constraint constraint);
+
+	/** Returns by how much the constraint with the given id is violated in a relaxed solution **/
+	double getViolation(int constraintId);
+
+	/** Returns the violations of a relaxed solution indexed by constraint id, or null if it isn't relaxed **/
+	double[] getViolations();
+
+	/** Returns how the result was obtained, e.g. the threads it was solved with, by key; never null **/
+	Map<String, Serializable> getMetadata();
+
+	/** Records how the result was obtained, see getMetadata() **/
+	void setMetadata(String key, Serializable value);
 }
@@ -42,4 +42,12 @@ package edu.harvard.econcs.jopt.solver;
 public interface IMIPSolver {
 	/** Solves a MIP that you have constructed. Results for the solve are in the return value. */
 	IMIPResult solve(IMIP mip) throws MIPException;
+
+	/**
+	 * Solves a MIP, stopping early once the handle is aborted. Solvers that can't be
+	 * stopped ignore the handle.
+	 */
+	default IMIPResult solve(IMIP mip, AbortHandle abort) throws MIPException {
+		return solve(mip);
+	}
 }
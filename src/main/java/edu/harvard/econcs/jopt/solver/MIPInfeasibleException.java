@@ -62,8 +62,13 @@ public class MIPInfeasibleException extends MIPException {
 	private static final long serialVersionUID = 3618981187340022066L;
 	/** Variables to Cause objects **/
 	Map<Variable,Cause> infeasibleVariables = new HashMap<Variable,Cause>();
-	/** Constraints to Cause objects **/
-	Collection<Constraint> infeasibleConstraints = new LinkedList<Constraint>();
+	/** Ids and descriptions of the infeasible constraints; only these are sent back from a remote solver **/
+	int[] infeasibleConstraintIds = new int[0];
+	String[] infeasibleConstraintDescriptions = new String[0];
+	/** The infeasible constraints themselves, null until resolved against the MIP after deserialization **/
+	transient Collection<Constraint> infeasibleConstraints = new LinkedList<Constraint>();
+	/** False if the conflict refinement was stopped early and the conflict may not be minimal **/
+	boolean conflictComplete = true;
 	
 	
 	public MIPInfeasibleException(String msg) {
@@ -71,13 +76,33 @@ public class MIPInfeasibleException extends MIPException {
 	}
 	
 	public MIPInfeasibleException(Map<Variable,Cause> infeasibleVariables, Collection<Constraint> infeasibleConstraints) {
-		super("MIP Infeasible");
+		this(infeasibleVariables, infeasibleConstraints, true);
+	}
+
+	public MIPInfeasibleException(Map<Variable,Cause> infeasibleVariables, Collection<Constraint> infeasibleConstraints, boolean conflictComplete) {
+		super(conflictComplete ? "MIP Infeasible" : "MIP Infeasible (partial conflict)");
 		this.infeasibleVariables = infeasibleVariables;
 		this.infeasibleConstraints = infeasibleConstraints;
+		this.conflictComplete = conflictComplete;
+		this.infeasibleConstraintIds = new int[infeasibleConstraints.size()];
+		this.infeasibleConstraintDescriptions = new String[infeasibleConstraints.size()];
+		int i = 0;
+		for (Constraint constraint : infeasibleConstraints) {
+			infeasibleConstraintIds[i] = constraint.getId();
+			infeasibleConstraintDescriptions[i++] = constraint.getDescription();
+		}
 	}
 	
 	public boolean isReasonKnown() {
-		return !infeasibleVariables.isEmpty() || !infeasibleConstraints.isEmpty();
+		return !infeasibleVariables.isEmpty() || infeasibleConstraintIds.length > 0;
+	}
+
+	/**
+	 * @return false if the conflict refinement ran out of its budget, in which case the
+	 * reported variables and constraints are still in conflict, but not necessarily minimal.
+	 */
+	public boolean isConflictComplete() {
+		return conflictComplete;
 	}
 
 	public Set<Variable> getInfeasibleVariables() {
@@ -88,9 +113,48 @@ public class MIPInfeasibleException extends MIPException {
 		return infeasibleVariables.get(v);
 	}
 	
+	/**
+	 * @return the infeasible constraints. If this exception came from a remote solver, they are only
+	 * available once resolved against the MIP, see {@link #resolve(IMIP)}.
+	 */
 	public Collection<Constraint> getInfeasibleConstraints() {
+		if (infeasibleConstraints == null) {
+			if (infeasibleConstraintIds.length == 0) {
+				return Collections.emptyList();
+			}
+			throw new MIPException("Infeasible constraints not resolved, use getInfeasibleConstraints(IMIP) instead");
+		}
 		return Collections.unmodifiableCollection(infeasibleConstraints);
 	}
+
+	public Collection<Constraint> getInfeasibleConstraints(IMIP mip) {
+		if (infeasibleConstraints == null) {
+			resolve(mip);
+		}
+		return getInfeasibleConstraints();
+	}
+
+	/**
+	 * @return the ids of the infeasible constraints, see {@link Constraint#getId()}
+	 */
+	public int[] getInfeasibleConstraintIds() {
+		return infeasibleConstraintIds.clone();
+	}
+
+	/**
+	 * Looks up the infeasible constraints by their ids in the given MIP, which must be the
+	 * one that was solved.
+	 */
+	public void resolve(IMIP mip) {
+		Collection<Constraint> constraints = new LinkedList<Constraint>();
+		for (int id : infeasibleConstraintIds) {
+			Constraint constraint = mip.getConstraint(id);
+			if (constraint != null) {
+				constraints.add(constraint);
+			}
+		}
+		this.infeasibleConstraints = constraints;
+	}
 	
 	public String getCauseDescription() {
 		StringBuffer sb = new StringBuffer();
@@ -115,6 +179,13 @@ public class MIPInfeasibleException extends MIPException {
 	
 	protected String getConstraintDescription() {
 		StringBuffer sb = new StringBuffer("Constraints causing infeasibility:\n");
+		if (infeasibleConstraints == null) {
+			for (int i = 0; i < infeasibleConstraintIds.length; i++) {
+				sb.append("Constraint ").append(infeasibleConstraintIds[i]).append(": ")
+						.append(infeasibleConstraintDescriptions[i]).append("\n");
+			}
+			return sb.toString();
+		}
 		for (Iterator iter = getInfeasibleConstraints().iterator(); iter.hasNext(); ) {
 			Constraint c = (Constraint)iter.next();
 			if (c==null) {
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The tuned profiles by model family, so a MIP gets the params found best for models like it
+ * by naming its family in SolveParam.MODEL_FAMILY.
+ */
+public class ProfileRegistry {
+
+    private static final Logger logger = LogManager.getLogger(ProfileRegistry.class);
+
+    /** The extension of the profile files loaded from a directory **/
+    public static final String PROFILE_EXTENSION = ".profile";
+
+    private final Map<String, SolveParamProfile> byFamily = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the profile for its family, replacing the one registered before.
+     */
+    public void register(SolveParamProfile profile) {
+        if (profile.getFamily() == null) {
+            throw new MIPException("Profile " + profile.getName() + " has no model family");
+        }
+        byFamily.put(profile.getFamily(), profile);
+    }
+
+    /**
+     * @return the profile for the family, or null if there is none
+     */
+    public SolveParamProfile get(String family) {
+        return byFamily.get(family);
+    }
+
+    /**
+     * Applies the profile of the MIP's family, if it has one.
+     * @return true if a profile was applied
+     */
+    public boolean applyTo(IMIP mip) {
+        if (!mip.isSolveParamSpecified(SolveParam.MODEL_FAMILY)) {
+            return false;
+        }
+        return applyTo(mip, mip.getStringSolveParam(SolveParam.MODEL_FAMILY));
+    }
+
+    /**
+     * Applies the profile of the given family, if there is one.
+     * @return true if a profile was applied
+     */
+    public boolean applyTo(IMIP mip, String family) {
+        SolveParamProfile profile = byFamily.get(family);
+        if (profile == null) {
+            return false;
+        }
+        logger.debug("Applying " + profile);
+        mip.setSolveParamProfile(profile);
+        mip.setSolveParam(SolveParam.MODEL_FAMILY, family);
+        return true;
+    }
+
+    /**
+     * Loads all profiles in the directory with the profile extension.
+     */
+    public static ProfileRegistry load(Path directory) throws IOException {
+        ProfileRegistry registry = new ProfileRegistry();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + PROFILE_EXTENSION)) {
+            for (Path file : files) {
+                registry.register(SolveParamProfile.load(file));
+            }
+        }
+        return registry;
+    }
+}
@@ -33,6 +33,11 @@ package edu.harvard.econcs.jopt.solver;
 import java.io.InvalidObjectException;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * These parameters control how JOpt operates, and how the backend solver
@@ -47,6 +52,10 @@ import java.io.Serializable;
  **/
 public class SolveParam implements Serializable {
 
+    /**
+     * All params in declaration order; has to be initialized before the params themselves.
+     **/
+    private static final List<SolveParam> VALUES = new ArrayList<>();
 
     // ENUMS go here:
     // ///////////////
@@ -373,16 +382,138 @@ public class SolveParam implements Serializable {
      **/
     public static final SolveParam SOLUTION_POOL_MODE_4_DETERMINISTIC_TIME_LIMIT = new SolveParam(114, Double.class, "SolutionPoolMode4DetTimeLimit", true);
 
+    /**
+     * Maximum time (in seconds) to spend refining the conflict set of an infeasible MIP. If the limit is reached,
+     * the conflict found so far is reported and marked as partial. Unset means no limit. [CPLEX]
+     **/
+    public static final SolveParam CONFLICT_TIME_LIMIT = new SolveParam(115, Double.class, "ConflictTimeLimit", true);
+
+    /**
+     * Same as {@link #CONFLICT_TIME_LIMIT}, but in deterministic ticks. [CPLEX]
+     **/
+    public static final SolveParam CONFLICT_DETERMINISTIC_TIME_LIMIT = new SolveParam(116, Double.class, "ConflictDetTimeLimit", true);
+
+    /**
+     * If set, constraints whose description share the prefix up to the first occurrence of this delimiter are
+     * refined as a single group when calculating the conflict set. Constraints with an explicit group
+     * (see {@link edu.harvard.econcs.jopt.solver.mip.Constraint#setGroup(String)}) are always grouped by it. [CPLEX]
+     **/
+    public static final SolveParam CONFLICT_GROUP_DELIMITER = new SolveParam(117, String.class, "ConflictGroupDelimiter", true);
+
+    /**
+     * Maximum time (in seconds) to spend computing an irreducible infeasible subset for backends without a native
+     * conflict refiner. If the limit is reached, the infeasible subset found so far is reported and marked as
+     * partial. Defaults to TIME_LIMIT if that is set. [LPSOLVE]
+     **/
+    public static final SolveParam IIS_TIME_LIMIT = new SolveParam(118, Double.class, "IISTimeLimit", true);
+
+    /**
+     * Number of solver instances that check candidate subsets in parallel when computing an irreducible infeasible
+     * subset. Defaults to the number of available processors. [LPSOLVE]
+     **/
+    public static final SolveParam IIS_THREADS = new SolveParam(119, Integer.class, "IISThreads", true);
+
+    /**
+     * If true, an infeasible MIP is not re-solved with looser tolerances up to the CONSTRAINT_BACKOFF_LIMIT.
+     * Instead, a single feasibility relaxation is solved that minimizes the total violation of the constraints and,
+     * among those solutions, optimizes the original objective. The result is marked as relaxed and reports the
+     * violation of each constraint. Uses feasOpt on CPLEX and an elastic reformulation on other backends.
+     **/
+    public static final SolveParam FEASIBILITY_RELAXATION = new SolveParam(120, Boolean.class, "FeasibilityRelaxation", true);
+
+    /**
+     * If true, the SolverClient presolves the MIP before it is transmitted and solved: fixed and ignored variables are
+     * substituted out, singleton rows become bounds, duplicate and parallel rows are merged, and empty and redundant
+     * rows are dropped. The result is mapped back to the original variables and constraints.
+     **/
+    public static final SolveParam JAVA_PRESOLVE = new SolveParam(121, Boolean.class, "JavaPresolve", true);
+
+    /**
+     * If true, the SolverClient tightens big-M coefficients of boolean variables before solving, using the activity
+     * bounds implied by the variable bounds and the other constraints. See BIG_M_THRESHOLD and BIG_M_INDICATORS.
+     **/
+    public static final SolveParam TIGHTEN_BIG_M = new SolveParam(122, Boolean.class, "TightenBigM", true);
+
+    /**
+     * The smallest absolute coefficient of a boolean variable that is considered a big-M. Defaults to 1e4.
+     **/
+    public static final SolveParam BIG_M_THRESHOLD = new SolveParam(123, Double.class, "BigMThreshold", true);
+
+    /**
+     * If true, big-M constraints that can't be tightened because the other variables are unbounded are turned into
+     * indicator constraints. CPLEX supports them natively, other backends linearize them again.
+     **/
+    public static final SolveParam BIG_M_INDICATORS = new SolveParam(124, Boolean.class, "BigMIndicators", true);
+
+    /**
+     * Number of threads that evaluate the constraint generators of a MIP while it is loaded into the solver.
+     * Defaults to 1.
+     **/
+    public static final SolveParam GENERATOR_THREADS = new SolveParam(125, Integer.class, "GeneratorThreads", true);
+
+    /**
+     * Number of generated constraints handed to the solver at once. At most this many per generator thread are
+     * held in memory. Defaults to 10000.
+     **/
+    public static final SolveParam GENERATOR_CHUNK_SIZE = new SolveParam(126, Integer.class, "GeneratorChunkSize", true);
+
+    /**
+     * If true, a remote solver on the same host is passed the model and the result through shared memory rather than
+     * through the RMI connection. The segments are only readable by their owner, so this needs the server to run
+     * under the same user; otherwise the model is sent after all. Defaults to false.
+     **/
+    public static final SolveParam SHARED_MEMORY_TRANSPORT = new SolveParam(127, Boolean.class, "SharedMemoryTransport", true);
+
+    /**
+     * If true, a remote solver is first asked for the model by its hash, and the model is only uploaded if the server
+     * doesn't store it yet. This pays off for models solved repeatedly on the same server, but costs an extra call
+     * for every other one, and a load balancer never stores models. Defaults to false.
+     **/
+    public static final SolveParam MODEL_CACHE = new SolveParam(128, Boolean.class, "ModelCache", true);
+
+    /**
+     * The family of similar models this one belongs to, used to pick its tuned parameter profile.
+     * See {@link ProfileRegistry}.
+     **/
+    public static final SolveParam MODEL_FAMILY = new SolveParam(129, String.class, "ModelFamily", true);
+
+    /**
+     * The priority class of the solve on a server; solves of a higher class are started first. Defaults to 0.
+     * See {@link edu.harvard.econcs.jopt.solver.server.SolveScheduler}.
+     **/
+    public static final SolveParam PRIORITY = new SolveParam(130, Integer.class, "Priority", true);
+
+    /**
+     * The client the solve is accounted to when a server shares its solvers fairly between clients. Defaults to
+     * the host the request comes from.
+     **/
+    public static final SolveParam TENANT = new SolveParam(131, String.class, "Tenant", true);
+
+    /**
+     * The time, in millis since the epoch, by which the result is needed. Within a priority class, a server
+     * starts the solves of a client with the earliest deadline first. The deadline covers the whole request,
+     * unlike TIME_LIMIT, which bounds the solver alone: solves that can't start before it are dropped, and the
+     * time limit of the solver is cut to the time left.
+     **/
+    public static final SolveParam DEADLINE = new SolveParam(132, Double.class, "Deadline", true);
+
 
     // Other stuff below:
     // //////////////////
 
     private static final long serialVersionUID = 200505191821l;
 
+    private static Map<String, SolveParam> byName;
+
     private int enumUID;
     private String name;
     private Class type;
 
+    /**
+     * Position in declaration order; only meaningful within one JVM, so it isn't serialized.
+     */
+    private final transient int ordinal;
+
     /**
      * if set, isInternal signifies that this is a JOpt parameter; doesn't
      * control solver.
@@ -394,6 +525,8 @@ public class SolveParam implements Serializable {
         this.name = name;
         this.type = type;
         this.isInternal = isInternal;
+        this.ordinal = VALUES.size();
+        VALUES.add(this);
     }
 
     private SolveParam(int enumUID, Class type, String name) {
@@ -493,6 +626,42 @@ public class SolveParam implements Serializable {
                 return SOLUTION_POOL_MODE_4_TIME_LIMIT;
             case 114:
                 return SOLUTION_POOL_MODE_4_DETERMINISTIC_TIME_LIMIT;
+            case 115:
+                return CONFLICT_TIME_LIMIT;
+            case 116:
+                return CONFLICT_DETERMINISTIC_TIME_LIMIT;
+            case 117:
+                return CONFLICT_GROUP_DELIMITER;
+            case 118:
+                return IIS_TIME_LIMIT;
+            case 119:
+                return IIS_THREADS;
+            case 120:
+                return FEASIBILITY_RELAXATION;
+            case 121:
+                return JAVA_PRESOLVE;
+            case 122:
+                return TIGHTEN_BIG_M;
+            case 123:
+                return BIG_M_THRESHOLD;
+            case 124:
+                return BIG_M_INDICATORS;
+            case 125:
+                return GENERATOR_THREADS;
+            case 126:
+                return GENERATOR_CHUNK_SIZE;
+            case 127:
+                return SHARED_MEMORY_TRANSPORT;
+            case 128:
+                return MODEL_CACHE;
+            case 129:
+                return MODEL_FAMILY;
+            case 130:
+                return PRIORITY;
+            case 131:
+                return TENANT;
+            case 132:
+                return DEADLINE;
 
         }
         throw new InvalidObjectException("Unknown enum: " + enumUID);
@@ -502,6 +671,51 @@ public class SolveParam implements Serializable {
         return name;
     }
 
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the param with the given name, or null if there is none
+     */
+    public static synchronized SolveParam forName(String name) {
+        if (byName == null) {
+            byName = new HashMap<>();
+            for (SolveParam param : VALUES) {
+                byName.put(param.name, param);
+            }
+        }
+        return byName.get(name);
+    }
+
+    /**
+     * @return all params, indexed by their ordinal
+     */
+    public static List<SolveParam> values() {
+        return Collections.unmodifiableList(VALUES);
+    }
+
+    /**
+     * @return a dense index of the param, from 0 to values().size() - 1, e.g. for array-backed param sets
+     */
+    public int ordinal() {
+        return ordinal;
+    }
+
+    /**
+     * Parses a value of this param's type from a string, e.g. one read from a profile.
+     */
+    public Object parseValue(String value) {
+        if (isInteger()) {
+            return Integer.valueOf(value.trim());
+        } else if (isDouble()) {
+            return Double.valueOf(value.trim());
+        } else if (isBoolean()) {
+            return Boolean.valueOf(value.trim());
+        }
+        return value;
+    }
+
     public boolean isInteger() {
         return type.equals(Integer.class);
     }
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * A named set of solve params, e.g. as found by tuning on a family of similar models, that can be
+ * applied to any IMIP. Profiles are stored as properties files with the param names as keys.
+ * <p>
+ * Profiles are immutable and validated once, and their values are kept in arrays indexed by
+ * {@link SolveParam#ordinal()}, so one profile can be attached to any number of MIPs (see
+ * {@link IMIP#setSolveParamProfile(SolveParamProfile)}) and read without boxing or lookups. Profiles
+ * with the same name, family and params are equal, so solvers may cache a native translation of a
+ * profile across the copies that arrive with each remote solve.
+ */
+public class SolveParamProfile implements Serializable {
+
+    private static final long serialVersionUID = -4203758216530987214L;
+
+    private static final String NAME_KEY = "profile.name";
+    private static final String FAMILY_KEY = "profile.family";
+    private static final String PARAM_PREFIX = "param.";
+
+    private final String name;
+    private final String family;
+    private final Map<SolveParam, Object> params;
+
+    // Derived from params, by ordinal; Booleans are stored as 1 and 0
+    private transient boolean[] isSpecified;
+    private transient double[] numbers;
+    private transient String[] strings;
+    private transient int hashCode;
+
+    /**
+     * @param family the model family the profile is for, see SolveParam.MODEL_FAMILY; may be null
+     */
+    public SolveParamProfile(String name, String family, Map<SolveParam, Object> params) {
+        this.name = name;
+        this.family = family;
+        Map<SolveParam, Object> checked = new LinkedHashMap<>();
+        for (Map.Entry<SolveParam, Object> param : params.entrySet()) {
+            checked.put(param.getKey(), checkValue(param.getKey(), param.getValue()));
+        }
+        this.params = Collections.unmodifiableMap(checked);
+        index();
+    }
+
+    private void index() {
+        int size = SolveParam.values().size();
+        isSpecified = new boolean[size];
+        numbers = new double[size];
+        strings = new String[size];
+        for (Map.Entry<SolveParam, Object> param : params.entrySet()) {
+            int ordinal = param.getKey().ordinal();
+            isSpecified[ordinal] = true;
+            Object value = param.getValue();
+            if (value instanceof Number) {
+                numbers[ordinal] = ((Number) value).doubleValue();
+            } else if (value instanceof Boolean) {
+                numbers[ordinal] = (Boolean) value ? 1 : 0;
+            } else {
+                strings[ordinal] = (String) value;
+            }
+        }
+        hashCode = Objects.hash(name, family, params);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // Ordinals may differ between JVMs, so only the map is serialized
+        index();
+    }
+
+    /**
+     * Accepts values that MIP.setSolveParam would convert, like an int for a double param.
+     */
+    private static Object checkValue(SolveParam param, Object value) {
+        if (value instanceof String && !param.isString()) {
+            return param.parseValue((String) value);
+        } else if (param.isDouble() && value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (!param.getType().isInstance(value)) {
+            throw new MIPException("Value " + value + " of " + param + " is not a " + param.getTypeDescription());
+        }
+        return value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getFamily() {
+        return family;
+    }
+
+    public Map<SolveParam, Object> getParams() {
+        return params;
+    }
+
+    public boolean isSpecified(SolveParam param) {
+        return isSpecified[param.ordinal()];
+    }
+
+    /**
+     * @return the value of the param, or null if the profile doesn't specify it
+     */
+    public Object getSolveParam(SolveParam param) {
+        return isSpecified(param) ? params.get(param) : null;
+    }
+
+    public int getInt(SolveParam param) {
+        check(param, Integer.class);
+        return (int) numbers[param.ordinal()];
+    }
+
+    public double getDouble(SolveParam param) {
+        check(param, Double.class);
+        return numbers[param.ordinal()];
+    }
+
+    public boolean getBoolean(SolveParam param) {
+        check(param, Boolean.class);
+        return numbers[param.ordinal()] != 0;
+    }
+
+    public String getString(SolveParam param) {
+        check(param, String.class);
+        return strings[param.ordinal()];
+    }
+
+    private void check(SolveParam param, Class<?> type) {
+        if (!isSpecified(param)) {
+            throw new MIPException("Parameter not specified in profile " + name + ": " + param);
+        } else if (param.getType() != type) {
+            throw new MIPException("Parameter " + param + " not a " + type.getSimpleName());
+        }
+    }
+
+    /**
+     * Sets the params of the profile on the MIP, overriding the values it had. To share the
+     * profile instead of copying it, use {@link IMIP#setSolveParamProfile(SolveParamProfile)}.
+     */
+    public void applyTo(IMIP mip) {
+        for (Map.Entry<SolveParam, Object> param : params.entrySet()) {
+            mip.setSolveParam(param.getKey(), param.getValue());
+        }
+    }
+
+    public void save(Path path) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(NAME_KEY, name);
+        if (family != null) {
+            props.setProperty(FAMILY_KEY, family);
+        }
+        for (Map.Entry<SolveParam, Object> param : params.entrySet()) {
+            props.setProperty(PARAM_PREFIX + param.getKey().getName(), param.getValue().toString());
+        }
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            props.store(writer, "JOpt solve param profile");
+        }
+    }
+
+    public static SolveParamProfile load(Path path) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        // Sorted, so the params are applied in the same order every time
+        Map<SolveParam, Object> params = new LinkedHashMap<>();
+        for (String key : new TreeSet<>(props.stringPropertyNames())) {
+            if (!key.startsWith(PARAM_PREFIX)) {
+                continue;
+            }
+            String paramName = key.substring(PARAM_PREFIX.length());
+            SolveParam param = SolveParam.forName(paramName);
+            if (param == null) {
+                throw new MIPException("Unknown solve param " + paramName + " in profile " + path);
+            }
+            params.put(param, param.parseValue(props.getProperty(key)));
+        }
+        String name = props.getProperty(NAME_KEY, path.getFileName().toString());
+        return new SolveParamProfile(name, props.getProperty(FAMILY_KEY), params);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (!(obj instanceof SolveParamProfile)) {
+            return false;
+        }
+        SolveParamProfile other = (SolveParamProfile) obj;
+        return hashCode == other.hashCode && Objects.equals(name, other.name) && Objects.equals(family, other.family)
+                && params.equals(other.params);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "SolveParamProfile[" + name + (family == null ? "" : " for " + family) + ": " + params + "]";
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.client;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.IMIPSolver;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.mip.ModelStatistics;
+import edu.harvard.econcs.util.TypedProperties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Solves each model either in process or on a remote server, depending on its size. Small models
+ * aren't worth the serialization and the round trip, large ones are better off on the server.
+ * <p>
+ * A model is solved locally if none of its statistics exceeds the thresholds. Once both routes have
+ * solved enough models of about the same size, the route that was faster for them is chosen
+ * instead. To keep learning about both routes, every so often a model is sent the other way, also
+ * after the faster route is known. Models above the thresholds are always solved remotely, as they
+ * may be too large for this process. The latencies are averaged over about the last
+ * {@value #LATENCY_WINDOW} solves of each route and size, so the choice follows changes in load.
+ * <p>
+ * Configured through the properties:
+ * <ul>
+ * <li>routing.maxLocalVars, routing.maxLocalIntegers, routing.maxLocalNonZeros and
+ * routing.maxLocalQuadraticTerms: the thresholds, 1000, 200, 10000 and 1000 by default</li>
+ * <li>routing.learn: whether to learn from the latencies, true by default</li>
+ * <li>routing.minSamples: the number of solves per route and size needed to compare them, 5 by default</li>
+ * <li>routing.exploreInterval: every how many solves of a size the other route is tried, 20 by default</li>
+ * </ul>
+ */
+public class AdaptiveRoutingSolver implements IMIPSolver {
+
+    private static final Logger logger = LogManager.getLogger(AdaptiveRoutingSolver.class);
+
+    /** Models are grouped by the binary logarithm of their size **/
+    private static final int NUM_SIZE_CLASSES = 64;
+    /** The number of recent solves the mean latencies mostly depend on **/
+    private static final int LATENCY_WINDOW = 20;
+
+    public enum Route {
+        LOCAL, REMOTE
+    }
+
+    private final IMIPSolver local;
+    private final IMIPSolver remote;
+    private final int maxLocalVars;
+    private final int maxLocalIntegers;
+    private final long maxLocalNonZeros;
+    private final int maxLocalQuadraticTerms;
+    private final boolean learn;
+    private final int minSamples;
+    private final int exploreInterval;
+
+    private final Map<Route, RouteMetrics> metrics = new EnumMap<>(Route.class);
+    private final int[] decisions = new int[NUM_SIZE_CLASSES];
+
+    public AdaptiveRoutingSolver(IMIPSolver local, IMIPSolver remote, TypedProperties props) {
+        this(local, remote, props.getInt("routing.maxLocalVars", 1000), props.getInt("routing.maxLocalIntegers", 200),
+                props.getLong("routing.maxLocalNonZeros", 10000), props.getInt("routing.maxLocalQuadraticTerms", 1000),
+                props.getBoolean("routing.learn", true), props.getInt("routing.minSamples", 5),
+                props.getInt("routing.exploreInterval", 20));
+    }
+
+    public AdaptiveRoutingSolver(IMIPSolver local, IMIPSolver remote, int maxLocalVars, int maxLocalIntegers,
+                                 long maxLocalNonZeros, int maxLocalQuadraticTerms, boolean learn, int minSamples,
+                                 int exploreInterval) {
+        this.local = local;
+        this.remote = remote;
+        this.maxLocalVars = maxLocalVars;
+        this.maxLocalIntegers = maxLocalIntegers;
+        this.maxLocalNonZeros = maxLocalNonZeros;
+        this.maxLocalQuadraticTerms = maxLocalQuadraticTerms;
+        this.learn = learn;
+        this.minSamples = minSamples;
+        this.exploreInterval = exploreInterval;
+        for (Route route : Route.values()) {
+            metrics.put(route, new RouteMetrics());
+        }
+    }
+
+    public IMIPResult solve(IMIP mip) throws MIPException {
+        return solve(mip, new AbortHandle());
+    }
+
+    public IMIPResult solve(IMIP mip, AbortHandle abort) throws MIPException {
+        ModelStatistics stats = ModelStatistics.of(mip);
+        int sizeClass = getSizeClass(stats);
+        Route route = route(stats, sizeClass);
+        logger.debug("Solving " + stats + " " + route);
+        long time = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            IMIPResult ret = (route == Route.LOCAL ? local : remote).solve(mip, abort);
+            failed = false;
+            return ret;
+        } finally {
+            metrics.get(route).record(sizeClass, System.currentTimeMillis() - time, failed);
+        }
+    }
+
+    /**
+     * @return the route the model would be solved on right now
+     */
+    public Route route(IMIP mip) {
+        ModelStatistics stats = ModelStatistics.of(mip);
+        return route(stats, getSizeClass(stats));
+    }
+
+    private synchronized Route route(ModelStatistics stats, int sizeClass) {
+        if (!fitsLocally(stats)) {
+            return Route.REMOTE;
+        } else if (!learn) {
+            return Route.LOCAL;
+        }
+        Route preferred = Route.LOCAL;
+        double localLatency = metrics.get(Route.LOCAL).getMeanLatency(sizeClass, minSamples);
+        double remoteLatency = metrics.get(Route.REMOTE).getMeanLatency(sizeClass, minSamples);
+        if (!Double.isNaN(localLatency) && !Double.isNaN(remoteLatency)) {
+            preferred = localLatency <= remoteLatency ? Route.LOCAL : Route.REMOTE;
+        }
+        if (exploreInterval > 0 && ++decisions[sizeClass] % exploreInterval == 0) {
+            return preferred == Route.LOCAL ? Route.REMOTE : Route.LOCAL;
+        }
+        return preferred;
+    }
+
+    private boolean fitsLocally(ModelStatistics stats) {
+        return stats.getNumVars() <= maxLocalVars && stats.getNumIntegers() <= maxLocalIntegers
+                && stats.getNumNonZeros() <= maxLocalNonZeros && stats.getNumQuadraticTerms() <= maxLocalQuadraticTerms;
+    }
+
+    private static int getSizeClass(ModelStatistics stats) {
+        long size = stats.getNumVars() + stats.getNumNonZeros() + stats.getNumQuadraticTerms();
+        return 63 - Long.numberOfLeadingZeros(Math.max(1, size));
+    }
+
+    public RouteMetrics getMetrics(Route route) {
+        return metrics.get(route);
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveRoutingSolver[local=" + metrics.get(Route.LOCAL) + ", remote=" + metrics.get(Route.REMOTE) + "]";
+    }
+
+    /**
+     * The solves that took a route, and their latencies by size class.
+     */
+    public static class RouteMetrics {
+        private long solves = 0;
+        private long failures = 0;
+        private long totalLatency = 0;
+        private final int[] samples = new int[NUM_SIZE_CLASSES];
+        private final double[] meanLatencies = new double[NUM_SIZE_CLASSES];
+
+        private synchronized void record(int sizeClass, long latency, boolean failed) {
+            solves++;
+            if (failed) {
+                // Failures, e.g. infeasible models, say little about the route's speed
+                failures++;
+                return;
+            }
+            totalLatency += latency;
+            samples[sizeClass]++;
+            // A running mean at first, then a moving average that forgets old solves
+            meanLatencies[sizeClass] += (latency - meanLatencies[sizeClass]) / Math.min(samples[sizeClass], LATENCY_WINDOW);
+        }
+
+        /**
+         * @return the mean latency of the solves of the size class, or NaN if there are less than the given number
+         */
+        private synchronized double getMeanLatency(int sizeClass, int minSamples) {
+            return samples[sizeClass] < Math.max(1, minSamples) ? Double.NaN : meanLatencies[sizeClass];
+        }
+
+        public synchronized long getSolves() {
+            return solves;
+        }
+
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the mean latency in millis of the successful solves, or NaN if there are none
+         */
+        public synchronized double getMeanLatency() {
+            long successes = solves - failures;
+            return successes == 0 ? Double.NaN : (double) totalLatency / successes;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "[solves=" + solves + ", failures=" + failures + ", meanLatency=" + getMeanLatency() + "ms]";
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.client;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
+import edu.harvard.econcs.jopt.solver.server.IJobServer;
+import edu.harvard.econcs.jopt.solver.server.JobStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A job submitted to a server, see {@link SolverClient#submit(IMIP)}. Only the id is needed to get
+ * the result, so it can also be fetched by another process or after a restart. Waiting for the result
+ * survives connection failures: the server is contacted again until the wait is over.
+ */
+public class RemoteJob {
+
+    private static final Logger logger = LogManager.getLogger(RemoteJob.class);
+
+    /** The longest a single call waits on the server, so it stays below connection timeouts **/
+    private static final long POLL_MILLIS = 30000;
+    /** The pause before contacting a server again that couldn't be reached **/
+    private static final long RETRY_MILLIS = 1000;
+
+    private final String host;
+    private final int port;
+    private final String id;
+    /** The submitted mip, to resolve infeasible constraints; null for attached jobs **/
+    private final IMIP mip;
+    private IJobServer server;
+
+    RemoteJob(String host, int port, String id, IMIP mip) {
+        this.host = host;
+        this.port = port;
+        this.id = id;
+        this.mip = mip;
+    }
+
+    /**
+     * @return the job with the given id on the server, e.g. to fetch the result of a job submitted earlier
+     */
+    public static RemoteJob attach(String host, int port, String id) {
+        return new RemoteJob(host, port, id, null);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    private synchronized IJobServer getServer() {
+        if (server == null) {
+            server = SolverClient.ClientSolver.getJobServer(host, port);
+        }
+        return server;
+    }
+
+    private synchronized void connectionFailed(RemoteException e) {
+        logger.warn("Lost connection to " + host + ":" + port + " for job " + id + ": " + e.getMessage());
+        server = null;
+    }
+
+    /**
+     * @return the status of the job, or null if the server doesn't know it
+     */
+    public JobStatus getStatus() {
+        try {
+            return getServer().getJobStatus(id);
+        } catch (RemoteException e) {
+            connectionFailed(e);
+            throw new MIPException("Could not get status of job " + id, e);
+        }
+    }
+
+    /**
+     * Waits for the result, at most the given time.
+     * @return the result, or null if the job hasn't finished in time
+     * @throws MIPException if the job failed, was cancelled or is unknown to the server
+     */
+    public IMIPResult getResult(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            IJobServer server;
+            try {
+                server = getServer();
+            } catch (MIPException e) {
+                if (!(e.getCause() instanceof RemoteException || e.getCause() instanceof NotBoundException)) {
+                    throw e;
+                }
+                // The server isn't up (again) yet, e.g. while it restarts
+                pause(remaining, e);
+                continue;
+            }
+            try {
+                IMIPResult result = server.awaitResult(id, Math.max(0, Math.min(remaining, POLL_MILLIS)));
+                if (result != null || remaining <= POLL_MILLIS) {
+                    return result;
+                }
+            } catch (MIPInfeasibleException e) {
+                if (mip != null) {
+                    e.resolve(mip);
+                }
+                throw e;
+            } catch (RemoteException e) {
+                connectionFailed(e);
+                pause(remaining, e);
+            }
+        }
+    }
+
+    /**
+     * Waits before contacting the server again.
+     * @throws MIPException if there is no time left
+     */
+    private void pause(long remaining, Exception cause) {
+        if (remaining <= 0) {
+            throw new MIPException("Could not get result of job " + id, cause);
+        }
+        try {
+            Thread.sleep(Math.min(remaining, RETRY_MILLIS));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new MIPException("Interrupted while waiting for job " + id);
+        }
+    }
+
+    /**
+     * Waits for the result as long as it takes.
+     */
+    public IMIPResult getResult() {
+        IMIPResult result;
+        do {
+            result = getResult(POLL_MILLIS);
+        } while (result == null);
+        return result;
+    }
+
+    /**
+     * @return a future completed with the result, or with the exception the job failed with, by a
+     * background thread waiting for it
+     */
+    public CompletableFuture<IMIPResult> toFuture() {
+        CompletableFuture<IMIPResult> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                IMIPResult result = null;
+                while (result == null && !future.isDone()) {
+                    result = getResult(POLL_MILLIS);
+                }
+                future.complete(result);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }, "RemoteJob-" + id);
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    /**
+     * Removes the job from the queue of the server, or aborts it if it runs already.
+     */
+    public void cancel() {
+        try {
+            getServer().cancelJob(id);
+        } catch (RemoteException e) {
+            connectionFailed(e);
+            throw new MIPException("Could not cancel job " + id, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Job " + id + " on " + host + ":" + port;
+    }
+}
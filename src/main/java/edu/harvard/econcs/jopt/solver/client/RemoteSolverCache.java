@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.client;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Process-wide cache of the remote solver stubs, keyed by host and port, so that
+ * clients don't look up the server and ask it for a solver each time one is created.
+ * A stub that wasn't used for a while is pinged before it is handed out again, and
+ * one that failed is dropped, so the next client looks the server up anew.
+ */
+public class RemoteSolverCache {
+
+    private static final Logger logger = LogManager.getLogger(RemoteSolverCache.class);
+
+    /** Stubs used within this many millis are handed out without pinging the server **/
+    public static final long VALIDATION_INTERVAL = 30000;
+
+    private static final ConcurrentMap<String, Entry> stubs = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        private final IRemoteMIPSolver solver;
+        private volatile long lastUsed;
+
+        private Entry(IRemoteMIPSolver solver, long lastUsed) {
+            this.solver = solver;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private RemoteSolverCache() {
+    }
+
+    /**
+     * @return a stub for the solver of the server at the given host and port
+     * @throws MIPException if the server can't be contacted
+     */
+    public static IRemoteMIPSolver get(String host, int port) {
+        String key = host + ":" + port;
+        long now = System.currentTimeMillis();
+        Entry entry = stubs.get(key);
+        if (entry != null) {
+            if (now - entry.lastUsed < VALIDATION_INTERVAL || isAlive(entry.solver)) {
+                entry.lastUsed = now;
+                return entry.solver;
+            }
+            logger.info("Cached solver for " + key + " is not reachable anymore, looking it up again.");
+            stubs.remove(key, entry);
+        }
+        IRemoteMIPSolver solver;
+        try {
+            solver = SolverClient.ClientSolver.getServer(host, port).getSolver();
+        } catch (RemoteException e) {
+            throw new MIPException("Could not create remote solver", e);
+        }
+        // Concurrent lookups are harmless, the server hands out the same solver to all
+        Entry previous = stubs.putIfAbsent(key, new Entry(solver, now));
+        return previous == null ? solver : previous.solver;
+    }
+
+    /**
+     * Drops the given stub after a call through it failed.
+     */
+    public static void invalidate(String host, int port, IRemoteMIPSolver solver) {
+        Entry entry = stubs.get(host + ":" + port);
+        if (entry != null && entry.solver.equals(solver)) {
+            stubs.remove(host + ":" + port, entry);
+        }
+    }
+
+    public static void clear() {
+        stubs.clear();
+    }
+
+    /**
+     * @return the number of servers with a cached stub
+     */
+    public static int size() {
+        return stubs.size();
+    }
+
+    private static boolean isAlive(IRemoteMIPSolver solver) {
+        try {
+            solver.ping();
+            return true;
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+}
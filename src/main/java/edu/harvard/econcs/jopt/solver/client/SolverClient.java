@@ -35,17 +35,35 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
 
+import edu.harvard.econcs.jopt.solver.AbortHandle;
 import edu.harvard.econcs.jopt.solver.IMIP;
 import edu.harvard.econcs.jopt.solver.IMIPResult;
 import edu.harvard.econcs.jopt.solver.IMIPSolver;
 import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.mip.MIPDelta;
+import edu.harvard.econcs.jopt.solver.mip.MappedMIP;
+import edu.harvard.econcs.jopt.solver.presolve.BigMTightener;
+import edu.harvard.econcs.jopt.solver.presolve.PresolvedMIP;
+import edu.harvard.econcs.jopt.solver.presolve.Presolver;
+import edu.harvard.econcs.jopt.solver.server.ChunkedUpload;
+import edu.harvard.econcs.jopt.solver.server.IJobServer;
 import edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver;
 import edu.harvard.econcs.jopt.solver.server.ISolverServer;
+import edu.harvard.econcs.jopt.solver.server.ModelStore;
+import edu.harvard.econcs.jopt.solver.server.SharedSegment;
 import edu.harvard.econcs.util.TypedProperties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -59,7 +77,8 @@ import org.apache.logging.log4j.Logger;
  * @since Apr 12, 2004
  **/
 public class SolverClient implements IMIPSolver {
-	private static String DEFAULT_SOLVER = "edu.harvard.econcs.jopt.solver.server.cplex.CPlexMIPSolver";
+	/** Picks LPSolve or CPLEX for each model by its problem class and size **/
+	private static String DEFAULT_SOLVER = "edu.harvard.econcs.jopt.solver.server.ProblemClassSolver";
 	
 	private static final Logger logger = LogManager.getLogger(SolverClient.class);
 	protected IMIPSolver solver;
@@ -116,10 +135,83 @@ public class SolverClient implements IMIPSolver {
 	 * Solve the given mip
 	 **/
 	public IMIPResult solve(IMIP mip) throws MIPException {
+		return solve(mip, new AbortHandle(), false);
+	}
+
+	/**
+	 * Solve the given mip, stopping once the handle is aborted
+	 **/
+	public IMIPResult solve(IMIP mip, AbortHandle abort) throws MIPException {
+		return solve(mip, abort, true);
+	}
+
+	/**
+	 * @param abortable whether the caller holds the handle, so it can be aborted without a deadline
+	 */
+	private IMIPResult solve(IMIP mip, AbortHandle abort, boolean abortable) throws MIPException {
 		logger.debug(mip.toString());
-		return solver.solve(mip);
+		// The deadline covers the whole request, starting with the passes below
+		abort.setDeadline(mip);
+		abort.checkDeadline("before the solve was started");
+		// Apply the java-side model passes, each of which is undone again on the result
+		Deque<PresolvedMIP> stages = new ArrayDeque<>();
+		IMIP current = mip;
+		// The passes need all constraints as objects, which would defeat the purpose of mapped or generated ones
+		boolean materialized = !(mip instanceof MappedMIP) && mip.getConstraintGenerators().isEmpty();
+		if (!materialized) {
+			if (mip.getBooleanSolveParam(SolveParam.JAVA_PRESOLVE, false) || mip.getBooleanSolveParam(SolveParam.TIGHTEN_BIG_M, false)) {
+				logger.warn("Java-side presolve is not supported for mapped or generated constraints, skipping it.");
+			}
+		} else if (mip.getBooleanSolveParam(SolveParam.JAVA_PRESOLVE, false)) {
+			stages.push(new Presolver().presolve(current));
+			current = stages.peek().getReducedMIP();
+		}
+		if (materialized && mip.getBooleanSolveParam(SolveParam.TIGHTEN_BIG_M, false)) {
+			stages.push(new BigMTightener(mip).tighten(current));
+			current = stages.peek().getReducedMIP();
+		}
+		try {
+			// Nobody can abort a request without a deadline that didn't come with a handle
+			IMIPResult result = abortable || abort.hasDeadline() ? solver.solve(current, abort) : solver.solve(current);
+			for (PresolvedMIP stage : stages) {
+				result = stage.postsolve(result);
+			}
+			return result;
+		} catch (MIPInfeasibleException e) {
+			for (PresolvedMIP stage : stages) {
+				e = stage.postsolve(e);
+			}
+			throw e;
+		}
 	}
 		
+	/**
+	 * Solves the model the delta leads to. A remote server applies it to the base model it stores,
+	 * a local solver to the base model given with the delta.
+	 **/
+	public IMIPResult solve(MIPDelta delta) throws MIPException {
+		if (solver instanceof ClientSolver) {
+			return ((ClientSolver) solver).solve(delta);
+		}
+		if (delta.getBase() == null) {
+			throw new MIPException("A local solver needs the base model of the delta");
+		}
+		return solve(delta.applyTo(delta.getBase().typedClone()));
+	}
+
+	/**
+	 * Submits the mip to the remote server as a job and returns right away. The result can be fetched
+	 * from the returned job, or later through {@link RemoteJob#attach(String, int, String)} with its id.
+	 * The mip is sent as it is, without the client side presolve of {@link #solve(IMIP)}.
+	 * @throws MIPException if this client doesn't use a remote server that accepts jobs
+	 */
+	public RemoteJob submit(IMIP mip) throws MIPException {
+		if (!(solver instanceof ClientSolver)) {
+			throw new MIPException("Jobs can only be submitted to a remote server");
+		}
+		return ((ClientSolver) solver).submit(mip);
+	}
+
 	/**
 	 * Solve the given serialized mip
 	 **/
@@ -130,6 +222,35 @@ public class SolverClient implements IMIPSolver {
 			return ((ClientSolver)solver).solve(serializedMip);
 		}
 		//Otherwise, we need to deserialize for our solver:
+		return solver.solve(deserialize(serializedMip));
+	}
+
+	/**
+	 * Solve the given serialized mip, stopping once the handle is aborted
+	 **/
+	public IMIPResult solve(byte[] serializedMip, AbortHandle abort) {
+		if (solver instanceof ClientSolver) {
+			return ((ClientSolver)solver).solve(serializedMip, abort);
+		}
+		return solver.solve(deserialize(serializedMip), abort);
+	}
+
+	/**
+	 * Solve the mip serialized into the file, stopping once the handle is aborted. A remote server
+	 * is sent the file in chunks, so it may be larger than 2 GB.
+	 **/
+	public IMIPResult solve(Path serializedMip, AbortHandle abort) {
+		if (solver instanceof ClientSolver) {
+			return ((ClientSolver)solver).solveUploaded(out -> Files.copy(serializedMip, out), abort);
+		}
+		try (ObjectInputStream ois = new ObjectInputStream(Files.newInputStream(serializedMip))) {
+			return solver.solve((IMIP)ois.readObject(), abort);
+		} catch (IOException | ClassNotFoundException e) {
+			throw new MIPException("Serialization error", e);
+		}
+	}
+
+	private static IMIP deserialize(byte[] serializedMip) {
 		ObjectInputStream ois;
 		IMIP mipObj;
 		try {
@@ -142,18 +263,17 @@ public class SolverClient implements IMIPSolver {
 		} catch (IOException | ClassNotFoundException e) {
 			throw new MIPException("Serialization error", e);
 		}
-
-		// For scalability experiment
-		//long time = System.currentTimeMillis();
-		IMIPResult ret = solver.solve(mipObj);
-		//time = System.currentTimeMillis() - time;
-		//putData(time + "");*/
-		
-		return ret;
+		return mipObj;
 	}
 
 	protected static IMIPSolver getSolverForProps(TypedProperties props) {
-		if (props.getBoolean("SOLVE_LOCAL", false)) {
+		if (props.getBoolean("ADAPTIVE_ROUTING", false)) {
+			String host = props.getString("server", "econcs.eecs.harvard.edu");
+			int port = props.getInt("port", 2000);
+			logger.info("Routing between local solver and remote solver " + host + ":" + port + " by model size");
+			return new AdaptiveRoutingSolver(getLocalSolver(props.getString("solver", DEFAULT_SOLVER)),
+					getRemoteSolver(host, port), props);
+		} else if (props.getBoolean("SOLVE_LOCAL", false)) {
 			logger.info("Using local solver");
 			return getLocalSolver(props.getString("solver", props.getString("solver",DEFAULT_SOLVER)));
 		} else {
@@ -175,7 +295,7 @@ public class SolverClient implements IMIPSolver {
 			throw new MIPException("Could not create local MIPSolver");
 		} catch (NoClassDefFoundError e) {
 			if (e.getMessage().contains("ilog/")) {
-				logger.error("No default solver specified, and attempt to use default solver (CPLEX) failed:\n" +
+				logger.error("Attempt to use CPLEX failed:\n" +
 						"\tThe cplex.jar file was not found. Continuing with LP Solve, which is condiderably less performant.\n" +
 						"\tIf you want to use CPLEX, make sure you include cplex.jar as a dependency.");
 				return getLocalSolver("edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver");
@@ -197,18 +317,28 @@ public class SolverClient implements IMIPSolver {
 	}
 
 	protected static class ClientSolver implements IMIPSolver {
-		private IRemoteMIPSolver solver;
 		private String host;
+		/** Whether the server runs on this host, so the MIP can be passed through shared memory **/
+		private Boolean sameHost = null;
 		private int port;
 
 		protected ClientSolver(String host, int port) {
 			this.host = host;
 			this.port = port;
-			try {
-				this.solver = getServer(host, port).getSolver();
-			} catch (RemoteException e) {
-				throw new MIPException("Could not create remote solver", e);
-			}
+			// Fail early if the server can't be reached
+			RemoteSolverCache.get(host, port);
+		}
+
+		/**
+		 * @return the cached stub, which may change once a call through it failed
+		 */
+		private IRemoteMIPSolver getSolver() {
+			return RemoteSolverCache.get(host, port);
+		}
+
+		private MIPException remoteFailure(IRemoteMIPSolver solver, RemoteException e) {
+			RemoteSolverCache.invalidate(host, port, solver);
+			return new MIPException("Exception while contacting remote solver", e);
 		}
 		
 		public String getHost() {
@@ -223,28 +353,158 @@ public class SolverClient implements IMIPSolver {
 			return getHost() + ":"+getPort();
 		}
 		
+		/**
+		 * A request with a handle is sent as a cancellable request, with the time it has left if it has
+		 * a deadline, which rules out the shared memory transport and the model cache, as those calls
+		 * can't be cancelled. A mapped mip is uploaded in chunks instead, as it may not fit into a byte array.
+		 */
+		public IMIPResult solve(IMIP mip, AbortHandle abort) throws MIPException {
+			try {
+				if (mip instanceof MappedMIP) {
+					return solveUploaded(out -> {
+						ObjectOutputStream oos = new ObjectOutputStream(out);
+						oos.writeObject(mip);
+						oos.flush();
+					}, abort);
+				}
+				return solve(serialize(mip), abort);
+			} catch (MIPInfeasibleException e) {
+				// Only the ids of the infeasible constraints come back from the server
+				e.resolve(mip);
+				throw e;
+			}
+		}
+
 		public IMIPResult solve(IMIP mip) throws MIPException {
+			if (mip.getBooleanSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, false) && isSameHost()) {
+				IMIPResult ret = solveShared(mip);
+				if (ret != null) {
+					return ret;
+				}
+				// The server can't read our files, e.g. because it runs in a container or under another user
+				logger.info("Shared memory not usable with " + getName() + ", sending the MIP instead.");
+				sameHost = false;
+			}
+			if (mip instanceof MappedMIP) {
+				return solve(mip, new AbortHandle());
+			}
+			byte[] serializedMip = serialize(mip);
+			IMIPResult ret=null;
+			long time = System.currentTimeMillis();
+			try {
+				if (mip.getBooleanSolveParam(SolveParam.MODEL_CACHE, false)) {
+					ret = solve(ModelStore.hash(serializedMip), serializedMip);
+				} else {
+					ret = solve(serializedMip);
+				}
+			} catch (MIPInfeasibleException e) {
+				// Only the ids of the infeasible constraints come back from the server
+				e.resolve(mip);
+				throw e;
+			}
+			time = System.currentTimeMillis() - time;
+			logger.debug(ret.toString());
+			logger.trace("Remote server solved MIP in " + time + " millis.");
+			
+			return ret;
+		}
+		
+		private static byte[] serialize(IMIP mip) {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			ObjectOutputStream oos;
 			try {
 				long time = System.currentTimeMillis();
-				oos = new ObjectOutputStream(baos);
+				ObjectOutputStream oos = new ObjectOutputStream(baos);
 				oos.writeObject(mip);
 				time = System.currentTimeMillis() - time;
 				logger.trace("Serialized MIP in " + time + " millis.");
 			} catch (IOException e) {
 				throw new MIPException("Serialization error", e);
 			}
-			IMIPResult ret=null;
+			return baos.toByteArray();
+		}
+
+		/**
+		 * Submits the mip as a job to the server.
+		 */
+		public RemoteJob submit(IMIP mip) {
+			byte[] serializedMip = serialize(mip);
+			IJobServer server = getJobServer(host, port);
+			try {
+				String id = server.submit(serializedMip);
+				logger.debug("Submitted job " + id + " to " + getName());
+				return new RemoteJob(host, port, id, mip);
+			} catch (RemoteException e) {
+				throw new MIPException("Exception while submitting job", e);
+			}
+		}
+
+		/**
+		 * @throws MIPException if the server doesn't accept jobs, e.g. because it is a load balancer
+		 */
+		protected static IJobServer getJobServer(String host, int port) {
+			ISolverServer server = getServer(host, port);
+			if (!(server instanceof IJobServer)) {
+				throw new MIPException("Server at " + host + ":" + port + " doesn't accept jobs");
+			}
+			return (IJobServer) server;
+		}
+
+		private boolean isSameHost() {
+			if (sameHost == null) {
+				sameHost = SharedSegment.isLocalHost(host);
+			}
+			return sameHost;
+		}
+
+		/**
+		 * Passes the MIP and the result through shared segments, so only their handles go through RMI.
+		 * @return null if the segments can't be used, e.g. because the server can't read them or doesn't
+		 * know the call, in which case the MIP has to be sent instead
+		 */
+		protected IMIPResult solveShared(IMIP mip) {
 			long time = System.currentTimeMillis();
-			ret = solve(baos.toByteArray());
-			time = System.currentTimeMillis() - time;
-			logger.debug(ret.toString());
-			logger.trace("Remote server solved MIP in " + time + " millis.");
-			
-			return ret;
+			SharedSegment segment;
+			try {
+				segment = SharedSegment.write(mip);
+			} catch (MIPException e) {
+				logger.debug("Could not write MIP to a shared segment", e);
+				return null;
+			}
+			logger.trace("Wrote MIP to " + segment + " in " + (System.currentTimeMillis() - time) + " millis.");
+			SharedSegment resultSegment = null;
+			IRemoteMIPSolver solver = getSolver();
+			try {
+				try {
+					resultSegment = solver.solve(segment);
+				} catch (RemoteException e) {
+					// E.g. a server that predates the call
+					logger.debug("Shared segment call failed on " + getName(), e);
+					return null;
+				}
+				if (resultSegment == null) {
+					return null;
+				}
+				IMIPResult ret;
+				try {
+					ret = (IMIPResult) resultSegment.read();
+				} catch (MIPException e) {
+					logger.debug("Could not read result from " + resultSegment, e);
+					return null;
+				}
+				logger.trace("Remote server solved shared MIP in " + (System.currentTimeMillis() - time) + " millis.");
+				return ret;
+			} catch (MIPInfeasibleException e) {
+				// Only the ids of the infeasible constraints come back from the server
+				e.resolve(mip);
+				throw e;
+			} finally {
+				segment.delete();
+				if (resultSegment != null) {
+					resultSegment.delete();
+				}
+			}
 		}
-		
+
 		protected static ISolverServer getServer(String host, int port) {
 			logger.info("Contacting Server for remote solver: " + host + ":" + port);
 
@@ -257,21 +517,141 @@ public class SolverClient implements IMIPSolver {
 				throw new MIPException("Could not contact server" + e.getMessage());
 			} catch (RemoteException e) {
 				logger.error("Can't contact server", e);
-				throw new MIPException("Could not contact server: " + e.getMessage());
+				throw new MIPException("Could not contact server: " + e.getMessage(), e);
 			} catch (NotBoundException e) {
 				logger.error("Can't contact server", e);
-				throw new MIPException("Could not contact server" + e.getMessage());
+				throw new MIPException("Could not contact server" + e.getMessage(), e);
 			}
 		}
 		
 		protected IMIPResult solve(byte[] serializedMip) {
+			IRemoteMIPSolver solver = getSolver();
 			try {
 				return solver.solve(serializedMip);
 			} catch (RemoteException e) {
-				throw new MIPException("Exception while contacting remote solver", e);
+				throw remoteFailure(solver, e);
+			}
+		}
+
+		/**
+		 * Solves the mip under a fresh request id, which the server is told to cancel once
+		 * the handle is aborted.
+		 */
+		protected IMIPResult solve(byte[] serializedMip, AbortHandle abort) {
+			if (abort.isAborted()) {
+				throw new MIPException("Solve aborted");
+			}
+			String requestId = UUID.randomUUID().toString();
+			IRemoteMIPSolver solver = getSolver();
+			Runnable cancel = () -> {
+				try {
+					solver.cancel(requestId);
+				} catch (RemoteException e) {
+					logger.warn("Could not cancel request " + requestId + " on " + getName() + ": " + e.getMessage());
+				}
+			};
+			abort.register(cancel);
+			try {
+				if (abort.hasDeadline()) {
+					// Sent as the time left, so the server's clock needn't agree with ours
+					abort.checkDeadline("before the request was sent to " + getName());
+					return solver.solveCancellable(requestId, serializedMip, abort.getRemainingMillis());
+				}
+				return solver.solveCancellable(requestId, serializedMip);
+			} catch (RemoteException e) {
+				throw remoteFailure(solver, e);
+			} finally {
+				abort.unregister(cancel);
+			}
+		}
+
+		/**
+		 * Like {@link #solve(byte[], AbortHandle)}, but uploads the mip in chunks as the payload writes it,
+		 * so that it is never held in a single byte array.
+		 */
+		protected IMIPResult solveUploaded(Payload payload, AbortHandle abort) {
+			if (abort.isAborted()) {
+				throw new MIPException("Solve aborted");
+			}
+			String requestId = UUID.randomUUID().toString();
+			IRemoteMIPSolver solver = getSolver();
+			Runnable cancel = () -> {
+				try {
+					solver.cancel(requestId);
+				} catch (RemoteException e) {
+					logger.warn("Could not cancel request " + requestId + " on " + getName() + ": " + e.getMessage());
+				}
+			};
+			abort.register(cancel);
+			try {
+				long time = System.currentTimeMillis();
+				String uploadId;
+				try (ChunkedUpload upload = new ChunkedUpload(solver)) {
+					payload.writeTo(upload);
+					uploadId = upload.getUploadId();
+				}
+				logger.trace("Uploaded MIP in " + (System.currentTimeMillis() - time) + " millis.");
+				// A cancel during the upload makes the server refuse the request
+				abort.checkDeadline("before the request was sent to " + getName());
+				return solver.solveUploaded(requestId, uploadId, abort.getRemainingMillis());
+			} catch (RemoteException e) {
+				throw remoteFailure(solver, e);
+			} catch (IOException e) {
+				throw new MIPException("Serialization error", e);
+			} finally {
+				abort.unregister(cancel);
 			}
 		}
+
+		/**
+		 * Sends the hash first, and the mip only if the server doesn't store it yet.
+		 */
+		protected IMIPResult solve(String modelHash, byte[] serializedMip) {
+			IRemoteMIPSolver solver = getSolver();
+			try {
+				IMIPResult ret = solver.solve(modelHash, null);
+				if (ret == null) {
+					logger.trace("Model " + modelHash + " not stored on " + getName() + ", uploading it.");
+					ret = solver.solve(modelHash, serializedMip);
+				}
+				return ret;
+			} catch (RemoteException e) {
+				throw remoteFailure(solver, e);
+			}
+		}
+
+		public IMIPResult solve(MIPDelta delta) {
+			IMIPResult ret;
+			IRemoteMIPSolver solver = getSolver();
+			try {
+				ret = solver.solve(delta);
+				if (ret == null) {
+					if (delta.getBase() == null) {
+						throw new MIPException("Base model " + delta.getBaseHash() + " not stored on " + getName()
+								+ " and not given with the delta");
+					}
+					logger.trace("Base model " + delta.getBaseHash() + " not stored on " + getName() + ", uploading the new one.");
+					IMIP mip = delta.applyTo(delta.getBase().typedClone());
+					// Under the hash of its own bytes, as the server checks uploads against their hash
+					byte[] serializedMip = ModelStore.serialize(mip);
+					ret = solver.solve(ModelStore.hash(serializedMip), serializedMip);
+				}
+			} catch (MIPInfeasibleException e) {
+				if (delta.getBase() != null) {
+					e.resolve(delta.applyTo(delta.getBase().typedClone()));
+				}
+				throw e;
+			} catch (RemoteException e) {
+				throw remoteFailure(solver, e);
+			}
+			return ret;
+		}
 	}
-	
 
+	/**
+	 * Writes a serialized mip to an upload.
+	 */
+	protected interface Payload {
+		void writeTo(OutputStream out) throws IOException;
+	}
 }
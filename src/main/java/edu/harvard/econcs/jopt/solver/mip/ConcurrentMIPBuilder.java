@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.mip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+
+/**
+ * Builds a MIP from several threads at once. Every thread appends its variables, constraints and objective terms
+ * to a segment of its own, so the threads never wait for each other. {@link #build()} merges the segments into a
+ * single, frozen MIP.
+ * <p>
+ * Variables may be used in constraints of any thread, but each variable must be added exactly once. The order of
+ * the segments in the merged MIP (and thus the constraint ids) depends on the order in which the threads first
+ * touched the builder. All worker threads must have finished before build() is called, e.g. by joining them or
+ * by waiting on their futures.
+ */
+public class ConcurrentMIPBuilder {
+
+    private final Queue<Segment> segments = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Segment> localSegment = ThreadLocal.withInitial(() -> {
+        Segment segment = new Segment();
+        segments.add(segment);
+        return segment;
+    });
+    private final Map<SolveParam, Object> solveParams = new ConcurrentHashMap<>();
+    private volatile boolean isMax = false;
+    private volatile boolean built = false;
+
+    public ConcurrentMIPBuilder add(Variable var) {
+        segment().vars.add(var);
+        return this;
+    }
+
+    public ConcurrentMIPBuilder add(Constraint constraint) {
+        segment().constraints.add(constraint);
+        return this;
+    }
+
+    public ConcurrentMIPBuilder addObjectiveTerm(double coefficient, Variable var) {
+        segment().linearObjectiveTerms.add(new LinearTerm(coefficient, var));
+        return this;
+    }
+
+    public ConcurrentMIPBuilder addObjectiveTerm(double coefficient, Variable varA, Variable varB) {
+        segment().quadraticObjectiveTerms.add(new QuadraticTerm(coefficient, varA, varB));
+        return this;
+    }
+
+    public ConcurrentMIPBuilder setObjectiveMax(boolean isMax) {
+        this.isMax = isMax;
+        return this;
+    }
+
+    public ConcurrentMIPBuilder setSolveParam(SolveParam param, Object value) {
+        solveParams.put(param, value);
+        return this;
+    }
+
+    /**
+     * Merges the segments of all threads. The builder can't be used anymore afterwards.
+     *
+     * @return the frozen MIP; solve parameters can still be changed on it, the model itself can't
+     */
+    public IMIP build() {
+        if (built) {
+            throw new MIPException("The MIP was already built");
+        }
+        built = true;
+        MIP mip = new MIP();
+        mip.setObjectiveMax(isMax);
+        for (Map.Entry<SolveParam, Object> entry : solveParams.entrySet()) {
+            mip.setSolveParam(entry.getKey(), entry.getValue());
+        }
+        for (Segment segment : segments) {
+            for (Variable var : segment.vars) {
+                mip.add(var);
+            }
+        }
+        for (Segment segment : segments) {
+            for (Constraint constraint : segment.constraints) {
+                // Canonicalize now, so that reading the frozen MIP never writes to it
+                constraint.linearSize();
+                mip.add(constraint);
+            }
+            for (LinearTerm term : segment.linearObjectiveTerms) {
+                mip.addObjectiveTerm(term);
+            }
+            for (QuadraticTerm term : segment.quadraticObjectiveTerms) {
+                mip.addObjectiveTerm(term);
+            }
+        }
+        segments.clear();
+        mip.freeze();
+        return mip;
+    }
+
+    private Segment segment() {
+        if (built) {
+            throw new MIPException("The MIP was already built");
+        }
+        return localSegment.get();
+    }
+
+    /**
+     * The part of the model added by one thread. Only ever touched by that thread until build().
+     */
+    private static class Segment {
+        private final List<Variable> vars = new ArrayList<>();
+        private final List<Constraint> constraints = new ArrayList<>();
+        private final List<LinearTerm> linearObjectiveTerms = new ArrayList<>();
+        private final List<QuadraticTerm> quadraticObjectiveTerms = new ArrayList<>();
+    }
+}
@@ -31,30 +31,50 @@
 package edu.harvard.econcs.jopt.solver.mip;
 
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import edu.harvard.econcs.jopt.solver.MIPException;
 
 /**
  * General Representation of a MIP constraint.
+ * <p>
+ * The linear terms are kept in canonical form: sorted by variable name in primitive
+ * arrays, with the terms of the same variable merged into one, and dropped if they
+ * cancel out. Appending terms in
+ * order keeps the form (and the hash) up to date incrementally; otherwise the terms
+ * are sorted and merged once, the next time they are read.
  * 
  * @author Benjamin Lubin; Last modified by $Author: blubin $
  * @version $Revision: 1.14 $ on $Date: 2013/12/04 02:54:09 $
  */
 public class Constraint implements Serializable, Cloneable {
-	private static final long serialVersionUID = 456346456l;
+	private static final long serialVersionUID = 456346457l;
 
-	private Collection<LinearTerm> linearTerms = null;
+	private String[] varNames = new String[4];
+	private double[] coefficients = new double[4];
+	private int linearSize = 0;
+	private boolean normalized = true;
+	/** Sum of the hashes of the (merged) linear terms, only valid if normalized **/
+	private int linearHash = 0;
 	private Collection<QuadraticTerm> quadraticTerms = null;
 	
 	private double constant;
 	private CompareType type;
 
 	private String description = null;
+	private String group = null;
+	private String indicatorVarName = null;
+	private boolean indicatorValue = true;
+	private int id = -1;
+	/** The MIP this constraint was added to, which keeps an index of the variables used **/
+	private transient MIP owner = null;
 	private Integer hashCode=null;
 	
 	/**
@@ -65,7 +85,6 @@ public class Constraint implements Serializable, Cloneable {
 		MIP.checkMax(constant);
 		this.constant = constant;
 		this.type = type;
-		this.linearTerms = new ArrayList();
 	}
 	
 	public Constraint(CompareType type, double constant, String description) {
@@ -84,11 +103,54 @@ public class Constraint implements Serializable, Cloneable {
 	 * @param constant The constant to set.
 	 */
 	public void setConstant(double constant) {
+		checkMutable();
 		this.constant = constant;
 		hashCode=null;
 	}
 
 
+	/**
+	 * @return the id assigned by the MIP this constraint was added to, or -1 if it wasn't added yet.
+	 * Results and infeasibility reports refer to constraints by this id.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	void setId(int id) {
+		this.id = id;
+	}
+
+	private void checkMutable() {
+		if (owner != null) {
+			owner.checkMutable();
+		}
+	}
+
+	MIP getOwner() {
+		return owner;
+	}
+
+	void setOwner(MIP owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * @return the names of all variables used by this constraint, including the indicator variable
+	 */
+	public Set<String> getVarNames() {
+		normalize();
+		Set<String> ret = new LinkedHashSet<String>(Arrays.asList(varNames).subList(0, linearSize));
+		for (QuadraticTerm term : getQuadraticTerms()) {
+			ret.add(term.getVarNameA());
+			ret.add(term.getVarNameB());
+		}
+		if (indicatorVarName != null) {
+			ret.add(indicatorVarName);
+		}
+		return ret;
+	}
+
 	public String getDescription() {
 		return description;
 	}
@@ -97,6 +159,22 @@ public class Constraint implements Serializable, Cloneable {
 		this.description = desc;
 	}
 
+	/**
+	 * @return the conflict group of this constraint, or null if it has none.
+	 */
+	public String getGroup() {
+		return group;
+	}
+
+	/**
+	 * Tags this constraint as belonging to a group. When the MIP is infeasible, all constraints
+	 * in the same group are refined as a single member of the conflict, which is much cheaper
+	 * than refining each constraint individually.
+	 */
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
 	/**
 	 * @return Returns the type.
 	 */
@@ -105,52 +183,228 @@ public class Constraint implements Serializable, Cloneable {
 	}
 	
 	public void setType(CompareType type) {
+		checkMutable();
 		this.type = type;
 		hashCode=null;
 	}
 		
+	// Indicator:
+
+	/**
+	 * Makes this an indicator constraint: it only has to hold if the given boolean
+	 * variable takes the given value. The variable must not appear in the terms.
+	 * Backends without native support linearize it with a big-M derived from the
+	 * variable bounds.
+	 */
+	public void setIndicator(Variable var, boolean value) {
+		checkMutable();
+		if (var.getType() != VarType.BOOLEAN) {
+			throw new MIPException("Indicator variable must be boolean: " + var);
+		}
+		this.indicatorVarName = var.getName();
+		this.indicatorValue = value;
+		hashCode=null;
+		if (owner != null) {
+			owner.termAdded(this, indicatorVarName);
+		}
+	}
+
+	public void clearIndicator() {
+		checkMutable();
+		this.indicatorVarName = null;
+		hashCode=null;
+	}
+
+	public boolean isIndicator() {
+		return indicatorVarName != null;
+	}
+
+	/**
+	 * @return the name of the indicator variable, or null if this is a regular constraint.
+	 */
+	public String getIndicatorVarName() {
+		return indicatorVarName;
+	}
+
+	/**
+	 * @return the value the indicator variable must take for this constraint to be active.
+	 */
+	public boolean getIndicatorValue() {
+		return indicatorValue;
+	}
+
 	// Linear Terms:
 	
 	public boolean hasLinearTerms() {
-		return linearTerms != null;
+		return varNames != null;
 	}
 
 	public void addTerm(LinearTerm term) {
-		if(linearTerms == null) {
-			linearTerms = new ArrayList<LinearTerm>();
-		}
-		linearTerms.add(term);
-		hashCode=null;
+		addTerm(term.getCoefficient(), term.getVarName());
 	}
 	
 	public void addTerm(double coefficient, Variable var) {
-	    addTerm(new LinearTerm(coefficient, var));
+		MIP.checkMax(coefficient);
+		addTerm(coefficient, var.getName());
+	}
+
+	private void addTerm(double coefficient, String varName) {
+		checkMutable();
+		hashCode=null;
+		if (owner != null) {
+			owner.termAdded(this, varName);
+		}
+		if (normalized && linearSize > 0) {
+			int cmp = varName.compareTo(varNames[linearSize - 1]);
+			if (cmp == 0) {
+				// Same variable as the last term: merge
+				linearHash -= termHash(varName, coefficients[linearSize - 1]);
+				coefficients[linearSize - 1] += coefficient;
+				if (coefficients[linearSize - 1] == 0) {
+					varNames[--linearSize] = null;
+				} else {
+					linearHash += termHash(varName, coefficients[linearSize - 1]);
+				}
+				return;
+			} else if (cmp < 0) {
+				normalized = false;
+			}
+		}
+		if (linearSize == varNames.length) {
+			int capacity = Math.max(4, linearSize * 2);
+			varNames = Arrays.copyOf(varNames, capacity);
+			coefficients = Arrays.copyOf(coefficients, capacity);
+		}
+		varNames[linearSize] = varName;
+		coefficients[linearSize] = coefficient;
+		linearSize++;
+		if (normalized) {
+			linearHash += termHash(varName, coefficient);
+		}
+	}
+
+	private static int termHash(String varName, double coefficient) {
+		long temp = Double.doubleToLongBits(coefficient);
+		return 31 * varName.hashCode() + (int) (temp ^ (temp >>> 32));
+	}
+
+	/**
+	 * Sorts the linear terms by variable name and merges the terms of the same variable.
+	 */
+	private void normalize() {
+		if (normalized) {
+			return;
+		}
+		Integer[] order = new Integer[linearSize];
+		for (int i = 0; i < linearSize; i++) {
+			order[i] = i;
+		}
+		final String[] names = varNames;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return names[o1].compareTo(names[o2]);
+			}});
+		String[] sortedNames = new String[Math.max(4, linearSize)];
+		double[] sortedCoefficients = new double[sortedNames.length];
+		int size = 0;
+		boolean merged = false;
+		for (int i : order) {
+			if (size > 0 && sortedNames[size - 1].equals(varNames[i])) {
+				sortedCoefficients[size - 1] += coefficients[i];
+				merged = true;
+			} else {
+				if (merged && sortedCoefficients[size - 1] == 0) {
+					size--;
+				}
+				sortedNames[size] = varNames[i];
+				sortedCoefficients[size++] = coefficients[i];
+				merged = false;
+			}
+		}
+		if (merged && sortedCoefficients[size - 1] == 0) {
+			size--;
+		}
+		Arrays.fill(sortedNames, size, sortedNames.length, null);
+		linearHash = 0;
+		for (int i = 0; i < size; i++) {
+			linearHash += termHash(sortedNames[i], sortedCoefficients[i]);
+		}
+		varNames = sortedNames;
+		coefficients = sortedCoefficients;
+		linearSize = size;
+		normalized = true;
 	}
 	
-	public int linearSize() {
-		if (linearTerms == null) {
-			return 0;
+	/**
+	 * Removes all linear and quadratic terms of the given variable.
+	 */
+	void removeTerms(String varName) {
+		checkMutable();
+		normalize();
+		int i = Arrays.binarySearch(varNames, 0, linearSize, varName);
+		if (i >= 0) {
+			linearHash -= termHash(varName, coefficients[i]);
+			System.arraycopy(varNames, i + 1, varNames, i, linearSize - i - 1);
+			System.arraycopy(coefficients, i + 1, coefficients, i, linearSize - i - 1);
+			varNames[--linearSize] = null;
 		}
-		return linearTerms.size();
+		if (quadraticTerms != null) {
+			quadraticTerms.removeIf(t -> t.getVarNameA().equals(varName) || t.getVarNameB().equals(varName));
+		}
+		hashCode=null;
+	}
+
+	/**
+	 * @return the number of linear terms, after merging the terms of the same variable.
+	 */
+	public int linearSize() {
+		normalize();
+		return linearSize;
+	}
+
+	/**
+	 * @return the variable name of the i-th linear term, in order of variable names.
+	 */
+	public String getLinearVarName(int i) {
+		normalize();
+		return varNames[i];
 	}
 
+	/**
+	 * @return the coefficient of the i-th linear term, in order of variable names.
+	 */
+	public double getLinearCoefficient(int i) {
+		normalize();
+		return coefficients[i];
+	}
+
+	/**
+	 * @return the coefficient of the given variable, 0 if it doesn't appear in the linear terms.
+	 */
+	public double getLinearCoefficient(String varName) {
+		normalize();
+		int i = Arrays.binarySearch(varNames, 0, linearSize, varName);
+		return i < 0 ? 0 : coefficients[i];
+	}
+
+	/**
+	 * @return a read-only view of the linear terms, sorted by variable name, one term per variable.
+	 */
 	public Collection<LinearTerm> getLinearTerms() {
-		if(linearTerms == null) {
-			return Collections.EMPTY_LIST;
-		}
-		return linearTerms;
+		normalize();
+		return new AbstractList<LinearTerm>() {
+			public LinearTerm get(int index) {
+				return new LinearTerm(getLinearCoefficient(index), getLinearVarName(index));
+			}
+
+			public int size() {
+				return linearSize();
+			}
+		};
 	}
 	
 	public Collection<LinearTerm> getSortedLinearTerms() {
-		if(linearTerms == null) {
-			return Collections.EMPTY_LIST;
-		}
-		LinearTerm[] sorted = linearTerms.toArray(new LinearTerm[linearTerms.size()]);
-		Arrays.sort(sorted, new Comparator<LinearTerm>(){
-			public int compare(LinearTerm o1, LinearTerm o2) {
-				return o1.getVarName().compareTo(o2.getVarName());
-			}});
-		return Arrays.asList(sorted);
+		return getLinearTerms();
 	}	
 
 	// Quadratic Terms:
@@ -161,11 +415,16 @@ public class Constraint implements Serializable, Cloneable {
 	
 
 	public void addTerm(QuadraticTerm term) {
+		checkMutable();
 		if(quadraticTerms == null) {
 			quadraticTerms = new ArrayList<QuadraticTerm>();
 		}
 		quadraticTerms.add(term);
 		hashCode=null;
+		if (owner != null) {
+			owner.termAdded(this, term.getVarNameA());
+			owner.termAdded(this, term.getVarNameB());
+		}
 	}
 	
 	public void addTerm(double coefficient, Variable varA, Variable varB) {
@@ -207,8 +466,8 @@ public class Constraint implements Serializable, Cloneable {
 	public Collection<Term> getTerms() {
 		//Could be done more efficiently:
 		ArrayList ret = new ArrayList<Term>();
-		ret.addAll(linearTerms);
-		ret.addAll(quadraticTerms);
+		ret.addAll(getLinearTerms());
+		ret.addAll(getQuadraticTerms());
 		return ret;
 	}
 	
@@ -223,16 +482,19 @@ public class Constraint implements Serializable, Cloneable {
 	    if(hashCode!=null){
 	        return hashCode;
 	    }
+		normalize();
 		final int prime = 31;
 		int result = 1;
 		long temp;
 		temp = Double.doubleToLongBits(constant);
 		result = prime * result + (int) (temp ^ (temp >>> 32));
-		result = prime * result
-				+ ((linearTerms == null) ? 0 : linearTerms.hashCode());
+		result = prime * result + linearHash;
 		result = prime * result
 				+ ((quadraticTerms == null) ? 0 : quadraticTerms.hashCode());
 		result = prime * result + ((type == null) ? 0 : type.hashCode());
+		if (indicatorVarName != null) {
+			result = prime * result + indicatorVarName.hashCode() + (indicatorValue ? 1 : 0);
+		}
 		this.hashCode=result;
 		return result;
 	}
@@ -251,11 +513,14 @@ public class Constraint implements Serializable, Cloneable {
 		Constraint other = (Constraint) obj;
 		if (constant!= other.constant)
 			return false;
-		if (linearTerms == null) {
-			if (other.linearTerms != null)
-				return false;
-		} else if (!linearTerms.equals(other.linearTerms))
+		// Both are normalized by now, since hashCode() normalizes
+		if (linearSize != other.linearSize)
 			return false;
+		for (int i = 0; i < linearSize; i++) {
+			if (Double.doubleToLongBits(coefficients[i]) != Double.doubleToLongBits(other.coefficients[i])
+					|| !varNames[i].equals(other.varNames[i]))
+				return false;
+		}
 		if (quadraticTerms == null) {
 			if (other.quadraticTerms != null)
 				return false;
@@ -266,17 +531,19 @@ public class Constraint implements Serializable, Cloneable {
 				return false;
 		} else if (!type.equals(other.type))
 			return false;
+		if (indicatorVarName == null) {
+			if (other.indicatorVarName != null)
+				return false;
+		} else if (!indicatorVarName.equals(other.indicatorVarName) || indicatorValue != other.indicatorValue)
+			return false;
 		return true;
 	}
 	
 	protected Object clone() throws CloneNotSupportedException {
 		Constraint ret = (Constraint)super.clone();
-		if(linearTerms != null) {		
-			ret.linearTerms = new ArrayList();
-			for (LinearTerm term : getLinearTerms()) {
-				ret.linearTerms.add(term.typedClone());
-			}
-		}
+		ret.owner = null;
+		ret.varNames = varNames.clone();
+		ret.coefficients = coefficients.clone();
 		if(quadraticTerms != null) {		
 			ret.quadraticTerms = new ArrayList();
 			for (QuadraticTerm term : getQuadraticTerms()) {
@@ -303,6 +570,9 @@ public class Constraint implements Serializable, Cloneable {
 		if(description != null) {
 			sb.append(description).append(" ");
 		}
+		if(indicatorVarName != null) {
+			sb.append(indicatorVarName).append(" = ").append(indicatorValue ? 1 : 0).append(" -> ");
+		}
 		boolean first = true;
 		for (LinearTerm t : getSortedLinearTerms()) {
 			if (t.getCoefficient() >= 0) {
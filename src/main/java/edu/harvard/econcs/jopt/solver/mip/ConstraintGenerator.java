@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.mip;
+
+import java.io.Serializable;
+import java.util.Spliterator;
+
+/**
+ * A source of constraints that are generated while the MIP is loaded into the solver, rather than stored in the
+ * MIP, e.g. all pairwise conflicts between bids. Only a chunk of them is held in memory at a time.
+ * <p>
+ * Generated constraints get no id and aren't part of {@link edu.harvard.econcs.jopt.solver.IMIP#getConstraints()},
+ * so they have no duals or slacks in the result, and are never relaxed or reported as part of a conflict.
+ * Generators are sent along with the MIP to a remote solver, so a lambda must only capture serializable state.
+ */
+@FunctionalInterface
+public interface ConstraintGenerator extends Serializable {
+
+    /**
+     * Called every time the MIP is loaded. If the spliterator supports splitting, its parts may be
+     * traversed in parallel (see {@link edu.harvard.econcs.jopt.solver.SolveParam#GENERATOR_THREADS}).
+     *
+     * @return a new spliterator over the constraints
+     */
+    Spliterator<Constraint> spliterator();
+}
@@ -50,7 +50,7 @@ public class LinearTerm implements Serializable, Cloneable, Term {
 	 * @param coefficient
 	 * @param varIndex
 	 */
-	private LinearTerm(double coefficient, String varName) {
+	LinearTerm(double coefficient, String varName) {
 		MIP.checkMax(coefficient);
 		this.coefficient = coefficient;
 		this.varName = varName;
@@ -33,7 +33,10 @@ package edu.harvard.econcs.jopt.solver.mip;
 import edu.harvard.econcs.jopt.solver.IMIP;
 import edu.harvard.econcs.jopt.solver.MIPException;
 import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.SolveParamProfile;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -59,11 +62,22 @@ public class MIP implements IMIP, Serializable, Cloneable {
 
     private Map<String, Variable> vars = new HashMap();
     private Map<Variable, Object> proposedValuesForVars = null;
-    private List<Constraint> constraints = Collections.synchronizedList(new LinkedList<>());
+    /** The constraints indexed by their id, null for removed ones until {@link #compactConstraintIds()} **/
+    private ArrayList<Constraint> constraintsById = new ArrayList<>();
+    private int numConstraints = 0;
+    /** Read-only list of the current constraints in id order, rebuilt on demand after changes in O(ids) **/
+    private transient List<Constraint> constraintView = null;
+    /** Variable names to the ids of the constraints using them, built on first use **/
+    private transient Map<String, Set<Integer>> incidence = null;
+    /** Set by {@link ConcurrentMIPBuilder#build()}; a frozen model can be read from several threads **/
+    private transient volatile boolean frozen = false;
+    private List<ConstraintGenerator> constraintGenerators = null;
     private Collection<LinearTerm> linearObjectiveTerms = null;
     private Collection<QuadraticTerm> quadraticObjectiveTerms = null;
     private boolean isMax;
     private Map<SolveParam, Object> solveParams = new HashMap<>();
+    /** Shared between MIPs, params set on the MIP take precedence **/
+    private SolveParamProfile profile;
     private Collection<Collection<Variable>> variablesOfInterest = null;
 
     public MIP() {
@@ -90,6 +104,7 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public String add(Variable var) {
+        checkMutable();
         String name = var.getName();
         if (name == null) {
             throw new MIPException("Invalid variable name");
@@ -109,7 +124,12 @@ public class MIP implements IMIP, Serializable, Cloneable {
         return vars.size();
     }
 
-    public void remove(Variable var) {
+    /**
+     * Removes the variable along with its terms in the constraints and the objective, as if it was fixed to 0.
+     * Indicator constraints on the variable are removed entirely.
+     */
+    public synchronized void remove(Variable var) {
+        checkMutable();
         String name = var.getName();
         if (name == null) {
             throw new MIPException("Invalid variable name");
@@ -117,6 +137,26 @@ public class MIP implements IMIP, Serializable, Cloneable {
         if (vars.remove(name) == null) {
             throw new MIPException("Tried to remove constraint that does not exist");
         }
+        Set<Integer> ids = getIncidence().remove(name);
+        if (ids != null) {
+            for (int id : ids.toArray(new Integer[ids.size()])) {
+                Constraint constraint = constraintsById.get(id);
+                if (name.equals(constraint.getIndicatorVarName())) {
+                    removeConstraint(id);
+                } else {
+                    constraint.removeTerms(name);
+                }
+            }
+        }
+        if (linearObjectiveTerms != null) {
+            linearObjectiveTerms.removeIf(t -> t.getVarName().equals(name));
+        }
+        if (quadraticObjectiveTerms != null) {
+            quadraticObjectiveTerms.removeIf(t -> t.getVarNameA().equals(name) || t.getVarNameB().equals(name));
+        }
+        if (proposedValuesForVars != null) {
+            proposedValuesForVars.keySet().removeIf(v -> v.getName().equals(name));
+        }
     }
 
     @Override
@@ -267,6 +307,7 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public void addObjectiveTerm(LinearTerm term) {
+        checkMutable();
         if (linearObjectiveTerms == null) {
             linearObjectiveTerms = new ArrayList<LinearTerm>();
         }
@@ -279,6 +320,7 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public void removeObjectiveTerm(LinearTerm term) {
+        checkMutable();
         if (linearObjectiveTerms == null || !linearObjectiveTerms.remove(term)) {
             throw new MIPException("Tried to remove constraint that does not exist");
         }
@@ -311,6 +353,7 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public void addObjectiveTerm(QuadraticTerm term) {
+        checkMutable();
         if (quadraticObjectiveTerms == null) {
             quadraticObjectiveTerms = new ArrayList<QuadraticTerm>();
         }
@@ -323,6 +366,7 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public void removeObjectiveTerm(QuadraticTerm term) {
+        checkMutable();
         if (quadraticObjectiveTerms == null || !quadraticObjectiveTerms.remove(term)) {
             throw new MIPException("Tried to remove constraint that does not exist");
         }
@@ -330,6 +374,7 @@ public class MIP implements IMIP, Serializable, Cloneable {
 
     @Override
     public boolean clearObjective() {
+        checkMutable();
         if (linearObjectiveTerms == null || quadraticObjectiveTerms == null) {
             this.linearObjectiveTerms = null;
             this.quadraticObjectiveTerms = null;
@@ -366,28 +411,182 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public void setObjectiveMax(boolean isMax) {
+        checkMutable();
         this.isMax = isMax;
     }
 
     // Constraints:
     // ////////////
 
-    public List<Constraint> getConstraints() {
-        return constraints;
+    public synchronized List<Constraint> getConstraints() {
+        if (constraintView == null) {
+            List<Constraint> view = new ArrayList<>(numConstraints);
+            for (Constraint constraint : constraintsById) {
+                if (constraint != null) {
+                    view.add(constraint);
+                }
+            }
+            constraintView = Collections.unmodifiableList(view);
+        }
+        return constraintView;
+    }
+
+    public synchronized void add(Constraint constraint) {
+        checkMutable();
+        if (constraint.getOwner() != null) {
+            throw new MIPException("Constraint was already added to a MIP, add a copy instead: " + constraint);
+        }
+        constraint.setId(constraintsById.size());
+        constraint.setOwner(this);
+        constraintsById.add(constraint);
+        numConstraints++;
+        constraintView = null;
+        if (incidence != null) {
+            index(constraint);
+        }
+    }
+
+    @Override
+    public synchronized Constraint getConstraint(int id) {
+        return id >= 0 && id < constraintsById.size() ? constraintsById.get(id) : null;
+    }
+
+    @Override
+    public synchronized int getNumConstraintIds() {
+        return constraintsById.size();
+    }
+
+    /**
+     * Renumbers the constraints to the ids 0 to getNumConstraints() - 1 in their current order, dropping the ids of
+     * removed constraints. Ids are never reused otherwise, so a model that keeps removing and adding constraints
+     * should be compacted now and then, or its id range, and with it the arrays of duals, slacks and violations in
+     * its results, keeps growing. Ids and results obtained before no longer apply afterwards.
+     * @return the new id of each old id, or -1 for removed ones
+     */
+    public synchronized int[] compactConstraintIds() {
+        checkMutable();
+        int[] oldToNew = new int[constraintsById.size()];
+        ArrayList<Constraint> compacted = new ArrayList<>(numConstraints);
+        for (int id = 0; id < oldToNew.length; id++) {
+            Constraint constraint = constraintsById.get(id);
+            if (constraint == null) {
+                oldToNew[id] = -1;
+            } else {
+                oldToNew[id] = compacted.size();
+                constraint.setId(compacted.size());
+                compacted.add(constraint);
+            }
+        }
+        constraintsById = compacted;
+        // Same constraints in the same order, so the view stays valid
+        incidence = null;
+        return oldToNew;
+    }
+
+    @Override
+    public synchronized Constraint removeConstraint(int id) {
+        checkMutable();
+        Constraint constraint = getConstraint(id);
+        if (constraint == null) {
+            return null;
+        }
+        constraintsById.set(id, null);
+        numConstraints--;
+        constraintView = null;
+        constraint.setOwner(null);
+        if (incidence != null) {
+            for (String name : constraint.getVarNames()) {
+                Set<Integer> ids = incidence.get(name);
+                if (ids != null) {
+                    ids.remove(id);
+                }
+            }
+        }
+        return constraint;
+    }
+
+    @Override
+    public synchronized List<Constraint> getConstraintsContaining(Variable var) {
+        Set<Integer> ids = getIncidence().get(var.getName());
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<Constraint> ret = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            ret.add(constraintsById.get(id));
+        }
+        return ret;
+    }
+
+    private Map<String, Set<Integer>> getIncidence() {
+        if (incidence == null) {
+            incidence = new HashMap<>();
+            for (Constraint constraint : constraintsById) {
+                if (constraint != null) {
+                    index(constraint);
+                }
+            }
+        }
+        return incidence;
+    }
+
+    private void index(Constraint constraint) {
+        for (String name : constraint.getVarNames()) {
+            termAdded(constraint, name);
+        }
+    }
+
+    /**
+     * Freezes the model: variables, constraints and the objective can't be changed anymore. Solve parameters
+     * and proposed values can still be set, since they don't change the model. Copies made with
+     * {@link #typedClone()} are not frozen.
+     */
+    void freeze() {
+        frozen = true;
+    }
+
+    @Override
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    void checkMutable() {
+        if (frozen) {
+            throw new MIPException("The MIP is immutable, change a copy instead (see typedClone())");
+        }
     }
 
-    public void add(Constraint constraint) {
-        constraints.add(constraint);
+    /**
+     * Called by the constraints of this MIP when they start to use a variable.
+     */
+    synchronized void termAdded(Constraint constraint, String varName) {
+        if (incidence != null) {
+            incidence.computeIfAbsent(varName, n -> new HashSet<>()).add(constraint.getId());
+        }
     }
 
     // Solve Parameters:
     // /////////////////
 
     public Object getSolveParam(SolveParam param) {
-        return solveParams.get(param);
+        Object o = solveParams.get(param);
+        if (o == null && profile != null) {
+            return profile.getSolveParam(param);
+        }
+        return o;
+    }
+
+    /**
+     * @return true if the value comes from the profile, which can then be read unboxed
+     */
+    private boolean fromProfile(SolveParam param) {
+        return profile != null && profile.isSpecified(param) && !solveParams.containsKey(param);
     }
 
     public int getIntSolveParam(SolveParam param, Integer defaultValue) {
+        if (fromProfile(param)) {
+            return profile.getInt(param);
+        }
         Object o = getSolveParam(param);
         if (o == null) {
             if (defaultValue == null) {
@@ -411,6 +610,9 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public double getDoubleSolveParam(SolveParam param, Double defaultValue) {
+        if (fromProfile(param)) {
+            return profile.getDouble(param);
+        }
         Object o = getSolveParam(param);
         if (o == null) {
             if (defaultValue == null) {
@@ -434,6 +636,9 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public boolean getBooleanSolveParam(SolveParam param, Boolean defaultValue) {
+        if (fromProfile(param)) {
+            return profile.getBoolean(param);
+        }
         Object o = getSolveParam(param);
         if (o == null) {
             if (defaultValue == null) {
@@ -457,6 +662,9 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public String getStringSolveParam(SolveParam param, String defaultValue) {
+        if (fromProfile(param)) {
+            return profile.getString(param);
+        }
         Object o = getSolveParam(param);
         if (o == null) {
             if (defaultValue == null) {
@@ -504,11 +712,17 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public Set<SolveParam> getSpecifiedSolveParams() {
+        if (profile != null) {
+            Set<SolveParam> specified = new HashSet<>(profile.getParams().keySet());
+            specified.addAll(solveParams.keySet());
+            return Collections.unmodifiableSet(specified);
+        }
         return Collections.unmodifiableSet(solveParams.keySet());
     }
 
     public void clearSolveParams() {
         solveParams.clear();
+        profile = null;
     }
 
     /**
@@ -537,7 +751,18 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     public boolean isSolveParamSpecified(SolveParam param) {
-        return solveParams.containsKey(param);
+        return solveParams.containsKey(param) || (profile != null && profile.isSpecified(param));
+    }
+
+    public void setSolveParamProfile(SolveParamProfile profile) {
+        if (profile != null) {
+            solveParams.keySet().removeIf(profile::isSpecified);
+        }
+        this.profile = profile;
+    }
+
+    public SolveParamProfile getSolveParamProfile() {
+        return profile;
     }
 
     // General Functions:
@@ -556,9 +781,20 @@ public class MIP implements IMIP, Serializable, Cloneable {
 
     protected Object clone() throws CloneNotSupportedException {
         MIP ret = (MIP) super.clone();
-        ret.constraints = new LinkedList<Constraint>();
-        for (Constraint constraint : constraints) {
-            ret.constraints.add(constraint.typedClone());
+        ret.constraintsById = new ArrayList<>(constraintsById.size());
+        for (Constraint constraint : constraintsById) {
+            Constraint copy = null;
+            if (constraint != null) {
+                copy = constraint.typedClone();
+                copy.setOwner(ret);
+            }
+            ret.constraintsById.add(copy);
+        }
+        ret.constraintView = null;
+        ret.incidence = null;
+        ret.frozen = false;
+        if (constraintGenerators != null) {
+            ret.constraintGenerators = new ArrayList<>(constraintGenerators);
         }
 
         if (linearObjectiveTerms != null) {
@@ -642,13 +878,48 @@ public class MIP implements IMIP, Serializable, Cloneable {
     }
 
     @Override
-    public int getNumConstraints() {
-        return constraints.size();
+    public synchronized int getNumConstraints() {
+        return numConstraints;
+    }
+
+    @Override
+    public synchronized boolean remove(Constraint constraint) {
+        if (constraint.getOwner() == this) {
+            return removeConstraint(constraint.getId()) != null;
+        }
+        // Not added to this MIP, so remove an equal one instead
+        for (Constraint c : constraintsById) {
+            if (c != null && c.equals(constraint)) {
+                return removeConstraint(c.getId()) != null;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void addConstraintGenerator(ConstraintGenerator generator) {
+        checkMutable();
+        if (constraintGenerators == null) {
+            constraintGenerators = new ArrayList<>();
+        }
+        constraintGenerators.add(generator);
     }
 
     @Override
-    public boolean remove(Constraint constraint) {
-        return constraints.remove(constraint);
+    public List<ConstraintGenerator> getConstraintGenerators() {
+        if (constraintGenerators == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(constraintGenerators);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (Constraint constraint : constraintsById) {
+            if (constraint != null) {
+                constraint.setOwner(this);
+            }
+        }
     }
 
 }
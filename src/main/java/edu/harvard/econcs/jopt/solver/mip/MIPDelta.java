@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.mip;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+
+/**
+ * The changes that turn a model a server already stores into a new one, so only the changes have to be sent.
+ * A server stores the models solved with {@link edu.harvard.econcs.jopt.solver.SolveParam#MODEL_CACHE}. The base is identified by the hash it is stored under (see
+ * {@link edu.harvard.econcs.jopt.solver.server.ModelStore#hash(IMIP)}); the new model is stored under the hash of
+ * the delta, so further deltas can build on it.
+ * <p>
+ * Changes are applied in this order: new variables, bound changes, removed constraints, changed constants, new
+ * constraints, objective coefficients and solve parameters. New constraints get the next ids of the base, in the
+ * order they were added to the delta. Deltas can be applied to a {@link MIP} only.
+ */
+public class MIPDelta implements Serializable {
+
+    private static final long serialVersionUID = 5281730463389512804L;
+
+    private final String baseHash;
+    /** Lets the client fall back to sending the whole model if the server doesn't have the base anymore **/
+    private transient IMIP base;
+    // Insertion ordered, so the serialized form and thus the hash is the same everywhere
+    private final List<Variable> addedVariables = new ArrayList<>();
+    private final Map<String, double[]> bounds = new LinkedHashMap<>();
+    private final List<Integer> removedConstraints = new ArrayList<>();
+    private final Map<Integer, Double> constants = new LinkedHashMap<>();
+    private final List<Constraint> addedConstraints = new ArrayList<>();
+    private final Map<String, Double> objective = new LinkedHashMap<>();
+    private final Map<SolveParam, Object> solveParams = new LinkedHashMap<>();
+
+    public MIPDelta(String baseHash) {
+        this(baseHash, null);
+    }
+
+    /**
+     * @param base the model stored under the hash, kept locally in case the server has evicted it
+     */
+    public MIPDelta(String baseHash, IMIP base) {
+        this.baseHash = baseHash;
+        this.base = base;
+    }
+
+    public String getBaseHash() {
+        return baseHash;
+    }
+
+    /**
+     * @return the base model, or null if it wasn't given
+     */
+    public IMIP getBase() {
+        return base;
+    }
+
+    public MIPDelta add(Variable var) {
+        addedVariables.add(var.typedClone());
+        return this;
+    }
+
+    public MIPDelta setBounds(Variable var, double lowerBound, double upperBound) {
+        bounds.put(var.getName(), new double[]{lowerBound, upperBound});
+        return this;
+    }
+
+    public MIPDelta removeConstraint(int id) {
+        removedConstraints.add(id);
+        return this;
+    }
+
+    public MIPDelta setConstant(int id, double constant) {
+        constants.put(id, constant);
+        return this;
+    }
+
+    public MIPDelta add(Constraint constraint) {
+        addedConstraints.add(constraint.typedClone());
+        return this;
+    }
+
+    /**
+     * Replaces all linear objective terms of the variable with a single one; 0 removes them.
+     */
+    public MIPDelta setObjectiveCoefficient(Variable var, double coefficient) {
+        objective.put(var.getName(), coefficient);
+        return this;
+    }
+
+    public MIPDelta setSolveParam(SolveParam param, Object value) {
+        solveParams.put(param, value);
+        return this;
+    }
+
+    /**
+     * Applies the changes to the given model.
+     *
+     * @return the changed model
+     */
+    public IMIP applyTo(IMIP mip) {
+        if (!(mip instanceof MIP)) {
+            throw new MIPException("Deltas can only be applied to a MIP");
+        }
+        for (Variable var : addedVariables) {
+            mip.add(var.typedClone());
+        }
+        for (Map.Entry<String, double[]> entry : bounds.entrySet()) {
+            Variable var = mip.getVar(entry.getKey());
+            if (var == null) {
+                throw new MIPException("Invalid variable name in delta: " + entry.getKey());
+            }
+            var.setLowerBound(entry.getValue()[0]);
+            var.setUpperBound(entry.getValue()[1]);
+        }
+        for (int id : removedConstraints) {
+            if (mip.removeConstraint(id) == null) {
+                throw new MIPException("Delta removes constraint " + id + ", which doesn't exist");
+            }
+        }
+        for (Map.Entry<Integer, Double> entry : constants.entrySet()) {
+            Constraint constraint = mip.getConstraint(entry.getKey());
+            if (constraint == null) {
+                throw new MIPException("Delta changes constraint " + entry.getKey() + ", which doesn't exist");
+            }
+            constraint.setConstant(entry.getValue());
+        }
+        for (Constraint constraint : addedConstraints) {
+            mip.add(constraint.typedClone());
+        }
+        for (Map.Entry<String, Double> entry : objective.entrySet()) {
+            List<LinearTerm> terms = new ArrayList<>();
+            for (LinearTerm term : mip.getLinearObjectiveTerms()) {
+                if (term.getVarName().equals(entry.getKey())) {
+                    terms.add(term);
+                }
+            }
+            for (LinearTerm term : terms) {
+                mip.removeObjectiveTerm(term);
+            }
+            if (entry.getValue() != 0) {
+                mip.addObjectiveTerm(new LinearTerm(entry.getValue(), entry.getKey()));
+            }
+        }
+        for (Map.Entry<SolveParam, Object> entry : solveParams.entrySet()) {
+            mip.setSolveParam(entry.getKey(), entry.getValue());
+        }
+        return mip;
+    }
+
+    public String toString() {
+        return "MIPDelta on " + baseHash + ": " + addedVariables.size() + " new variables, " + bounds.size()
+                + " bounds, " + removedConstraints.size() + " removed and " + addedConstraints.size()
+                + " new constraints, " + constants.size() + " constants, " + objective.size() + " objective terms";
+    }
+}
@@ -30,8 +30,12 @@
  */
 package edu.harvard.econcs.jopt.solver.mip;
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Queue;
 
@@ -48,19 +52,51 @@ import edu.harvard.econcs.jopt.solver.MIPException;
  * @since Apr 12, 2004
  **/
 public class MIPResult implements IMIPResult {
-    private static final long serialVersionUID = 176452143213L;
+    private static final long serialVersionUID = 176452143214L;
     private double objectiveValue;
     private Map<String, Double> values = new HashMap();
-    private Map<Constraint, Double> constraintidstoDuals = new HashMap();
+    /** Duals indexed by constraint id, NaN for constraints without one **/
+    private double[] duals;
+    private double[] slacks = null;
     private long solveTime;
     private double relativeGap;
     private double absoluteGap;
     private Queue<PoolSolution> poolSolutionList = null;
+    private double[] violations = null;
+    /** Null until set, also for results serialized before it existed **/
+    private Map<String, Serializable> metadata = null;
 
-    public MIPResult(double objectiveValue, Map<String,Double> values, Map<Constraint,Double> constraintidsToDuals) {
+    /**
+     * @param duals the duals indexed by constraint id (see {@link Constraint#getId()}), or null if they weren't calculated
+     */
+    public MIPResult(double objectiveValue, Map<String,Double> values, double[] duals) {
         this.objectiveValue = objectiveValue;
         this.values = values;
-        this.constraintidstoDuals = constraintidsToDuals;
+        this.duals = duals;
+    }
+
+    /**
+     * @return the slack of each constraint for the given values, indexed by constraint id: the right hand side minus
+     * the left hand side for LEQ and EQ constraints, and the other way around for GEQ constraints. NaN for removed ids.
+     */
+    public static double[] computeSlacks(IMIP mip, Map<String, Double> values) {
+        double[] ret = new double[mip.getNumConstraintIds()];
+        Arrays.fill(ret, Double.NaN);
+        for (Constraint constraint : mip.getConstraints()) {
+            double activity = 0;
+            for (int i = 0; i < constraint.linearSize(); i++) {
+                Double value = values.get(constraint.getLinearVarName(i));
+                activity += constraint.getLinearCoefficient(i) * (value == null ? 0 : value);
+            }
+            for (QuadraticTerm term : constraint.getQuadraticTerms()) {
+                Double valueA = values.get(term.getVarNameA());
+                Double valueB = values.get(term.getVarNameB());
+                activity += term.getCoefficient() * (valueA == null ? 0 : valueA) * (valueB == null ? 0 : valueB);
+            }
+            double slack = constraint.getConstant() - activity;
+            ret[constraint.getId()] = CompareType.GEQ.equals(constraint.getType()) ? -slack : slack;
+        }
+        return ret;
     }
 
     /*
@@ -94,11 +130,49 @@ public class MIPResult implements IMIPResult {
     }
 
     public double getDual(Constraint constraint) {
-        if (constraintidstoDuals == null) {
+        return getDual(idOf(constraint));
+    }
+
+    public double getDual(int constraintId) {
+        if (duals == null) {
             throw new MIPException("Duals not available.  Specify SolveParam.CALC_DUALS to obtain them");
         }
+        return constraintId >= 0 && constraintId < duals.length ? duals[constraintId] : Double.NaN;
+    }
+
+    /**
+     * @throws MIPException if the constraint was never added to a MIP, so the result can't know it
+     */
+    private static int idOf(Constraint constraint) {
+        if (constraint.getId() < 0) {
+            throw new MIPException("Constraint was not added to the solved MIP: " + constraint);
+        }
+        return constraint.getId();
+    }
+
+    @Override
+    public double[] getDuals() {
+        return duals;
+    }
+
+    public double getSlack(Constraint constraint) {
+        return getSlack(idOf(constraint));
+    }
+
+    public double getSlack(int constraintId) {
+        if (slacks == null) {
+            throw new MIPException("Slacks not available.  Specify SolveParam.CALC_DUALS to obtain them");
+        }
+        return constraintId >= 0 && constraintId < slacks.length ? slacks[constraintId] : Double.NaN;
+    }
+
+    @Override
+    public double[] getSlacks() {
+        return slacks;
+    }
 
-        return constraintidstoDuals.get(constraint);
+    public void setSlacks(double[] slacks) {
+        this.slacks = slacks;
     }
 
     public long getSolveTime() {
@@ -136,6 +210,50 @@ public class MIPResult implements IMIPResult {
         this.poolSolutionList = lst;
     }
 
+    @Override
+    public boolean isRelaxed() {
+        return violations != null;
+    }
+
+    @Override
+    public double getViolation(Constraint constraint) {
+        return getViolation(idOf(constraint));
+    }
+
+    @Override
+    public double getViolation(int constraintId) {
+        if (violations == null || constraintId < 0 || constraintId >= violations.length) {
+            return 0;
+        }
+        return violations[constraintId];
+    }
+
+    @Override
+    public double[] getViolations() {
+        return violations;
+    }
+
+    /**
+     * Marks this result as the solution of a feasibility relaxation.
+     * @param violations the violations indexed by constraint id
+     */
+    public void setViolations(double[] violations) {
+        this.violations = violations;
+    }
+
+    @Override
+    public Map<String, Serializable> getMetadata() {
+        return metadata == null ? Collections.emptyMap() : Collections.unmodifiableMap(metadata);
+    }
+
+    @Override
+    public void setMetadata(String key, Serializable value) {
+        if (metadata == null) {
+            metadata = new LinkedHashMap<>();
+        }
+        metadata.put(key, value);
+    }
+
     public String toString() {
         StringBuffer sb = new StringBuffer();
         // sb.append("MIPResult: \n").append(objectiveValue).append("\n");
@@ -167,6 +285,15 @@ public class MIPResult implements IMIPResult {
         if (poolSolutionList != null) {
             sb.append("Number of Pool Solutions Available: " + poolSolutionList.size());
         }
+        if (isRelaxed()) {
+            int violated = 0;
+            for (double violation : violations) {
+                if (violation > 0) {
+                    violated++;
+                }
+            }
+            sb.append("\nRelaxed solution, violated constraints: " + violated);
+        }
         return sb.toString();
     }
 
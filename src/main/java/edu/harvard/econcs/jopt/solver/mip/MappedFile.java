@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.mip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.harvard.econcs.jopt.solver.MIPException;
+
+/**
+ * A growable array of primitives in a memory-mapped file. The file is mapped in fixed-size chunks, so it can grow
+ * beyond the 2 GB a single mapping can hold, and only the pages in use count against the memory of the process.
+ * Each file should hold elements of a single width (bytes excepted), which keeps every element within one chunk.
+ */
+class MappedFile implements Closeable {
+
+    private static final int CHUNK_BITS = 24;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private long size = 0;
+
+    MappedFile(File file) {
+        this.file = file;
+        try {
+            this.raf = new RandomAccessFile(file, "rw");
+        } catch (IOException e) {
+            throw new MIPException("Could not create " + file, e);
+        }
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * @return the number of bytes appended so far
+     */
+    long size() {
+        return size;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private MappedByteBuffer chunk(long position) {
+        int index = (int) (position >>> CHUNK_BITS);
+        while (chunks.size() <= index) {
+            try {
+                chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) chunks.size() << CHUNK_BITS, CHUNK_SIZE));
+            } catch (IOException e) {
+                throw new MIPException("Could not map " + file, e);
+            }
+        }
+        return chunks.get(index);
+    }
+
+    private long reserve(int bytes) {
+        long position = size;
+        size += bytes;
+        return position;
+    }
+
+    byte getByte(long position) {
+        return chunk(position).get((int) (position & CHUNK_MASK));
+    }
+
+    void putByte(long position, byte value) {
+        chunk(position).put((int) (position & CHUNK_MASK), value);
+    }
+
+    int getInt(long index) {
+        long position = index << 2;
+        return chunk(position).getInt((int) (position & CHUNK_MASK));
+    }
+
+    void putInt(long index, int value) {
+        long position = index << 2;
+        chunk(position).putInt((int) (position & CHUNK_MASK), value);
+    }
+
+    long getLong(long index) {
+        long position = index << 3;
+        return chunk(position).getLong((int) (position & CHUNK_MASK));
+    }
+
+    void putLong(long index, long value) {
+        long position = index << 3;
+        chunk(position).putLong((int) (position & CHUNK_MASK), value);
+    }
+
+    double getDouble(long index) {
+        long position = index << 3;
+        return chunk(position).getDouble((int) (position & CHUNK_MASK));
+    }
+
+    void putDouble(long index, double value) {
+        long position = index << 3;
+        chunk(position).putDouble((int) (position & CHUNK_MASK), value);
+    }
+
+    void appendByte(byte value) {
+        putByte(reserve(1), value);
+    }
+
+    void appendInt(int value) {
+        putInt(reserve(4) >>> 2, value);
+    }
+
+    void appendLong(long value) {
+        putLong(reserve(8) >>> 3, value);
+    }
+
+    void appendDouble(double value) {
+        putDouble(reserve(8) >>> 3, value);
+    }
+
+    /**
+     * @return the position of the first appended byte
+     */
+    long appendBytes(byte[] bytes) {
+        long position = reserve(bytes.length);
+        copy(position, bytes, 0, bytes.length, false);
+        return position;
+    }
+
+    byte[] getBytes(long position, int length) {
+        byte[] ret = new byte[length];
+        copy(position, ret, 0, length, true);
+        return ret;
+    }
+
+    /**
+     * Copies between the file and an array, chunk by chunk.
+     */
+    private void copy(long position, byte[] bytes, int offset, int length, boolean read) {
+        while (length > 0) {
+            ByteBuffer buffer = chunk(position).duplicate();
+            buffer.position((int) (position & CHUNK_MASK));
+            int n = Math.min(length, buffer.remaining());
+            if (read) {
+                buffer.get(bytes, offset, n);
+            } else {
+                buffer.put(bytes, offset, n);
+            }
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Grows the file to the given number of bytes, filled with zeros, or truncates it.
+     */
+    void setSize(long size) {
+        for (long position = this.size; position < size; position++) {
+            putByte(position, (byte) 0);
+        }
+        this.size = size;
+    }
+
+    void appendFrom(MappedFile other) {
+        byte[] buffer = new byte[1 << 16];
+        for (long position = 0; position < other.size; position += buffer.length) {
+            int length = (int) Math.min(buffer.length, other.size - position);
+            other.copy(position, buffer, 0, length, true);
+            copy(reserve(length), buffer, 0, length, false);
+        }
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        for (long position = 0; position < size; position += buffer.length) {
+            int length = (int) Math.min(buffer.length, size - position);
+            copy(position, buffer, 0, length, true);
+            out.write(buffer, 0, length);
+        }
+    }
+
+    void readFrom(InputStream in, long length) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        while (length > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            copy(reserve(read), buffer, 0, read, false);
+            length -= read;
+        }
+    }
+
+    /**
+     * Releases the file and deletes it. The mapped chunks are freed once they are garbage collected.
+     */
+    @Override
+    public void close() {
+        chunks.clear();
+        try {
+            channel.close();
+            raf.close();
+        } catch (IOException e) {
+            throw new MIPException("Could not close " + file, e);
+        }
+        file.delete();
+    }
+}
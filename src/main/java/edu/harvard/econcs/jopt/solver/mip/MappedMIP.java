@@ -0,0 +1,889 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.mip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.SolveParamProfile;
+
+/**
+ * A MIP whose variables, coefficient matrix and name dictionary live in memory-mapped files under
+ * {@link SolveParam#WORK_DIR}, rather than as objects on the Java heap. The matrix is kept in compressed sparse row
+ * form, so a solver can stream it row by row with a {@link RowCursor} while the heap only holds a few indices.
+ * <p>
+ * The model can be grown by appending variables and linear constraints (including indicator constraints) and
+ * constraints can be removed, but variables can't. All other methods of IMIP work as well, but {@link Variable}
+ * and {@link Constraint} objects handed out are copies made on demand: changing them does not change the model,
+ * use {@link #setBounds(int, double, double)} instead. Constraint descriptions are not kept, and quadratic terms
+ * are not supported.
+ * <p>
+ * Solve parameters, proposed values and variables of interest are small and stay on the heap. Call
+ * {@link #close()} to delete the files once the MIP isn't needed anymore; they are not deleted on exit.
+ * Instances are not thread-safe.
+ * <p>
+ * Sent to a remote solver, the model is streamed to it in chunks (see
+ * {@link edu.harvard.econcs.jopt.solver.server.ChunkedUpload}), so it is never held in a single byte array,
+ * which would fail for models above 2 GB. The server spools it to a file, copies the files into its own
+ * directory and deletes them after the solve. Submitting it as a job still sends a single byte array.
+ */
+public class MappedMIP implements IMIP, Serializable, Closeable {
+
+    private static final long serialVersionUID = 7730541902137457811L;
+
+    private static final int TYPE_MASK = 0x3;
+    private static final byte IGNORE = 0x4;
+    private static final byte REMOVED = 0x4;
+    private static final byte INDICATOR = 0x8;
+    private static final byte INDICATOR_VALUE = 0x10;
+    private static final int INITIAL_SLOTS = 1 << 10;
+    private static final VarType[] VAR_TYPES = VarType.values();
+    private static final CompareType[] COMPARE_TYPES = CompareType.values();
+
+    // Columns: bounds, type and objective coefficient per column, names as UTF-8 with the end offset per column,
+    // and an open addressing table from name hash to column + 1.
+    private transient MappedFile lowerBounds;
+    private transient MappedFile upperBounds;
+    private transient MappedFile columnInfo;
+    private transient MappedFile objective;
+    private transient MappedFile nameEnds;
+    private transient MappedFile names;
+    private transient MappedFile nameSlots;
+    // Rows: end offset of each row into the columns and coefficients, plus constant, type and indicator per row.
+    private transient MappedFile rowEnds;
+    private transient MappedFile rowColumns;
+    private transient MappedFile rowCoefficients;
+    private transient MappedFile rowConstants;
+    private transient MappedFile rowInfo;
+    private transient MappedFile rowIndicators;
+    private transient File directory;
+    /** Ids of the rows that weren't removed, only built once a row was removed **/
+    private transient int[] liveIds = null;
+
+    private int numColumns = 0;
+    private int numSlots = INITIAL_SLOTS;
+    private int numRows = 0;
+    private int numConstraints = 0;
+    private boolean isMax;
+    /** Holds the solve parameters, proposed values and variables of interest **/
+    private MIP settings = new MIP();
+
+    /**
+     * Creates the MIP in the temporary directory of the JVM.
+     */
+    public MappedMIP() {
+        this(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * Creates the MIP in the given directory, which is also set as the {@link SolveParam#WORK_DIR} of the solver.
+     */
+    public MappedMIP(String workDir) {
+        settings.setSolveParam(SolveParam.WORK_DIR, workDir);
+        open(workDir);
+        nameSlots.setSize((long) numSlots << 2);
+    }
+
+    private void open(String workDir) {
+        try {
+            directory = Files.createTempDirectory(Paths.get(workDir), "jopt-mip").toFile();
+        } catch (IOException e) {
+            throw new MIPException("Could not create a directory in " + workDir, e);
+        }
+        lowerBounds = file("lower");
+        upperBounds = file("upper");
+        columnInfo = file("columns");
+        objective = file("objective");
+        nameEnds = file("nameEnds");
+        names = file("names");
+        nameSlots = file("nameSlots");
+        rowEnds = file("rowEnds");
+        rowColumns = file("rowColumns");
+        rowCoefficients = file("rowCoefficients");
+        rowConstants = file("rowConstants");
+        rowInfo = file("rows");
+        rowIndicators = file("rowIndicators");
+    }
+
+    private MappedFile file(String name) {
+        return new MappedFile(new File(directory, name));
+    }
+
+    private MappedFile[] files() {
+        return new MappedFile[]{lowerBounds, upperBounds, columnInfo, objective, nameEnds, names, nameSlots,
+                rowEnds, rowColumns, rowCoefficients, rowConstants, rowInfo, rowIndicators};
+    }
+
+    /**
+     * Deletes the files of this MIP. It can't be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (MappedFile file : files()) {
+            file.close();
+        }
+        directory.delete();
+    }
+
+    // Columns:
+    // ////////
+
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    /**
+     * @return the column of the variable with the given name, or -1 if there is none
+     */
+    public int getColumn(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(bytes, Arrays.hashCode(bytes));
+        return nameSlots.getInt(slot) - 1;
+    }
+
+    public String getColumnName(int column) {
+        long start = column == 0 ? 0 : nameEnds.getLong(column - 1);
+        return new String(names.getBytes(start, (int) (nameEnds.getLong(column) - start)), StandardCharsets.UTF_8);
+    }
+
+    public VarType getColumnType(int column) {
+        return VAR_TYPES[columnInfo.getByte(column) & TYPE_MASK];
+    }
+
+    public double getLowerBound(int column) {
+        return lowerBounds.getDouble(column);
+    }
+
+    public double getUpperBound(int column) {
+        return upperBounds.getDouble(column);
+    }
+
+    public void setBounds(int column, double lowerBound, double upperBound) {
+        lowerBounds.putDouble(column, lowerBound);
+        upperBounds.putDouble(column, upperBound);
+    }
+
+    public boolean isIgnored(int column) {
+        return (columnInfo.getByte(column) & IGNORE) != 0;
+    }
+
+    public double getObjectiveCoefficient(int column) {
+        return objective.getDouble(column);
+    }
+
+    /**
+     * @return a new Variable with the properties of the column
+     */
+    public Variable getVariable(int column) {
+        Variable ret = new Variable(getColumnName(column), getColumnType(column), getLowerBound(column), getUpperBound(column));
+        ret.setIgnore(isIgnored(column));
+        return ret;
+    }
+
+    /**
+     * @return the slot holding the name, or the empty slot where it would be
+     */
+    private int findSlot(byte[] name, int hash) {
+        int mask = numSlots - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int column = nameSlots.getInt(slot) - 1;
+            if (column < 0 || hasName(column, name)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean hasName(int column, byte[] name) {
+        long start = column == 0 ? 0 : nameEnds.getLong(column - 1);
+        if (nameEnds.getLong(column) - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (names.getByte(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void growSlots() {
+        MappedFile old = nameSlots;
+        nameSlots = file("nameSlots" + numSlots);
+        numSlots <<= 1;
+        nameSlots.setSize((long) numSlots << 2);
+        for (int column = 0; column < numColumns; column++) {
+            byte[] name = getColumnName(column).getBytes(StandardCharsets.UTF_8);
+            nameSlots.putInt(findSlot(name, Arrays.hashCode(name)), column + 1);
+        }
+        old.close();
+    }
+
+    // Variables:
+    // //////////
+
+    public String add(Variable var) {
+        String name = var.getName();
+        if (name == null) {
+            throw new MIPException("Invalid variable name");
+        }
+        if ((long) (numColumns + 1) * 2 > numSlots) {
+            growSlots();
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(bytes, Arrays.hashCode(bytes));
+        if (nameSlots.getInt(slot) != 0) {
+            throw new MIPException("Tried to overwrite existing var: " + name);
+        }
+        names.appendBytes(bytes);
+        nameEnds.appendLong(names.size());
+        lowerBounds.appendDouble(var.getLowerBound());
+        upperBounds.appendDouble(var.getUpperBound());
+        columnInfo.appendByte((byte) (var.getType().ordinal() | (var.ignore() ? IGNORE : 0)));
+        objective.appendDouble(0);
+        nameSlots.putInt(slot, ++numColumns);
+        return name;
+    }
+
+    public void remove(Variable var) {
+        throw new MIPException("Variables can't be removed from a MappedMIP");
+    }
+
+    public int getNumVars() {
+        return numColumns;
+    }
+
+    public boolean containsVar(Variable var) {
+        return containsVar(var.getName());
+    }
+
+    public boolean containsVar(String name) {
+        return getColumn(name) >= 0;
+    }
+
+    public Variable getVar(String name) {
+        int column = getColumn(name);
+        return column < 0 ? null : getVariable(column);
+    }
+
+    /**
+     * @return a read-only view, creating the Variables as they are accessed
+     */
+    public Map<String, Variable> getVars() {
+        return new AbstractMap<String, Variable>() {
+            @Override
+            public int size() {
+                return numColumns;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String && containsVar((String) key);
+            }
+
+            @Override
+            public Variable get(Object key) {
+                return key instanceof String ? getVar((String) key) : null;
+            }
+
+            @Override
+            public Set<Entry<String, Variable>> entrySet() {
+                return new AbstractSet<Entry<String, Variable>>() {
+                    @Override
+                    public int size() {
+                        return numColumns;
+                    }
+
+                    @Override
+                    public Iterator<Entry<String, Variable>> iterator() {
+                        return new Iterator<Entry<String, Variable>>() {
+                            private int column = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return column < numColumns;
+                            }
+
+                            @Override
+                            public Entry<String, Variable> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                Variable var = getVariable(column++);
+                                return new SimpleImmutableEntry<>(var.getName(), var);
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public boolean isFrozen() {
+        return false;
+    }
+
+    // Variables of interest and proposed values:
+    // //////////////////////////////////////////
+
+    public void setAdvancedVariablesOfInterest(Collection<Collection<Variable>> variableSets) {
+        settings.setAdvancedVariablesOfInterest(variableSets);
+    }
+
+    public Collection<Collection<Variable>> getAdvancedVariablesOfInterest() {
+        return settings.getAdvancedVariablesOfInterest();
+    }
+
+    public void proposeValue(Variable var, double value) {
+        settings.proposeValue(var, value);
+    }
+
+    public void proposeValue(Variable var, int value) {
+        settings.proposeValue(var, value);
+    }
+
+    public void proposeValue(Variable var, boolean value) {
+        settings.proposeValue(var, value);
+    }
+
+    public void removeProposedValue(Variable var) {
+        settings.removeProposedValue(var);
+    }
+
+    public void clearProposedValues() {
+        settings.clearProposedValues();
+    }
+
+    public Set<Variable> getVarsWithProposedValues() {
+        return settings.getVarsWithProposedValues();
+    }
+
+    public Map<Variable, Object> getProposedValuesMap() {
+        return settings.getProposedValuesMap();
+    }
+
+    public void setProposedValues(Map<Variable, Object> proposedValues) {
+        settings.setProposedValues(proposedValues);
+    }
+
+    public int getProposedIntValue(Variable var) {
+        return settings.getProposedIntValue(var);
+    }
+
+    public double getProposedDoubleValue(Variable var) {
+        return settings.getProposedDoubleValue(var);
+    }
+
+    public boolean getProposedBooleanValue(Variable var) {
+        return settings.getProposedBooleanValue(var);
+    }
+
+    // Objective:
+    // //////////
+
+    /**
+     * @return the terms with a non-zero coefficient, in column order
+     */
+    public Collection<LinearTerm> getLinearObjectiveTerms() {
+        List<LinearTerm> ret = new ArrayList<>();
+        for (int column = 0; column < numColumns; column++) {
+            double coefficient = objective.getDouble(column);
+            if (coefficient != 0) {
+                ret.add(new LinearTerm(coefficient, getColumnName(column)));
+            }
+        }
+        return ret;
+    }
+
+    public Collection<LinearTerm> getSortedLinearObjectiveTerms() {
+        List<LinearTerm> ret = (List<LinearTerm>) getLinearObjectiveTerms();
+        ret.sort((o1, o2) -> o1.getVarName().compareTo(o2.getVarName()));
+        return ret;
+    }
+
+    /**
+     * Terms of the same variable add up.
+     */
+    public void addObjectiveTerm(LinearTerm term) {
+        int column = column(term.getVarName());
+        objective.putDouble(column, objective.getDouble(column) + term.getCoefficient());
+    }
+
+    public void addObjectiveTerm(double coefficient, Variable var) {
+        addObjectiveTerm(new LinearTerm(coefficient, var));
+    }
+
+    public void removeObjectiveTerm(LinearTerm term) {
+        int column = column(term.getVarName());
+        if (objective.getDouble(column) == 0) {
+            throw new MIPException("Tried to remove constraint that does not exist");
+        }
+        objective.putDouble(column, objective.getDouble(column) - term.getCoefficient());
+    }
+
+    public Collection<QuadraticTerm> getQuadraticObjectiveTerms() {
+        return Collections.emptyList();
+    }
+
+    public Collection<QuadraticTerm> getSortedQuadraticObjectiveTerms() {
+        return Collections.emptyList();
+    }
+
+    public void addObjectiveTerm(QuadraticTerm term) {
+        throw new MIPException("A MappedMIP has no quadratic terms");
+    }
+
+    public void addObjectiveTerm(double coefficient, Variable varA, Variable varB) {
+        addObjectiveTerm(new QuadraticTerm(coefficient, varA, varB));
+    }
+
+    public void removeObjectiveTerm(QuadraticTerm term) {
+        throw new MIPException("A MappedMIP has no quadratic terms");
+    }
+
+    public boolean clearObjective() {
+        for (int column = 0; column < numColumns; column++) {
+            objective.putDouble(column, 0);
+        }
+        return true;
+    }
+
+    public Collection<Term> getObjectiveTerms() {
+        return new ArrayList<>(getLinearObjectiveTerms());
+    }
+
+    public boolean isObjectiveMax() {
+        return isMax;
+    }
+
+    public boolean isObjectiveMin() {
+        return !isMax;
+    }
+
+    public void setObjectiveMax(boolean isMax) {
+        this.isMax = isMax;
+    }
+
+    private int column(String name) {
+        int column = getColumn(name);
+        if (column < 0) {
+            throw new MIPException("Invalid variable name: " + name);
+        }
+        return column;
+    }
+
+    // Constraints:
+    // ////////////
+
+    /**
+     * Appends the constraint as a new row. The constraint itself is not kept, but it gets the id of the row if it
+     * doesn't belong to another MIP.
+     */
+    public void add(Constraint constraint) {
+        if (!constraint.getQuadraticTerms().isEmpty()) {
+            throw new MIPException("A MappedMIP supports linear constraints only: " + constraint);
+        }
+        int indicator = -1;
+        if (constraint.isIndicator()) {
+            indicator = column(constraint.getIndicatorVarName());
+        }
+        // Check all names before the first term is written
+        int[] columns = new int[constraint.linearSize()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = column(constraint.getLinearVarName(i));
+        }
+        for (int i = 0; i < columns.length; i++) {
+            rowColumns.appendInt(columns[i]);
+            rowCoefficients.appendDouble(constraint.getLinearCoefficient(i));
+        }
+        rowEnds.appendLong(rowColumns.size() >>> 2);
+        rowConstants.appendDouble(constraint.getConstant());
+        byte info = (byte) constraint.getType().ordinal();
+        if (indicator >= 0) {
+            info |= INDICATOR | (constraint.getIndicatorValue() ? INDICATOR_VALUE : 0);
+        }
+        rowInfo.appendByte(info);
+        rowIndicators.appendInt(indicator);
+        if (constraint.getOwner() == null) {
+            constraint.setId(numRows);
+        }
+        numRows++;
+        numConstraints++;
+        if (liveIds != null) {
+            liveIds = Arrays.copyOf(liveIds, liveIds.length + 1);
+            liveIds[liveIds.length - 1] = numRows - 1;
+        }
+    }
+
+    private boolean isRemoved(int id) {
+        return (rowInfo.getByte(id) & REMOVED) != 0;
+    }
+
+    public int getNumConstraints() {
+        return numConstraints;
+    }
+
+    public int getNumConstraintIds() {
+        return numRows;
+    }
+
+    /**
+     * @return a new Constraint with the contents of the row, or null if it was removed
+     */
+    public Constraint getConstraint(int id) {
+        if (id < 0 || id >= numRows || isRemoved(id)) {
+            return null;
+        }
+        RowCursor row = new RowCursor();
+        row.moveTo(id);
+        Constraint ret = new Constraint(row.getType(), row.getConstant());
+        for (int k = 0; k < row.size(); k++) {
+            ret.addTerm(new LinearTerm(row.getCoefficient(k), getColumnName(row.getColumn(k))));
+        }
+        if (row.getIndicatorColumn() >= 0) {
+            ret.setIndicator(getVariable(row.getIndicatorColumn()), row.getIndicatorValue());
+        }
+        ret.setId(id);
+        return ret;
+    }
+
+    public Constraint removeConstraint(int id) {
+        Constraint ret = getConstraint(id);
+        if (ret != null) {
+            rowInfo.putByte(id, (byte) (rowInfo.getByte(id) | REMOVED));
+            numConstraints--;
+            liveIds = null;
+        }
+        return ret;
+    }
+
+    public boolean remove(Constraint constraint) {
+        if (constraint.getOwner() == null && constraint.equals(getConstraint(constraint.getId()))) {
+            return removeConstraint(constraint.getId()) != null;
+        }
+        for (int id = 0; id < numRows; id++) {
+            if (constraint.equals(getConstraint(id))) {
+                return removeConstraint(id) != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a read-only view in id order, creating the Constraints as they are accessed
+     */
+    public List<Constraint> getConstraints() {
+        if (numConstraints < numRows && liveIds == null) {
+            liveIds = new int[numConstraints];
+            int i = 0;
+            for (int id = 0; id < numRows; id++) {
+                if (!isRemoved(id)) {
+                    liveIds[i++] = id;
+                }
+            }
+        }
+        final int[] ids = liveIds;
+        return new AbstractList<Constraint>() {
+            @Override
+            public Constraint get(int index) {
+                return getConstraint(ids == null ? index : ids[index]);
+            }
+
+            @Override
+            public int size() {
+                return ids == null ? numRows : ids.length;
+            }
+        };
+    }
+
+    /**
+     * Scans all rows, so this is linear in the size of the matrix.
+     */
+    public List<Constraint> getConstraintsContaining(Variable var) {
+        List<Constraint> ret = new ArrayList<>();
+        int column = getColumn(var.getName());
+        if (column < 0) {
+            return ret;
+        }
+        RowCursor row = rows();
+        while (row.next()) {
+            boolean contains = row.getIndicatorColumn() == column;
+            for (int k = 0; k < row.size() && !contains; k++) {
+                contains = row.getColumn(k) == column;
+            }
+            if (contains) {
+                ret.add(getConstraint(row.getId()));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The rows are on disk anyway, so the constraints of the generator are appended right away, one at a time.
+     */
+    public void addConstraintGenerator(ConstraintGenerator generator) {
+        generator.spliterator().forEachRemaining(this::add);
+    }
+
+    public List<ConstraintGenerator> getConstraintGenerators() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return a cursor over the rows that weren't removed, in id order
+     */
+    public RowCursor rows() {
+        return new RowCursor();
+    }
+
+    /**
+     * Reads the matrix one row at a time, straight from the mapped files.
+     */
+    public final class RowCursor {
+        private int id = -1;
+        private long start;
+        private long end;
+
+        private RowCursor() {
+        }
+
+        /**
+         * Moves to the next row that wasn't removed.
+         *
+         * @return false if there is none
+         */
+        public boolean next() {
+            while (++id < numRows) {
+                if (!isRemoved(id)) {
+                    moveTo(id);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void moveTo(int id) {
+            this.id = id;
+            start = id == 0 ? 0 : rowEnds.getLong(id - 1);
+            end = rowEnds.getLong(id);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public CompareType getType() {
+            return COMPARE_TYPES[rowInfo.getByte(id) & TYPE_MASK];
+        }
+
+        public double getConstant() {
+            return rowConstants.getDouble(id);
+        }
+
+        public int size() {
+            return (int) (end - start);
+        }
+
+        public int getColumn(int k) {
+            return rowColumns.getInt(start + k);
+        }
+
+        public double getCoefficient(int k) {
+            return rowCoefficients.getDouble(start + k);
+        }
+
+        /**
+         * @return the column of the indicator variable, or -1 if this is a regular constraint
+         */
+        public int getIndicatorColumn() {
+            return rowIndicators.getInt(id);
+        }
+
+        public boolean getIndicatorValue() {
+            return (rowInfo.getByte(id) & INDICATOR_VALUE) != 0;
+        }
+    }
+
+    // Solve Parameters:
+    // /////////////////
+
+    public Object getSolveParam(SolveParam param) {
+        return settings.getSolveParam(param);
+    }
+
+    public int getIntSolveParam(SolveParam param, int defaultValue) {
+        return settings.getIntSolveParam(param, defaultValue);
+    }
+
+    public double getDoubleSolveParam(SolveParam param, double defaultValue) {
+        return settings.getDoubleSolveParam(param, defaultValue);
+    }
+
+    public boolean getBooleanSolveParam(SolveParam param, boolean defaultValue) {
+        return settings.getBooleanSolveParam(param, defaultValue);
+    }
+
+    public int getIntSolveParam(SolveParam param, Integer defaultValue) {
+        return settings.getIntSolveParam(param, defaultValue);
+    }
+
+    public double getDoubleSolveParam(SolveParam param, Double defaultValue) {
+        return settings.getDoubleSolveParam(param, defaultValue);
+    }
+
+    public boolean getBooleanSolveParam(SolveParam param, Boolean defaultValue) {
+        return settings.getBooleanSolveParam(param, defaultValue);
+    }
+
+    public String getStringSolveParam(SolveParam param, String defaultValue) {
+        return settings.getStringSolveParam(param, defaultValue);
+    }
+
+    public int getIntSolveParam(SolveParam param) {
+        return settings.getIntSolveParam(param);
+    }
+
+    public double getDoubleSolveParam(SolveParam param) {
+        return settings.getDoubleSolveParam(param);
+    }
+
+    public boolean getBooleanSolveParam(SolveParam param) {
+        return settings.getBooleanSolveParam(param);
+    }
+
+    public String getStringSolveParam(SolveParam param) {
+        return settings.getStringSolveParam(param);
+    }
+
+    public void setSolveParam(SolveParam param, Object value) {
+        settings.setSolveParam(param, value);
+    }
+
+    public Set<SolveParam> getSpecifiedSolveParams() {
+        return settings.getSpecifiedSolveParams();
+    }
+
+    public boolean isSolveParamSpecified(SolveParam param) {
+        return settings.isSolveParamSpecified(param);
+    }
+
+    public void clearSolveParams() {
+        settings.clearSolveParams();
+    }
+
+    public void resetDefaultSolveParams() {
+        settings.resetDefaultSolveParams();
+    }
+
+    public void setSolveParamProfile(SolveParamProfile profile) {
+        settings.setSolveParamProfile(profile);
+    }
+
+    public SolveParamProfile getSolveParamProfile() {
+        return settings.getSolveParamProfile();
+    }
+
+    // General Functions:
+    // ///////////////////
+
+    /**
+     * Copies the files into a new directory next to the ones of this MIP.
+     */
+    public IMIP typedClone() {
+        MappedMIP ret = new MappedMIP(directory.getParent());
+        MappedFile[] from = files();
+        MappedFile[] to = ret.files();
+        for (int i = 0; i < from.length; i++) {
+            to[i].setSize(0);
+            to[i].appendFrom(from[i]);
+        }
+        ret.numColumns = numColumns;
+        ret.numSlots = numSlots;
+        ret.numRows = numRows;
+        ret.numConstraints = numConstraints;
+        ret.isMax = isMax;
+        ret.settings = (MIP) settings.typedClone();
+        return ret;
+    }
+
+    /**
+     * The model itself can be too large to print, so this only gives an overview.
+     */
+    public String toString() {
+        return "MappedMIP in " + directory + ": " + numColumns + " variables, " + numConstraints + " constraints, "
+                + (rowColumns.size() >>> 2) + " nonzeros, " + (isMax ? "Max" : "Min");
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (MappedFile file : files()) {
+            out.writeLong(file.size());
+            file.writeTo(out);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // The directory of the sender might not exist here
+        String workDir = settings.getStringSolveParam(SolveParam.WORK_DIR, "");
+        open(new File(workDir).isDirectory() ? workDir : System.getProperty("java.io.tmpdir"));
+        for (MappedFile file : files()) {
+            file.readFrom(in, in.readLong());
+        }
+    }
+}
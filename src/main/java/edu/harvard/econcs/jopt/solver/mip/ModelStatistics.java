@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.mip;
+
+import java.io.Serializable;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+
+/**
+ * Size and shape of a model, gathered in a single pass without solving it, e.g. to decide
+ * where to solve it. Constraints of a {@link MappedMIP} are read from its mapped rows rather
+ * than materialized. Constraint generators aren't run, so their constraints aren't counted.
+ */
+public class ModelStatistics implements Serializable {
+
+    private static final long serialVersionUID = 6129845102734559812L;
+
+    /**
+     * The kind of problem by the degree of its objective and constraints; integrality is orthogonal, see {@link #isMIP()}.
+     */
+    public enum ProblemClass {
+        /** Linear objective and constraints, continuous variables only **/
+        LP,
+        /** Linear objective and constraints with integer variables **/
+        MILP,
+        /** Quadratic objective, linear constraints **/
+        QP,
+        /** Quadratic constraints **/
+        QCP
+    }
+
+    private final int numVars;
+    private final int numIntegers;
+    private final int numConstraints;
+    private final long numNonZeros;
+    private final int numQuadraticObjectiveTerms;
+    private final int numQuadraticConstraintTerms;
+    private final int numGenerators;
+
+    public ModelStatistics(int numVars, int numIntegers, int numConstraints, long numNonZeros,
+                           int numQuadraticObjectiveTerms, int numQuadraticConstraintTerms, int numGenerators) {
+        this.numVars = numVars;
+        this.numIntegers = numIntegers;
+        this.numConstraints = numConstraints;
+        this.numNonZeros = numNonZeros;
+        this.numQuadraticObjectiveTerms = numQuadraticObjectiveTerms;
+        this.numQuadraticConstraintTerms = numQuadraticConstraintTerms;
+        this.numGenerators = numGenerators;
+    }
+
+    public static ModelStatistics of(IMIP mip) {
+        if (mip instanceof MappedMIP) {
+            return of((MappedMIP) mip);
+        }
+        int numIntegers = 0;
+        for (Variable var : mip.getVars().values()) {
+            if (var.getType() != VarType.DOUBLE) {
+                numIntegers++;
+            }
+        }
+        long numNonZeros = 0;
+        int numQuadraticConstraintTerms = 0;
+        for (Constraint constraint : mip.getConstraints()) {
+            numNonZeros += constraint.linearSize();
+            numQuadraticConstraintTerms += constraint.quadraticSize();
+        }
+        return new ModelStatistics(mip.getNumVars(), numIntegers, mip.getNumConstraints(), numNonZeros,
+                mip.getQuadraticObjectiveTerms().size(), numQuadraticConstraintTerms, mip.getConstraintGenerators().size());
+    }
+
+    private static ModelStatistics of(MappedMIP mip) {
+        int numIntegers = 0;
+        for (int column = 0; column < mip.getNumColumns(); column++) {
+            if (mip.getColumnType(column) != VarType.DOUBLE) {
+                numIntegers++;
+            }
+        }
+        long numNonZeros = 0;
+        MappedMIP.RowCursor rows = mip.rows();
+        while (rows.next()) {
+            numNonZeros += rows.size();
+        }
+        // Mapped models have no quadratic terms
+        return new ModelStatistics(mip.getNumVars(), numIntegers, mip.getNumConstraints(), numNonZeros, 0, 0, 0);
+    }
+
+    public int getNumVars() {
+        return numVars;
+    }
+
+    /**
+     * @return the number of integer and boolean variables
+     */
+    public int getNumIntegers() {
+        return numIntegers;
+    }
+
+    public int getNumConstraints() {
+        return numConstraints;
+    }
+
+    /**
+     * @return the number of linear terms in the constraints
+     */
+    public long getNumNonZeros() {
+        return numNonZeros;
+    }
+
+    /**
+     * @return the number of quadratic terms in the objective and the constraints
+     */
+    public int getNumQuadraticTerms() {
+        return numQuadraticObjectiveTerms + numQuadraticConstraintTerms;
+    }
+
+    public int getNumQuadraticObjectiveTerms() {
+        return numQuadraticObjectiveTerms;
+    }
+
+    public int getNumQuadraticConstraintTerms() {
+        return numQuadraticConstraintTerms;
+    }
+
+    public int getNumGenerators() {
+        return numGenerators;
+    }
+
+    public boolean isMIP() {
+        return numIntegers > 0;
+    }
+
+    public boolean isQuadratic() {
+        return getNumQuadraticTerms() > 0;
+    }
+
+    public ProblemClass getProblemClass() {
+        if (numQuadraticConstraintTerms > 0) {
+            return ProblemClass.QCP;
+        } else if (numQuadraticObjectiveTerms > 0) {
+            return ProblemClass.QP;
+        } else if (isMIP()) {
+            return ProblemClass.MILP;
+        }
+        return ProblemClass.LP;
+    }
+
+    @Override
+    public String toString() {
+        return "ModelStatistics[" + getProblemClass() + ", vars=" + numVars + ", integers=" + numIntegers + ", constraints=" + numConstraints
+                + ", nonZeros=" + numNonZeros + ", quadraticTerms=" + getNumQuadraticTerms() + ", generators=" + numGenerators + "]";
+    }
+}
@@ -33,6 +33,7 @@ package edu.harvard.econcs.jopt.solver.mip;
 import edu.harvard.econcs.jopt.solver.ISolution;
 
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -53,6 +54,21 @@ public class PoolSolution implements Serializable, ISolution {
         this.relativeGap = this.absoluteGap / (1e-10 + Math.abs(bestObjectiveValue));
     }
 
+    /**
+     * @return a copy of this solution with the offset added to the objective and the additional values set, e.g. to
+     * map it back to the MIP before presolve
+     */
+    public PoolSolution withOffset(double objectiveOffset, Map<String, Double> additionalValues) {
+        Map<String, Double> newValues = new HashMap<>(values);
+        newValues.putAll(additionalValues);
+        PoolSolution ret = new PoolSolution(objectiveValue + objectiveOffset, 0, newValues);
+        ret.relativeGap = relativeGap;
+        ret.absoluteGap = absoluteGap;
+        ret.poolRelativeGap = poolRelativeGap;
+        ret.poolAbsoluteGap = poolAbsoluteGap;
+        return ret;
+    }
+
     public void setPoolGaps(double optimalObjectiveValue) {
         this.poolAbsoluteGap = Math.abs(optimalObjectiveValue - objectiveValue);
         this.poolRelativeGap = this.poolAbsoluteGap / (1e-10 + Math.abs(optimalObjectiveValue));
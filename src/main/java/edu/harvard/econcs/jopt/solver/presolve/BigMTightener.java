@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.presolve;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.mip.CompareType;
+import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.LinearTerm;
+import edu.harvard.econcs.jopt.solver.mip.MIP;
+import edu.harvard.econcs.jopt.solver.mip.QuadraticTerm;
+import edu.harvard.econcs.jopt.solver.mip.VarType;
+import edu.harvard.econcs.jopt.solver.mip.Variable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Tightens big-M constraints, i.e. rows in which a boolean variable y has a huge coefficient to switch the rest of the
+ * row on or off (like <code>x - M y &lt;= 0</code>). First, bounds on the variables are propagated through all other
+ * rows. Then, for each big-M coefficient, the largest activity the rest of the row can take is used to shrink M to
+ * the smallest value that still switches the row off. E.g., with x &lt;= 10, <code>x + M y &lt;= M</code> becomes
+ * <code>x + 10 y &lt;= 10</code>.
+ * <p>
+ * If the rest of the row is unbounded, M can't be tightened; such rows can optionally be turned into indicator
+ * constraints instead. The big-M rows are never used to derive bounds, so tightening one can't weaken another.
+ */
+public class BigMTightener {
+
+    private static final Logger logger = LogManager.getLogger(BigMTightener.class);
+
+    private static final double EPSILON = 1e-9;
+    private static final int MAX_PASSES = 20;
+
+    private final double threshold;
+    private final boolean useIndicators;
+    private Report report;
+
+    public BigMTightener(double threshold, boolean useIndicators) {
+        this.threshold = threshold;
+        this.useIndicators = useIndicators;
+    }
+
+    public BigMTightener(IMIP mip) {
+        this(mip.getDoubleSolveParam(SolveParam.BIG_M_THRESHOLD, 1e4), mip.getBooleanSolveParam(SolveParam.BIG_M_INDICATORS, false));
+    }
+
+    /**
+     * @return the report of the last call to {@link #tighten(IMIP)}
+     */
+    public Report getReport() {
+        return report;
+    }
+
+    public PresolvedMIP tighten(IMIP mip) {
+        long startTime = System.currentTimeMillis();
+        report = new Report();
+
+        List<Row> rows = new ArrayList<>(mip.getNumConstraints());
+        List<Row> bigMRows = new ArrayList<>();
+        for (Constraint constraint : mip.getConstraints()) {
+            Row row = Row.of(mip, constraint);
+            report.before.add(constraint);
+            if (row != null) {
+                if (row.hasBigM(mip, threshold)) {
+                    bigMRows.add(row);
+                } else {
+                    rows.add(row);
+                }
+            }
+        }
+        Map<String, double[]> bounds = propagateBounds(mip, rows);
+
+        int[] tightenedToOriginal = new int[mip.getNumConstraints()];
+        MIP tightened = new MIP();
+        for (SolveParam param : mip.getSpecifiedSolveParams()) {
+            tightened.setSolveParam(param, mip.getSolveParam(param));
+        }
+        tightened.setSolveParam(SolveParam.TIGHTEN_BIG_M, false);
+        for (Variable var : mip.getVars().values()) {
+            tightened.add(var);
+        }
+        tightened.setObjectiveMax(mip.isObjectiveMax());
+        for (LinearTerm term : mip.getLinearObjectiveTerms()) {
+            tightened.addObjectiveTerm(term);
+        }
+        for (QuadraticTerm term : mip.getQuadraticObjectiveTerms()) {
+            tightened.addObjectiveTerm(term);
+        }
+        tightened.setProposedValues(mip.getProposedValuesMap());
+        tightened.setAdvancedVariablesOfInterest(mip.getAdvancedVariablesOfInterest());
+
+        Map<Constraint, Row> bigMByConstraint = new IdentityHashMap<>();
+        for (Row row : bigMRows) {
+            bigMByConstraint.put(row.original, row);
+        }
+        for (Constraint constraint : mip.getConstraints()) {
+            Row row = bigMByConstraint.get(constraint);
+            Constraint replacement = row == null ? constraint : tighten(mip, row, bounds);
+            if (replacement == constraint) {
+                // Copies, since adding a constraint to a MIP assigns its id
+                replacement = constraint.typedClone();
+            }
+            report.after.add(replacement);
+            tightened.add(replacement);
+            tightenedToOriginal[replacement.getId()] = constraint.getId();
+        }
+
+        logger.info(report + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        return new PresolvedMIP(mip, tightened, Collections.emptyMap(), 0, tightenedToOriginal, null,
+                Collections.emptyMap());
+    }
+
+    private Constraint tighten(IMIP mip, Row row, Map<String, double[]> bounds) {
+        // Work on the row in LEQ direction
+        double sign = row.type == CompareType.GEQ ? -1 : 1;
+        boolean changed = false;
+        for (int j = 0; j < row.names.length; j++) {
+            if (!row.isBigM(mip, j, threshold)) {
+                continue;
+            }
+            double a = sign * row.coefficients[j];
+            double b = sign * row.rhs;
+            double maxRest = row.maxActivity(j, sign, bounds);
+            if (Double.isInfinite(maxRest)) {
+                if (useIndicators) {
+                    Constraint indicator = row.toIndicator(mip, j, threshold);
+                    if (indicator != null) {
+                        report.indicators++;
+                        return indicator;
+                    }
+                }
+                continue;
+            }
+            if (a < 0) {
+                // y = 1 switches the row off: rest <= b - a only needs to be as loose as the rest can get
+                double newA = b - maxRest;
+                if (newA > a + EPSILON * Math.abs(a)) {
+                    row.coefficients[j] = sign * newA;
+                    changed = true;
+                }
+            } else {
+                // y = 0 switches the row off: shift both sides by the slack the rest can never use
+                double slack = b - maxRest;
+                if (slack > EPSILON * Math.abs(a)) {
+                    row.coefficients[j] = sign * (a - slack);
+                    row.rhs = sign * (b - slack);
+                    changed = true;
+                }
+            }
+        }
+        if (!changed) {
+            return row.original;
+        }
+        report.tightenedRows++;
+        return row.toConstraint(mip);
+    }
+
+    /**
+     * @return the bounds of the variables implied by the given rows, indexed by variable name
+     */
+    private Map<String, double[]> propagateBounds(IMIP mip, List<Row> rows) {
+        Map<String, double[]> bounds = new HashMap<>();
+        for (Variable var : mip.getVars().values()) {
+            bounds.put(var.getName(), new double[]{
+                    var.getLowerBound() <= -MIP.MAX_VALUE ? Double.NEGATIVE_INFINITY : var.getLowerBound(),
+                    var.getUpperBound() >= MIP.MAX_VALUE ? Double.POSITIVE_INFINITY : var.getUpperBound()});
+        }
+        boolean changed = true;
+        for (int pass = 0; changed && pass < MAX_PASSES; pass++) {
+            changed = false;
+            for (Row row : rows) {
+                if (row.type != CompareType.GEQ) {
+                    changed |= propagate(mip, row, 1, bounds);
+                }
+                if (row.type != CompareType.LEQ) {
+                    changed |= propagate(mip, row, -1, bounds);
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Propagates sign * row <= sign * rhs to the bounds of its variables.
+     */
+    private boolean propagate(IMIP mip, Row row, double sign, Map<String, double[]> bounds) {
+        double minActivity = 0;
+        int infinite = -1;
+        for (int j = 0; j < row.names.length; j++) {
+            double contribution = row.minContribution(j, sign, bounds);
+            if (Double.isInfinite(contribution)) {
+                if (infinite >= 0) {
+                    // Two unbounded contributions, nothing can be derived
+                    return false;
+                }
+                infinite = j;
+            } else {
+                minActivity += contribution;
+            }
+        }
+        boolean changed = false;
+        for (int j = 0; j < row.names.length; j++) {
+            if (infinite >= 0 && infinite != j) {
+                continue;
+            }
+            double residual = infinite == j ? minActivity : minActivity - row.minContribution(j, sign, bounds);
+            double a = sign * row.coefficients[j];
+            double bound = (sign * row.rhs - residual) / a;
+            double[] varBounds = bounds.get(row.names[j]);
+            boolean integral = mip.getVar(row.names[j]).getType() != VarType.DOUBLE;
+            if (a > 0) {
+                if (integral) {
+                    bound = Math.floor(bound + EPSILON);
+                }
+                if (bound < varBounds[1] - EPSILON * Math.max(1, Math.abs(bound)) && bound >= varBounds[0] - EPSILON) {
+                    varBounds[1] = bound;
+                    changed = true;
+                }
+            } else {
+                if (integral) {
+                    bound = Math.ceil(bound - EPSILON);
+                }
+                if (bound > varBounds[0] + EPSILON * Math.max(1, Math.abs(bound)) && bound <= varBounds[1] + EPSILON) {
+                    varBounds[0] = bound;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * A linear row with merged terms and without ignored variables.
+     */
+    private static class Row {
+        private final Constraint original;
+        private final CompareType type;
+        private final String[] names;
+        private final double[] coefficients;
+        private double rhs;
+
+        private Row(Constraint original, String[] names, double[] coefficients) {
+            this.original = original;
+            this.type = original.getType();
+            this.rhs = original.getConstant();
+            this.names = names;
+            this.coefficients = coefficients;
+        }
+
+        /**
+         * @return the row, or null if the constraint isn't a plain linear one
+         */
+        static Row of(IMIP mip, Constraint constraint) {
+            if (!constraint.getQuadraticTerms().isEmpty() || constraint.isIndicator()) {
+                return null;
+            }
+            Map<String, Double> merged = new LinkedHashMap<>();
+            for (LinearTerm term : constraint.getLinearTerms()) {
+                if (!mip.getVar(term.getVarName()).ignore()) {
+                    merged.merge(term.getVarName(), term.getCoefficient(), Double::sum);
+                }
+            }
+            merged.values().removeIf(c -> c == 0);
+            String[] names = new String[merged.size()];
+            double[] coefficients = new double[merged.size()];
+            int i = 0;
+            for (Map.Entry<String, Double> entry : merged.entrySet()) {
+                names[i] = entry.getKey();
+                coefficients[i++] = entry.getValue();
+            }
+            return new Row(constraint, names, coefficients);
+        }
+
+        boolean hasBigM(IMIP mip, double threshold) {
+            for (int j = 0; j < names.length; j++) {
+                if (isBigM(mip, j, threshold)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isBigM(IMIP mip, int j, double threshold) {
+            return type != CompareType.EQ && names.length > 1 && Math.abs(coefficients[j]) >= threshold
+                    && mip.getVar(names[j]).getType() == VarType.BOOLEAN;
+        }
+
+        /**
+         * @return the smallest value sign * coefficient * var can take
+         */
+        double minContribution(int j, double sign, Map<String, double[]> bounds) {
+            double a = sign * coefficients[j];
+            double[] varBounds = bounds.get(names[j]);
+            return a > 0 ? a * varBounds[0] : a * varBounds[1];
+        }
+
+        /**
+         * @return the largest value sign * row can take without the j-th term
+         */
+        double maxActivity(int j, double sign, Map<String, double[]> bounds) {
+            double ret = 0;
+            for (int k = 0; k < names.length; k++) {
+                if (k != j) {
+                    ret -= minContribution(k, -sign, bounds);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Turns the row into an indicator constraint on its j-th variable, if the big-M only serves to switch it off.
+         */
+        Constraint toIndicator(IMIP mip, int j, double threshold) {
+            double sign = type == CompareType.GEQ ? -1 : 1;
+            double a = sign * coefficients[j];
+            double b = sign * rhs;
+            for (int k = 0; k < names.length; k++) {
+                if (k != j && isBigM(mip, k, threshold)) {
+                    return null;
+                }
+            }
+            Constraint ret;
+            boolean activeValue;
+            if (a < 0) {
+                // rest <= b for y = 0, switched off for y = 1
+                ret = new Constraint(type, rhs, original.getDescription());
+                activeValue = false;
+            } else if (b >= threshold) {
+                // rest <= b - a for y = 1, switched off by the big constant for y = 0
+                ret = new Constraint(type, rhs - coefficients[j], original.getDescription());
+                activeValue = true;
+            } else {
+                return null;
+            }
+            ret.setGroup(original.getGroup());
+            for (int k = 0; k < names.length; k++) {
+                if (k != j) {
+                    ret.addTerm(coefficients[k], mip.getVar(names[k]));
+                }
+            }
+            ret.setIndicator(mip.getVar(names[j]), activeValue);
+            return ret;
+        }
+
+        Constraint toConstraint(IMIP mip) {
+            Constraint ret = new Constraint(type, rhs, original.getDescription());
+            ret.setGroup(original.getGroup());
+            for (int k = 0; k < names.length; k++) {
+                ret.addTerm(coefficients[k], mip.getVar(names[k]));
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Summary of a tightening run, including the range of the absolute coefficients before and after.
+     */
+    public static class Report {
+        private final CoefficientRange before = new CoefficientRange();
+        private final CoefficientRange after = new CoefficientRange();
+        private int tightenedRows;
+        private int indicators;
+
+        public int getTightenedRows() {
+            return tightenedRows;
+        }
+
+        public int getIndicators() {
+            return indicators;
+        }
+
+        public double getMinCoefficientBefore() {
+            return before.min;
+        }
+
+        public double getMaxCoefficientBefore() {
+            return before.max;
+        }
+
+        public double getMinCoefficientAfter() {
+            return after.min;
+        }
+
+        public double getMaxCoefficientAfter() {
+            return after.max;
+        }
+
+        @Override
+        public String toString() {
+            return "Big-M tightening: " + tightenedRows + " rows tightened, " + indicators
+                    + " turned into indicators, coefficient range " + before + " -> " + after;
+        }
+    }
+
+    private static class CoefficientRange {
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = 0;
+
+        void add(Constraint constraint) {
+            for (LinearTerm term : constraint.getLinearTerms()) {
+                double c = Math.abs(term.getCoefficient());
+                if (c > 0) {
+                    min = Math.min(min, c);
+                    max = Math.max(max, c);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return max == 0 ? "[]" : String.format("[%.3g, %.3g]", min, max);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.presolve;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException.Cause;
+import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.MIPResult;
+import edu.harvard.econcs.jopt.solver.mip.PoolSolution;
+import edu.harvard.econcs.jopt.solver.mip.Variable;
+import edu.harvard.econcs.jopt.solver.server.ElasticRelaxation;
+
+/**
+ * The result of a {@link Presolver} run: the reduced MIP, and what is needed to map its solution back to the
+ * original MIP.
+ */
+public class PresolvedMIP {
+
+    private final IMIP original;
+    private final IMIP reduced;
+    private final Map<String, Double> fixedValues;
+    private final double objectiveOffset;
+    /** Constraint ids of the reduced MIP to the ids of the original constraints they represent **/
+    private final int[] reducedToOriginal;
+    /** The other way around, -1 for dropped constraints **/
+    private final int[] originalToReduced;
+    /** Ids of dropped original constraints to the ids of the original constraints they were merged into, or -1 **/
+    private final int[] droppedToKept;
+    private final Map<String, List<Constraint>> boundSources;
+
+    /**
+     * @param droppedToKept indexed by the ids of the original constraints, or null if no constraints were merged
+     */
+    PresolvedMIP(IMIP original, IMIP reduced, Map<String, Double> fixedValues, double objectiveOffset,
+                 int[] reducedToOriginal, int[] droppedToKept, Map<String, List<Constraint>> boundSources) {
+        this.original = original;
+        this.reduced = reduced;
+        this.fixedValues = fixedValues;
+        this.objectiveOffset = objectiveOffset;
+        this.reducedToOriginal = reducedToOriginal;
+        this.droppedToKept = droppedToKept;
+        this.boundSources = boundSources;
+        this.originalToReduced = new int[original.getNumConstraintIds()];
+        Arrays.fill(originalToReduced, -1);
+        for (int id = 0; id < reducedToOriginal.length; id++) {
+            originalToReduced[reducedToOriginal[id]] = id;
+        }
+    }
+
+    public IMIP getOriginalMIP() {
+        return original;
+    }
+
+    public IMIP getReducedMIP() {
+        return reduced;
+    }
+
+    /**
+     * @return the part of the objective value that comes from the fixed variables
+     */
+    public double getObjectiveOffset() {
+        return objectiveOffset;
+    }
+
+    /**
+     * @return the values of the variables that were fixed and removed
+     */
+    public Map<String, Double> getFixedValues() {
+        return fixedValues;
+    }
+
+    /**
+     * @return the constraint of the reduced MIP that represents the given original constraint, or null if it was
+     * dropped because the bounds imply it (or it became a bound itself)
+     */
+    public Constraint getReducedConstraint(Constraint constraint) {
+        int id = constraint.getId();
+        while (originalToReduced[id] < 0 && droppedToKept != null && droppedToKept[id] >= 0) {
+            id = droppedToKept[id];
+        }
+        return originalToReduced[id] < 0 ? null : reduced.getConstraint(originalToReduced[id]);
+    }
+
+    /**
+     * Maps the result of the reduced MIP back to the original MIP.
+     */
+    public IMIPResult postsolve(IMIPResult result) {
+        Map<String, Double> values = new LinkedHashMap<>(result.getValues());
+        values.putAll(fixedValues);
+        MIPResult ret = new MIPResult(result.getObjectiveValue() + objectiveOffset, values, postsolveDuals(result));
+        if (result.getSlacks() != null) {
+            ret.setSlacks(MIPResult.computeSlacks(original, values));
+        }
+        ret.setSolveTime(result.getSolveTime());
+        ret.setRelativeGap(result.getRelativeGap());
+        ret.setAbsoluteGap(result.getAbsoluteGap());
+        if (result.getPoolSolutions() != null) {
+            Queue<PoolSolution> poolSolutions = new LinkedList<>();
+            for (PoolSolution poolSolution : result.getPoolSolutions()) {
+                poolSolutions.add(poolSolution.withOffset(objectiveOffset, fixedValues));
+            }
+            ret.setPoolSolutions(poolSolutions);
+        }
+        if (result.isRelaxed()) {
+            ret.setViolations(ElasticRelaxation.computeViolations(original, values));
+        }
+        return ret;
+    }
+
+    private double[] postsolveDuals(IMIPResult result) {
+        double[] duals = result.getDuals();
+        if (duals == null) {
+            return null;
+        }
+        double[] ret = new double[original.getNumConstraintIds()];
+        for (int id = 0; id < ret.length; id++) {
+            // Dropped rows are not binding
+            ret[id] = originalToReduced[id] < 0 ? 0 : duals[originalToReduced[id]];
+        }
+        return ret;
+    }
+
+    /**
+     * Maps the infeasible set of the reduced MIP back to the original MIP. Bounds that were tightened from singleton
+     * rows are reported together with these rows.
+     */
+    public MIPInfeasibleException postsolve(MIPInfeasibleException e) {
+        if (!e.isReasonKnown()) {
+            return e;
+        }
+        Map<Variable, Cause> infeasibleVariables = new HashMap<>();
+        Collection<Constraint> infeasibleConstraints = new LinkedHashSet<>();
+        for (Variable var : e.getInfeasibleVariables()) {
+            Cause cause = e.getCause(var);
+            infeasibleVariables.put(original.getVar(var.getName()), cause);
+            String key = Cause.LOWER.equals(cause) ? Presolver.lowerKey(var.getName()) : Presolver.upperKey(var.getName());
+            List<Constraint> sources = boundSources.get(key);
+            if (sources != null) {
+                infeasibleConstraints.addAll(sources);
+            }
+        }
+        for (int id : e.getInfeasibleConstraintIds()) {
+            if (id >= 0 && id < reducedToOriginal.length) {
+                infeasibleConstraints.add(original.getConstraint(reducedToOriginal[id]));
+            }
+        }
+        return new MIPInfeasibleException(infeasibleVariables, new LinkedList<>(infeasibleConstraints), e.isConflictComplete());
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.presolve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.mip.CompareType;
+import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.LinearTerm;
+import edu.harvard.econcs.jopt.solver.mip.MIP;
+import edu.harvard.econcs.jopt.solver.mip.QuadraticTerm;
+import edu.harvard.econcs.jopt.solver.mip.VarType;
+import edu.harvard.econcs.jopt.solver.mip.Variable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reduces a MIP before it is transmitted and solved. The following reductions are applied until nothing changes:
+ * <ul>
+ * <li>Fixed (lower bound == upper bound) and ignored variables are substituted out of the rows and the objective.</li>
+ * <li>Rows with a single variable become bounds on that variable (unless duals are requested).</li>
+ * <li>Empty rows and rows that are implied by the variable bounds are dropped. An empty row that is violated makes
+ * the MIP infeasible right away.</li>
+ * <li>Duplicate and parallel rows are merged, keeping the tightest one.</li>
+ * </ul>
+ * Rows with quadratic terms and indicator rows are left untouched, as are the variables they use. The original MIP is
+ * never modified; the {@link PresolvedMIP} maps the solution of the reduced MIP back to it.
+ */
+public class Presolver {
+
+    private static final Logger logger = LogManager.getLogger(Presolver.class);
+
+    private static final double EPSILON = 1e-9;
+    private static final int MAX_PASSES = 20;
+    private static final List<SolveParam> OBJECTIVE_PARAMS = Arrays.asList(SolveParam.MIN_OBJ_VALUE,
+            SolveParam.MAX_OBJ_VALUE, SolveParam.MIN_OBJ_THRESHOLD, SolveParam.MAX_OBJ_THRESHOLD);
+
+    public PresolvedMIP presolve(IMIP mip) {
+        long startTime = System.currentTimeMillis();
+        boolean keepSingletons = mip.getBooleanSolveParam(SolveParam.CALC_DUALS, false);
+
+        // Variables in quadratic terms stay as they are
+        Set<String> protectedVars = new HashSet<>();
+        for (QuadraticTerm term : mip.getQuadraticObjectiveTerms()) {
+            protectedVars.add(term.getVarNameA());
+            protectedVars.add(term.getVarNameB());
+        }
+        List<Row> rows = new ArrayList<>(mip.getNumConstraints());
+        List<Constraint> untouchedRows = new ArrayList<>();
+        for (Constraint constraint : mip.getConstraints()) {
+            if (constraint.getQuadraticTerms().isEmpty() && !constraint.isIndicator()) {
+                rows.add(new Row(constraint));
+            } else {
+                untouchedRows.add(constraint);
+                for (LinearTerm term : constraint.getLinearTerms()) {
+                    protectedVars.add(term.getVarName());
+                }
+                for (QuadraticTerm term : constraint.getQuadraticTerms()) {
+                    protectedVars.add(term.getVarNameA());
+                    protectedVars.add(term.getVarNameB());
+                }
+                if (constraint.isIndicator()) {
+                    protectedVars.add(constraint.getIndicatorVarName());
+                }
+            }
+        }
+
+        Map<String, Variable> vars = new LinkedHashMap<>();
+        Set<String> removedVars = new HashSet<>();
+        for (Variable var : mip.getVars().values()) {
+            if (var.ignore() && !protectedVars.contains(var.getName())) {
+                removedVars.add(var.getName());
+            } else {
+                vars.put(var.getName(), var.typedClone());
+            }
+        }
+
+        Map<String, Double> fixedValues = new HashMap<>();
+        int[] droppedToKept = new int[mip.getNumConstraintIds()];
+        Arrays.fill(droppedToKept, -1);
+        Map<String, List<Constraint>> boundSources = new HashMap<>();
+        boolean changed = true;
+        for (int pass = 0; changed && pass < MAX_PASSES; pass++) {
+            changed = false;
+            for (Variable var : vars.values()) {
+                if (!protectedVars.contains(var.getName()) && !var.ignore()
+                        && !fixedValues.containsKey(var.getName()) && var.getLowerBound() == var.getUpperBound()) {
+                    fixedValues.put(var.getName(), var.getLowerBound());
+                    removedVars.add(var.getName());
+                }
+            }
+            List<Row> remaining = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                row.substitute(removedVars, fixedValues);
+                if (row.coefficients.isEmpty()) {
+                    if (!row.isSatisfiedByZero()) {
+                        // Backends skip empty rows, so report it right away
+                        throw new MIPInfeasibleException(new HashMap<>(), Collections.singletonList(row.original));
+                    }
+                    changed = true;
+                    continue;
+                } else if (row.coefficients.size() == 1 && !keepSingletons) {
+                    if (toBound(row, vars, boundSources)) {
+                        changed = true;
+                        continue;
+                    }
+                } else if (row.isRedundant(vars)) {
+                    changed = true;
+                    continue;
+                }
+                remaining.add(row);
+            }
+            rows = remaining;
+        }
+        rows = mergeParallelRows(rows, droppedToKept);
+
+        // Build the reduced MIP:
+        MIP reduced = new MIP();
+        for (SolveParam param : mip.getSpecifiedSolveParams()) {
+            reduced.setSolveParam(param, mip.getSolveParam(param));
+        }
+        reduced.setSolveParam(SolveParam.JAVA_PRESOLVE, false);
+        for (Variable var : vars.values()) {
+            if (!removedVars.contains(var.getName())) {
+                reduced.add(var);
+            }
+        }
+        double objectiveOffset = 0;
+        reduced.setObjectiveMax(mip.isObjectiveMax());
+        for (LinearTerm term : mip.getLinearObjectiveTerms()) {
+            String name = term.getVarName();
+            if (fixedValues.containsKey(name)) {
+                objectiveOffset += term.getCoefficient() * fixedValues.get(name);
+            } else if (!removedVars.contains(name)) {
+                reduced.addObjectiveTerm(term.getCoefficient(), reduced.getVar(name));
+            }
+        }
+        for (QuadraticTerm term : mip.getQuadraticObjectiveTerms()) {
+            reduced.addObjectiveTerm(term.typedClone());
+        }
+        // The objective bounds and thresholds refer to the original objective
+        for (SolveParam param : OBJECTIVE_PARAMS) {
+            if (mip.isSolveParamSpecified(param)) {
+                reduced.setSolveParam(param, mip.getDoubleSolveParam(param) - objectiveOffset);
+            }
+        }
+
+        int[] reducedToOriginal = new int[rows.size() + untouchedRows.size()];
+        for (Row row : rows) {
+            Constraint constraint = new Constraint(row.type, row.rhs, row.original.getDescription());
+            constraint.setGroup(row.original.getGroup());
+            for (Map.Entry<String, Double> entry : row.coefficients.entrySet()) {
+                constraint.addTerm(entry.getValue(), reduced.getVar(entry.getKey()));
+            }
+            reduced.add(constraint);
+            reducedToOriginal[constraint.getId()] = row.original.getId();
+        }
+        for (Constraint constraint : untouchedRows) {
+            Constraint copy = constraint.typedClone();
+            reduced.add(copy);
+            reducedToOriginal[copy.getId()] = constraint.getId();
+        }
+
+        if (mip.getProposedValuesMap() != null) {
+            Map<Variable, Object> proposedValues = new HashMap<>();
+            for (Map.Entry<Variable, Object> entry : mip.getProposedValuesMap().entrySet()) {
+                if (!removedVars.contains(entry.getKey().getName())) {
+                    proposedValues.put(reduced.getVar(entry.getKey().getName()), entry.getValue());
+                }
+            }
+            reduced.setProposedValues(proposedValues);
+        }
+        if (mip.getAdvancedVariablesOfInterest() != null) {
+            Collection<Collection<Variable>> variablesOfInterest = new ArrayList<>();
+            for (Collection<Variable> set : mip.getAdvancedVariablesOfInterest()) {
+                Collection<Variable> kept = new ArrayList<>();
+                for (Variable var : set) {
+                    if (!removedVars.contains(var.getName())) {
+                        kept.add(reduced.getVar(var.getName()));
+                    }
+                }
+                if (!kept.isEmpty()) {
+                    variablesOfInterest.add(kept);
+                }
+            }
+            reduced.setAdvancedVariablesOfInterest(variablesOfInterest);
+        }
+
+        logger.info("Presolve removed " + (mip.getNumVars() - reduced.getNumVars()) + " of " + mip.getNumVars()
+                + " variables and " + (mip.getNumConstraints() - reduced.getNumConstraints()) + " of "
+                + mip.getNumConstraints() + " constraints in " + (System.currentTimeMillis() - startTime) + " ms");
+        return new PresolvedMIP(mip, reduced, fixedValues, objectiveOffset, reducedToOriginal, droppedToKept, boundSources);
+    }
+
+    /**
+     * Turns a singleton row into a bound on its variable.
+     * @return false if the bound would make the variable infeasible, in which case the row is kept as is
+     */
+    private boolean toBound(Row row, Map<String, Variable> vars, Map<String, List<Constraint>> boundSources) {
+        Map.Entry<String, Double> entry = row.coefficients.entrySet().iterator().next();
+        Variable var = vars.get(entry.getKey());
+        if (var.ignore()) {
+            return false;
+        }
+        double coefficient = entry.getValue();
+        double value = row.rhs / coefficient;
+        CompareType type = row.type;
+        if (coefficient < 0) {
+            type = type == CompareType.LEQ ? CompareType.GEQ : type == CompareType.GEQ ? CompareType.LEQ : type;
+        }
+        double lower = var.getLowerBound();
+        double upper = var.getUpperBound();
+        if (type != CompareType.LEQ) {
+            lower = Math.max(lower, value);
+        }
+        if (type != CompareType.GEQ) {
+            upper = Math.min(upper, value);
+        }
+        if (var.getType() != VarType.DOUBLE) {
+            lower = Math.ceil(lower - EPSILON);
+            upper = Math.floor(upper + EPSILON);
+        }
+        if (lower > upper + EPSILON) {
+            return false;
+        }
+        if (upper < lower) {
+            // Within tolerance
+            upper = lower;
+        }
+        if (lower > var.getLowerBound()) {
+            var.setLowerBound(lower);
+            boundSources.computeIfAbsent(lowerKey(var.getName()), k -> new ArrayList<>()).add(row.original);
+        }
+        if (upper < var.getUpperBound()) {
+            var.setUpperBound(upper);
+            boundSources.computeIfAbsent(upperKey(var.getName()), k -> new ArrayList<>()).add(row.original);
+        }
+        return true;
+    }
+
+    static String lowerKey(String varName) {
+        return "lb:" + varName;
+    }
+
+    static String upperKey(String varName) {
+        return "ub:" + varName;
+    }
+
+    /**
+     * Rows that are equal after scaling are merged, keeping the tightest one of each sense. The merged rows are
+     * recorded in droppedToKept by constraint id, possibly pointing to a row that was itself merged later on.
+     */
+    private List<Row> mergeParallelRows(List<Row> rows, int[] droppedToKept) {
+        Map<RowKey, Row[]> kept = new HashMap<>();
+        List<Row> ret = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            String[] names = row.coefficients.keySet().toArray(new String[row.coefficients.size()]);
+            Arrays.sort(names);
+            double scale = row.coefficients.get(names[0]);
+            double[] coefficients = new double[names.length];
+            for (int i = 0; i < names.length; i++) {
+                coefficients[i] = row.coefficients.get(names[i]) / scale;
+            }
+            CompareType type = row.type;
+            if (scale < 0) {
+                type = type == CompareType.LEQ ? CompareType.GEQ : type == CompareType.GEQ ? CompareType.LEQ : type;
+            }
+            double rhs = row.rhs / scale;
+
+            Row[] byType = kept.computeIfAbsent(new RowKey(names, coefficients), k -> new Row[3]);
+            int slot = type == CompareType.LEQ ? 0 : type == CompareType.GEQ ? 1 : 2;
+            Row other = byType[slot];
+            if (other == null) {
+                row.normalizedRhs = rhs;
+                row.position = ret.size();
+                byType[slot] = row;
+                ret.add(row);
+            } else if (type == CompareType.EQ) {
+                if (Math.abs(other.normalizedRhs - rhs) <= EPSILON) {
+                    droppedToKept[row.original.getId()] = other.original.getId();
+                } else {
+                    // Contradicting equalities, let the solver report them
+                    ret.add(row);
+                }
+            } else if (type == CompareType.LEQ ? rhs < other.normalizedRhs : rhs > other.normalizedRhs) {
+                row.normalizedRhs = rhs;
+                row.position = other.position;
+                byType[slot] = row;
+                ret.set(row.position, row);
+                // Rows that were merged into the other one are now represented by this one as well
+                droppedToKept[other.original.getId()] = row.original.getId();
+            } else {
+                droppedToKept[row.original.getId()] = other.original.getId();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * A linear row during presolve.
+     */
+    private static class Row {
+        private final Constraint original;
+        private final CompareType type;
+        private final Map<String, Double> coefficients = new LinkedHashMap<>();
+        private double rhs;
+        private double normalizedRhs;
+        private int position;
+
+        Row(Constraint original) {
+            this.original = original;
+            this.type = original.getType();
+            this.rhs = original.getConstant();
+            for (LinearTerm term : original.getLinearTerms()) {
+                coefficients.merge(term.getVarName(), term.getCoefficient(), Double::sum);
+            }
+            coefficients.values().removeIf(c -> c == 0);
+        }
+
+        void substitute(Set<String> removedVars, Map<String, Double> fixedValues) {
+            coefficients.entrySet().removeIf(entry -> {
+                if (!removedVars.contains(entry.getKey())) {
+                    return false;
+                }
+                Double value = fixedValues.get(entry.getKey());
+                if (value != null) {
+                    rhs -= entry.getValue() * value;
+                }
+                return true;
+            });
+        }
+
+        boolean isSatisfiedByZero() {
+            switch (type) {
+                case LEQ:
+                    return rhs >= -EPSILON;
+                case GEQ:
+                    return rhs <= EPSILON;
+                default:
+                    return Math.abs(rhs) <= EPSILON;
+            }
+        }
+
+        /**
+         * @return true if the variable bounds already imply this row
+         */
+        boolean isRedundant(Map<String, Variable> vars) {
+            if (type == CompareType.EQ) {
+                return false;
+            }
+            double minActivity = 0;
+            double maxActivity = 0;
+            for (Map.Entry<String, Double> entry : coefficients.entrySet()) {
+                Variable var = vars.get(entry.getKey());
+                if (var.ignore() || var.getLowerBound() <= -MIP.MAX_VALUE || var.getUpperBound() >= MIP.MAX_VALUE) {
+                    return false;
+                }
+                double c = entry.getValue();
+                minActivity += c * (c > 0 ? var.getLowerBound() : var.getUpperBound());
+                maxActivity += c * (c > 0 ? var.getUpperBound() : var.getLowerBound());
+            }
+            return type == CompareType.LEQ ? maxActivity <= rhs + EPSILON : minActivity >= rhs - EPSILON;
+        }
+    }
+
+    private static class RowKey {
+        private final String[] names;
+        private final double[] coefficients;
+        private final int hashCode;
+
+        RowKey(String[] names, double[] coefficients) {
+            this.names = names;
+            this.coefficients = coefficients;
+            this.hashCode = 31 * Arrays.hashCode(names) + Arrays.hashCode(coefficients);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RowKey)) {
+                return false;
+            }
+            RowKey other = (RowKey) obj;
+            return hashCode == other.hashCode && Arrays.equals(names, other.names)
+                    && Arrays.equals(coefficients, other.coefficients);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.MIPException;
+
+/**
+ * The cancellable solves running on a server, by request id. A cancel can overtake its request, e.g. when
+ * the request is still being deserialized, so a cancel for an unknown id is remembered for a while and
+ * the request is refused when it registers.
+ */
+class CancellableRequests {
+
+    /** How long a cancel waits for its request **/
+    static final long TOMBSTONE_MILLIS = 60000;
+
+    private final ConcurrentMap<String, AbortHandle> running = new ConcurrentHashMap<>();
+    /** The ids of requests cancelled before they registered, with the time they are forgotten **/
+    private final ConcurrentMap<String, Long> cancelled = new ConcurrentHashMap<>();
+
+    /**
+     * @throws MIPException if the request was cancelled already
+     */
+    void register(String requestId, AbortHandle abort) {
+        running.put(requestId, abort);
+        if (cancelled.remove(requestId) != null) {
+            running.remove(requestId, abort);
+            abort.abort();
+            throw new MIPException("Request " + requestId + " was cancelled before it started");
+        }
+    }
+
+    void unregister(String requestId, AbortHandle abort) {
+        running.remove(requestId, abort);
+    }
+
+    /**
+     * @return false if the request isn't running (yet)
+     */
+    boolean cancel(String requestId) {
+        long now = System.currentTimeMillis();
+        cancelled.values().removeIf(expiry -> expiry < now);
+        // Marked first, so a request registering concurrently sees either the mark or is found below
+        cancelled.put(requestId, now + TOMBSTONE_MILLIS);
+        AbortHandle abort = running.get(requestId);
+        if (abort == null) {
+            return false;
+        }
+        cancelled.remove(requestId);
+        abort.abort();
+        return true;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+
+/**
+ * Streams a serialized model to a remote solver in chunks, so that neither the client nor the server
+ * has to hold it in a single byte array, which can't exceed 2 GB. Write the model to it, close it, and
+ * solve it with {@link IRemoteMIPSolver#solveUploaded(String, String, long)} under {@link #getUploadId()}.
+ * A failed call to the server is thrown as the RemoteException it is.
+ */
+public class ChunkedUpload extends OutputStream {
+
+    /** The default size of the chunks sent to the server **/
+    public static final int CHUNK_SIZE = 16 << 20;
+
+    private final IRemoteMIPSolver solver;
+    private final String uploadId;
+    private final byte[] buffer;
+    private int count = 0;
+    private boolean closed = false;
+
+    public ChunkedUpload(IRemoteMIPSolver solver) throws RemoteException {
+        this(solver, CHUNK_SIZE);
+    }
+
+    public ChunkedUpload(IRemoteMIPSolver solver, int chunkSize) throws RemoteException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.solver = solver;
+        this.buffer = new byte[chunkSize];
+        this.uploadId = solver.beginUpload();
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            send();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                send();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Sends the last chunk. Flushing doesn't send anything, so the chunks stay full.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (count > 0) {
+            send();
+        }
+    }
+
+    private void send() throws RemoteException {
+        solver.uploadChunk(uploadId, count == buffer.length ? buffer : Arrays.copyOf(buffer, count));
+        count = 0;
+    }
+}
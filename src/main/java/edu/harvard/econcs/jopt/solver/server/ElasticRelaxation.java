@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.IMIPSolver;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.mip.CompareType;
+import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.ConstraintGenerator;
+import edu.harvard.econcs.jopt.solver.mip.LinearTerm;
+import edu.harvard.econcs.jopt.solver.mip.MIP;
+import edu.harvard.econcs.jopt.solver.mip.MIPResult;
+import edu.harvard.econcs.jopt.solver.mip.QuadraticTerm;
+import edu.harvard.econcs.jopt.solver.mip.VarType;
+import edu.harvard.econcs.jopt.solver.mip.Variable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Solves the feasibility relaxation of an infeasible MIP for backends without a native one (like CPLEX's feasOpt).
+ * Every constraint gets a non-negative elastic variable that absorbs its violation. The first solve minimizes
+ * the total violation; if the MIP has an objective, a second solve optimizes it while keeping the total violation
+ * at that minimum.
+ */
+public class ElasticRelaxation {
+
+    private static final Logger logger = LogManager.getLogger(ElasticRelaxation.class);
+
+    /** Violations below this are considered numerical noise **/
+    private static final double VIOLATION_TOLERANCE = 1e-6;
+
+    private static final String ELASTIC_PREFIX = "__elastic_";
+
+    private final IMIPSolver solver;
+
+    /**
+     * @param solver the solver for the elastic reformulation. It is never infeasible, as long as the variable bounds
+     *               are consistent.
+     */
+    public ElasticRelaxation(IMIPSolver solver) {
+        this.solver = solver;
+    }
+
+    public IMIPResult solve(IMIP mip) {
+        long startTime = System.currentTimeMillis();
+        MIP elastic = new MIP();
+        for (SolveParam param : mip.getSpecifiedSolveParams()) {
+            elastic.setSolveParam(param, mip.getSolveParam(param));
+        }
+        elastic.setSolveParam(SolveParam.FEASIBILITY_RELAXATION, false);
+        elastic.setSolveParam(SolveParam.CALCULATE_CONFLICT_SET, false);
+        elastic.setSolveParam(SolveParam.CALC_DUALS, false);
+        for (Variable var : mip.getVars().values()) {
+            elastic.add(var.typedClone());
+        }
+
+        List<Variable> elasticVars = new ArrayList<>();
+        for (Constraint constraint : mip.getConstraints()) {
+            Constraint copy = constraint.typedClone();
+            if (constraint.getType() != CompareType.LEQ) {
+                copy.addTerm(1, createElasticVar(elastic, elasticVars));
+            }
+            if (constraint.getType() != CompareType.GEQ) {
+                copy.addTerm(-1, createElasticVar(elastic, elasticVars));
+            }
+            elastic.add(copy);
+        }
+        // Generated constraints are never relaxed, they stay hard
+        for (ConstraintGenerator generator : mip.getConstraintGenerators()) {
+            elastic.addConstraintGenerator(generator);
+        }
+
+        // Phase 1: minimize the total violation
+        elastic.setObjectiveMax(false);
+        for (Variable var : elasticVars) {
+            elastic.addObjectiveTerm(1, var);
+        }
+        IMIPResult result = solver.solve(elastic);
+        double minViolation = result.getObjectiveValue();
+        logger.info("Minimum total violation of the feasibility relaxation: " + minViolation);
+
+        // Phase 2: optimize the original objective among the least violating solutions
+        double objectiveValue = 0;
+        if (!mip.getObjectiveTerms().isEmpty()) {
+            Constraint totalViolation = new Constraint(CompareType.LEQ,
+                    minViolation + VIOLATION_TOLERANCE * Math.max(1, minViolation), "totalViolation");
+            for (Variable var : elasticVars) {
+                totalViolation.addTerm(1, var);
+            }
+            elastic.add(totalViolation);
+            elastic.clearObjective();
+            elastic.setObjectiveMax(mip.isObjectiveMax());
+            for (LinearTerm term : mip.getLinearObjectiveTerms()) {
+                elastic.addObjectiveTerm(term.typedClone());
+            }
+            for (QuadraticTerm term : mip.getQuadraticObjectiveTerms()) {
+                elastic.addObjectiveTerm(term.typedClone());
+            }
+            result = solver.solve(elastic);
+            objectiveValue = result.getObjectiveValue();
+        }
+
+        Map<String, Double> values = new HashMap<>();
+        for (Variable var : mip.getVars().values()) {
+            if (!var.ignore()) {
+                values.put(var.getName(), result.getValue(var.getName()));
+            }
+        }
+        MIPResult ret = new MIPResult(objectiveValue, values, null);
+        ret.setViolations(computeViolations(mip, values));
+        ret.setSolveTime(System.currentTimeMillis() - startTime);
+        return ret;
+    }
+
+    private Variable createElasticVar(MIP elastic, List<Variable> elasticVars) {
+        String name = ELASTIC_PREFIX + elasticVars.size();
+        while (elastic.containsVar(name)) {
+            name = "_" + name;
+        }
+        Variable var = new Variable(name, VarType.DOUBLE, 0, MIP.MAX_VALUE);
+        elastic.add(var);
+        elasticVars.add(var);
+        return var;
+    }
+
+    /**
+     * @return by how much each constraint of the MIP is violated by the given values, indexed by constraint id.
+     */
+    public static double[] computeViolations(IMIP mip, Map<String, Double> values) {
+        double[] ret = MIPResult.computeSlacks(mip, values);
+        for (int id = 0; id < ret.length; id++) {
+            Constraint constraint = mip.getConstraint(id);
+            if (constraint == null) {
+                ret[id] = 0;
+                continue;
+            }
+            double violation = constraint.getType() == CompareType.EQ ? Math.abs(ret[id]) : -ret[id];
+            if (constraint.isIndicator()
+                    && (getValue(values, constraint.getIndicatorVarName()) > 0.5) != constraint.getIndicatorValue()) {
+                // Not active
+                violation = 0;
+            }
+            ret[id] = violation > VIOLATION_TOLERANCE ? violation : 0;
+        }
+        return ret;
+    }
+
+    private static double getValue(Map<String, Double> values, String varName) {
+        Double ret = values.get(varName);
+        return ret == null ? 0 : ret;
+    }
+}
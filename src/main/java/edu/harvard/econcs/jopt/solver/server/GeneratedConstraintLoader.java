@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.ConstraintGenerator;
+
+/**
+ * Evaluates the constraint generators of a MIP and hands the constraints to a solver adapter in chunks. With more
+ * than one thread, each spliterator is split into parts that are traversed in parallel; the chunks are still
+ * passed on one at a time, so the adapter doesn't need to be thread-safe. At most one chunk per thread is held
+ * in memory.
+ */
+public class GeneratedConstraintLoader {
+
+    /**
+     * Receives the generated constraints, one chunk at a time.
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(List<Constraint> chunk) throws Exception;
+    }
+
+    private final int threads;
+    private final int chunkSize;
+
+    public GeneratedConstraintLoader(IMIP mip) {
+        this(mip.getIntSolveParam(SolveParam.GENERATOR_THREADS, 1), mip.getIntSolveParam(SolveParam.GENERATOR_CHUNK_SIZE, 10000));
+    }
+
+    public GeneratedConstraintLoader(int threads, int chunkSize) {
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public void load(List<ConstraintGenerator> generators, ChunkConsumer consumer) {
+        if (generators.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            for (ConstraintGenerator generator : generators) {
+                if (executor == null) {
+                    traverse(generator.spliterator(), consumer);
+                } else {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (Spliterator<Constraint> part : split(generator.spliterator())) {
+                        futures.add(executor.submit(() -> {
+                            traverse(part, consumer);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MIPException("Interrupted while generating constraints", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MIPException) {
+                throw (MIPException) e.getCause();
+            }
+            throw new MIPException("Could not generate constraints", e.getCause());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Splits the spliterator into about as many parts as there are threads, as far as it allows.
+     */
+    private List<Spliterator<Constraint>> split(Spliterator<Constraint> spliterator) {
+        List<Spliterator<Constraint>> parts = new ArrayList<>();
+        parts.add(spliterator);
+        boolean split = true;
+        while (parts.size() < threads && split) {
+            split = false;
+            for (int i = parts.size() - 1; i >= 0 && parts.size() < threads; i--) {
+                Spliterator<Constraint> prefix = parts.get(i).trySplit();
+                if (prefix != null) {
+                    parts.add(prefix);
+                    split = true;
+                }
+            }
+        }
+        return parts;
+    }
+
+    private void traverse(Spliterator<Constraint> spliterator, ChunkConsumer consumer) {
+        List<Constraint> chunk = new ArrayList<>(chunkSize);
+        while (spliterator.tryAdvance(chunk::add)) {
+            if (chunk.size() == chunkSize) {
+                pass(chunk, consumer);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            pass(chunk, consumer);
+        }
+    }
+
+    private void pass(List<Constraint> chunk, ChunkConsumer consumer) {
+        synchronized (consumer) {
+            try {
+                consumer.accept(chunk);
+            } catch (MIPException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new MIPException("Could not load generated constraints", e);
+            }
+        }
+    }
+}
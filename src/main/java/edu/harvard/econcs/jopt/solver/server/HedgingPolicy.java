@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Decides when the load balancer sends a request that hasn't been answered yet to a second
+ * drone, and keeps the metrics of doing so. The delay is a percentile of the latencies of recent
+ * solves, so only the slowest requests are hedged.
+ * <p>
+ * Configured through the balancer properties:
+ * <ul>
+ * <li>hedge.percentile: the percentile of recent latencies after which a request is hedged, e.g. 0.95.
+ * Hedging is off if it isn't given.</li>
+ * <li>hedge.initialDelay: the delay in millis until enough latencies are known, 5000 by default</li>
+ * <li>hedge.minDelay: the smallest delay in millis, 100 by default</li>
+ * <li>hedge.minSamples: the number of latencies needed to use the percentile, 20 by default</li>
+ * <li>hedge.window: the number of recent latencies kept, 1000 by default</li>
+ * </ul>
+ */
+public class HedgingPolicy {
+
+    private final double percentile;
+    private final long initialDelay;
+    private final long minDelay;
+    private final int minSamples;
+    private final long[] latencies;
+    private int numLatencies = 0;
+    private int next = 0;
+    private long requests = 0;
+    private long hedges = 0;
+    private long wins = 0;
+
+    public HedgingPolicy(double percentile, long initialDelay, long minDelay, int minSamples, int window) {
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be in (0, 1]: " + percentile);
+        }
+        this.percentile = percentile;
+        this.initialDelay = initialDelay;
+        this.minDelay = minDelay;
+        this.minSamples = minSamples;
+        this.latencies = new long[window];
+    }
+
+    /**
+     * @return the policy configured in the properties, or null if hedging is off
+     */
+    public static HedgingPolicy fromProperties(Properties props) {
+        String percentile = props.getProperty("hedge.percentile");
+        if (percentile == null) {
+            return null;
+        }
+        return new HedgingPolicy(Double.parseDouble(percentile),
+                Long.parseLong(props.getProperty("hedge.initialDelay", "5000")),
+                Long.parseLong(props.getProperty("hedge.minDelay", "100")),
+                Integer.parseInt(props.getProperty("hedge.minSamples", "20")),
+                Integer.parseInt(props.getProperty("hedge.window", "1000")));
+    }
+
+    /**
+     * @return the millis to wait for the first drone before sending the request to a second one
+     */
+    public synchronized long getDelay() {
+        if (numLatencies < minSamples) {
+            return Math.max(minDelay, initialDelay);
+        }
+        long[] sorted = Arrays.copyOf(latencies, numLatencies);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * numLatencies) - 1;
+        return Math.max(minDelay, sorted[Math.max(0, index)]);
+    }
+
+    /**
+     * Records the latency of a drone that answered.
+     */
+    public synchronized void recordLatency(long millis) {
+        latencies[next] = millis;
+        next = (next + 1) % latencies.length;
+        numLatencies = Math.min(numLatencies + 1, latencies.length);
+    }
+
+    synchronized void countRequest() {
+        requests++;
+    }
+
+    synchronized void countHedge() {
+        hedges++;
+    }
+
+    synchronized void countWin() {
+        wins++;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of requests sent to a second drone
+     */
+    public synchronized long getHedges() {
+        return hedges;
+    }
+
+    /**
+     * @return the number of hedged requests the second drone answered first
+     */
+    public synchronized long getWins() {
+        return wins;
+    }
+
+    public synchronized double getHedgeRate() {
+        return requests == 0 ? 0 : (double) hedges / requests;
+    }
+
+    public synchronized String toString() {
+        return "HedgingPolicy[requests=" + requests + ", hedges=" + hedges + ", wins=" + wins
+                + ", delay=" + getDelay() + "ms]";
+    }
+}
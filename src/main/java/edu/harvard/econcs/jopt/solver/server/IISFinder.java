@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPSolver;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException.Cause;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.ConstraintGenerator;
+import edu.harvard.econcs.jopt.solver.mip.MIP;
+import edu.harvard.econcs.jopt.solver.mip.VarType;
+import edu.harvard.econcs.jopt.solver.mip.Variable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Computes an irreducible infeasible subset (IIS) of an infeasible MIP for backends that don't have a conflict
+ * refiner of their own. The members of the subset are the constraints and the finite bounds of the non-boolean
+ * variables; integrality is left untouched.
+ * <p>
+ * The search first runs a grouped deletion filter: the current infeasible set is split into chunks, and the
+ * sub-problems without each of the chunks are checked in parallel, each worker on its own solver instance.
+ * Chunks that can be dropped are removed, and the chunk size is halved whenever none can. A final sequential
+ * deletion filter over the single members then makes the subset irreducible. Members are only ever dropped
+ * after the remaining set was shown to be infeasible, so if the time budget runs out, the subset found so far
+ * is still infeasible and is reported as partial.
+ */
+public class IISFinder {
+
+    private static final Logger logger = LogManager.getLogger(IISFinder.class);
+
+    private final Supplier<IMIPSolver> solverFactory;
+    private final int threads;
+
+    /**
+     * @param solverFactory creates the solver instances used for the feasibility checks. One instance is created per
+     *                      worker thread, so the solvers don't need to be thread-safe.
+     * @param threads       the number of feasibility checks to run in parallel
+     */
+    public IISFinder(Supplier<IMIPSolver> solverFactory, int threads) {
+        this.solverFactory = solverFactory;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param mip       an infeasible MIP
+     * @param timeLimit the budget in seconds; non-positive means no limit
+     * @return the exception describing the infeasible subset
+     */
+    public MIPInfeasibleException findIIS(IMIP mip, double timeLimit) {
+        long startTime = System.currentTimeMillis();
+        long deadline = timeLimit > 0 ? startTime + (long) (timeLimit * 1000) : Long.MAX_VALUE;
+        List<Member> all = getMembers(mip);
+        List<Member> members = new ArrayList<>(all);
+        ThreadLocal<IMIPSolver> solvers = ThreadLocal.withInitial(solverFactory);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        boolean complete;
+        try {
+            complete = groupedDeletion(mip, all, members, executor, solvers, deadline)
+                    && sequentialDeletion(mip, all, members, solvers.get(), deadline);
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.info("Found " + (complete ? "" : "partial ") + "infeasible subset of " + members.size() + " members in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+
+        Map<Variable, Cause> infeasibleVariables = new HashMap<>();
+        Collection<Constraint> infeasibleConstraints = new LinkedList<>();
+        for (Member member : members) {
+            if (member.constraint != null) {
+                infeasibleConstraints.add(member.constraint);
+            } else {
+                infeasibleVariables.put(member.var, member.cause);
+            }
+        }
+        return new MIPInfeasibleException(infeasibleVariables, infeasibleConstraints, complete);
+    }
+
+    private List<Member> getMembers(IMIP mip) {
+        List<Member> ret = new ArrayList<>();
+        for (Variable var : mip.getVars().values()) {
+            if (var.ignore() || var.getType() == VarType.BOOLEAN) {
+                continue;
+            }
+            if (var.getLowerBound() > -MIP.MAX_VALUE) {
+                ret.add(new Member(ret.size(), var, Cause.LOWER));
+            }
+            if (var.getUpperBound() < MIP.MAX_VALUE) {
+                ret.add(new Member(ret.size(), var, Cause.UPPER));
+            }
+        }
+        for (Constraint constraint : mip.getConstraints()) {
+            ret.add(new Member(ret.size(), constraint));
+        }
+        return ret;
+    }
+
+    /**
+     * @return false if the budget ran out
+     */
+    private boolean groupedDeletion(IMIP mip, List<Member> all, List<Member> current, ExecutorService executor,
+                                    ThreadLocal<IMIPSolver> solvers, long deadline) {
+        int chunkSize = Math.min((current.size() + threads - 1) / threads, (current.size() + 1) / 2);
+        while (chunkSize > 1) {
+            List<List<Member>> chunks = new ArrayList<>();
+            for (int i = 0; i < current.size(); i += chunkSize) {
+                chunks.add(new ArrayList<>(current.subList(i, Math.min(i + chunkSize, current.size()))));
+            }
+            List<Future<Boolean>> futures = new ArrayList<>(chunks.size());
+            for (List<Member> chunk : chunks) {
+                List<Member> candidate = without(current, chunk);
+                futures.add(executor.submit(() -> isFeasible(mip, all, candidate, solvers.get(), deadline)));
+            }
+            List<Member> removable = new ArrayList<>();
+            List<Member> firstRemovable = null;
+            for (int i = 0; i < futures.size(); i++) {
+                Boolean feasible = getResult(futures.get(i));
+                if (feasible == null) {
+                    return false;
+                }
+                if (!feasible) {
+                    removable.addAll(chunks.get(i));
+                    if (firstRemovable == null) {
+                        firstRemovable = chunks.get(i);
+                    }
+                }
+            }
+            if (firstRemovable == null) {
+                chunkSize /= 2;
+                continue;
+            }
+            // Each chunk could be dropped on its own, but not necessarily all of them together
+            if (removable.size() > firstRemovable.size()) {
+                List<Member> candidate = without(current, removable);
+                Boolean feasible = isFeasible(mip, all, candidate, solvers.get(), deadline);
+                if (feasible == null) {
+                    return false;
+                }
+                if (!feasible) {
+                    current.clear();
+                    current.addAll(candidate);
+                    continue;
+                }
+            }
+            List<Member> remaining = without(current, firstRemovable);
+            current.clear();
+            current.addAll(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the budget ran out
+     */
+    private boolean sequentialDeletion(IMIP mip, List<Member> all, List<Member> current, IMIPSolver solver, long deadline) {
+        int i = 0;
+        while (i < current.size()) {
+            List<Member> candidate = new ArrayList<>(current);
+            candidate.remove(i);
+            Boolean feasible = isFeasible(mip, all, candidate, solver, deadline);
+            if (feasible == null) {
+                return false;
+            }
+            if (feasible) {
+                i++;
+            } else {
+                current.remove(i);
+            }
+        }
+        return true;
+    }
+
+    private Boolean getResult(Future<Boolean> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new MIPException("Feasibility check failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return whether the sub-problem with only the given members is feasible, or null if that could not be
+     * determined within the budget.
+     */
+    private Boolean isFeasible(IMIP mip, List<Member> all, List<Member> subset, IMIPSolver solver, long deadline) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return null;
+        }
+        IMIP sub = createSubProblem(mip, all, subset, deadline == Long.MAX_VALUE ? -1 : remaining / 1000d);
+        try {
+            solver.solve(sub);
+            return true;
+        } catch (MIPInfeasibleException e) {
+            return false;
+        } catch (MIPException e) {
+            logger.debug("Could not determine feasibility of sub-problem: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private IMIP createSubProblem(IMIP mip, List<Member> all, List<Member> subset, double timeLimit) {
+        boolean[] active = new boolean[all.size()];
+        for (Member member : subset) {
+            active[member.index] = true;
+        }
+        MIP sub = new MIP();
+        for (SolveParam param : mip.getSpecifiedSolveParams()) {
+            sub.setSolveParam(param, mip.getSolveParam(param));
+        }
+        sub.setSolveParam(SolveParam.CALCULATE_CONFLICT_SET, false);
+        sub.setSolveParam(SolveParam.CALC_DUALS, false);
+        sub.setSolveParam(SolveParam.ACCEPT_SUBOPTIMAL, true);
+        if (timeLimit > 0) {
+            sub.setSolveParam(SolveParam.TIME_LIMIT, timeLimit);
+        }
+        for (Variable var : mip.getVars().values()) {
+            sub.add(var.typedClone());
+        }
+        // Generated constraints are never members, so they stay as hard constraints of every sub-problem
+        for (ConstraintGenerator generator : mip.getConstraintGenerators()) {
+            sub.addConstraintGenerator(generator);
+        }
+        for (Member member : all) {
+            if (active[member.index]) {
+                if (member.constraint != null) {
+                    // Copies, since adding a constraint to a MIP assigns its id
+                    sub.add(member.constraint.typedClone());
+                }
+            } else if (member.var != null) {
+                // Relax the bounds that are not part of the subset
+                Variable copy = sub.getVar(member.var.getName());
+                if (member.cause == Cause.LOWER) {
+                    copy.setLowerBound(-MIP.MAX_VALUE);
+                } else {
+                    copy.setUpperBound(MIP.MAX_VALUE);
+                }
+            }
+        }
+        return sub;
+    }
+
+    private static List<Member> without(List<Member> current, Collection<Member> removed) {
+        Set<Member> removedSet = new HashSet<>(removed);
+        List<Member> ret = new ArrayList<>(current.size());
+        for (Member member : current) {
+            if (!removedSet.contains(member)) {
+                ret.add(member);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * A member of the infeasible subset: either a constraint, or one of the bounds of a variable.
+     */
+    private static class Member {
+        private final int index;
+        private final Constraint constraint;
+        private final Variable var;
+        private final Cause cause;
+
+        Member(int index, Constraint constraint) {
+            this.index = index;
+            this.constraint = constraint;
+            this.var = null;
+            this.cause = null;
+        }
+
+        Member(int index, Variable var, Cause cause) {
+            this.index = index;
+            this.constraint = null;
+            this.var = var;
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.MIPException;
+
+/**
+ * Solves mips asynchronously: a submitted mip is solved in the background and its result is kept
+ * by the server, so a long solve doesn't hold a connection or a client thread, and the result
+ * survives network failures and restarts of the server until it expires.
+ */
+public interface IJobServer extends Remote {
+
+    /**
+     * Stores the mip and queues it for solving.
+     * @param serializedMip the mip in serialized form
+     * @return the id of the job
+     */
+    String submit(byte[] serializedMip) throws MIPException, RemoteException;
+
+    /**
+     * @return the status of the job, or null if the server doesn't know it, e.g. because it expired
+     */
+    JobStatus getJobStatus(String jobId) throws RemoteException;
+
+    /**
+     * Waits for the job to finish, at most the given time.
+     * @return the result, or null if the job hasn't finished in time
+     * @throws MIPException the exception the solve failed with, or if the job is unknown or was cancelled
+     */
+    IMIPResult awaitResult(String jobId, long timeoutMillis) throws MIPException, RemoteException;
+
+    /**
+     * Removes the job from the queue, or aborts it if it runs already.
+     */
+    void cancelJob(String jobId) throws RemoteException;
+}
@@ -35,6 +35,7 @@ import java.rmi.RemoteException;
 
 import edu.harvard.econcs.jopt.solver.IMIPResult;
 import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.mip.MIPDelta;
 
 /**
  * Interface for a remote class that can solve mips.
@@ -49,4 +50,78 @@ public interface IRemoteMIPSolver extends Remote {
 	 * @see edu.harvard.econcs.jopt.solver.IMIP
 	 */
 	IMIPResult solve(byte[] serializedMip) throws MIPException, RemoteException;
+
+	/**
+	 * Solves a mip that a client on the same host serialized into a shared segment. The
+	 * result is serialized into a new segment next to it, which the client deletes.
+	 * @return the segment holding the result, or null if the given segment can't be accessed
+	 * from the server, in which case the client has to send the mip itself.
+	 */
+	SharedSegment solve(SharedSegment serializedMip) throws MIPException, RemoteException;
+
+	/**
+	 * Solves the mip stored under the given hash. If it isn't stored, the given serialized mip is
+	 * stored under the hash and solved.
+	 * @param modelHash the {@link ModelStore#hash(byte[])} of the serialized mip
+	 * @param serializedMip may be null to only try the stored one
+	 * @return null if the mip isn't stored and wasn't given
+	 * @throws MIPException if the given mip doesn't match the hash
+	 * @see ModelStore
+	 */
+	IMIPResult solve(String modelHash, byte[] serializedMip) throws MIPException, RemoteException;
+
+	/**
+	 * Applies the delta to a copy of the stored base model, stores the result under the hash
+	 * of the delta and solves it.
+	 * @return null if the base model isn't stored
+	 */
+	IMIPResult solve(MIPDelta delta) throws MIPException, RemoteException;
+
+	/**
+	 * Like {@link #solve(byte[])}, but the solve can be stopped by calling {@link #cancel(String)}
+	 * with the same id while it runs.
+	 * @param requestId an id unique among the calls to this server
+	 */
+	IMIPResult solveCancellable(String requestId, byte[] serializedMip) throws MIPException, RemoteException;
+
+	/**
+	 * Like {@link #solveCancellable(String, byte[])}, for a request with a deadline. The server drops
+	 * the solve if it can't start in time, and limits the solver to the time left.
+	 * @param budgetMillis the millis left until the deadline when the request was sent; relative, so
+	 * the clocks of the hosts needn't agree
+	 */
+	IMIPResult solveCancellable(String requestId, byte[] serializedMip, long budgetMillis) throws MIPException, RemoteException;
+
+	/**
+	 * Starts the upload of a serialized mip in chunks, for models too large to be sent as one byte array.
+	 * @return the id to send the chunks under
+	 * @see ChunkedUpload
+	 */
+	String beginUpload() throws MIPException, RemoteException;
+
+	/**
+	 * Appends the chunk to the upload. An upload that gets no chunk for ten minutes is dropped.
+	 * @throws MIPException if the upload is unknown
+	 */
+	void uploadChunk(String uploadId, byte[] chunk) throws MIPException, RemoteException;
+
+	/**
+	 * Like {@link #solveCancellable(String, byte[], long)}, for the mip uploaded in chunks under the
+	 * upload id, which ends the upload.
+	 * @param budgetMillis the millis left until the deadline when the request was sent, or
+	 * Long.MAX_VALUE if the request has none
+	 */
+	IMIPResult solveUploaded(String requestId, String uploadId, long budgetMillis) throws MIPException, RemoteException;
+
+	/**
+	 * Aborts the running solve with the given id. If it hasn't arrived yet, it is refused when it
+	 * arrives within a minute.
+	 * @see edu.harvard.econcs.jopt.solver.AbortHandle
+	 */
+	void cancel(String requestId) throws RemoteException;
+
+	/**
+	 * Does nothing, used by clients to check that a cached stub still reaches the server.
+	 */
+	void ping() throws RemoteException;
 }
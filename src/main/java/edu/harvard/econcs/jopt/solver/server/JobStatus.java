@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.io.Serializable;
+
+/**
+ * The state of a job submitted to a server, see {@link IJobServer}.
+ */
+public class JobStatus implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final String client;
+    private final long submittedAt;
+    private State state = State.QUEUED;
+    private long startedAt = 0;
+    private long finishedAt = 0;
+    private String message = null;
+
+    JobStatus(String id, String client, long submittedAt) {
+        this.id = id;
+        this.client = client;
+        this.submittedAt = submittedAt;
+    }
+
+    JobStatus copy() {
+        JobStatus copy = new JobStatus(id, client, submittedAt);
+        copy.state = state;
+        copy.startedAt = startedAt;
+        copy.finishedAt = finishedAt;
+        copy.message = message;
+        return copy;
+    }
+
+    void started() {
+        state = State.RUNNING;
+        startedAt = System.currentTimeMillis();
+    }
+
+    void requeued() {
+        state = State.QUEUED;
+        startedAt = 0;
+    }
+
+    void finished(State state, String message) {
+        this.state = state;
+        this.message = message;
+        finishedAt = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the client the job is scheduled as, see SolveScheduler
+     */
+    public String getClient() {
+        return client;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    /**
+     * @return when the job started running, 0 if it hasn't yet
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return when the job finished, 0 if it hasn't yet
+     */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * @return why the job failed or was cancelled, or null
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "Job " + id + " of " + client + ": " + state + (message == null ? "" : " (" + message + ")");
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.server.JobStatus.State;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The jobs of a server, kept in a directory so they survive restarts. For each job, the directory
+ * holds the submitted mip until the job is finished, its status, and its result or the exception it
+ * failed with, including the result metadata. Jobs that were queued or running when the server
+ * stopped are queued again when it starts. Finished jobs are deleted once they are older than the
+ * retention time.
+ * <p>
+ * Each pending job waits in the scheduler of the solver like any other solve, so jobs start in the
+ * order the scheduler picks. Submissions are rejected once the store holds too many jobs that are
+ * queued or running, in total or from one client.
+ */
+public class JobStore {
+
+    private static final Logger logger = LogManager.getLogger(JobStore.class);
+
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    public static final int DEFAULT_MAX_PENDING = 500;
+    public static final int DEFAULT_MAX_PENDING_PER_CLIENT = 100;
+
+    private static final String MIP_EXTENSION = ".mip";
+    private static final String STATUS_EXTENSION = ".status";
+    private static final String RESULT_EXTENSION = ".result";
+
+    private final Path directory;
+    private final RemoteMIPSolver solver;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+    private volatile long retentionMillis = DEFAULT_RETENTION_MILLIS;
+    /** The jobs that are queued or running, by client; guarded by itself **/
+    private final Map<String, Integer> pendingByClient = new HashMap<>();
+    private int pending = 0;
+    private int maxPending = DEFAULT_MAX_PENDING;
+    private int maxPendingPerClient = DEFAULT_MAX_PENDING_PER_CLIENT;
+    private volatile boolean closed = false;
+
+    public JobStore(Path directory, RemoteMIPSolver solver) {
+        this.directory = directory;
+        this.solver = solver;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new MIPException("Could not create job directory " + directory, e);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        // A thread per pending job, which is bounded by the limits, as the jobs wait in the scheduler
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "JobStore-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "JobStore-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        recover();
+        sweeper.scheduleWithFixedDelay(this::purgeExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param retentionMillis how long finished jobs are kept
+     */
+    public void setRetention(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Jobs also count against the queue limits of the scheduler, which fails them like any other
+     * solve once its queue is full.
+     * @param maxPending how many jobs may be queued or running at once
+     * @param maxPendingPerClient how many of them may come from one client
+     */
+    public void setMaxPending(int maxPending, int maxPendingPerClient) {
+        synchronized (pendingByClient) {
+            this.maxPending = maxPending;
+            this.maxPendingPerClient = maxPendingPerClient;
+        }
+    }
+
+    public int getPending() {
+        synchronized (pendingByClient) {
+            return pending;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stores the mip and queues it for solving.
+     * @param client the client the job is scheduled as, unless the mip names a tenant
+     * @return the id of the job
+     * @throws MIPException if too many jobs are pending, in total or from the client
+     */
+    public String submit(byte[] serializedMip, String client) {
+        if (closed) {
+            throw new MIPException("Job store is shut down");
+        }
+        String id = UUID.randomUUID().toString();
+        Job job = new Job(new JobStatus(id, client, System.currentTimeMillis()));
+        synchronized (pendingByClient) {
+            int ofClient = pendingByClient.getOrDefault(client, 0);
+            if (pending >= maxPending || ofClient >= maxPendingPerClient) {
+                throw new MIPException("Job queue full: " + pending + " pending, " + ofClient + " of them from " + client);
+            }
+            countPending(job);
+        }
+        try {
+            Files.write(file(id, MIP_EXTENSION), serializedMip);
+            write(file(id, STATUS_EXTENSION), job.status);
+        } catch (IOException e) {
+            uncountPending(job);
+            delete(id);
+            throw new MIPException("Could not store job", e);
+        }
+        jobs.put(id, job);
+        executor.execute(() -> run(job));
+        logger.debug("Queued " + job.status);
+        return id;
+    }
+
+    /**
+     * @return a copy of the status of the job, or null if it is unknown
+     */
+    public JobStatus getStatus(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return null;
+        }
+        synchronized (job) {
+            return job.status.copy();
+        }
+    }
+
+    /**
+     * @see IJobServer#awaitResult(String, long)
+     */
+    public IMIPResult awaitResult(String id, long timeoutMillis) throws InterruptedException {
+        Job job = jobs.get(id);
+        if (job == null) {
+            throw new MIPException("Unknown job " + id);
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (job) {
+            while (!job.status.getState().isFinished()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                job.wait(remaining);
+            }
+            if (job.status.getState() == State.CANCELLED) {
+                throw new MIPException("Job " + id + " was cancelled");
+            }
+        }
+        Object outcome;
+        try {
+            outcome = read(file(id, RESULT_EXTENSION));
+        } catch (IOException | ClassNotFoundException e) {
+            throw new MIPException("Could not read result of job " + id, e);
+        }
+        if (outcome instanceof MIPException) {
+            throw (MIPException) outcome;
+        }
+        return (IMIPResult) outcome;
+    }
+
+    /**
+     * Cancels the job unless it has finished already.
+     */
+    public void cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return;
+        }
+        synchronized (job) {
+            if (job.status.getState() == State.QUEUED) {
+                finish(job, State.CANCELLED, "Cancelled while queued");
+                deleteQuietly(file(id, MIP_EXTENSION));
+            } else if (job.solved || job.status.getState().isFinished()) {
+                return;
+            }
+        }
+        // Outside the lock, as aborting may wait for the solver; takes a queued job out of the scheduler
+        job.abort.abort();
+    }
+
+    private void run(Job job) {
+        String id = job.status.getId();
+        synchronized (job) {
+            if (closed || job.status.getState() != State.QUEUED) {
+                return;
+            }
+        }
+        Object outcome;
+        State state;
+        String message = null;
+        try {
+            IMIP mip = (IMIP) read(file(id, MIP_EXTENSION));
+            // Queued until the scheduler lets it start
+            outcome = solver.solveWithPooledSolver(mip, job.status.getClient(), job.abort, () -> {
+                synchronized (job) {
+                    if (job.status.getState() == State.QUEUED) {
+                        job.status.started();
+                        persist(job);
+                    }
+                }
+            });
+            state = State.DONE;
+        } catch (MIPException e) {
+            outcome = e;
+            state = State.FAILED;
+            message = e.getMessage();
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            outcome = new MIPException("Job " + id + " failed", e);
+            state = State.FAILED;
+            message = e.toString();
+        }
+        if (closed) {
+            // Left queued or running on disk, so it runs again after a restart
+            return;
+        }
+        boolean aborted;
+        synchronized (job) {
+            if (job.status.getState().isFinished()) {
+                // Cancelled while queued
+                return;
+            }
+            job.solved = true;
+            aborted = job.abort.isAborted();
+        }
+        if (aborted) {
+            state = State.CANCELLED;
+            message = "Cancelled while running";
+        }
+        try {
+            write(file(id, RESULT_EXTENSION), outcome);
+        } catch (IOException e) {
+            logger.error("Could not store result of job " + id, e);
+            state = State.FAILED;
+            message = "Could not store result: " + e.getMessage();
+        }
+        synchronized (job) {
+            finish(job, state, message);
+        }
+        deleteQuietly(file(id, MIP_EXTENSION));
+        logger.debug("Finished " + job.status);
+    }
+
+    /**
+     * Must hold the lock of the job.
+     */
+    private void finish(Job job, State state, String message) {
+        job.status.finished(state, message);
+        uncountPending(job);
+        persist(job);
+        job.notifyAll();
+    }
+
+    private void countPending(Job job) {
+        synchronized (pendingByClient) {
+            job.pending = true;
+            pendingByClient.merge(job.status.getClient(), 1, Integer::sum);
+            pending++;
+        }
+    }
+
+    private void uncountPending(Job job) {
+        synchronized (pendingByClient) {
+            if (!job.pending) {
+                return;
+            }
+            job.pending = false;
+            pendingByClient.computeIfPresent(job.status.getClient(), (c, n) -> n == 1 ? null : n - 1);
+            pending--;
+        }
+    }
+
+    private void persist(Job job) {
+        try {
+            write(file(job.status.getId(), STATUS_EXTENSION), job.status);
+        } catch (IOException e) {
+            logger.error("Could not store status of " + job.status, e);
+        }
+    }
+
+    /**
+     * Loads the jobs in the directory, queueing again those that didn't finish.
+     */
+    private void recover() {
+        int requeued = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + STATUS_EXTENSION)) {
+            for (Path file : files) {
+                JobStatus status;
+                try {
+                    status = (JobStatus) read(file);
+                } catch (IOException | ClassNotFoundException e) {
+                    logger.warn("Skipping unreadable job " + file + ": " + e.getMessage());
+                    continue;
+                }
+                Job job = new Job(status);
+                jobs.put(status.getId(), job);
+                if (!status.getState().isFinished()) {
+                    if (Files.exists(file(status.getId(), MIP_EXTENSION))) {
+                        status.requeued();
+                        // Counted, but never rejected, as they were accepted before
+                        countPending(job);
+                        persist(job);
+                        executor.execute(() -> run(job));
+                        requeued++;
+                    } else {
+                        status.finished(State.FAILED, "Lost when the server stopped");
+                        persist(job);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new MIPException("Could not read job directory " + directory, e);
+        }
+        if (!jobs.isEmpty()) {
+            logger.info("Recovered " + jobs.size() + " jobs from " + directory + ", " + requeued + " queued again");
+        }
+        purgeExpired();
+    }
+
+    /**
+     * Deletes the finished jobs older than the retention time.
+     */
+    public void purgeExpired() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        for (Job job : jobs.values()) {
+            synchronized (job) {
+                JobStatus status = job.status;
+                if (status.getState().isFinished() && status.getFinishedAt() < cutoff) {
+                    jobs.remove(status.getId());
+                    delete(status.getId());
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Stops running jobs without finishing them, so they run again when a store is created on the
+     * same directory.
+     */
+    public void shutdown() {
+        closed = true;
+        sweeper.shutdownNow();
+        executor.shutdownNow();
+        for (Job job : jobs.values()) {
+            job.abort.abort();
+        }
+    }
+
+    private Path file(String id, String extension) {
+        return directory.resolve(id + extension);
+    }
+
+    private void delete(String id) {
+        deleteQuietly(file(id, MIP_EXTENSION));
+        deleteQuietly(file(id, STATUS_EXTENSION));
+        deleteQuietly(file(id, RESULT_EXTENSION));
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the object to a temporary file first, so a crash never leaves a partial file.
+     */
+    private static void write(Path file, Object object) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp); ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(object);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Object read(Path file) throws IOException, ClassNotFoundException {
+        try (InputStream in = Files.newInputStream(file); ObjectInputStream ois = new ObjectInputStream(in)) {
+            return ois.readObject();
+        }
+    }
+
+    private static class Job {
+        private final JobStatus status;
+        private final AbortHandle abort = new AbortHandle();
+        /** Set once the solve returned, after which a cancel has no effect; guarded by the job **/
+        private boolean solved = false;
+        /** Whether the job counts against the pending limits; guarded by the pending counts **/
+        private boolean pending = false;
+
+        private Job(JobStatus status) {
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.MIPDelta;
+import edu.harvard.econcs.jopt.solver.mip.MappedMIP;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Server-side store of the models clients have uploaded, addressed by the hash of their serialized form, so a
+ * client can submit a model it sent before by its hash alone, or as a {@link MIPDelta}
+ * against it. The least recently used models are evicted once the serialized sizes of the stored models exceed
+ * the capacity.
+ * <p>
+ * Stored models are shared by all requests for them, so they must not be changed; deltas are applied to a copy.
+ */
+public class ModelStore {
+
+    private static final Logger logger = LogManager.getLogger(ModelStore.class);
+
+    /** The default capacity of 256 MB of serialized models **/
+    public static final long DEFAULT_CAPACITY = 256L << 20;
+
+    private final long capacity;
+    private final LinkedHashMap<String, Entry> models = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public ModelStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximal sum of the serialized sizes of the stored models, in bytes
+     */
+    public ModelStore(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the model stored under the hash, or null if there is none
+     */
+    public synchronized IMIP get(String hash) {
+        Entry entry = models.get(hash);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.mip;
+    }
+
+    /**
+     * Like {@link #get(String)}, but not counted in the metrics, e.g. for a lookup right after a miss.
+     */
+    public synchronized IMIP peek(String hash) {
+        Entry entry = models.get(hash);
+        return entry == null ? null : entry.mip;
+    }
+
+    /**
+     * Stores the model, evicting the least recently used ones as needed. Models larger than the capacity are not
+     * stored at all, nor are mapped ones.
+     *
+     * @param bytes the size of the model in serialized form
+     */
+    public synchronized void put(String hash, IMIP mip, long bytes) {
+        if (bytes > capacity) {
+            logger.debug("Model " + hash + " of " + bytes + " bytes exceeds the capacity of the store");
+            return;
+        } else if (mip instanceof MappedMIP) {
+            // Its files are deleted after the solve it was sent for
+            logger.debug("Mapped model " + hash + " is not stored");
+            return;
+        }
+        // Canonicalize the constraints now, so concurrent solves of the model only ever read it
+        for (Constraint constraint : mip.getConstraints()) {
+            constraint.linearSize();
+        }
+        Entry previous = models.put(hash, new Entry(mip, bytes));
+        if (previous != null) {
+            size -= previous.bytes;
+        }
+        size += bytes;
+        for (Iterator<Map.Entry<String, Entry>> iter = models.entrySet().iterator(); size > capacity && iter.hasNext(); ) {
+            Entry evicted = iter.next().getValue();
+            iter.remove();
+            size -= evicted.bytes;
+            evictions++;
+        }
+    }
+
+    /**
+     * @return the serialized size of the model stored under the hash, or 0 if there is none
+     */
+    public synchronized long getSize(String hash) {
+        Entry entry = models.get(hash);
+        return entry == null ? 0 : entry.bytes;
+    }
+
+    public synchronized boolean contains(String hash) {
+        return models.containsKey(hash);
+    }
+
+    public synchronized int getNumModels() {
+        return models.size();
+    }
+
+    /**
+     * @return the sum of the serialized sizes of the stored models, in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the share of lookups that found their model, or 0 if there were none
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized String toString() {
+        return "ModelStore: " + models.size() + " models, " + size + " of " + capacity + " bytes, " + hits + " hits, "
+                + misses + " misses, " + evictions + " evictions";
+    }
+
+    /**
+     * @return the hash the model is stored under
+     */
+    public static String hash(IMIP mip) {
+        return hash(serialize(mip));
+    }
+
+    /**
+     * @return the hash the model the delta leads to is stored under
+     */
+    public static String hash(MIPDelta delta) {
+        return hash(delta.getBaseHash(), serialize(delta));
+    }
+
+    /**
+     * @return the hex encoded SHA-256 of the bytes
+     */
+    public static String hash(byte[] serialized) {
+        return hash(null, serialized);
+    }
+
+    /**
+     * @return the hash of a model derived from the given base by the serialized delta
+     */
+    public static String hash(String baseHash, byte[] serialized) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new MIPException("SHA-256 not available", e);
+        }
+        if (baseHash != null) {
+            digest.update(baseHash.getBytes(StandardCharsets.US_ASCII));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest(serialized)) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    public static byte[] serialize(Object object) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(object);
+        } catch (IOException e) {
+            throw new MIPException("Serialization error", e);
+        }
+        return baos.toByteArray();
+    }
+
+    private static class Entry {
+        private final IMIP mip;
+        private final long bytes;
+
+        private Entry(IMIP mip, long bytes) {
+            this.mip = mip;
+            this.bytes = bytes;
+        }
+    }
+}
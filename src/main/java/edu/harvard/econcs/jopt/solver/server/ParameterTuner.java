@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.IMIPSolver;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.SolveParamProfile;
+import edu.harvard.econcs.jopt.solver.client.SolverClient;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Searches for the solve params that solve a corpus of archived models fastest, and writes them as a
+ * {@link SolveParamProfile}. Candidate configurations are sampled from a search space, always including
+ * the defaults, and raced over the models: after every few models the slower half of the candidates is
+ * dropped, until one is left, the models are used up or the time budget is spent.
+ * <p>
+ * A candidate is scored by its mean solve time, where a solve that fails or doesn't reach the relative gap
+ * within the time limit per solve counts twice the limit. The search works the same for every backend,
+ * since the profile is expressed in solve params rather than in backend-native ones, but the knobs of
+ * the {@link #DEFAULT_SPACE} only have an effect on CPLEX, which is why it is the default solver of
+ * {@link #main(String[])}.
+ */
+public class ParameterTuner {
+
+    private static final Logger logger = LogManager.getLogger(ParameterTuner.class);
+
+    /** The extension of archived models, each a serialized IMIP **/
+    public static final String ARCHIVE_EXTENSION = ".mip";
+
+    private static final String CPLEX_SOLVER = "edu.harvard.econcs.jopt.solver.server.cplex.CPlexMIPSolver";
+
+    /** The CPLEX knobs that matter most for solve time, with the values worth trying **/
+    public static final Map<SolveParam, List<Object>> DEFAULT_SPACE;
+
+    static {
+        Map<SolveParam, List<Object>> space = new LinkedHashMap<>();
+        space.put(SolveParam.MIP_EMPHASIS, Arrays.asList(0, 1, 2, 3, 4));
+        space.put(SolveParam.LP_OPTIMIZATION_ALG, Arrays.asList(0, 1, 2, 3, 4, 5, 6));
+        space.put(SolveParam.PARALLEL_MODE, Arrays.asList(-1, 0, 1));
+        DEFAULT_SPACE = Collections.unmodifiableMap(space);
+    }
+
+    private final IMIPSolver solver;
+    private final Map<SolveParam, List<Object>> space;
+    private final Random random;
+    private int numCandidates = 16;
+    private int halvingInterval = 2;
+    private double timeLimit = -1;
+
+    public ParameterTuner(IMIPSolver solver) {
+        this(solver, DEFAULT_SPACE, 0);
+    }
+
+    public ParameterTuner(IMIPSolver solver, Map<SolveParam, List<Object>> space, long seed) {
+        this.solver = solver;
+        this.space = space;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param numCandidates the number of configurations to race, including the defaults
+     */
+    public void setNumCandidates(int numCandidates) {
+        this.numCandidates = numCandidates;
+    }
+
+    /**
+     * @param halvingInterval after how many models the slower half of the candidates is dropped
+     */
+    public void setHalvingInterval(int halvingInterval) {
+        this.halvingInterval = halvingInterval;
+    }
+
+    /**
+     * @param timeLimit the time limit per solve in seconds; by default the budget is split evenly
+     */
+    public void setTimeLimit(double timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Races the candidates over the models within the budget.
+     * @return the profile with the params of the best candidate
+     */
+    public SolveParamProfile tune(List<IMIP> models, long budgetMillis, String name, String family) {
+        if (models.isEmpty()) {
+            throw new MIPException("No models to tune on");
+        }
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        List<Candidate> alive = sampleCandidates();
+        double limit = timeLimit > 0 ? timeLimit
+                : Math.max(1, budgetMillis / 1000d / (alive.size() * models.size()));
+        List<IMIP> order = new ArrayList<>(models);
+        Collections.shuffle(order, random);
+        int evaluated = 0;
+        race:
+        for (IMIP model : order) {
+            // A model counts only once all candidates solved it, so they are compared on the same models
+            double[] scores = new double[alive.size()];
+            for (int i = 0; i < alive.size(); i++) {
+                if (System.currentTimeMillis() + 2 * limit * 1000 > deadline) {
+                    logger.info("Tuning budget spent after " + evaluated + " models");
+                    break race;
+                }
+                scores[i] = evaluate(alive.get(i), model, limit);
+            }
+            for (int i = 0; i < alive.size(); i++) {
+                alive.get(i).record(scores[i]);
+            }
+            evaluated++;
+            if (evaluated % halvingInterval == 0 && alive.size() > 1) {
+                alive.sort(Comparator.comparingDouble(Candidate::getMeanScore));
+                alive = new ArrayList<>(alive.subList(0, (alive.size() + 1) / 2));
+                logger.info("After " + evaluated + " models, " + alive.size() + " candidates left, best: " + alive.get(0));
+            }
+            if (alive.size() == 1 && evaluated >= halvingInterval) {
+                break;
+            }
+        }
+        Candidate best = Collections.min(alive, Comparator.comparingDouble(Candidate::getMeanScore));
+        logger.info("Best candidate: " + best);
+        return new SolveParamProfile(name, family, best.params);
+    }
+
+    private List<Candidate> sampleCandidates() {
+        Set<Map<SolveParam, Object>> seen = new HashSet<>();
+        List<Candidate> candidates = new ArrayList<>();
+        // The defaults compete as well
+        seen.add(Collections.emptyMap());
+        candidates.add(new Candidate(Collections.emptyMap()));
+        int size = 1;
+        for (List<Object> values : space.values()) {
+            size *= values.size();
+        }
+        // Also counts the defaults, which may not be in the space
+        int target = space.isEmpty() ? 1 : Math.min(numCandidates, size + 1);
+        while (candidates.size() < target) {
+            Map<SolveParam, Object> params = new LinkedHashMap<>();
+            for (Map.Entry<SolveParam, List<Object>> entry : space.entrySet()) {
+                List<Object> values = entry.getValue();
+                params.put(entry.getKey(), values.get(random.nextInt(values.size())));
+            }
+            if (seen.add(params)) {
+                candidates.add(new Candidate(params));
+            }
+        }
+        return candidates;
+    }
+
+    private double evaluate(Candidate candidate, IMIP model, double limit) {
+        IMIP copy = model.typedClone();
+        for (Map.Entry<SolveParam, Object> param : candidate.params.entrySet()) {
+            copy.setSolveParam(param.getKey(), param.getValue());
+        }
+        copy.setSolveParam(SolveParam.TIME_LIMIT, limit);
+        double gap = copy.getDoubleSolveParam(SolveParam.RELATIVE_OBJ_GAP, 1e-4);
+        long start = System.currentTimeMillis();
+        try {
+            IMIPResult result = solver.solve(copy);
+            double seconds = (System.currentTimeMillis() - start) / 1000d;
+            return result.getRelativeGap() <= gap ? seconds : 2 * limit;
+        } catch (MIPInfeasibleException e) {
+            // Proving infeasibility is as good as solving
+            return (System.currentTimeMillis() - start) / 1000d;
+        } catch (MIPException e) {
+            logger.debug("Candidate " + candidate + " failed: " + e.getMessage());
+            return 2 * limit;
+        }
+    }
+
+    /**
+     * Writes the model into the archive, to tune on it later.
+     */
+    public static void archive(IMIP mip, Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(ModelStore.serialize(mip));
+        }
+    }
+
+    /**
+     * @return the models archived in the directory
+     */
+    public static List<IMIP> loadArchive(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ARCHIVE_EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        // The order of the directory listing isn't defined
+        Collections.sort(files);
+        List<IMIP> models = new ArrayList<>();
+        for (Path file : files) {
+            try (InputStream in = Files.newInputStream(file); ObjectInputStream ois = new ObjectInputStream(in)) {
+                models.add((IMIP) ois.readObject());
+            } catch (ClassNotFoundException e) {
+                throw new MIPException("Could not read archived model " + file, e);
+            }
+        }
+        return models;
+    }
+
+    private static class Candidate {
+        private final Map<SolveParam, Object> params;
+        private double totalScore = 0;
+        private int numScores = 0;
+
+        private Candidate(Map<SolveParam, Object> params) {
+            this.params = new HashMap<>(params);
+        }
+
+        private void record(double score) {
+            totalScore += score;
+            numScores++;
+        }
+
+        private double getMeanScore() {
+            return numScores == 0 ? Double.MAX_VALUE : totalScore / numScores;
+        }
+
+        @Override
+        public String toString() {
+            return (params.isEmpty() ? "defaults" : params.toString()) + " mean " + getMeanScore() + "s";
+        }
+    }
+
+    public static void main(String argv[]) throws IOException {
+        if (argv.length < 5) {
+            logger.error("Usage: <archive dir> <budget in seconds> <profile name> <model family> <profile file> [solver class, CPLEX by default]");
+            System.exit(1);
+        }
+        String solverClass = argv.length > 5 ? argv[5] : CPLEX_SOLVER;
+        if (!solverClass.equals(CPLEX_SOLVER)) {
+            logger.warn("Tuning the CPLEX knobs with " + solverClass + ", which may ignore them.");
+        }
+        IMIPSolver solver = new SolverClient(createSolver(solverClass));
+        List<IMIP> models = loadArchive(Paths.get(argv[0]));
+        SolveParamProfile profile = new ParameterTuner(solver).tune(models, Long.parseLong(argv[1]) * 1000, argv[2], argv[3]);
+        profile.save(Paths.get(argv[4]));
+        logger.info("Wrote " + profile + " to " + argv[4]);
+    }
+
+    private static IMIPSolver createSolver(String className) {
+        try {
+            return (IMIPSolver) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new MIPException("Could not create solver " + className, e);
+        }
+    }
+}
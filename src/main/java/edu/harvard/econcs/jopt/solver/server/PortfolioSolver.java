@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.IMIPSolver;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Races several variants of a solve against each other: each variant solves its own copy of the MIP
+ * with its own backend instance and solve params, and the threads are split among them. The first result that
+ * is optimal within the relative gap of the MIP wins and the other variants are aborted. If none is, the
+ * best result is returned once all variants are done, or once the time limit of the MIP has passed.
+ * <p>
+ * The wins of each variant are counted, so variants that rarely win can be {@link #prune(long, double) pruned}.
+ */
+public class PortfolioSolver implements IMIPSolver {
+
+    private static final Logger logger = LogManager.getLogger(PortfolioSolver.class);
+
+    /** Time given to the variants beyond the time limit of the MIP before they are aborted **/
+    private static final long GRACE_MILLIS = 5000;
+
+    private final List<Variant> variants = new ArrayList<>();
+    private final int threads;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "PortfolioSolver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public PortfolioSolver() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads the threads split among the variants that don't set SolveParam.THREADS themselves
+     */
+    public PortfolioSolver(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Adds a variant that solves with a new backend from the given supplier in each race, after setting the
+     * given params on its copy of the MIP.
+     */
+    public synchronized PortfolioSolver addVariant(String name, Supplier<? extends IMIPSolver> solvers,
+                                                   Map<SolveParam, Object> params) {
+        variants.add(new Variant(name, solvers, params));
+        return this;
+    }
+
+    /**
+     * Adds a variant that solves with the given backend in every race, also in concurrent ones. The backend
+     * must not keep state of a solve in its fields, as LPSolveMIPSolver does; add those with a supplier.
+     */
+    public PortfolioSolver addVariant(String name, IMIPSolver solver, Map<SolveParam, Object> params) {
+        return addVariant(name, () -> solver, params);
+    }
+
+    public synchronized List<Variant> getVariants() {
+        return new ArrayList<>(variants);
+    }
+
+    /**
+     * Removes the variants that won less than the given share of the races, once they took part in enough of them.
+     * The variant with the most wins is always kept.
+     * @return the removed variants
+     */
+    public synchronized List<Variant> prune(long minRaces, double minWinRate) {
+        Variant best = Collections.max(variants, (a, b) -> Long.compare(a.getWins(), b.getWins()));
+        List<Variant> removed = new ArrayList<>();
+        for (Iterator<Variant> iter = variants.iterator(); iter.hasNext(); ) {
+            Variant variant = iter.next();
+            if (variant != best && variant.getRaces() >= minRaces && variant.getWinRate() < minWinRate) {
+                logger.info("Pruning variant " + variant);
+                removed.add(variant);
+                iter.remove();
+            }
+        }
+        return removed;
+    }
+
+    public IMIPResult solve(IMIP mip) throws MIPException {
+        return solve(mip, new AbortHandle());
+    }
+
+    public IMIPResult solve(IMIP mip, AbortHandle abort) throws MIPException {
+        List<Variant> racing = getVariants();
+        if (racing.isEmpty()) {
+            throw new MIPException("The portfolio has no variants");
+        }
+        int threadsPerVariant = Math.max(1, threads / racing.size());
+        double gap = mip.getDoubleSolveParam(SolveParam.RELATIVE_OBJ_GAP, 1e-4);
+        CompletionService<IMIPResult> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<IMIPResult>, Variant> pending = new HashMap<>();
+        Map<Variant, AbortHandle> aborts = new HashMap<>();
+        for (Variant variant : racing) {
+            IMIP copy = mip.typedClone();
+            copy.setSolveParam(SolveParam.THREADS, threadsPerVariant);
+            for (Map.Entry<SolveParam, Object> param : variant.params.entrySet()) {
+                copy.setSolveParam(param.getKey(), param.getValue());
+            }
+            IMIPSolver solver = variant.solvers.get();
+            AbortHandle variantAbort = new AbortHandle();
+            variantAbort.setDeadline(abort.getDeadline());
+            aborts.put(variant, variantAbort);
+            pending.put(completion.submit(() -> {
+                Runnable forward = variantAbort::abort;
+                abort.register(forward);
+                try {
+                    return solver.solve(copy, variantAbort);
+                } finally {
+                    abort.unregister(forward);
+                }
+            }), variant);
+        }
+        long deadline = mip.isSolveParamSpecified(SolveParam.TIME_LIMIT)
+                ? System.currentTimeMillis() + (long) (mip.getDoubleSolveParam(SolveParam.TIME_LIMIT) * 1000) + GRACE_MILLIS
+                : Long.MAX_VALUE;
+        if (abort.hasDeadline()) {
+            deadline = Math.min(deadline, abort.getDeadline() + GRACE_MILLIS);
+        }
+        IMIPResult best = null;
+        Variant bestVariant = null;
+        MIPException firstFailure = null;
+        List<Variant> failed = new ArrayList<>();
+        try {
+            while (!pending.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                Future<IMIPResult> done = wait <= 0 ? null : completion.poll(wait, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    logger.warn("Time limit passed, aborting " + pending.size() + " variants");
+                    break;
+                }
+                Variant variant = pending.remove(done);
+                try {
+                    IMIPResult result = done.get();
+                    if (best == null || isBetter(mip, result, best)) {
+                        best = result;
+                        bestVariant = variant;
+                    }
+                    if (result.getRelativeGap() <= gap) {
+                        logger.debug("Variant " + variant.getName() + " solved the MIP to optimality first");
+                        break;
+                    }
+                } catch (ExecutionException e) {
+                    Throwable t = e.getCause();
+                    if (t instanceof MIPInfeasibleException) {
+                        // Infeasibility doesn't depend on the variant, so the race isn't counted
+                        MIPInfeasibleException infeasible = (MIPInfeasibleException) t;
+                        infeasible.resolve(mip);
+                        throw infeasible;
+                    }
+                    logger.warn("Variant " + variant.getName() + " failed: " + t.getMessage());
+                    variant.countFailure();
+                    failed.add(variant);
+                    if (firstFailure == null) {
+                        firstFailure = t instanceof MIPException ? (MIPException) t : new MIPException("Variant " + variant.getName() + " failed", t);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MIPException("Interrupted while racing the portfolio", e);
+        } finally {
+            for (Variant variant : pending.values()) {
+                aborts.get(variant).abort();
+            }
+        }
+        if (best == null) {
+            throw firstFailure != null ? firstFailure : new MIPException("No variant finished within the time limit");
+        }
+        for (Variant variant : racing) {
+            if (!failed.contains(variant)) {
+                variant.countRace(variant == bestVariant);
+            }
+        }
+        return best;
+    }
+
+    private static boolean isBetter(IMIP mip, IMIPResult result, IMIPResult than) {
+        return mip.isObjectiveMax() ? result.getObjectiveValue() > than.getObjectiveValue()
+                : result.getObjectiveValue() < than.getObjectiveValue();
+    }
+
+    /**
+     * A backend and the solve params it is run with, and how it fared in the races.
+     */
+    public static class Variant {
+        private final String name;
+        private final Supplier<? extends IMIPSolver> solvers;
+        private final Map<SolveParam, Object> params;
+        private long races = 0;
+        private long wins = 0;
+        private long failures = 0;
+
+        private Variant(String name, Supplier<? extends IMIPSolver> solvers, Map<SolveParam, Object> params) {
+            this.name = name;
+            this.solvers = solvers;
+            this.params = new HashMap<>(params);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Map<SolveParam, Object> getParams() {
+            return Collections.unmodifiableMap(params);
+        }
+
+        private synchronized void countRace(boolean won) {
+            races++;
+            if (won) {
+                wins++;
+            }
+        }
+
+        private synchronized void countFailure() {
+            races++;
+            failures++;
+        }
+
+        public synchronized long getRaces() {
+            return races;
+        }
+
+        public synchronized long getWins() {
+            return wins;
+        }
+
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        public synchronized double getWinRate() {
+            return races == 0 ? 0 : (double) wins / races;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return name + "[races=" + races + ", wins=" + wins + ", failures=" + failures + "]";
+        }
+    }
+}
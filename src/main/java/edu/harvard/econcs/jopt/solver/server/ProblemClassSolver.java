@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.IMIPSolver;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPUnsupportedException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.mip.ModelStatistics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Solves each model with the cheapest backend that can handle it: small linear models with LPSolve,
+ * everything else with CPLEX, so the CPLEX instances are kept for the models that need them. If LPSolve
+ * rejects a model, e.g. for numbers too large for it, the model is solved with CPLEX instead, in the
+ * time that is left of its time limit. Other failures of LPSolve, e.g. timeouts, are passed on.
+ * <p>
+ * A backend that isn't installed is left out; if only one is, all models go to it.
+ */
+public class ProblemClassSolver implements IMIPSolver {
+
+    private static final Logger logger = LogManager.getLogger(ProblemClassSolver.class);
+
+    private static final String CPLEX_SOLVER = "edu.harvard.econcs.jopt.solver.server.cplex.CPlexMIPSolver";
+    private static final String LPSOLVE_SOLVER = "edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver";
+
+    public static final int DEFAULT_MAX_LPSOLVE_VARS = 2000;
+    public static final int DEFAULT_MAX_LPSOLVE_INTEGERS = 100;
+    public static final long DEFAULT_MAX_LPSOLVE_NON_ZEROS = 20000;
+
+    /** Null if not installed, or if its native libraries turned out to be missing **/
+    private volatile IMIPSolver cplex;
+    private final IMIPSolver lpSolve;
+    private final int maxLPSolveVars;
+    private final int maxLPSolveIntegers;
+    private final long maxLPSolveNonZeros;
+
+    private final AtomicLong cplexSolves = new AtomicLong();
+    private final AtomicLong lpSolveSolves = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    public ProblemClassSolver() {
+        this(createSolver(CPLEX_SOLVER), createSolver(LPSOLVE_SOLVER),
+                DEFAULT_MAX_LPSOLVE_VARS, DEFAULT_MAX_LPSOLVE_INTEGERS, DEFAULT_MAX_LPSOLVE_NON_ZEROS);
+    }
+
+    /**
+     * @param cplex the solver for large and quadratic models, may be null
+     * @param lpSolve the solver for small linear models, may be null
+     */
+    public ProblemClassSolver(IMIPSolver cplex, IMIPSolver lpSolve, int maxLPSolveVars, int maxLPSolveIntegers, long maxLPSolveNonZeros) {
+        if (cplex == null && lpSolve == null) {
+            throw new MIPException("Neither CPLEX nor LPSolve is available");
+        }
+        this.cplex = cplex;
+        this.lpSolve = lpSolve;
+        this.maxLPSolveVars = maxLPSolveVars;
+        this.maxLPSolveIntegers = maxLPSolveIntegers;
+        this.maxLPSolveNonZeros = maxLPSolveNonZeros;
+    }
+
+    private static IMIPSolver createSolver(String className) {
+        try {
+            return (IMIPSolver) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException e) {
+            // E.g. missing native libraries of LPSolve, as an UnsatisfiedLinkError of the constructor
+            logger.warn("Solver " + className + " is not available: " + e.getCause());
+            return null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Missing jars show up as NoClassDefFoundError
+            logger.warn("Solver " + className + " is not available: " + e);
+            return null;
+        }
+    }
+
+    public IMIPResult solve(IMIP mip) throws MIPException {
+        return solve(mip, new AbortHandle());
+    }
+
+    public IMIPResult solve(IMIP mip, AbortHandle abort) throws MIPException {
+        ModelStatistics stats = ModelStatistics.of(mip);
+        IMIPSolver cplex = this.cplex;
+        if (lpSolve != null && (cplex == null || fitsLPSolve(mip, stats))) {
+            logger.debug("Solving " + stats + " with LPSolve");
+            lpSolveSolves.incrementAndGet();
+            long start = System.currentTimeMillis();
+            try {
+                return lpSolve.solve(mip, abort);
+            } catch (MIPUnsupportedException e) {
+                if (cplex == null || abort.isAborted()) {
+                    throw e;
+                }
+                logger.warn("LPSolve rejected the model, solving with CPLEX instead: " + e.getMessage());
+                fallbacks.incrementAndGet();
+            }
+            if (mip.isSolveParamSpecified(SolveParam.TIME_LIMIT)) {
+                // The time LPSolve took counts against the limit
+                AbortHandle remaining = new AbortHandle();
+                remaining.setDeadline(abort.getDeadline());
+                remaining.setDeadline(start + (long) (mip.getDoubleSolveParam(SolveParam.TIME_LIMIT) * 1000));
+                Runnable forward = remaining::abort;
+                abort.register(forward);
+                try {
+                    return solveWithCplex(cplex, mip, stats, remaining);
+                } finally {
+                    abort.unregister(forward);
+                }
+            }
+        }
+        return solveWithCplex(cplex, mip, stats, abort);
+    }
+
+    private IMIPResult solveWithCplex(IMIPSolver cplex, IMIP mip, ModelStatistics stats, AbortHandle abort) {
+        logger.debug("Solving " + stats + " with CPLEX");
+        cplexSolves.incrementAndGet();
+        try {
+            return cplex.solve(mip, abort);
+        } catch (UnsatisfiedLinkError e) {
+            if (lpSolve == null || stats.isQuadratic()) {
+                throw e;
+            }
+            logger.error("CPLEX native libraries not found, solving all models with LPSolve from now on.");
+            this.cplex = null;
+            fallbacks.incrementAndGet();
+            lpSolveSolves.incrementAndGet();
+            return lpSolve.solve(mip, abort);
+        }
+    }
+
+    /**
+     * @return true if the model is linear and small enough for LPSolve, and needs no CPLEX-only feature
+     */
+    private boolean fitsLPSolve(IMIP mip, ModelStatistics stats) {
+        switch (stats.getProblemClass()) {
+            case QP:
+            case QCP:
+                return false;
+            default:
+                break;
+        }
+        if (mip.getIntSolveParam(SolveParam.SOLUTION_POOL_CAPACITY, 0) > 1 || mip.getIntSolveParam(SolveParam.SOLUTION_POOL_MODE, 0) != 0) {
+            return false;
+        }
+        return stats.getNumVars() <= maxLPSolveVars && stats.getNumIntegers() <= maxLPSolveIntegers
+                && stats.getNumNonZeros() <= maxLPSolveNonZeros;
+    }
+
+    public long getCplexSolves() {
+        return cplexSolves.get();
+    }
+
+    public long getLPSolveSolves() {
+        return lpSolveSolves.get();
+    }
+
+    /**
+     * @return the number of models solved with another backend after the chosen one failed
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ProblemClassSolver[cplex=" + cplexSolves + ", lpSolve=" + lpSolveSolves + ", fallbacks=" + fallbacks + "]";
+    }
+}
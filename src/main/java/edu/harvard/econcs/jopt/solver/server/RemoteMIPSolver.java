@@ -30,22 +30,32 @@
  */
 package edu.harvard.econcs.jopt.solver.server;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
 import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import edu.harvard.econcs.jopt.solver.AbortHandle;
 import edu.harvard.econcs.jopt.solver.IMIP;
 import edu.harvard.econcs.jopt.solver.IMIPResult;
 import edu.harvard.econcs.jopt.solver.IMIPSolver;
 import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.mip.MIPDelta;
+import edu.harvard.econcs.jopt.solver.mip.MappedMIP;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * A remote solver that solves a MIP based on a local IMIPSolver
+ * A remote solver that solves a MIP based on a local IMIPSolver.
+ * The same instance may serve many clients at once, so each concurrent
+ * solve takes its own IMIPSolver from a pool.
  * 
  * @author Benjamin Lubin; Last modified by $Author: blubin $
  * @version $Revision: 1.7 $ on $Date: 2010/10/28 00:11:26 $
@@ -59,17 +69,115 @@ public class RemoteMIPSolver extends UnicastRemoteObject implements IRemoteMIPSo
 
 	private static final Logger logger = LogManager.getLogger(RemoteMIPSolver.class);
 	
-	private IMIPSolver solver;
+	private Class<? extends IMIPSolver> solverClass;
+	/** Solvers not in use by a call right now **/
+	private final Queue<IMIPSolver> idleSolvers = new ConcurrentLinkedQueue<>();
+	/** The cancellable solves running right now, by request id **/
+	private final CancellableRequests running = new CancellableRequests();
+	/** The models being uploaded in chunks, by upload id **/
+	private final Uploads uploads = new Uploads();
+	private ModelStore store;
+	/** Orders the solves of all clients of this instance **/
+	private final SolveScheduler scheduler;
 	
 	public RemoteMIPSolver(int port, IMIPSolver solver) throws RemoteException {
+		this(port, solver, new ModelStore());
+	}
+
+	public RemoteMIPSolver(int port, IMIPSolver solver, ModelStore store) throws RemoteException {
+		this(port, solver.getClass(), store);
+		idleSolvers.add(solver);
+	}
+
+	/**
+	 * @param solverClass what class to use to create new instances of the solver when
+	 * all existing ones are busy.
+	 */
+	public RemoteMIPSolver(int port, Class<? extends IMIPSolver> solverClass, ModelStore store) throws RemoteException {
+		this(port, solverClass, store, new SolveScheduler());
+	}
+
+	public RemoteMIPSolver(int port, Class<? extends IMIPSolver> solverClass, ModelStore store, SolveScheduler scheduler) throws RemoteException {
 		super(port);
-		this.solver = solver;
+		this.solverClass = solverClass;
+		this.store = store;
+		this.scheduler = scheduler;
+	}
+
+	public SolveScheduler getScheduler() {
+		return scheduler;
+	}
+
+	private IMIPSolver acquireSolver() {
+		IMIPSolver solver = idleSolvers.poll();
+		if (solver != null) {
+			return solver;
+		}
+		logger.info("Creating a new Solver Instance");
+		try {
+			return solverClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new MIPException("Could not create solver intance", e);
+		}
+	}
+
+	private IMIPResult solveWithPooledSolver(IMIP mipObj, AbortHandle abort) {
+		return solveWithPooledSolver(mipObj, getClient(), abort, () -> { });
+	}
+
+	/**
+	 * Solves a mip submitted earlier as a job, scheduled as if it came from the given client.
+	 * @param started run once the scheduler lets the solve start
+	 * @see JobStore
+	 */
+	IMIPResult solveWithPooledSolver(IMIP mipObj, String client, AbortHandle abort, Runnable started) {
+		try {
+			// Unless the request brought the time it has left, go by the deadline in the mip
+			abort.setDeadline(mipObj);
+			abort.checkDeadline("before the solve was queued");
+			SolveScheduler.Ticket ticket = scheduler.admit(mipObj, client, abort);
+			IMIPSolver solver = null;
+			try {
+				started.run();
+				abort.checkDeadline("while the solve was queued");
+				// Inside the try, so the ticket is released even if no solver can be created
+				solver = acquireSolver();
+				IMIPResult result = solver.solve(mipObj, abort);
+				result.setMetadata(SolveScheduler.QUEUE_WAIT_KEY, ticket.getWaitMillis());
+				return result;
+			} finally {
+				if (solver != null) {
+					idleSolvers.add(solver);
+				}
+				scheduler.release(ticket);
+			}
+		} finally {
+			// Mapped models are never stored, so their files are only needed for this solve
+			if (mipObj instanceof MappedMIP) {
+				((MappedMIP) mipObj).close();
+			}
+		}
+	}
+
+	/**
+	 * @return the host of the client of the current call, or "local" if it isn't a remote call
+	 */
+	String getClient() {
+		try {
+			return getClientHost();
+		} catch (ServerNotActiveException e) {
+			return "local";
+		}
 	}
 	
 	/**
 	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#solve(byte[])
 	 */
 	public IMIPResult solve(byte[] serializedMip) throws MIPException /*, RemoteException */ {
+		return solve(deserialize(serializedMip));
+	}
+
+	private IMIP deserialize(byte[] serializedMip) {
 		String client = "Unknown";
 		try {
 			client = getClientHost();
@@ -90,10 +198,184 @@ public class RemoteMIPSolver extends UnicastRemoteObject implements IRemoteMIPSo
 		} catch (ClassNotFoundException e) {
 			throw new MIPException("Serialization error", e);			
 		}
+		return mipObj;
+	}
+
+	/**
+	 * Reads the mip from the file, streaming it, so that a mapped mip's files are copied without
+	 * holding them on the heap.
+	 */
+	private static IMIP deserialize(Path serializedMip) {
+		try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(serializedMip)))) {
+			logger.trace("Begin de-serialization of " + Files.size(serializedMip) + " uploaded bytes");
+			long time = System.currentTimeMillis();
+			IMIP mipObj = (IMIP) ois.readObject();
+			time = System.currentTimeMillis() - time;
+			logger.trace("Finished de-serialiation in " + time + " millis.");
+			return mipObj;
+		} catch (IOException | ClassNotFoundException e) {
+			throw new MIPException("Serialization error", e);
+		}
+	}
+
+	private IMIPResult solve(IMIP mipObj) {
+		return solve(mipObj, new AbortHandle());
+	}
+
+	private IMIPResult solve(IMIP mipObj, AbortHandle abort) {
 		long time = System.currentTimeMillis();
-		IMIPResult ret = solver.solve(mipObj);
+		IMIPResult ret = solveWithPooledSolver(mipObj, abort);
 		time = System.currentTimeMillis() - time;
-		logger.trace("Finished solving MIP for '" + client + "' in " + time + "millis, sending results back");
+		logger.trace("Finished solving MIP in " + time + "millis, sending results back");
 		return ret;
 	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#solve(String, byte[])
+	 */
+	public IMIPResult solve(String modelHash, byte[] serializedMip) throws MIPException /*, RemoteException */ {
+		// An upload follows a miss, which was counted already
+		IMIP mipObj = serializedMip == null ? store.get(modelHash) : store.peek(modelHash);
+		if (mipObj == null) {
+			if (serializedMip == null) {
+				return null;
+			}
+			// The store is shared by all clients, so nothing is stored under a hash it doesn't match
+			if (!ModelStore.hash(serializedMip).equals(modelHash)) {
+				throw new MIPException("Uploaded model doesn't match its hash " + modelHash);
+			}
+			mipObj = deserialize(serializedMip);
+			store.put(modelHash, mipObj, serializedMip.length);
+		}
+		logger.debug(store);
+		return solve(mipObj);
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#solve(MIPDelta)
+	 */
+	public IMIPResult solve(MIPDelta delta) throws MIPException /*, RemoteException */ {
+		IMIP base = store.get(delta.getBaseHash());
+		if (base == null) {
+			return null;
+		}
+		long baseSize = store.getSize(delta.getBaseHash());
+		byte[] serializedDelta = ModelStore.serialize(delta);
+		IMIP mipObj = delta.applyTo(base.typedClone());
+		// Estimate the size rather than serializing the whole model again
+		store.put(ModelStore.hash(delta.getBaseHash(), serializedDelta), mipObj, baseSize + serializedDelta.length);
+		logger.debug(store);
+		return solve(mipObj);
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#solve(SharedSegment)
+	 */
+	public SharedSegment solve(SharedSegment serializedMip) throws MIPException /*, RemoteException */ {
+		if (!serializedMip.exists()) {
+			logger.debug("Shared segment " + serializedMip + " not accessible");
+			return null;
+		}
+		long time = System.currentTimeMillis();
+		IMIP mipObj;
+		try {
+			mipObj = (IMIP) serializedMip.read();
+		} catch (MIPException e) {
+			logger.debug("Shared segment " + serializedMip + " not readable", e);
+			return null;
+		}
+		logger.trace("Finished reading " + serializedMip + " in " + (System.currentTimeMillis() - time) + " millis.");
+		time = System.currentTimeMillis();
+		IMIPResult ret = solveWithPooledSolver(mipObj, new AbortHandle());
+		time = System.currentTimeMillis() - time;
+		logger.trace("Finished solving shared MIP in " + time + " millis, sending results back");
+		return SharedSegment.write(ret);
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#solveCancellable(String, byte[])
+	 */
+	public IMIPResult solveCancellable(String requestId, byte[] serializedMip) throws MIPException /*, RemoteException */ {
+		return solveCancellable(requestId, serializedMip, new AbortHandle());
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#solveCancellable(String, byte[], long)
+	 */
+	public IMIPResult solveCancellable(String requestId, byte[] serializedMip, long budgetMillis) throws MIPException /*, RemoteException */ {
+		AbortHandle abort = new AbortHandle();
+		// Counted from the arrival, so the time spent deserializing is deducted too
+		abort.setDeadline(System.currentTimeMillis() + budgetMillis);
+		return solveCancellable(requestId, serializedMip, abort);
+	}
+
+	private IMIPResult solveCancellable(String requestId, byte[] serializedMip, AbortHandle abort) {
+		running.register(requestId, abort);
+		try {
+			return solve(deserialize(serializedMip), abort);
+		} finally {
+			running.unregister(requestId, abort);
+		}
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#beginUpload()
+	 */
+	public String beginUpload() throws MIPException /*, RemoteException */ {
+		return uploads.begin();
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#uploadChunk(String, byte[])
+	 */
+	public void uploadChunk(String uploadId, byte[] chunk) throws MIPException /*, RemoteException */ {
+		uploads.append(uploadId, chunk);
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#solveUploaded(String, String, long)
+	 */
+	public IMIPResult solveUploaded(String requestId, String uploadId, long budgetMillis) throws MIPException /*, RemoteException */ {
+		Path serializedMip = uploads.finish(uploadId);
+		AbortHandle abort = new AbortHandle();
+		if (budgetMillis != Long.MAX_VALUE) {
+			// Counted from the arrival, so the time spent deserializing is deducted too
+			abort.setDeadline(System.currentTimeMillis() + budgetMillis);
+		}
+		try {
+			running.register(requestId, abort);
+		} catch (MIPException e) {
+			Uploads.delete(serializedMip);
+			throw e;
+		}
+		try {
+			IMIP mipObj;
+			try {
+				mipObj = deserialize(serializedMip);
+			} finally {
+				// The model is on the heap or in its own mapped files now
+				Uploads.delete(serializedMip);
+			}
+			return solve(mipObj, abort);
+		} finally {
+			running.unregister(requestId, abort);
+		}
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#cancel(String)
+	 */
+	public void cancel(String requestId) {
+		if (running.cancel(requestId)) {
+			logger.info("Cancelled request " + requestId);
+		} else {
+			logger.debug("Request " + requestId + " to cancel isn't running");
+		}
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver#ping()
+	 */
+	public void ping() {
+	}
 }
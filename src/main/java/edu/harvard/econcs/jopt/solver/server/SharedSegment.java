@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.regex.Pattern;
+
+import edu.harvard.econcs.jopt.solver.MIPException;
+
+/**
+ * A handle to a serialized object in a memory-mapped file, used to pass models and results between a client and a
+ * server on the same host without copying them through RMI. Only the handle itself travels over the control
+ * channel. The files live in /dev/shm where it exists, so they never touch a disk.
+ * <p>
+ * Since the path comes from the other side of the connection, a segment is only read or deleted if its canonical path
+ * is a jopt-*.segment file directly inside the shared directory. The files are only accessible to their owner.
+ */
+public class SharedSegment implements Serializable {
+
+    private static final long serialVersionUID = 3690571209844021837L;
+
+    private static final int CHUNK_SIZE = 1 << 26;
+    private static final File SHARED_MEMORY = new File("/dev/shm");
+    private static final Pattern NAME = Pattern.compile("jopt-.*\\.segment");
+
+    private final String path;
+    private final long length;
+
+    private SharedSegment(String path, long length) {
+        this.path = path;
+        this.length = length;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return false if the file of the segment can't be seen or read from this process, e.g. on another host
+     * or under another user
+     */
+    public boolean exists() {
+        File file = file();
+        return file.isFile() && Files.isReadable(file.toPath()) && file.length() == length;
+    }
+
+    /**
+     * @return the directory in which the segments are created
+     */
+    public static File getDirectory() {
+        File directory = SHARED_MEMORY.isDirectory() ? SHARED_MEMORY : new File(System.getProperty("java.io.tmpdir"));
+        try {
+            return directory.getCanonicalFile();
+        } catch (IOException e) {
+            throw new MIPException("Could not resolve shared directory " + directory, e);
+        }
+    }
+
+    /**
+     * @throws MIPException if the path of the segment isn't a segment file in the shared directory
+     */
+    private File file() {
+        try {
+            File file = new File(path).getCanonicalFile();
+            if (!getDirectory().equals(file.getParentFile()) || !NAME.matcher(file.getName()).matches()) {
+                throw new MIPException("Shared segment " + path + " is not a segment in " + getDirectory());
+            }
+            return file;
+        } catch (IOException e) {
+            throw new MIPException("Could not resolve shared segment " + path, e);
+        }
+    }
+
+    /**
+     * Serializes the object into a new segment in the shared directory.
+     */
+    public static SharedSegment write(Serializable object) {
+        try {
+            File file;
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                file = Files.createTempFile(getDirectory().toPath(), "jopt-", ".segment",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))).toFile();
+            } else {
+                file = File.createTempFile("jopt-", ".segment", getDirectory());
+                file.setReadable(false, false);
+                file.setWritable(false, false);
+                file.setReadable(true, true);
+                file.setWritable(true, true);
+            }
+            try (MappedOutputStream out = new MappedOutputStream(file);
+                 ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                oos.writeObject(object);
+                oos.flush();
+                return new SharedSegment(file.getPath(), out.position);
+            } catch (IOException | RuntimeException e) {
+                file.delete();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new MIPException("Could not write shared segment", e);
+        }
+    }
+
+    public Object read() {
+        try (MappedInputStream in = new MappedInputStream(file(), length);
+             ObjectInputStream ois = new ObjectInputStream(in)) {
+            return ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new MIPException("Could not read shared segment " + path, e);
+        }
+    }
+
+    public void delete() {
+        file().delete();
+    }
+
+    /**
+     * @return true if the host name refers to this machine
+     */
+    public static boolean isLocalHost(String host) {
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            return address.isLoopbackAddress() || address.isAnyLocalAddress() || NetworkInterface.getByInetAddress(address) != null;
+        } catch (UnknownHostException | SocketException e) {
+            return false;
+        }
+    }
+
+    public String toString() {
+        return path + " (" + length + " bytes)";
+    }
+
+    /**
+     * Writes into the file through mappings of one chunk at a time, and cuts it to the written length on close.
+     */
+    private static class MappedOutputStream extends OutputStream {
+        private final RandomAccessFile file;
+        private MappedByteBuffer buffer;
+        private long position = 0;
+
+        MappedOutputStream(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "rw");
+        }
+
+        private void ensureBuffer() throws IOException {
+            if (buffer == null || !buffer.hasRemaining()) {
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureBuffer();
+            buffer.put((byte) b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                ensureBuffer();
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (file.getChannel().isOpen()) {
+                buffer = null;
+                file.setLength(position);
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the file through read-only mappings of one chunk at a time.
+     */
+    private static class MappedInputStream extends InputStream {
+        private final RandomAccessFile file;
+        private final long length;
+        private MappedByteBuffer buffer;
+        private long position = 0;
+
+        MappedInputStream(File file, long length) throws IOException {
+            this.file = new RandomAccessFile(file, "r");
+            this.length = length;
+        }
+
+        private boolean ensureBuffer() throws IOException {
+            if (position >= length) {
+                return false;
+            }
+            if (buffer == null || !buffer.hasRemaining()) {
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, length - position));
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureBuffer()) {
+                return -1;
+            }
+            position++;
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureBuffer()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            buffer = null;
+            file.close();
+        }
+    }
+}
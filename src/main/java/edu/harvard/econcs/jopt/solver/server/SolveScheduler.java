@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Decides the order in which the solves sent to a server start, so that one client submitting many
+ * jobs can't starve the others. At most a fixed number of solves run at once, the others wait in the
+ * calling thread until they are dispatched:
+ * <ul>
+ * <li>Solves of a higher priority class (SolveParam.PRIORITY) always start first.</li>
+ * <li>Within a class, clients take turns by weighted fair queuing: each dispatch advances a client's
+ * virtual time by the inverse of its weight, and the client furthest behind goes next. A client is
+ * identified by SolveParam.TENANT, or else by the host of the request. A client is forgotten once it
+ * has no solves queued or running, and starts at the current virtual time when it returns.</li>
+ * <li>The solves of a client start earliest deadline first (SolveParam.DEADLINE), then in order of arrival.</li>
+ * </ul>
+ * Solves beyond the queue limits are rejected right away with a MIPException, as are those still queued
+ * when the deadline of their AbortHandle passes.
+ */
+public class SolveScheduler {
+
+    private static final Logger logger = LogManager.getLogger(SolveScheduler.class);
+
+    /** The key of the millis a solve waited in the queue in the result metadata **/
+    public static final String QUEUE_WAIT_KEY = "queueWaitMillis";
+
+    private static final Comparator<Ticket> EARLIEST_DEADLINE_FIRST =
+            Comparator.<Ticket>comparingDouble(t -> t.deadline).thenComparingLong(t -> t.sequence);
+
+    private final int maxRunning;
+    private int maxQueued = 1000;
+    private int maxQueuedPerClient = 200;
+    private final Map<String, Double> weights = new HashMap<>();
+
+    /** The waiting solves by priority class, highest first, then by client **/
+    private final TreeMap<Integer, Map<String, PriorityQueue<Ticket>>> queues = new TreeMap<>(Collections.reverseOrder());
+    private final Map<String, Integer> queuedByClient = new HashMap<>();
+    private final Map<String, Integer> runningByClient = new HashMap<>();
+    /** Only of the clients with solves queued or running **/
+    private final Map<String, Double> virtualFinish = new HashMap<>();
+    private final Map<String, WaitStats> waitByClient = new HashMap<>();
+    private final WaitStats totalWait = new WaitStats();
+    private double virtualTime = 0;
+    private int queued = 0;
+    private int running = 0;
+    private long sequence = 0;
+    private long rejected = 0;
+    private long expired = 0;
+
+    public SolveScheduler(int maxRunning) {
+        if (maxRunning < 1) {
+            throw new IllegalArgumentException("At least one solve has to run: " + maxRunning);
+        }
+        this.maxRunning = maxRunning;
+    }
+
+    /**
+     * A scheduler running as many solves as there are processors.
+     */
+    public SolveScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public synchronized void setMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    public synchronized void setMaxQueuedPerClient(int maxQueuedPerClient) {
+        this.maxQueuedPerClient = maxQueuedPerClient;
+    }
+
+    /**
+     * @param weight the share of the client relative to others, 1 by default
+     */
+    public synchronized void setWeight(String client, double weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        weights.put(client, weight);
+    }
+
+    /**
+     * Queues the solve of the MIP and waits until it may start. The ticket must be released when it is done.
+     * @param clientHost the host of the request, used if the MIP has no SolveParam.TENANT
+     * @param abort removes the solve from the queue if it is aborted, or its deadline passes, while waiting
+     * @throws MIPException if the queue is full, or the solve was aborted or its deadline passed while waiting
+     */
+    public Ticket admit(IMIP mip, String clientHost, AbortHandle abort) {
+        String client = mip.getStringSolveParam(SolveParam.TENANT, clientHost);
+        int priority = mip.getIntSolveParam(SolveParam.PRIORITY, 0);
+        double deadline = abort.hasDeadline() ? abort.getDeadline()
+                : mip.getDoubleSolveParam(SolveParam.DEADLINE, Double.POSITIVE_INFINITY);
+        Ticket ticket = enqueue(client, priority, deadline);
+        Runnable cancel = () -> cancel(ticket);
+        abort.register(cancel);
+        try {
+            awaitDispatch(ticket, abort.getDeadline());
+        } finally {
+            abort.unregister(cancel);
+        }
+        return ticket;
+    }
+
+    synchronized Ticket enqueue(String client, int priority, double deadline) {
+        int ofClient = queuedByClient.getOrDefault(client, 0);
+        if (queued >= maxQueued || ofClient >= maxQueuedPerClient) {
+            rejected++;
+            throw new MIPException("Solve queue full: " + queued + " queued, " + ofClient + " of them from " + client);
+        }
+        Ticket ticket = new Ticket(client, priority, deadline, sequence++);
+        queues.computeIfAbsent(priority, p -> new HashMap<>())
+                .computeIfAbsent(client, c -> new PriorityQueue<>(EARLIEST_DEADLINE_FIRST))
+                .add(ticket);
+        queuedByClient.put(client, ofClient + 1);
+        queued++;
+        dispatch();
+        return ticket;
+    }
+
+    private synchronized void awaitDispatch(Ticket ticket, long deadline) {
+        while (!ticket.dispatched) {
+            if (ticket.cancelled) {
+                throw new MIPException("Solve aborted while queued");
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                cancel(ticket);
+                expired++;
+                throw new MIPException("Deadline passed while queued, after " + (System.currentTimeMillis() - ticket.queuedAt) + " millis");
+            }
+            try {
+                // Long.MAX_VALUE if there is no deadline, which is as good as forever
+                wait(remaining);
+            } catch (InterruptedException e) {
+                cancel(ticket);
+                Thread.currentThread().interrupt();
+                throw new MIPException("Interrupted while queued");
+            }
+        }
+    }
+
+    private synchronized void cancel(Ticket ticket) {
+        if (ticket.dispatched || ticket.cancelled) {
+            return;
+        }
+        ticket.cancelled = true;
+        Map<String, PriorityQueue<Ticket>> byClient = queues.get(ticket.priority);
+        PriorityQueue<Ticket> ofClient = byClient.get(ticket.client);
+        ofClient.remove(ticket);
+        removed(ticket, byClient, ofClient);
+        forgetIfIdle(ticket.client);
+        notifyAll();
+    }
+
+    /**
+     * Ends the solve of the ticket, letting the next one start.
+     */
+    public synchronized void release(Ticket ticket) {
+        if (!ticket.dispatched || ticket.released) {
+            return;
+        }
+        ticket.released = true;
+        running--;
+        int left = runningByClient.get(ticket.client) - 1;
+        if (left == 0) {
+            runningByClient.remove(ticket.client);
+        } else {
+            runningByClient.put(ticket.client, left);
+        }
+        forgetIfIdle(ticket.client);
+        dispatch();
+    }
+
+    /**
+     * Starts waiting solves while there is room, in the order described above.
+     */
+    private void dispatch() {
+        boolean dispatched = false;
+        while (running < maxRunning && !queues.isEmpty()) {
+            Map<String, PriorityQueue<Ticket>> byClient = queues.firstEntry().getValue();
+            String next = null;
+            double nextStart = 0;
+            double nextFinish = Double.POSITIVE_INFINITY;
+            for (String client : byClient.keySet()) {
+                // A client that was idle doesn't get credit for the time it didn't use
+                double start = Math.max(virtualTime, virtualFinish.getOrDefault(client, 0d));
+                double finish = start + 1 / weights.getOrDefault(client, 1d);
+                if (finish < nextFinish) {
+                    next = client;
+                    nextStart = start;
+                    nextFinish = finish;
+                }
+            }
+            PriorityQueue<Ticket> ofClient = byClient.get(next);
+            Ticket ticket = ofClient.poll();
+            removed(ticket, byClient, ofClient);
+            virtualFinish.put(next, nextFinish);
+            virtualTime = nextStart;
+            ticket.dispatched = true;
+            ticket.waitMillis = System.currentTimeMillis() - ticket.queuedAt;
+            waitByClient.computeIfAbsent(next, c -> new WaitStats()).record(ticket.waitMillis);
+            totalWait.record(ticket.waitMillis);
+            runningByClient.merge(next, 1, Integer::sum);
+            running++;
+            dispatched = true;
+            logger.debug("Starting solve of " + next + " at priority " + ticket.priority + " after " + ticket.waitMillis + " ms");
+        }
+        if (dispatched) {
+            notifyAll();
+        }
+    }
+
+    private void removed(Ticket ticket, Map<String, PriorityQueue<Ticket>> byClient, PriorityQueue<Ticket> ofClient) {
+        if (ofClient.isEmpty()) {
+            byClient.remove(ticket.client);
+            if (byClient.isEmpty()) {
+                queues.remove(ticket.priority);
+            }
+        }
+        int left = queuedByClient.get(ticket.client) - 1;
+        if (left == 0) {
+            queuedByClient.remove(ticket.client);
+        } else {
+            queuedByClient.put(ticket.client, left);
+        }
+        queued--;
+    }
+
+    /**
+     * Drops the state of a client without solves queued or running, so it doesn't pile up over many clients.
+     */
+    private void forgetIfIdle(String client) {
+        if (!queuedByClient.containsKey(client) && !runningByClient.containsKey(client)) {
+            virtualFinish.remove(client);
+            waitByClient.remove(client);
+        }
+    }
+
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return the number of solves rejected because the queue was full
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of solves dropped because their deadline passed while they were queued
+     */
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    /**
+     * @return the queue wait times of the solves started so far, of the clients with solves queued or running
+     */
+    public synchronized Map<String, WaitStats> getWaitStats() {
+        Map<String, WaitStats> copy = new HashMap<>();
+        for (Map.Entry<String, WaitStats> entry : waitByClient.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    /**
+     * @return the queue wait times of all solves started so far
+     */
+    public synchronized WaitStats getTotalWaitStats() {
+        return totalWait.copy();
+    }
+
+    /**
+     * @return the clients with solves waiting right now
+     */
+    public synchronized List<String> getQueuedClients() {
+        return new ArrayList<>(queuedByClient.keySet());
+    }
+
+    public static class Ticket {
+        private final String client;
+        private final int priority;
+        private final double deadline;
+        private final long sequence;
+        private final long queuedAt = System.currentTimeMillis();
+        private boolean dispatched = false;
+        private boolean cancelled = false;
+        private boolean released = false;
+        private long waitMillis;
+
+        private Ticket(String client, int priority, double deadline, long sequence) {
+            this.client = client;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        public String getClient() {
+            return client;
+        }
+
+        /**
+         * @return how long the solve waited before it was started
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+    }
+
+    /**
+     * The queue wait times of one client.
+     */
+    public static class WaitStats {
+        private long count = 0;
+        private long totalMillis = 0;
+        private long maxMillis = 0;
+
+        private void record(long millis) {
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        private WaitStats copy() {
+            WaitStats copy = new WaitStats();
+            copy.count = count;
+            copy.totalMillis = totalMillis;
+            copy.maxMillis = maxMillis;
+            return copy;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0 : totalMillis / (double) count;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return count + " solves, mean wait " + String.format("%.1f", getMeanMillis()) + " ms, max " + maxMillis + " ms";
+        }
+    }
+}
@@ -32,27 +32,42 @@ package edu.harvard.econcs.jopt.solver.server;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.rmi.AccessException;
 import java.rmi.AlreadyBoundException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import edu.harvard.econcs.jopt.solver.AbortHandle;
 import edu.harvard.econcs.jopt.solver.IMIPResult;
 import edu.harvard.econcs.jopt.solver.MIPException;
 import edu.harvard.econcs.jopt.solver.client.SolverClient;
+import edu.harvard.econcs.jopt.solver.mip.MIPDelta;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * A special kind of SolverServer that knows about a bunch of
  * other Solver servers and can load balance among them.
+ * If configured with a {@link HedgingPolicy}, a request that takes unusually
+ * long is also sent to a second server, and the slower one is cancelled.
  * 
  * @author Benjamin Lubin; Last modified by $Author: blubin $
  * @version $Revision: 1.5 $ on $Date: 2010/10/28 00:11:26 $
@@ -72,16 +87,25 @@ public class SolverLoadBalancer extends UnicastRemoteObject
 	
 	private List clients = new ArrayList();
 	private List tryLater = new ArrayList();
+	/** The solver handed to all clients, exported once with the balancer **/
+	private final BalancingRemoteMIPSolver endpoint;
+	private Registry registry;
+	/** Null if requests aren't hedged **/
+	private final HedgingPolicy hedging;
+	/** Runs the calls to the drones of hedged requests **/
+	private ExecutorService hedgeExecutor;
 	
 	/**
 	 * Create a new Server
 	 */
-	public static void createServer(int port, Properties props) throws MIPException {
+	public static SolverLoadBalancer createServer(int port, Properties props) throws MIPException {
 		try {
 			logger.info("Binding load balancer to port: " + port);
 			Registry localreg = LocateRegistry.createRegistry(port);
 			SolverLoadBalancer server = new SolverLoadBalancer(port, props);
 			localreg.bind(NAME, server);
+			server.registry = localreg;
+			return server;
 		} catch (AccessException e) {
 			throw new MIPException("Access", e);
 		} catch (AlreadyBoundException e) {
@@ -95,6 +119,41 @@ public class SolverLoadBalancer extends UnicastRemoteObject
 		super(port);
 		this.props = props;
 		createClients();
+		this.hedging = HedgingPolicy.fromProperties(props);
+		if (hedging != null) {
+			hedgeExecutor = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "SolverLoadBalancer-hedge");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		this.endpoint = new BalancingRemoteMIPSolver(port);
+	}
+
+	/**
+	 * @return the hedging policy with its metrics, or null if requests aren't hedged
+	 */
+	public HedgingPolicy getHedgingPolicy() {
+		return hedging;
+	}
+
+	/**
+	 * Unexports the balancer, its solver and the registry created with it, even with calls in progress.
+	 */
+	public void shutdown() {
+		logger.info("Shutting down load balancer");
+		try {
+			UnicastRemoteObject.unexportObject(endpoint, true);
+			UnicastRemoteObject.unexportObject(this, true);
+			if (registry != null) {
+				UnicastRemoteObject.unexportObject(registry, true);
+			}
+		} catch (NoSuchObjectException e) {
+			logger.warn("Load balancer was not exported: " + e.getMessage());
+		}
+		if (hedgeExecutor != null) {
+			hedgeExecutor.shutdownNow();
+		}
 	}
 
 	private void createClients() {
@@ -171,8 +230,8 @@ public class SolverLoadBalancer extends UnicastRemoteObject
 		} catch (ServerNotActiveException e) {
 			logger.warn("Could not get client host: " + e.getMessage());
 		}
-		logger.info("Creating Load Balancing Remote Solver for: " + client);
-		return new BalancingRemoteMIPSolver();
+		logger.info("Handing out Load Balancing Remote Solver to: " + client);
+		return endpoint;
 	}
 	
 	private class BalancingRemoteMIPSolver extends UnicastRemoteObject implements IRemoteMIPSolver {
@@ -180,20 +239,86 @@ public class SolverLoadBalancer extends UnicastRemoteObject
 		 * 
 		 */
 		private static final long serialVersionUID = 4050197531583590452L;
-		public BalancingRemoteMIPSolver() throws RemoteException{
-		    /* keep compiler happy */
+		public BalancingRemoteMIPSolver(int port) throws RemoteException{
+			super(port);
 		}
+		/** The cancellable solves running right now, by request id **/
+		private final CancellableRequests running = new CancellableRequests();
+		/** The models being uploaded in chunks, by upload id **/
+		private final Uploads uploads = new Uploads();
 		public IMIPResult solve(byte[] serializedMip) throws MIPException /*, RemoteException */{
-			initStartingPlace();
+			return solve(serializedMip, new AbortHandle());
+		}
+		public IMIPResult solveCancellable(String requestId, byte[] serializedMip) throws MIPException {
+			return solveCancellable(requestId, serializedMip, new AbortHandle());
+		}
+		public IMIPResult solveCancellable(String requestId, byte[] serializedMip, long budgetMillis) throws MIPException {
+			AbortHandle abort = new AbortHandle();
+			abort.setDeadline(System.currentTimeMillis() + budgetMillis);
+			return solveCancellable(requestId, serializedMip, abort);
+		}
+		private IMIPResult solveCancellable(String requestId, byte[] serializedMip, AbortHandle abort) {
+			running.register(requestId, abort);
+			try {
+				return solve(serializedMip, abort);
+			} finally {
+				running.unregister(requestId, abort);
+			}
+		}
+		public String beginUpload() throws MIPException {
+			return uploads.begin();
+		}
+		public void uploadChunk(String uploadId, byte[] chunk) throws MIPException {
+			uploads.append(uploadId, chunk);
+		}
+		/**
+		 * Spools the upload to a file here and streams it on to the drones from there, in chunks again.
+		 */
+		public IMIPResult solveUploaded(String requestId, String uploadId, long budgetMillis) throws MIPException {
+			Path serializedMip = uploads.finish(uploadId);
+			try {
+				AbortHandle abort = new AbortHandle();
+				if (budgetMillis != Long.MAX_VALUE) {
+					abort.setDeadline(System.currentTimeMillis() + budgetMillis);
+				}
+				running.register(requestId, abort);
+				try {
+					return solve((cl, droneAbort) -> cl.solve(serializedMip, droneAbort), abort);
+				} finally {
+					running.unregister(requestId, abort);
+				}
+			} finally {
+				Uploads.delete(serializedMip);
+			}
+		}
+		public void cancel(String requestId) {
+			running.cancel(requestId);
+		}
+		private IMIPResult solve(byte[] serializedMip, AbortHandle abort) throws MIPException {
+			return solve((cl, droneAbort) -> cl.solve(serializedMip, droneAbort), abort);
+		}
+		private IMIPResult solve(DroneCall call, AbortHandle abort) throws MIPException {
+			// Calls from many clients run concurrently, so each walks the drones with its own cursor
+			DroneCursor cursor = new DroneCursor();
 			while (true) {
-				SolverClient cl = getNextClient();
+				// Each drone is sent the time left after the attempts before it
+				abort.checkDeadline("before a drone could solve the problem");
+				SolverClient cl = cursor.getNextClient();
 				if (cl == null) {
 					throw new MIPException("Could not find a solver to solve problem: all servers down");
 				}
 				logger.info("Attempting to solve using: " + cl.getHost() + ":" + cl.getPort());
 				try {
 					long time = System.currentTimeMillis();
-					IMIPResult ret = cl.solve(serializedMip);
+					IMIPResult ret;
+					if (hedging == null) {
+						ret = call.solve(cl, abort);
+					} else {
+						ret = solveHedged(cl, cursor, call, abort);
+						if (ret == null) {
+							continue;
+						}
+					}
 					time = System.currentTimeMillis() - time;
 					logger.info("MIP solved in " + time + " by " + cl.getHost() + ":" + cl.getPort());
 					return ret;
@@ -201,7 +326,7 @@ public class SolverLoadBalancer extends UnicastRemoteObject
 					Throwable t = e.getCause();
 					if (t instanceof RemoteException) {
 						logger.error("Remote Exception", t);
-						clientDead(cl);
+						cursor.clientDead(cl);
 					} else {
 						logger.error("Exception from solver", e);
 						throw e;
@@ -209,8 +334,121 @@ public class SolverLoadBalancer extends UnicastRemoteObject
 				}
 			}
 		}
+		/**
+		 * Sends the request to the primary drone, and to a second one if it isn't answered
+		 * within the hedging delay. The first answer wins, the other drone is cancelled.
+		 * @return null if all drones tried died, which are removed from the cursor already
+		 */
+		private IMIPResult solveHedged(SolverClient primary, DroneCursor cursor, DroneCall call, AbortHandle abort) {
+			hedging.countRequest();
+			CompletionService<IMIPResult> completion = new ExecutorCompletionService<>(hedgeExecutor);
+			Map<Future<IMIPResult>, SolverClient> pending = new HashMap<>();
+			Map<SolverClient, AbortHandle> aborts = new HashMap<>();
+			SolverClient backup = null;
+			pending.put(submit(completion, primary, call, abort, aborts), primary);
+			try {
+				Future<IMIPResult> done = completion.poll(hedging.getDelay(), TimeUnit.MILLISECONDS);
+				if (done == null) {
+					backup = cursor.getNextClient();
+					if (backup == primary) {
+						// There is only one drone
+						backup = null;
+					}
+					if (backup != null) {
+						logger.info("No answer from " + primary.getHost() + ":" + primary.getPort() + " yet, hedging with "
+								+ backup.getHost() + ":" + backup.getPort());
+						hedging.countHedge();
+						pending.put(submit(completion, backup, call, abort, aborts), backup);
+					}
+					done = completion.take();
+				}
+				while (true) {
+					SolverClient cl = pending.remove(done);
+					try {
+						IMIPResult ret = done.get();
+						if (cl == backup) {
+							hedging.countWin();
+						}
+						return ret;
+					} catch (ExecutionException e) {
+						Throwable t = e.getCause();
+						if (!(t instanceof MIPException)) {
+							throw new MIPException("Exception from solver", t);
+						}
+						if (!(t.getCause() instanceof RemoteException) || aborts.get(cl).isAborted()) {
+							throw (MIPException) t;
+						}
+						logger.error("Remote Exception", t.getCause());
+						cursor.clientDead(cl);
+						if (pending.isEmpty()) {
+							return null;
+						}
+						done = completion.take();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MIPException("Interrupted while waiting for drones", e);
+			} finally {
+				// Cancel the loser without waiting for it, it may be the stalled one
+				for (SolverClient cl : pending.values()) {
+					hedgeExecutor.execute(aborts.get(cl)::abort);
+				}
+			}
+		}
+		private Future<IMIPResult> submit(CompletionService<IMIPResult> completion, SolverClient cl, DroneCall call,
+				AbortHandle abort, Map<SolverClient, AbortHandle> aborts) {
+			AbortHandle droneAbort = new AbortHandle();
+			droneAbort.setDeadline(abort.getDeadline());
+			aborts.put(cl, droneAbort);
+			return completion.submit(() -> {
+				Runnable forward = droneAbort::abort;
+				abort.register(forward);
+				try {
+					long time = System.currentTimeMillis();
+					IMIPResult ret = call.solve(cl, droneAbort);
+					hedging.recordLatency(System.currentTimeMillis() - time);
+					return ret;
+				} finally {
+					abort.unregister(forward);
+				}
+			});
+		}
+		/**
+		 * The drones may be on other hosts, so the client has to send the mip itself.
+		 */
+		public SharedSegment solve(SharedSegment serializedMip) {
+			return null;
+		}
+		/**
+		 * Each request may end up on another drone, so the models aren't stored here.
+		 */
+		public IMIPResult solve(String modelHash, byte[] serializedMip) {
+			return serializedMip == null ? null : solve(serializedMip);
+		}
+		public IMIPResult solve(MIPDelta delta) {
+			return null;
+		}
+		public void ping() {
+		}
+	}
+
+	/**
+	 * Sends the model of a request to one drone.
+	 */
+	private interface DroneCall {
+		IMIPResult solve(SolverClient cl, AbortHandle abort);
+	}
+
+	/**
+	 * The position of one solve call in its round over the drones.
+	 */
+	private class DroneCursor {
 		private int curSpot = 0;
 		private int activeRemaining = 0;
+		private DroneCursor() {
+			initStartingPlace();
+		}
 		private void initStartingPlace() {
 			// randomly re-lookup now and again)
 			if (getRand(10) == 0) {
@@ -236,7 +474,7 @@ public class SolverLoadBalancer extends UnicastRemoteObject
 			}
 			while (getNumClients()>0) {
 				SolverClient ret = getClient(curSpot);
-				curSpot = (curSpot++)%getNumClients();
+				curSpot = (curSpot + 1) % getNumClients();
 				if (ret != null) {
 					activeRemaining--;
 					return ret;
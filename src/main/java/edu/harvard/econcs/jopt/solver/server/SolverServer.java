@@ -30,13 +30,18 @@
  */
 package edu.harvard.econcs.jopt.solver.server;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.AccessException;
 import java.rmi.AlreadyBoundException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 
+import edu.harvard.econcs.jopt.solver.IMIPResult;
 import edu.harvard.econcs.jopt.solver.IMIPSolver;
 import edu.harvard.econcs.jopt.solver.MIPException;
 import org.apache.logging.log4j.LogManager;
@@ -47,13 +52,20 @@ import org.apache.logging.log4j.Logger;
  * @version $Revision: 1.5 $ on $Date: 2010/10/28 00:11:26 $
  * @since Apr 12, 2004
  **/
-public class SolverServer extends UnicastRemoteObject implements ISolverServer {
+public class SolverServer extends UnicastRemoteObject implements ISolverServer, IJobServer {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 3977583593201872945L;
 	private static final Logger log = LogManager.getLogger(SolverServer.class);
-	private Class solverClass;
+	private Class<? extends IMIPSolver> solverClass;
+	/** The models uploaded by clients, shared by all solver instances **/
+	private final ModelStore modelStore;
+	/** The solver handed to all clients, exported once with the server **/
+	private final RemoteMIPSolver endpoint;
+	/** Created with the server, so jobs left unfinished by the last run are queued again right away **/
+	private JobStore jobStore;
+	private Registry registry;
 	
 	protected int port;
 	
@@ -62,12 +74,41 @@ public class SolverServer extends UnicastRemoteObject implements ISolverServer {
 	 * @param port
 	 * @param solverClass
 	 */
-	public static void createServer(int port, Class solverClass) throws MIPException {
+	public static SolverServer createServer(int port, Class<? extends IMIPSolver> solverClass) throws MIPException {
+		return createServer(port, solverClass, ModelStore.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a new Server
+	 * @param modelStoreCapacity the bytes of serialized models the server keeps for resubmission
+	 */
+	public static SolverServer createServer(int port, Class<? extends IMIPSolver> solverClass, long modelStoreCapacity) throws MIPException {
+		return createServer(port, solverClass, modelStoreCapacity, new SolveScheduler());
+	}
+
+	/**
+	 * Create a new Server
+	 * @param scheduler orders the solves of all clients and limits how many run at once
+	 */
+	public static SolverServer createServer(int port, Class<? extends IMIPSolver> solverClass, long modelStoreCapacity, SolveScheduler scheduler) throws MIPException {
+		return createServer(port, solverClass, modelStoreCapacity, scheduler, null);
+	}
+
+	/**
+	 * Create a new Server
+	 * @param jobDirectory where submitted jobs and their results are kept; jobs left unfinished there are
+	 * run again as the server starts. If null, a directory for the port in the temp directory is used.
+	 */
+	public static SolverServer createServer(int port, Class<? extends IMIPSolver> solverClass, long modelStoreCapacity, SolveScheduler scheduler,
+			Path jobDirectory) throws MIPException {
 		try {
 			log.info("Binding server to port: " + port);
 			Registry localreg = LocateRegistry.createRegistry(port);
-			SolverServer server = new SolverServer(port, solverClass);
+			SolverServer server = new SolverServer(port, solverClass, new ModelStore(modelStoreCapacity), scheduler);
+			server.jobStore = new JobStore(jobDirectory != null ? jobDirectory : server.getDefaultJobDirectory(), server.endpoint);
 			localreg.bind(NAME, server);
+			server.registry = localreg;
+			return server;
 		} catch (AccessException e) {
 			throw new MIPException("Access", e);
 		} catch (AlreadyBoundException e) {
@@ -82,23 +123,109 @@ public class SolverServer extends UnicastRemoteObject implements ISolverServer {
 	 * of the solver.
 	 * @throws RemoteException
 	 */
-	protected SolverServer(int port, Class solverClass) throws RemoteException {
+	protected SolverServer(int port, Class<? extends IMIPSolver> solverClass) throws RemoteException {
+		this(port, solverClass, new ModelStore());
+	}
+
+	protected SolverServer(int port, Class<? extends IMIPSolver> solverClass, ModelStore modelStore) throws RemoteException {
+		this(port, solverClass, modelStore, new SolveScheduler());
+	}
+
+	protected SolverServer(int port, Class<? extends IMIPSolver> solverClass, ModelStore modelStore, SolveScheduler scheduler) throws RemoteException {
 		super(port);
 		this.port = port;
 		this.solverClass = solverClass;
+		this.modelStore = modelStore;
+		this.endpoint = new RemoteMIPSolver(port, solverClass, modelStore, scheduler);
+	}
+
+	public ModelStore getModelStore() {
+		return modelStore;
+	}
+
+	public SolveScheduler getScheduler() {
+		return endpoint.getScheduler();
 	}
 
 	/**
 	 * @see edu.harvard.econcs.jopt.solver.server.ISolverServer#getSolver()
 	 */
 	public IRemoteMIPSolver getSolver() throws RemoteException {
-		log.info("Creating a new Solver Instance");
-		IMIPSolver solver = null;
+		return endpoint;
+	}
+
+	private Path getDefaultJobDirectory() {
+		return Paths.get(System.getProperty("java.io.tmpdir"), "jopt-jobs-" + port);
+	}
+
+	/**
+	 * @return the store of the submitted jobs, created if the server wasn't created with one
+	 */
+	public synchronized JobStore getJobStore() {
+		if (jobStore == null) {
+			jobStore = new JobStore(getDefaultJobDirectory(), endpoint);
+		}
+		return jobStore;
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IJobServer#submit(byte[])
+	 */
+	public String submit(byte[] serializedMip) throws MIPException {
+		String client = "local";
+		try {
+			client = getClientHost();
+		} catch (ServerNotActiveException e) {
+			// Not a remote call
+		}
+		return getJobStore().submit(serializedMip, client);
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IJobServer#getJobStatus(String)
+	 */
+	public JobStatus getJobStatus(String jobId) {
+		return getJobStore().getStatus(jobId);
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IJobServer#awaitResult(String, long)
+	 */
+	public IMIPResult awaitResult(String jobId, long timeoutMillis) throws MIPException {
+		try {
+			return getJobStore().awaitResult(jobId, timeoutMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MIPException("Interrupted while waiting for job " + jobId);
+		}
+	}
+
+	/**
+	 * @see edu.harvard.econcs.jopt.solver.server.IJobServer#cancelJob(String)
+	 */
+	public void cancelJob(String jobId) {
+		getJobStore().cancel(jobId);
+	}
+
+	/**
+	 * Unexports the server, its solver and the registry created with it, even with calls in progress.
+	 * Unfinished jobs are kept to run again when a server is started on the same job directory.
+	 */
+	public void shutdown() {
+		log.info("Shutting down server on port: " + port);
+		synchronized (this) {
+			if (jobStore != null) {
+				jobStore.shutdown();
+			}
+		}
 		try {
-			solver = (IMIPSolver)solverClass.newInstance();
-		} catch (InstantiationException | IllegalAccessException e) {
-			throw new MIPException("Could not create solver intance", e);
+			UnicastRemoteObject.unexportObject(endpoint, true);
+			UnicastRemoteObject.unexportObject(this, true);
+			if (registry != null) {
+				UnicastRemoteObject.unexportObject(registry, true);
+			}
+		} catch (NoSuchObjectException e) {
+			log.warn("Server on port " + port + " was not exported: " + e.getMessage());
 		}
-		return new RemoteMIPSolver(port, solver);
 	}
 }
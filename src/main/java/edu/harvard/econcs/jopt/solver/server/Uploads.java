@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.harvard.econcs.jopt.solver.MIPException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The models being uploaded to a server in chunks, each spooled to a file in the temp directory, so that
+ * neither side needs the serialized model on its heap. Uploads that see no chunk for a while are taken to
+ * be abandoned by their client and deleted.
+ * @see ChunkedUpload
+ */
+class Uploads {
+
+    private static final Logger logger = LogManager.getLogger(Uploads.class);
+
+    /** How long an upload may wait for its next chunk **/
+    static final long IDLE_MILLIS = 10 * 60000;
+
+    private final ConcurrentMap<String, Upload> open = new ConcurrentHashMap<>();
+
+    /**
+     * @return the id to send the chunks under
+     */
+    String begin() {
+        prune();
+        String uploadId = UUID.randomUUID().toString();
+        try {
+            Path file = Files.createTempFile(Paths.get(System.getProperty("java.io.tmpdir")), "jopt-upload-", ".ser");
+            open.put(uploadId, new Upload(file));
+        } catch (IOException e) {
+            throw new MIPException("Could not create upload file", e);
+        }
+        return uploadId;
+    }
+
+    /**
+     * @throws MIPException if the upload is unknown, e.g. because it was abandoned
+     */
+    void append(String uploadId, byte[] chunk) {
+        Upload upload = get(uploadId);
+        synchronized (upload) {
+            try {
+                upload.out.write(chunk);
+            } catch (IOException e) {
+                abandon(uploadId);
+                throw new MIPException("Could not write upload " + uploadId, e);
+            }
+            upload.lastUse = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Ends the upload. The caller deletes the file once it read it.
+     * @return the file holding all chunks of the upload
+     */
+    Path finish(String uploadId) {
+        Upload upload = get(uploadId);
+        open.remove(uploadId, upload);
+        synchronized (upload) {
+            try {
+                upload.out.close();
+            } catch (IOException e) {
+                delete(upload.file);
+                throw new MIPException("Could not write upload " + uploadId, e);
+            }
+        }
+        return upload.file;
+    }
+
+    private Upload get(String uploadId) {
+        Upload upload = open.get(uploadId);
+        if (upload == null) {
+            throw new MIPException("Unknown upload " + uploadId);
+        }
+        return upload;
+    }
+
+    private void prune() {
+        long now = System.currentTimeMillis();
+        for (String uploadId : open.keySet()) {
+            Upload upload = open.get(uploadId);
+            if (upload != null && now - upload.lastUse > IDLE_MILLIS) {
+                logger.warn("Deleting abandoned upload " + uploadId);
+                abandon(uploadId);
+            }
+        }
+    }
+
+    private void abandon(String uploadId) {
+        Upload upload = open.remove(uploadId);
+        if (upload == null) {
+            return;
+        }
+        synchronized (upload) {
+            try {
+                upload.out.close();
+            } catch (IOException e) {
+                // Deleted anyway
+            }
+        }
+        delete(upload.file);
+    }
+
+    static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static class Upload {
+        private final Path file;
+        private final OutputStream out;
+        private volatile long lastUse = System.currentTimeMillis();
+
+        private Upload(Path file) throws IOException {
+            this.file = file;
+            this.out = new BufferedOutputStream(Files.newOutputStream(file));
+        }
+    }
+}
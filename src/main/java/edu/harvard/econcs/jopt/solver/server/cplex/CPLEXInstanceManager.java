@@ -30,14 +30,22 @@
  */
 package edu.harvard.econcs.jopt.solver.server.cplex;
 
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParamProfile;
 import ilog.concert.IloException;
 import ilog.cplex.IloCplex;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * @author Benjamin Lubin; Last modified by $Author: blubin $
@@ -48,16 +56,58 @@ public enum CPLEXInstanceManager {
     INSTANCE;
     private static final Logger logger = LogManager.getLogger(CPLEXInstanceManager.class);
 
-    private int numSimultaneous = 100;
+    private static final int DEFAULT_NUM_SIMULTANEOUS = 100;
+    private static final int MAX_PARAMETER_SETS = 16;
+
+    private int numSimultaneous = DEFAULT_NUM_SIMULTANEOUS;
     private BlockingQueue<IloCplex> available = new LinkedBlockingQueue<>();
     private AtomicInteger inUseCount = new AtomicInteger();
+    /** Not sized for concurrent solves unless a server configures it, so a lone solve gets all cores **/
+    private volatile ThreadBudget threadBudget = new ThreadBudget();
+    /** Null if memory isn't governed **/
+    private volatile MemoryBudget memoryBudget = null;
+    /**
+     * Translated profiles per instance, as a parameter set belongs to the environment of the instance
+     * that created it. The inner maps are keyed by the contents of the profiles, hold the most recently
+     * used sets, and are only used by the thread that has the instance checked out.
+     */
+    private final Map<IloCplex, Map<SolveParamProfile, IloCplex.ParameterSet>> parameterSets = new ConcurrentHashMap<>();
 
+    /**
+     * Limits the instances only; the shares of the thread budget are sized by the budget itself.
+     */
     public void setNumSimultaneous(int numSimultaneous) {
         this.numSimultaneous = numSimultaneous;
     }
 
+    /**
+     * @return the budget the threads of all instances are assigned from
+     */
+    public ThreadBudget getThreadBudget() {
+        return threadBudget;
+    }
+
+    /**
+     * Replaces the thread budget; solves already running keep their threads from the old one.
+     */
+    public void setThreadBudget(ThreadBudget threadBudget) {
+        this.threadBudget = threadBudget;
+    }
+
+    /**
+     * @return the budget the memory of all instances is reserved from, or null if there is none
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
     public void clear() {
         for (IloCplex cplex : available) {
+            endParameterSets(cplex);
             cplex.end();
         }
         inUseCount = new AtomicInteger();
@@ -65,6 +115,14 @@ public enum CPLEXInstanceManager {
     }
 
     public IloCplex checkOutCplex() {
+        return checkOutCplex(new AbortHandle());
+    }
+
+    /**
+     * Waits for an instance at most until the deadline of the handle.
+     * @throws MIPException if the deadline passes first
+     */
+    public IloCplex checkOutCplex(AbortHandle abort) {
         IloCplex cplex = available.poll();
         if (cplex == null) {
             if (inUseCount.getAndIncrement() < numSimultaneous) {
@@ -72,7 +130,15 @@ public enum CPLEXInstanceManager {
             }
             inUseCount.decrementAndGet();
             try {
-                cplex = available.take();
+                if (abort.hasDeadline()) {
+                    // The poll may time out a little early, so wait again until the deadline has surely passed
+                    while (cplex == null) {
+                        abort.checkDeadline("while waiting for a CPLEX instance");
+                        cplex = available.poll(abort.getRemainingMillis(), TimeUnit.MILLISECONDS);
+                    }
+                } else {
+                    cplex = available.take();
+                }
             } catch (InterruptedException e) {
                 logger.error("Interrupted while trying to get IloCPlex, resetting", e);
                 throw new RuntimeException(e);
@@ -82,6 +148,41 @@ public enum CPLEXInstanceManager {
         return cplex;
     }
 
+    /**
+     * @return the parameter set of the profile for the checked out instance, translated on first use
+     */
+    public IloCplex.ParameterSet getParameterSet(IloCplex cplex, SolveParamProfile profile,
+                                                 Function<SolveParamProfile, IloCplex.ParameterSet> translate) {
+        return parameterSets.computeIfAbsent(cplex, c -> new ParameterSetCache()).computeIfAbsent(profile, translate);
+    }
+
+    private void endParameterSets(IloCplex cplex) {
+        Map<SolveParamProfile, IloCplex.ParameterSet> sets = parameterSets.remove(cplex);
+        if (sets != null) {
+            sets.values().forEach(IloCplex.ParameterSet::end);
+        }
+    }
+
+    /**
+     * Ends the least recently used parameter set when there are too many.
+     */
+    private static class ParameterSetCache extends LinkedHashMap<SolveParamProfile, IloCplex.ParameterSet> {
+        private static final long serialVersionUID = 7316254046781239305L;
+
+        ParameterSetCache() {
+            super(MAX_PARAMETER_SETS, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SolveParamProfile, IloCplex.ParameterSet> eldest) {
+            if (size() > MAX_PARAMETER_SETS) {
+                eldest.getValue().end();
+                return true;
+            }
+            return false;
+        }
+    }
+
     private IloCplex createCplex() {
         for (int i = 0; i < 10; i++) {
             try {
@@ -123,6 +224,7 @@ public enum CPLEXInstanceManager {
         } catch (IloException e) {
             logger.error("Exception clearing model: " + e.getMessage(), e);
 
+            endParameterSets(cplex);
             cplex.end();
             inUseCount.decrementAndGet();
             return;
@@ -33,6 +33,10 @@ package edu.harvard.econcs.jopt.solver.server.cplex;
 import edu.harvard.econcs.jopt.solver.*;
 import edu.harvard.econcs.jopt.solver.MIPInfeasibleException.Cause;
 import edu.harvard.econcs.jopt.solver.mip.*;
+import edu.harvard.econcs.jopt.solver.server.ElasticRelaxation;
+import edu.harvard.econcs.jopt.solver.server.GeneratedConstraintLoader;
+import edu.harvard.econcs.jopt.solver.server.ModelStore;
+import edu.harvard.econcs.jopt.solver.server.SolveScheduler;
 import edu.harvard.econcs.jopt.solver.server.SolverServer;
 import ilog.concert.*;
 import ilog.cplex.IloCplex;
@@ -56,22 +60,57 @@ public class CPlexMIPSolver implements IMIPSolver {
 
     private static final Logger logger = LogManager.getLogger(CPlexMIPSolver.class);
 
+    /** Number of rows of a MappedMIP handed to CPLEX at once **/
+    private static final int MAPPED_BATCH_SIZE = 10000;
+
     // private static final boolean debug = true;
     // private static final String fileName = "mipInstance";
 
     public IMIPResult solve(IMIP mip) throws MIPException {
-        IloCplex cplex = CPLEXInstanceManager.INSTANCE.checkOutCplex();
+        return solve(mip, new AbortHandle());
+    }
+
+    public IMIPResult solve(IMIP mip, AbortHandle abort) throws MIPException {
+        // Threads first, so a solve waiting for them doesn't hold memory, an instance or a model yet
+        ThreadBudget threadBudget = CPLEXInstanceManager.INSTANCE.getThreadBudget();
+        ThreadBudget.Assignment threads = threadBudget.acquire(mip, abort);
+        try {
+            // Reserved before the model is built, as building it already takes native memory
+            MemoryBudget memoryBudget = CPLEXInstanceManager.INSTANCE.getMemoryBudget();
+            MemoryBudget.Reservation memory = memoryBudget == null ? null : memoryBudget.acquire(mip);
+            try {
+                return solve(mip, abort, threads, memory);
+            } finally {
+                if (memory != null) {
+                    memoryBudget.release(memory);
+                }
+            }
+        } finally {
+            threadBudget.release(threads);
+        }
+    }
+
+    private IMIPResult solve(IMIP mip, AbortHandle abort, ThreadBudget.Assignment threads, MemoryBudget.Reservation memory)
+            throws MIPException {
+        IloCplex cplex = CPLEXInstanceManager.INSTANCE.checkOutCplex(abort);
         try {
             // This blocks until one can be obtained:
             while (cplex.getObjective() != null) {
                 CPLEXInstanceManager.INSTANCE.checkInCplex(cplex);
                 logger.warn("Model not cleared");
-                cplex = CPLEXInstanceManager.INSTANCE.checkOutCplex();
+                cplex = null;
+                cplex = CPLEXInstanceManager.INSTANCE.checkOutCplex(abort);
             }
 
             logger.debug("About to set parameters... ");
 
-            setControlParams(cplex, mip.getSpecifiedSolveParams(), mip::getSolveParam);
+            applyParams(cplex, mip);
+            if (memory != null) {
+                // Beyond its working memory, CPLEX writes compressed node files to its WorkDir
+                cplex.setParam(DoubleParam.WorkMem, memory.getWorkMemMB());
+                cplex.setParam(IntParam.NodeFileInd, 3);
+                cplex.setParam(DoubleParam.TreLim, memory.getTreeLimitMB());
+            }
 
             // Log only if DISPLAY_OUTPUT was set to true or debug logging mode is enabled
             if (mip.getBooleanSolveParam(SolveParam.DISPLAY_OUTPUT, false)) {
@@ -89,7 +128,7 @@ public class CPlexMIPSolver implements IMIPSolver {
             logger.debug("Starting to convert mip to Cplex object.");
 
             Map<String, IloNumVar> vars = setupVariables(mip, cplex);
-            Map<Constraint, IloRange> constraintsToIloConstraints = setupConstraints(mip, cplex, vars);
+            IloRange[] ranges = setupConstraints(mip, cplex, vars);
 
             setUpObjective(mip, cplex, vars);
 
@@ -103,7 +142,28 @@ public class CPlexMIPSolver implements IMIPSolver {
                 cplex.exportModel(/* "" + */fileName + ".lp");// + ".txt");
             }
 
-            return solveMip(mip, cplex, vars, constraintsToIloConstraints);
+            // A fresh aborter each time, so a late abort can't hit the next solve on this instance
+            IloCplex.Aborter aborter = new IloCplex.Aborter();
+            cplex.use(aborter);
+            Runnable stop = aborter::abort;
+            abort.register(stop);
+            try {
+                cplex.setParam(IntParam.Threads, threads.getThreads());
+                if (abort.hasDeadline()) {
+                    // Waiting for the budgets and building the model took from the time left
+                    abort.checkDeadline("before CPLEX started");
+                    cplex.setParam(DoubleParam.TimeLimit, abort.getTimeLimit(mip.getDoubleSolveParam(SolveParam.TIME_LIMIT, -1d)));
+                }
+                IMIPResult result = solveMip(mip, cplex, vars, ranges);
+                result.setMetadata(ThreadBudget.THREADS_KEY, threads.getThreads());
+                if (memory != null) {
+                    result.setMetadata(MemoryBudget.WORK_MEM_KEY, memory.getWorkMemMB());
+                }
+                result.setMetadata(MemoryBudget.NATIVE_MEMORY_KEY, MemoryBudget.getNativeMemoryInUse() >> 20);
+                return result;
+            } finally {
+                abort.unregister(stop);
+            }
         } catch (IloException e) {
             if (mip.getBooleanSolveParam(SolveParam.DISPLAY_OUTPUT, true)) {
                 e.printStackTrace();
@@ -119,11 +179,11 @@ public class CPlexMIPSolver implements IMIPSolver {
         }
     }
 
-    private IMIPResult solveMip(IMIP mip, IloCplex cplex, Map<String, IloNumVar> vars, Map<Constraint, IloRange> constraintsToIloConstraints) throws IloException {
+    private IMIPResult solveMip(IMIP mip, IloCplex cplex, Map<String, IloNumVar> vars, IloRange[] ranges) throws IloException {
 
         // Solve MIP and extract results:
         // ///////////////////////////////
-        Map<Constraint, Double> constraintidsToDuals = null;
+        double[] duals = null;
 
         logger.info("Starting to solve mip.");
         long startTime = System.currentTimeMillis();
@@ -142,9 +202,11 @@ public class CPlexMIPSolver implements IMIPSolver {
             solutionListener = new IntermediateSolutionGatherer(vars, mip.getIntSolveParam(SolveParam.SOLUTION_POOL_CAPACITY, 0));
             cplex.use(solutionListener);
         }
+        boolean relaxed = false;
         while (!done) {
 
-            if (cplex.solve()) {
+            // After a feasibility relaxation, the relaxed solution is already available
+            if (relaxed || cplex.solve()) {
                 // Extract variable values from result
                 for (String varName : mip.getVars().keySet()) {
                     if (mip.getVar(varName).ignore()) {
@@ -183,9 +245,9 @@ public class CPlexMIPSolver implements IMIPSolver {
                 absGap = Math.abs(bestObjValue - objValue);
                 // Handle the pool if requested. Mode 3 is handled a bit differently and should run even if there is only
                 // one solution requested.
-                if (cplex.isMIP()
+                if (!relaxed && (cplex.isMIP()
                         && (mip.getIntSolveParam(SolveParam.SOLUTION_POOL_CAPACITY, 0) > 1)
-                            || mip.getIntSolveParam(SolveParam.SOLUTION_POOL_MODE, 0) == 3) {
+                            || mip.getIntSolveParam(SolveParam.SOLUTION_POOL_MODE, 0) == 3)) {
                     // Solution pool mode 2: Just use the regular populate() feature from CPLEX
                     if (mip.getIntSolveParam(SolveParam.SOLUTION_POOL_MODE, 0) == 2) {
                         long cplexSolveEnd = System.currentTimeMillis();
@@ -418,13 +480,12 @@ public class CPlexMIPSolver implements IMIPSolver {
                 long endTime = System.currentTimeMillis();
                 solveTime = endTime - startTime;
                 logger.info("Solve time: " + solveTime + " ms");
-                if (!cplex.isMIP() && mip.getBooleanSolveParam(SolveParam.CALC_DUALS, false)) {
-                    constraintidsToDuals = new HashMap<>();
-                    for (Constraint constraint : constraintsToIloConstraints.keySet()) {
-                        IloConstraint iloConstraint = constraintsToIloConstraints.get(constraint);
-                        if (iloConstraint instanceof IloRange) {
-                            IloRange iloRange = (IloRange) iloConstraint;
-                            constraintidsToDuals.put(constraint, new Double(cplex.getDual(iloRange)));
+                if (!relaxed && !cplex.isMIP() && mip.getBooleanSolveParam(SolveParam.CALC_DUALS, false)) {
+                    duals = new double[ranges.length];
+                    Arrays.fill(duals, Double.NaN);
+                    for (int id = 0; id < ranges.length; id++) {
+                        if (ranges[id] != null) {
+                            duals[id] = cplex.getDual(ranges[id]);
                         }
                     }
                 }
@@ -435,11 +496,28 @@ public class CPlexMIPSolver implements IMIPSolver {
                 // Solve returned an error.
                 IloCplex.Status optStatus = cplex.getStatus();
                 logger.info("CPlex solve failed status: " + optStatus);
-                if (optStatus == IloCplex.Status.Infeasible || optStatus == IloCplex.Status.InfeasibleOrUnbounded) {
+                if ((optStatus == IloCplex.Status.Infeasible || optStatus == IloCplex.Status.InfeasibleOrUnbounded)
+                        && mip.getBooleanSolveParam(SolveParam.FEASIBILITY_RELAXATION, false)) {
+                    logger.warn("No feasible Solution. Solving the feasibility relaxation instead.");
+                    List<IloConstraint> relaxable = new ArrayList<>(ranges.length);
+                    for (IloRange range : ranges) {
+                        if (range != null) {
+                            relaxable.add(range);
+                        }
+                    }
+                    double[] prefs = new double[relaxable.size()];
+                    Arrays.fill(prefs, 1);
+                    // Minimize the total violation, then optimize the original objective
+                    cplex.setParam(IntParam.FeasOptMode, 1);
+                    if (!cplex.feasOpt(relaxable.toArray(new IloConstraint[relaxable.size()]), prefs)) {
+                        throw createInfesibilityException(cplex, vars, ranges, mip);
+                    }
+                    relaxed = true;
+                } else if (optStatus == IloCplex.Status.Infeasible || optStatus == IloCplex.Status.InfeasibleOrUnbounded) {
                     Object cplexParam = getCplexParam(SolveParam.ABSOLUTE_VAR_BOUND_GAP);
                     double dval = cplex.getParam((IloCplex.DoubleParam) cplexParam) * 10;
                     if (dval > mip.getDoubleSolveParam(SolveParam.CONSTRAINT_BACKOFF_LIMIT)) {
-                        MIPException e = createInfesibilityException(cplex, vars, constraintsToIloConstraints, mip);
+                        MIPException e = createInfesibilityException(cplex, vars, ranges, mip);
                         throw e;
                     } else {
                         logger.warn("No feasible Solution. Resolving with looser tolerance: " + dval);
@@ -466,7 +544,9 @@ public class CPlexMIPSolver implements IMIPSolver {
         }
 
         // In solution pool mode 3, we filled the pool manually and don't extract any pool solutions from the CPLEX result
-        if (mip.getIntSolveParam(SolveParam.SOLUTION_POOL_MODE, 0) != 3) {
+        if (relaxed) {
+            poolSolutions = new LinkedList<>();
+        } else if (mip.getIntSolveParam(SolveParam.SOLUTION_POOL_MODE, 0) != 3) {
             poolSolutions = solutionListener != null ? solutionListener.solutions : new LinkedList<>();
             poolSolutions.addAll(findPoolSolutions(cplex, vars, mip.getIntSolveParam(SolveParam.SOLUTION_POOL_CAPACITY, 0)));
             for (PoolSolution poolSolution : poolSolutions) {
@@ -474,11 +554,17 @@ public class CPlexMIPSolver implements IMIPSolver {
             }
         }
 
-        MIPResult res = new MIPResult(objValue, values, constraintidsToDuals);
+        MIPResult res = new MIPResult(objValue, values, duals);
+        if (!relaxed && mip.getBooleanSolveParam(SolveParam.CALC_DUALS, false)) {
+            res.setSlacks(MIPResult.computeSlacks(mip, values));
+        }
         res.setPoolSolutions(poolSolutions);
         res.setSolveTime(solveTime);
         res.setRelativeGap(relGap);
         res.setAbsoluteGap(absGap);
+        if (relaxed) {
+            res.setViolations(ElasticRelaxation.computeViolations(mip, values));
+        }
         return res;
     }
 
@@ -594,7 +680,7 @@ public class CPlexMIPSolver implements IMIPSolver {
     public void exportToDisk(IMIP mip, Path path) {
         IloCplex cplex = CPLEXInstanceManager.INSTANCE.checkOutCplex();
         try {
-            setControlParams(cplex, mip.getSpecifiedSolveParams(), mip::getSolveParam);
+            applyParams(cplex, mip);
             Map<String, IloNumVar> vars = setupVariables(mip, cplex);
             setupConstraints(mip, cplex, vars);
 
@@ -775,143 +861,314 @@ public class CPlexMIPSolver implements IMIPSolver {
         }
     }
 
-    private Map<Constraint, IloRange> setupConstraints(IMIP mip, IloCplex cplex, Map<String, IloNumVar> vars) throws IloException {
+    /**
+     * @return the ranges indexed by constraint id, null for constraints that were skipped or added as indicators
+     */
+    private IloRange[] setupConstraints(IMIP mip, IloCplex cplex, Map<String, IloNumVar> vars) throws IloException {
+        if (mip instanceof MappedMIP) {
+            return setupMappedConstraints((MappedMIP) mip, cplex, vars);
+        }
         // Setup Constraints:
         // ///////////////////
-        Map<Constraint, IloRange> constraintidsToConstraints = new HashMap<>();
+        IloRange[] ranges = new IloRange[mip.getNumConstraintIds()];
+        List<IloRange> added = new ArrayList<>(mip.getNumConstraints());
         for (Constraint constraint : mip.getConstraints()) {
-
-            logger.debug("Adding constraint: " + constraint);
-
-            // Add Linear Terms:
-            int linearTermsUsed = 0;
-            IloLinearNumExpr linearExpr = cplex.linearNumExpr();
-            for (LinearTerm term : constraint.getLinearTerms()) {
-                Variable var = mip.getVar(term.getVarName());
-                if (var == null) {
-                    throw new MIPException("Invalid variable name in term: " + term);
-                }
-                if (var.ignore()) {
-                    logger.debug("Skipping term: " + term);
-                    continue;
+            IloRange iloRange = createRange(mip, cplex, vars, constraint);
+            if (iloRange != null) {
+                ranges[constraint.getId()] = iloRange;
+                added.add(iloRange);
+            }
+        }
+        cplex.add(added.toArray(new IloRange[added.size()]));
+        // Generated constraints have no id, so they are added as they come
+        new GeneratedConstraintLoader(mip).load(mip.getConstraintGenerators(), chunk -> {
+            List<IloRange> generated = new ArrayList<>(chunk.size());
+            for (Constraint constraint : chunk) {
+                IloRange iloRange = createRange(mip, cplex, vars, constraint);
+                if (iloRange != null) {
+                    generated.add(iloRange);
                 }
-                linearTermsUsed++;
-                linearExpr.addTerm(term.getCoefficient(), vars.get(term.getVarName()));
             }
+            cplex.add(generated.toArray(new IloRange[generated.size()]));
+        });
+        return ranges;
+    }
 
-            // Add Quadratic Terms:
-            int quadraticTermsUsed = 0;
-            IloQuadNumExpr quadExpr = cplex.quadNumExpr();
-            for (QuadraticTerm term : constraint.getQuadraticTerms()) {
-                Variable varA = mip.getVar(term.getVarNameA());
-                if (varA == null) {
-                    throw new MIPException("Invalid variable name in term: " + term);
-                }
-                Variable varB = mip.getVar(term.getVarNameB());
-                if (varB == null) {
-                    throw new MIPException("Invalid variable name in term: " + term);
-                }
-                if (varA.ignore() || varB.ignore()) {
-                    logger.debug("Skipping term: " + term);
-                    continue;
-                }
-                quadraticTermsUsed++;
-                quadExpr.addTerm(term.getCoefficient(), vars.get(term.getVarNameA()), vars.get(term.getVarNameB()));
+    /**
+     * Indicator constraints are added to the model right away, as they aren't ranges.
+     *
+     * @return the range for the constraint, or null if it was skipped or added as an indicator
+     */
+    private IloRange createRange(IMIP mip, IloCplex cplex, Map<String, IloNumVar> vars, Constraint constraint) throws IloException {
+        logger.debug("Adding constraint: " + constraint);
+
+        // Add Linear Terms:
+        int linearTermsUsed = 0;
+        IloLinearNumExpr linearExpr = cplex.linearNumExpr();
+        for (int i = 0; i < constraint.linearSize(); i++) {
+            String varName = constraint.getLinearVarName(i);
+            Variable var = mip.getVar(varName);
+            if (var == null) {
+                throw new MIPException("Invalid variable name in term: " + varName);
             }
+            if (var.ignore()) {
+                logger.debug("Skipping term: " + varName);
+                continue;
+            }
+            linearTermsUsed++;
+            linearExpr.addTerm(constraint.getLinearCoefficient(i), vars.get(varName));
+        }
 
-            // Now make a single constraint from the above two if needed:
-            IloNumExpr numExpr = null;
-            if (linearTermsUsed == 0 && quadraticTermsUsed == 0) {
-                logger.debug("Skipping constraint" + constraint);
+        // Add Quadratic Terms:
+        int quadraticTermsUsed = 0;
+        IloQuadNumExpr quadExpr = cplex.quadNumExpr();
+        for (QuadraticTerm term : constraint.getQuadraticTerms()) {
+            Variable varA = mip.getVar(term.getVarNameA());
+            if (varA == null) {
+                throw new MIPException("Invalid variable name in term: " + term);
+            }
+            Variable varB = mip.getVar(term.getVarNameB());
+            if (varB == null) {
+                throw new MIPException("Invalid variable name in term: " + term);
+            }
+            if (varA.ignore() || varB.ignore()) {
+                logger.debug("Skipping term: " + term);
                 continue;
-            } else if (quadraticTermsUsed == 0) {
-                numExpr = linearExpr;
-            } else if (linearTermsUsed == 0) {
-                numExpr = quadExpr;
-            } else {
-                IloLQNumExpr lqexpr = cplex.lqNumExpr();
-                lqexpr.add(linearExpr);
-                lqexpr.add(quadExpr);
-                numExpr = lqexpr;
             }
+            quadraticTermsUsed++;
+            quadExpr.addTerm(term.getCoefficient(), vars.get(term.getVarNameA()), vars.get(term.getVarNameB()));
+        }
+
+        // Now make a single constraint from the above two if needed:
+        IloNumExpr numExpr = null;
+        if (linearTermsUsed == 0 && quadraticTermsUsed == 0) {
+            logger.debug("Skipping constraint" + constraint);
+            return null;
+        } else if (quadraticTermsUsed == 0) {
+            numExpr = linearExpr;
+        } else if (linearTermsUsed == 0) {
+            numExpr = quadExpr;
+        } else {
+            IloLQNumExpr lqexpr = cplex.lqNumExpr();
+            lqexpr.add(linearExpr);
+            lqexpr.add(quadExpr);
+            numExpr = lqexpr;
+        }
+
+        // Use the name description for the name, if available.
+        String name = constraint.getDescription();
 
-            // Use the name description for the name, if available.
-            String name = constraint.getDescription();
+        // Add to the MIP, including the comparison and constant:
+        CompareType type = constraint.getType();
+        IloRange iloRange = null;
+        if (CompareType.EQ.equals(type)) {
 
-            // Add to the MIP, including the comparison and constant:
-            CompareType type = constraint.getType();
-            IloRange iloRange = null;
-            if (CompareType.EQ.equals(type)) {
+            iloRange = cplex.eq(numExpr, constraint.getConstant(), name);
+        } else if (CompareType.LEQ.equals(type)) {
+            iloRange = cplex.le(numExpr, constraint.getConstant(), name);
+        } else if (CompareType.GEQ.equals(type)) {
+            iloRange = cplex.ge(numExpr, constraint.getConstant(), name);
+        } else {
+            throw new MIPException("Invalid constraint type: " + type);
+        }
+        if (constraint.isIndicator()) {
+            // Native indicator constraint. It is not a range, so it takes no part in duals, conflicts and relaxations.
+            IloNumVar indicatorVar = vars.get(constraint.getIndicatorVarName());
+            if (indicatorVar == null) {
+                throw new MIPException("Invalid indicator variable in constraint: " + constraint);
+            }
+            cplex.add(cplex.ifThen(cplex.eq(indicatorVar, constraint.getIndicatorValue() ? 1 : 0), iloRange));
+            return null;
+        }
+        return iloRange;
+    }
 
-                iloRange = cplex.eq(numExpr, constraint.getConstant(), name);
-            } else if (CompareType.LEQ.equals(type)) {
-                iloRange = cplex.le(numExpr, constraint.getConstant(), name);
-            } else if (CompareType.GEQ.equals(type)) {
-                iloRange = cplex.ge(numExpr, constraint.getConstant(), name);
+    /**
+     * Streams the rows of a mapped MIP into CPLEX, adding them in batches so only a few are on the heap at a time.
+     */
+    private IloRange[] setupMappedConstraints(MappedMIP mip, IloCplex cplex, Map<String, IloNumVar> vars) throws IloException {
+        IloNumVar[] columns = new IloNumVar[mip.getNumColumns()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = vars.get(mip.getColumnName(i));
+        }
+        IloRange[] ranges = new IloRange[mip.getNumConstraintIds()];
+        List<IloRange> batch = new ArrayList<>(MAPPED_BATCH_SIZE);
+        MappedMIP.RowCursor row = mip.rows();
+        while (row.next()) {
+            IloLinearNumExpr linearExpr = cplex.linearNumExpr();
+            int linearTermsUsed = 0;
+            for (int k = 0; k < row.size(); k++) {
+                IloNumVar var = columns[row.getColumn(k)];
+                if (var != null) {
+                    // Ignored variables have no column
+                    linearExpr.addTerm(row.getCoefficient(k), var);
+                    linearTermsUsed++;
+                }
+            }
+            if (linearTermsUsed == 0) {
+                continue;
+            }
+            IloRange iloRange;
+            if (CompareType.EQ.equals(row.getType())) {
+                iloRange = cplex.eq(linearExpr, row.getConstant());
+            } else if (CompareType.LEQ.equals(row.getType())) {
+                iloRange = cplex.le(linearExpr, row.getConstant());
             } else {
-                throw new MIPException("Invalid constraint type: " + type);
+                iloRange = cplex.ge(linearExpr, row.getConstant());
+            }
+            if (row.getIndicatorColumn() >= 0) {
+                IloNumVar indicatorVar = columns[row.getIndicatorColumn()];
+                if (indicatorVar == null) {
+                    throw new MIPException("Ignored indicator variable in constraint " + row.getId());
+                }
+                cplex.add(cplex.ifThen(cplex.eq(indicatorVar, row.getIndicatorValue() ? 1 : 0), iloRange));
+                continue;
+            }
+            ranges[row.getId()] = iloRange;
+            batch.add(iloRange);
+            if (batch.size() == MAPPED_BATCH_SIZE) {
+                cplex.add(batch.toArray(new IloRange[batch.size()]));
+                batch.clear();
             }
-            constraintidsToConstraints.put(constraint, iloRange);
         }
-        IloRange[] constraints = constraintidsToConstraints.values().toArray(new IloRange[constraintidsToConstraints.size()]);
-        cplex.add(constraints);
-        return constraintidsToConstraints;
+        cplex.add(batch.toArray(new IloRange[batch.size()]));
+        return ranges;
     }
 
-    private MIPException createInfesibilityException(IloCplex cplex, Map<String, IloNumVar> vars, Map<Constraint, IloRange> constraintsToIloConstraints, IMIP mip) {
+    private MIPException createInfesibilityException(IloCplex cplex, Map<String, IloNumVar> vars, IloRange[] ranges, IMIP mip) {
         if (!mip.getBooleanSolveParam(SolveParam.CALCULATE_CONFLICT_SET, true)) {
             throw new MIPInfeasibleException("MIP Infeasible: set CALCULATE_CONFLICT_SET to obtain a refined conflict set");
         }
 
-        Map<IloNumVarBound, Variable> vConstToVars = new HashMap<>(vars.size());
-        for (String varName : vars.keySet()) {
-            IloNumVar numVar = vars.get(varName);
-            Variable mipVar = mip.getVar(varName);
-            if (mipVar.getType() != VarType.BOOLEAN) {
+        // The concert objects are only ever looked up by the instance we created, so identity maps
+        // avoid hashing through the CPLEX objects.
+        Map<IloConstraint, Variable> boundsToVars = new IdentityHashMap<>(2 * vars.size());
+        ArrayList<IloConstraint> members = new ArrayList<>(2 * vars.size() + mip.getNumConstraints());
+        for (Map.Entry<String, IloNumVar> entry : vars.entrySet()) {
+            Variable mipVar = mip.getVar(entry.getKey());
+            if (mipVar.getType() == VarType.BOOLEAN) {
                 // only include non-boolean variables
-                vConstToVars.put(cplex.lowerBound(numVar), mipVar);
-                vConstToVars.put(cplex.upperBound(numVar), mipVar);
+                continue;
+            }
+            IloNumVar numVar = entry.getValue();
+            // An unbounded side can never be part of a conflict
+            if (mipVar.getLowerBound() > -MIP.MAX_VALUE) {
+                IloNumVarBound lower = cplex.lowerBound(numVar);
+                boundsToVars.put(lower, mipVar);
+                members.add(lower);
+            }
+            if (mipVar.getUpperBound() < MIP.MAX_VALUE) {
+                IloNumVarBound upper = cplex.upperBound(numVar);
+                boundsToVars.put(upper, mipVar);
+                members.add(upper);
             }
         }
-        Map<IloConstraint, Constraint> iloConstraintsToConstraints = new HashMap<IloConstraint, Constraint>(constraintsToIloConstraints.size());
-        for (Constraint constraint : constraintsToIloConstraints.keySet()) {
-            IloConstraint iloConst = constraintsToIloConstraints.get(constraint);
-            iloConstraintsToConstraints.put(iloConst, constraint);
-        }
-
-        // Now build the full array:
-        ArrayList<IloConstraint> full = new ArrayList<>(vConstToVars.size() + constraintsToIloConstraints.size());
-        full.addAll(vConstToVars.keySet());
-        full.addAll(constraintsToIloConstraints.values());
-
-        IloConstraint[] arr = full.toArray(new IloConstraint[full.size()]);
-        double prefs[] = new double[arr.length];
-        Arrays.fill(prefs, 1);
 
         try {
-            if (!cplex.refineConflict(arr, prefs)) {
+            Map<IloConstraint, List<Constraint>> groupsToConstraints = groupConstraints(cplex, ranges, mip);
+            members.addAll(groupsToConstraints.keySet());
+
+            IloConstraint[] arr = members.toArray(new IloConstraint[members.size()]);
+            double prefs[] = new double[arr.length];
+            Arrays.fill(prefs, 1);
+
+            double originalTimeLimit = cplex.getParam(DoubleParam.TimeLimit);
+            double originalDetTimeLimit = cplex.getParam(DoubleParam.DetTimeLimit);
+            double conflictTimeLimit = mip.getDoubleSolveParam(SolveParam.CONFLICT_TIME_LIMIT, -1);
+            double conflictDetTimeLimit = mip.getDoubleSolveParam(SolveParam.CONFLICT_DETERMINISTIC_TIME_LIMIT, -1);
+            if (conflictTimeLimit > 0) {
+                cplex.setParam(DoubleParam.TimeLimit, conflictTimeLimit);
+            }
+            if (conflictDetTimeLimit > 0) {
+                cplex.setParam(DoubleParam.DetTimeLimit, conflictDetTimeLimit);
+            }
+            boolean found;
+            IloCplex.CplexStatus conflictStatus;
+            try {
+                found = cplex.refineConflict(arr, prefs);
+                conflictStatus = cplex.getCplexStatus();
+            } finally {
+                cplex.setParam(DoubleParam.TimeLimit, originalTimeLimit);
+                cplex.setParam(DoubleParam.DetTimeLimit, originalDetTimeLimit);
+            }
+            if (!found) {
                 throw new MIPInfeasibleException("Could not refine conflict");
             }
-            Map<Variable, Cause> mipVarsToCauses = new HashMap<>();
-            for (IloConstraint iloConst : full) {
-                ConflictStatus cStat = cplex.getConflict(iloConst);
-                if (cStat == ConflictStatus.Member || cStat == ConflictStatus.PossibleMember) {
-                    Variable v = vConstToVars.get(iloConst);
-                    if (v != null) {
-                        IloNumVarBound b = (IloNumVarBound) iloConst;
-                        mipVarsToCauses.put(v, getCause(b.getType()));
-                    }
+            boolean complete = conflictStatus != IloCplex.CplexStatus.ConflictAbortTimeLim
+                    && conflictStatus != IloCplex.CplexStatus.ConflictAbortDetTimeLim
+                    && conflictStatus != IloCplex.CplexStatus.ConflictAbortMemLim;
+            if (!complete) {
+                logger.warn("Conflict refinement stopped early (" + conflictStatus + "), reporting a partial conflict.");
+            }
 
+            ConflictStatus[] cStats = cplex.getConflict(arr);
+            Map<Variable, Cause> mipVarsToCauses = new HashMap<>();
+            Collection<Constraint> conflictConstraints = new LinkedList<>();
+            for (int i = 0; i < arr.length; i++) {
+                if (cStats[i] != ConflictStatus.Member && cStats[i] != ConflictStatus.PossibleMember) {
+                    continue;
+                }
+                Variable v = boundsToVars.get(arr[i]);
+                if (v != null) {
+                    IloNumVarBound b = (IloNumVarBound) arr[i];
+                    mipVarsToCauses.put(v, getCause(b.getType()));
                 } else {
-                    iloConstraintsToConstraints.remove(iloConst);
+                    conflictConstraints.addAll(groupsToConstraints.get(arr[i]));
                 }
             }
-            return new MIPInfeasibleException(mipVarsToCauses, iloConstraintsToConstraints.values());
+            return new MIPInfeasibleException(mipVarsToCauses, conflictConstraints, complete);
         } catch (IloException e) {
             throw new MIPException("Solve failed but could not determine Conflict Set: " + e.toString(), e);
         }
     }
 
+    /**
+     * Maps the conflict members to the constraints they stand for. Constraints that share a group tag
+     * (or, if CONFLICT_GROUP_DELIMITER is set, a description prefix) are combined into a single IloAnd,
+     * so that the refiner only has to decide about the group as a whole.
+     */
+    private Map<IloConstraint, List<Constraint>> groupConstraints(IloCplex cplex, IloRange[] ranges, IMIP mip) throws IloException {
+        String delimiter = mip.getStringSolveParam(SolveParam.CONFLICT_GROUP_DELIMITER, "");
+        Map<IloConstraint, List<Constraint>> ret = new IdentityHashMap<>(mip.getNumConstraints());
+        Map<String, List<Constraint>> groups = new LinkedHashMap<>();
+        for (Constraint constraint : mip.getConstraints()) {
+            IloRange range = ranges[constraint.getId()];
+            if (range == null) {
+                continue;
+            }
+            String group = getConflictGroup(constraint, delimiter);
+            if (group == null) {
+                ret.put(range, Collections.singletonList(constraint));
+            } else {
+                groups.computeIfAbsent(group, g -> new ArrayList<>()).add(constraint);
+            }
+        }
+        for (Map.Entry<String, List<Constraint>> entry : groups.entrySet()) {
+            List<Constraint> members = entry.getValue();
+            if (members.size() == 1) {
+                ret.put(ranges[members.get(0).getId()], members);
+                continue;
+            }
+            IloConstraint[] groupRanges = new IloConstraint[members.size()];
+            for (int i = 0; i < groupRanges.length; i++) {
+                groupRanges[i] = ranges[members.get(i).getId()];
+            }
+            ret.put(cplex.and(groupRanges, entry.getKey()), members);
+        }
+        return ret;
+    }
+
+    private String getConflictGroup(Constraint constraint, String delimiter) {
+        if (constraint.getGroup() != null) {
+            return constraint.getGroup();
+        }
+        if (delimiter.isEmpty() || constraint.getDescription() == null) {
+            return null;
+        }
+        int idx = constraint.getDescription().indexOf(delimiter);
+        return idx > 0 ? constraint.getDescription().substring(0, idx) : null;
+    }
+
     private MIPInfeasibleException.Cause getCause(IloNumVarBoundType type) {
         if (IloNumVarBoundType.Lower.equals(type)) {
             return MIPInfeasibleException.Cause.LOWER;
@@ -921,6 +1178,56 @@ public class CPlexMIPSolver implements IMIPSolver {
         throw new MIPException("Invalid type: " + type);
     }
 
+    /**
+     * Sets the MIP's params on the instance. The params of an attached profile are set in one call from a
+     * cached parameter set; only the params set on the MIP itself are translated one by one.
+     */
+    private void applyParams(IloCplex cplex, IMIP mip) throws IloException {
+        SolveParamProfile profile = mip.getSolveParamProfile();
+        if (profile == null) {
+            setControlParams(cplex, mip.getSpecifiedSolveParams(), mip::getSolveParam);
+            return;
+        }
+        cplex.setParameterSet(CPLEXInstanceManager.INSTANCE.getParameterSet(cplex, profile, p -> createParameterSet(cplex, p)));
+        List<SolveParam> overrides = new ArrayList<>();
+        for (SolveParam param : mip.getSpecifiedSolveParams()) {
+            if (!profile.isSpecified(param) || !profile.getSolveParam(param).equals(mip.getSolveParam(param))) {
+                overrides.add(param);
+            }
+        }
+        setControlParams(cplex, overrides, mip::getSolveParam);
+    }
+
+    /**
+     * Translates the profile into a parameter set of the given instance.
+     */
+    public IloCplex.ParameterSet createParameterSet(IloCplex cplex, SolveParamProfile profile) {
+        try {
+            IloCplex.ParameterSet set = cplex.getParameterSet();
+            set.clear();
+            for (Map.Entry<SolveParam, Object> param : profile.getParams().entrySet()) {
+                SolveParam solveParam = param.getKey();
+                if (solveParam.isInternal()) {
+                    continue;
+                }
+                Object cplexParam = getCplexParam(solveParam);
+                if (solveParam.isBoolean()) {
+                    set.setParam((BooleanParam) cplexParam, profile.getBoolean(solveParam));
+                } else if (solveParam.isInteger()) {
+                    set.setParam((IntParam) cplexParam, profile.getInt(solveParam));
+                } else if (solveParam.isDouble()) {
+                    set.setParam((DoubleParam) cplexParam, profile.getDouble(solveParam));
+                } else {
+                    set.setParam((StringParam) cplexParam, profile.getString(solveParam));
+                }
+            }
+            logger.debug("Translated " + profile + " into " + set.size() + " CPLEX params");
+            return set;
+        } catch (IloException e) {
+            throw new MIPException("Could not translate " + profile + ": " + e.toString());
+        }
+    }
+
     public void setControlParams(IloCplex cplex, Iterable<SolveParam> params, Function<SolveParam, Object> getValue) {
         for (SolveParam solveParam : params) {
             Object value = getValue.apply(solveParam);
@@ -1082,8 +1389,8 @@ public class CPlexMIPSolver implements IMIPSolver {
     }
 
     public static void main(String argv[]) {
-        if (argv.length < 1 || argv.length > 2) {
-            logger.error("Usage: edu.harvard.econcs.jopt.solver.server.cplex.CPlexMIPSolver <port> <num simultaneous>");
+        if (argv.length < 1 || argv.length > 5) {
+            logger.error("Usage: edu.harvard.econcs.jopt.solver.server.cplex.CPlexMIPSolver <port> <num simultaneous> <model store MB> <thread policy: fair|size> <memory budget MB>");
             System.exit(1);
         }
         int port = Integer.parseInt(argv[0]);
@@ -1091,8 +1398,20 @@ public class CPlexMIPSolver implements IMIPSolver {
         if (argv.length >= 2) {
             numSimultaneous = Integer.parseInt(argv[1]);
         }
-        InstanceManager.setNumSimultaneous(numSimultaneous);
-        SolverServer.createServer(port, CPlexMIPSolver.class);
+        long modelStoreCapacity = ModelStore.DEFAULT_CAPACITY;
+        if (argv.length >= 3) {
+            modelStoreCapacity = Long.parseLong(argv[2]) << 20;
+        }
+        if (argv.length >= 4) {
+            ThreadBudget.Policy policy = argv[3].equals("size") ? ThreadBudget.Policy.SIZE_WEIGHTED : ThreadBudget.Policy.FAIR_SHARE;
+            CPLEXInstanceManager.INSTANCE.setThreadBudget(new ThreadBudget(Runtime.getRuntime().availableProcessors(), numSimultaneous, policy));
+        }
+        if (argv.length >= 5) {
+            long memoryBudget = Long.parseLong(argv[4]) << 20;
+            CPLEXInstanceManager.INSTANCE.setMemoryBudget(new MemoryBudget(memoryBudget, Math.min(memoryBudget, 128L << 20), numSimultaneous));
+        }
+        CPLEXInstanceManager.INSTANCE.setNumSimultaneous(numSimultaneous);
+        SolverServer.createServer(port, CPlexMIPSolver.class, modelStoreCapacity, new SolveScheduler(numSimultaneous));
     }
 
 }
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server.cplex;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.mip.ModelStatistics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Keeps the native memory of the CPLEX instances of a drone within a budget, so that one large
+ * branch-and-bound tree can't take down the JVM with every other solve in it. Each solve reserves
+ * the estimated memory of its model plus a working memory share, sized by the number of solves
+ * expected to run at the same time and never more than its part of the budget;
+ * CPLEX writes the nodes beyond its working memory to node files in its WorkDir (see
+ * SolveParam.WORK_DIR) and stops the solve when the tree outgrows a multiple of it.
+ * <p>
+ * A solve that doesn't fit waits for others to finish, and is rejected with a MIPException if it
+ * still doesn't fit after the maximum wait, or if it could never fit. The native memory in use is
+ * measured from the resident size of the process where the OS reports it, and counts against the
+ * budget when it exceeds the reservations.
+ */
+public class MemoryBudget {
+
+    private static final Logger logger = LogManager.getLogger(MemoryBudget.class);
+
+    /** The key of the reserved working memory in MB in the result metadata **/
+    public static final String WORK_MEM_KEY = "workMemMB";
+    /** The key of the native memory in use in MB at the end of the solve in the result metadata **/
+    public static final String NATIVE_MEMORY_KEY = "nativeMemoryMB";
+
+    private static final long MB = 1 << 20;
+    /** Rough bytes CPLEX needs per non-zero and per variable or constraint of a model **/
+    private static final long BYTES_PER_NON_ZERO = 32;
+    private static final long BYTES_PER_ROW_OR_COLUMN = 256;
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+
+    private final long totalBytes;
+    private final long minWorkMemBytes;
+    private final int expectedSolves;
+    private long maxWaitMillis = 60000;
+    private double treeLimitFactor = 8;
+    private long reservedBytes = 0;
+    private int activeSolves = 0;
+    private long waits = 0;
+    private long rejections = 0;
+    /** The reservation of the solve running on each thread, reused by the solves it nests **/
+    private final ThreadLocal<Reservation> current = new ThreadLocal<>();
+
+    /**
+     * Sizes the shares for as many solves as fit at the least working memory.
+     * @param totalBytes the native memory all solves may use together
+     * @param minWorkMemBytes the least working memory a solve is started with
+     */
+    public MemoryBudget(long totalBytes, long minWorkMemBytes) {
+        this(totalBytes, minWorkMemBytes, (int) Math.min(Integer.MAX_VALUE, Math.max(1, totalBytes / Math.max(1, minWorkMemBytes))));
+    }
+
+    /**
+     * @param totalBytes the native memory all solves may use together
+     * @param minWorkMemBytes the least working memory a solve is started with
+     * @param expectedSolves the number of solves expected to run at the same time; each reserves at most
+     *                       its part of the budget
+     */
+    public MemoryBudget(long totalBytes, long minWorkMemBytes, int expectedSolves) {
+        if (minWorkMemBytes <= 0 || minWorkMemBytes > totalBytes) {
+            throw new IllegalArgumentException("Working memory must be positive and within the budget: " + minWorkMemBytes);
+        }
+        if (expectedSolves < 1) {
+            throw new IllegalArgumentException("At least one solve must be expected: " + expectedSolves);
+        }
+        this.totalBytes = totalBytes;
+        this.minWorkMemBytes = minWorkMemBytes;
+        this.expectedSolves = expectedSolves;
+    }
+
+    public int getExpectedSolves() {
+        return expectedSolves;
+    }
+
+    /**
+     * @param maxWaitMillis how long a solve waits for memory before it is rejected; 0 rejects right away
+     */
+    public synchronized void setMaxWait(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @param treeLimitFactor the size of the tree, relative to the working memory, at which a solve is stopped
+     */
+    public synchronized void setTreeLimitFactor(double treeLimitFactor) {
+        this.treeLimitFactor = treeLimitFactor;
+    }
+
+    /**
+     * Reserves memory for the solve of the MIP, waiting until enough is free.
+     * The reservation must be released on the same thread when the solve is done.
+     * @throws MIPException if the memory can't be reserved
+     */
+    public Reservation acquire(IMIP mip) {
+        ModelStatistics stats = ModelStatistics.of(mip);
+        long modelBytes = stats.getNumNonZeros() * BYTES_PER_NON_ZERO
+                + (stats.getNumVars() + stats.getNumConstraints()) * BYTES_PER_ROW_OR_COLUMN;
+        return acquire(modelBytes);
+    }
+
+    public synchronized Reservation acquire(long modelBytes) {
+        Reservation outer = current.get();
+        if (outer != null) {
+            Reservation nested = new Reservation(0, outer.workMemBytes, outer.treeLimitMB);
+            nested.released = true;
+            return nested;
+        }
+        long needed = modelBytes + minWorkMemBytes;
+        if (needed > totalBytes) {
+            rejections++;
+            throw new MIPException("Model needs about " + needed / MB + " MB, more than the memory budget of " + totalBytes / MB + " MB");
+        }
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        boolean waited = false;
+        while (getUsedBytes() + needed > totalBytes) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                rejections++;
+                throw new MIPException("Memory budget exhausted: " + getUsedBytes() / MB + " of " + totalBytes / MB
+                        + " MB in use, " + needed / MB + " MB needed");
+            }
+            waited = true;
+            try {
+                // Bounded, as native memory can also shrink without a release
+                wait(Math.min(remaining, 1000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MIPException("Interrupted while waiting for solver memory");
+            }
+        }
+        if (waited) {
+            waits++;
+        }
+        long free = totalBytes - getUsedBytes() - modelBytes;
+        // Leave room for the solves expected to start after this one, and take no more than one share
+        int slots = Math.max(expectedSolves, activeSolves + 1);
+        long share = Math.min(free / (slots - activeSolves), totalBytes / expectedSolves - modelBytes);
+        long workMemBytes = Math.max(minWorkMemBytes, share);
+        Reservation reservation = new Reservation(modelBytes + workMemBytes, workMemBytes,
+                treeLimitFactor * workMemBytes / MB);
+        reservedBytes += reservation.bytes;
+        activeSolves++;
+        current.set(reservation);
+        logger.debug("Reserved " + reservation.bytes / MB + " MB, " + reservedBytes / MB + " of " + totalBytes / MB + " MB reserved");
+        return reservation;
+    }
+
+    public synchronized void release(Reservation reservation) {
+        if (reservation.released) {
+            return;
+        }
+        reservation.released = true;
+        current.remove();
+        reservedBytes -= reservation.bytes;
+        activeSolves--;
+        notifyAll();
+    }
+
+    /**
+     * @return the larger of the reserved and the measured native memory
+     */
+    private long getUsedBytes() {
+        return Math.max(reservedBytes, getNativeMemoryInUse());
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    public synchronized int getActiveSolves() {
+        return activeSolves;
+    }
+
+    /**
+     * @return the number of solves that had to wait for memory
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return the number of solves rejected for lack of memory
+     */
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * @return the bytes the process uses outside of the Java heap and the JVM's own pools, or 0 if the OS
+     * doesn't report the resident size
+     */
+    public static long getNativeMemoryInUse() {
+        long resident = getResidentBytes();
+        if (resident <= 0) {
+            return 0;
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long jvm = memory.getHeapMemoryUsage().getCommitted() + memory.getNonHeapMemoryUsage().getCommitted();
+        return Math.max(0, resident - jvm);
+    }
+
+    private static long getResidentBytes() {
+        if (!Files.isReadable(PROC_STATUS)) {
+            return 0;
+        }
+        try {
+            List<String> lines = Files.readAllLines(PROC_STATUS);
+            for (String line : lines) {
+                if (line.startsWith("VmRSS:")) {
+                    // e.g. "VmRSS:     123456 kB"
+                    String[] parts = line.substring(6).trim().split("\\s+");
+                    return Long.parseLong(parts[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.debug("Could not read the resident size: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    public static class Reservation {
+        private final long bytes;
+        private final long workMemBytes;
+        private final double treeLimitMB;
+        private boolean released = false;
+
+        private Reservation(long bytes, long workMemBytes, double treeLimitMB) {
+            this.bytes = bytes;
+            this.workMemBytes = workMemBytes;
+            this.treeLimitMB = treeLimitMB;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getWorkMemMB() {
+            return workMemBytes / (double) MB;
+        }
+
+        /**
+         * @return the size of the tree in MB at which the solve is stopped
+         */
+        public double getTreeLimitMB() {
+            return treeLimitMB;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2005-2017 Benjamin Lubin
+ * Copyright (c) 2005-2017 The President and Fellows of Harvard College
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * - Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.harvard.econcs.jopt.solver.server.cplex;
+
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.mip.ModelStatistics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Shares the cores of the process between the CPLEX instances solving at the same time, so that
+ * concurrent solves don't oversubscribe the machine. Each solve is assigned a thread count when it
+ * starts, depending on the solves already running, the number of solves expected to run at once
+ * (e.g. the maxRunning of the server's SolveScheduler) and the policy. Threads are kept for the
+ * solves that could still start, so one solve never takes the whole budget while others may follow.
+ * The total of the assigned threads never exceeds the budget: when all threads are assigned, new
+ * solves wait for one to finish, in the order they arrived. A running solve keeps its threads, as
+ * CPLEX can't change them during a solve.
+ * <p>
+ * Unless the expected number of solves is configured, only the solves running are counted, so a solve
+ * without competition gets all cores, as it would if CPLEX picked its own thread count.
+ * <p>
+ * An explicit SolveParam.THREADS is assigned as far as threads are free, so a process that solves
+ * one model at a time can still give it all cores.
+ */
+public class ThreadBudget {
+
+    private static final Logger logger = LogManager.getLogger(ThreadBudget.class);
+
+    /** The key of the assigned threads in the result metadata **/
+    public static final String THREADS_KEY = "threads";
+
+    public enum Policy {
+        /** Each solve gets an equal share of the cores **/
+        FAIR_SHARE,
+        /** Each solve gets a share of the cores proportional to the non-zeros of its model **/
+        SIZE_WEIGHTED
+    }
+
+    private final int maxThreads;
+    private final Policy policy;
+    private int expectedSolves;
+    private int usedThreads = 0;
+    private int activeSolves = 0;
+    private double activeWeight = 0;
+    private long waits = 0;
+    /** The solves waiting for threads, in order of arrival **/
+    private final Deque<Object> waiting = new ArrayDeque<>();
+    /** The assignment of the solve running on each thread, reused by the solves it nests, like in pool mode 3 **/
+    private final ThreadLocal<Assignment> current = new ThreadLocal<>();
+
+    /**
+     * @param expectedSolves how many solves may run at once, see {@link #setExpectedSolves(int)}
+     */
+    public ThreadBudget(int maxThreads, int expectedSolves, Policy policy) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("Thread budget must be positive: " + maxThreads);
+        }
+        this.maxThreads = maxThreads;
+        this.policy = policy;
+        setExpectedSolves(expectedSolves);
+    }
+
+    /**
+     * A fair share budget of all available processors.
+     */
+    public ThreadBudget(int expectedSolves) {
+        this(Runtime.getRuntime().availableProcessors(), expectedSolves, Policy.FAIR_SHARE);
+    }
+
+    /**
+     * A fair share budget of all available processors that doesn't expect any concurrent solves.
+     */
+    public ThreadBudget() {
+        this(1);
+    }
+
+    /**
+     * @param expectedSolves how many solves may run at once; shares are sized for that many, but at
+     * least one thread each
+     */
+    public synchronized void setExpectedSolves(int expectedSolves) {
+        this.expectedSolves = Math.max(1, Math.min(maxThreads, expectedSolves));
+    }
+
+    public synchronized int getExpectedSolves() {
+        return expectedSolves;
+    }
+
+    /**
+     * Assigns threads to the solve of the MIP, waiting until at least one is free.
+     * The assignment must be released when the solve is done.
+     * @throws MIPException if the solve is aborted or its deadline passes while waiting
+     */
+    public Assignment acquire(IMIP mip, AbortHandle abort) {
+        double weight = policy == Policy.SIZE_WEIGHTED ? ModelStatistics.of(mip).getNumNonZeros() + 1 : 1;
+        int requested = mip.getIntSolveParam(SolveParam.THREADS, 0);
+        return acquire(weight, requested, abort);
+    }
+
+    public Assignment acquire(double weight, int requested) {
+        return acquire(weight, requested, new AbortHandle());
+    }
+
+    /**
+     * @param weight the size of the solve, only used by the size weighted policy
+     * @param requested the threads the solve asks for, or 0 to go by the policy
+     */
+    public Assignment acquire(double weight, int requested, AbortHandle abort) {
+        Runnable wake = () -> {
+            synchronized (this) {
+                notifyAll();
+            }
+        };
+        abort.register(wake);
+        try {
+            return await(weight, requested, abort);
+        } finally {
+            abort.unregister(wake);
+        }
+    }
+
+    private synchronized Assignment await(double weight, int requested, AbortHandle abort) {
+        Assignment outer = current.get();
+        if (outer != null) {
+            Assignment nested = new Assignment(outer.threads, 0);
+            nested.released = true;
+            return nested;
+        }
+        Object turn = new Object();
+        waiting.add(turn);
+        try {
+            boolean waited = false;
+            while (waiting.peek() != turn || usedThreads >= maxThreads) {
+                waited = true;
+                if (abort.isAborted()) {
+                    throw new MIPException("Solve aborted while waiting for solver threads");
+                }
+                abort.checkDeadline("while waiting for solver threads");
+                try {
+                    // Long.MAX_VALUE if there is no deadline
+                    wait(abort.getRemainingMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MIPException("Interrupted while waiting for solver threads");
+                }
+            }
+            if (waited) {
+                waits++;
+            }
+        } finally {
+            waiting.remove(turn);
+            // The next in line may go now, or at least check again
+            notifyAll();
+        }
+        // The solves that could still start are expected to look like the running ones
+        int slots = Math.max(expectedSolves, activeSolves + 1);
+        double share = policy == Policy.SIZE_WEIGHTED
+                ? maxThreads * weight / (activeWeight + weight + (slots - activeSolves - 1) * (activeWeight + weight) / (activeSolves + 1))
+                : maxThreads / (double) slots;
+        int threads = requested > 0 ? requested : (int) Math.round(share);
+        threads = Math.max(1, Math.min(maxThreads - usedThreads, threads));
+        usedThreads += threads;
+        activeSolves++;
+        activeWeight += weight;
+        logger.debug("Assigned " + threads + " threads, " + usedThreads + " of " + maxThreads + " in use by " + activeSolves + " solves");
+        Assignment assignment = new Assignment(threads, weight);
+        current.set(assignment);
+        return assignment;
+    }
+
+    public synchronized void release(Assignment assignment) {
+        if (assignment.released) {
+            return;
+        }
+        assignment.released = true;
+        current.remove();
+        usedThreads -= assignment.threads;
+        activeSolves--;
+        activeWeight -= assignment.weight;
+        notifyAll();
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public synchronized int getUsedThreads() {
+        return usedThreads;
+    }
+
+    public synchronized int getActiveSolves() {
+        return activeSolves;
+    }
+
+    /**
+     * @return the number of solves that had to wait for threads
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    public static class Assignment {
+        private final int threads;
+        private final double weight;
+        private boolean released = false;
+
+        private Assignment(int threads, double weight) {
+            this.threads = threads;
+            this.weight = weight;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+    }
+}
@@ -32,6 +32,7 @@ package edu.harvard.econcs.jopt.solver.server.lpsolve;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,12 +41,18 @@ import edu.harvard.econcs.jopt.solver.mip.*;
 import edu.harvard.econcs.util.NativeUtils;
 import lpsolve.LpSolve;
 import lpsolve.LpSolveException;
+import edu.harvard.econcs.jopt.solver.AbortHandle;
 import edu.harvard.econcs.jopt.solver.IMIP;
 import edu.harvard.econcs.jopt.solver.IMIPResult;
 import edu.harvard.econcs.jopt.solver.IMIPSolver;
 import edu.harvard.econcs.jopt.solver.MIPException;
 import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
+import edu.harvard.econcs.jopt.solver.MIPUnsupportedException;
 import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.server.ElasticRelaxation;
+import edu.harvard.econcs.jopt.solver.server.GeneratedConstraintLoader;
+import edu.harvard.econcs.jopt.solver.server.IISFinder;
+import edu.harvard.econcs.jopt.solver.server.ModelStore;
 import edu.harvard.econcs.jopt.solver.server.SolverServer;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.logging.log4j.LogManager;
@@ -103,20 +110,39 @@ public class LPSolveMIPSolver implements IMIPSolver {
      */
     private static final int LPSOLVE_MAX_VALUE = 9000000;
 
+    /**
+     * The value LPSolve interprets as infinite by default.
+     */
+    private static final double LPSOLVE_INFINITY = 1e30;
+
     private static boolean debug = false;
 
     public IMIPResult solve(IMIP mip) throws MIPException {
+        return solve(mip, new AbortHandle());
+    }
+
+    public IMIPResult solve(IMIP mip, AbortHandle abort) throws MIPException {
         isCapped = false;
+        abort.checkDeadline("before lp_solve started");
         try {
-            Map<String, LinearTerm> objTerms = getObjTerms(mip);
-            List<Variable> activeVars = getActiveVars(mip);
-            // Create a problem with (constraints, rows):
-            LpSolve solver = LpSolve.makeLp(0, activeVars.size());
-            solver.setAddRowmode(true);
+            // Which constraint id each row belongs to, -1 for the extra rows of indicator constraints
+            int[] rowIds = new int[mip.getNumConstraintIds() * 2];
+            Arrays.fill(rowIds, -1);
+            LpSolve solver;
+            if (mip instanceof MappedMIP) {
+                solver = buildMappedModel((MappedMIP) mip, rowIds);
+            } else {
+                solver = buildModel(mip, rowIds);
+            }
             solver.setTimeout(TIME_LIMIT);
             if (mip.isSolveParamSpecified(SolveParam.TIME_LIMIT)) {
                 solver.setTimeout((long) mip.getDoubleSolveParam(SolveParam.TIME_LIMIT));
             }
+            if (abort.hasDeadline()) {
+                // Whole seconds, and 0 would mean no limit
+                double timeLimit = abort.getTimeLimit(mip.getDoubleSolveParam(SolveParam.TIME_LIMIT, -1d));
+                solver.setTimeout(Math.max(1, (long) Math.ceil(timeLimit)));
+            }
 
             if (mip.isSolveParamSpecified(SolveParam.ABSOLUTE_OBJ_GAP)) {
                 solver.setMipGap(true, mip.getDoubleSolveParam(SolveParam.ABSOLUTE_OBJ_GAP));
@@ -144,45 +170,6 @@ public class LPSolveMIPSolver implements IMIPSolver {
                 solver.setMinim();
             }
 
-            double[] obj = new double[activeVars.size() + 1];
-            for (int i = 0; i < activeVars.size(); i++) {
-                Variable v = activeVars.get(i);
-                LinearTerm t = objTerms.get(v.getName());
-                obj[i + 1] = valueAfterCapping(t);
-                solver.setColName(i + 1, v.getName());
-            }
-            solver.setObjFn(obj);
-
-            // setup variables:
-            for (int i = 0; i < activeVars.size(); i++) {
-                Variable v = activeVars.get(i);
-                VarType t = v.getType();
-                if (t == VarType.BOOLEAN) {
-                    solver.setBinary(i + 1, true);
-                }
-                if (t == VarType.DOUBLE) {
-                    solver.setBounds(i + 1, boundAfterCapping(v, true), boundAfterCapping(v, false));
-                }
-                if (t == VarType.INT) {
-                    solver.setBounds(i + 1, boundAfterCapping(v, true), boundAfterCapping(v, false));
-                    solver.setInt(i + 1, true);
-                }
-            }
-
-            // add constraints
-            List<Constraint> constraints = mip.getConstraints();
-            for (Constraint c : constraints) {
-                List<LinearTerm> terms = getTerms(mip, activeVars, c);
-                double[] row = new double[activeVars.size() + 1];
-                for (int i = 0; i < activeVars.size(); i++) {
-                    LinearTerm t = terms.get(i);
-                    row[i + 1] = valueAfterCapping(t);
-                }
-                solver.addConstraint(row, getType(c.getType()), c.getConstant());
-                // solver.setRowName(i+1, c.toString());
-            }
-            solver.setAddRowmode(false);
-
             if (!mip.getBooleanSolveParam(SolveParam.DISPLAY_OUTPUT, false) && !logger.isDebugEnabled()) {
                 // Disable output
                 solver.setVerbose(0);
@@ -195,11 +182,17 @@ public class LPSolveMIPSolver implements IMIPSolver {
                         "LPSolve can't handle numbers that are higher.");
             }
 
+            // LPSolve polls the handle while it solves
+            solver.putAbortfunc((lp, handle) -> abort.isAborted(), null);
+
             // solve the problem
             logger.info("Starting to solve mip.");
             long startTime = System.currentTimeMillis();
             int result = solver.solve();
-            if (result == LpSolve.SUBOPTIMAL) {
+            if (result == LpSolve.USERABORT) {
+                solver.deleteLp();
+                throw new MIPException("Solve aborted");
+            } else if (result == LpSolve.SUBOPTIMAL) {
                 if (mip.getBooleanSolveParam(SolveParam.ACCEPT_SUBOPTIMAL, true)) {
                     logger.warn("Suboptimal solution! Continuing... To reject suboptimal solutions, " +
                             "set SolveParam.ACCEPT_SUBOPTIMAL to false.");
@@ -208,6 +201,13 @@ public class LPSolveMIPSolver implements IMIPSolver {
                             "Due to user preferences, an exception is thrown. To accept suboptimal solutions after a timeout,\n" +
                             "set SolveParam.ACCEPT_SUBOPTIMAL to true.");
                 }
+            } else if (result == LpSolve.INFEASIBLE && mip.getBooleanSolveParam(SolveParam.FEASIBILITY_RELAXATION, false)) {
+                solver.deleteLp();
+                logger.warn("No feasible Solution. Solving the feasibility relaxation instead.");
+                return new ElasticRelaxation(new LPSolveMIPSolver()).solve(mip);
+            } else if (result == LpSolve.INFEASIBLE && mip.getBooleanSolveParam(SolveParam.CALCULATE_CONFLICT_SET, true)) {
+                solver.deleteLp();
+                throw findIIS(mip);
             } else if (result != LpSolve.OPTIMAL) {
                 String problem = solver.getStatustext(result);
                 solver.deleteLp();
@@ -225,20 +225,25 @@ public class LPSolveMIPSolver implements IMIPSolver {
             // Fill the results:
             Map<String, Double> values = new HashMap<>();
             double[] vars = solver.getPtrVariables();
-            for (int i = 0; i < activeVars.size(); i++) {
-                Variable v = activeVars.get(i);
-                values.put(v.getName(), vars[i]);
+            for (int i = 0; i < solver.getNcolumns(); i++) {
+                values.put(solver.getColName(i + 1), vars[i]);
             }
-            Map<Constraint, Double> duals = null;
+            double[] duals = null;
             if (mip.getBooleanSolveParam(SolveParam.CALC_DUALS, false)) {
-                duals = new HashMap<>();
+                duals = new double[mip.getNumConstraintIds()];
+                Arrays.fill(duals, Double.NaN);
                 double[] dualVars = solver.getPtrDualSolution();
-                for (int i = 0; i < constraints.size(); i++) {
-                    duals.put(mip.getConstraints().get(i), dualVars[i + 1]);
+                for (int i = 0; i < Math.min(solver.getNrows(), rowIds.length); i++) {
+                    if (rowIds[i] >= 0) {
+                        duals[rowIds[i]] = dualVars[i + 1];
+                    }
                 }
             }
 
             MIPResult ret = new MIPResult(solver.getObjective(), values, duals);
+            if (duals != null) {
+                ret.setSlacks(MIPResult.computeSlacks(mip, values));
+            }
 
             // print solution
             if (debug) {
@@ -258,14 +263,232 @@ public class LPSolveMIPSolver implements IMIPSolver {
         }
     }
 
-    private double boundAfterCapping(Variable v, boolean isLowerBound) {
-        double bound = isLowerBound ? v.getLowerBound() : v.getUpperBound();
+    /**
+     * Creates the problem from the Variable and Constraint objects of the MIP.
+     */
+    private LpSolve buildModel(IMIP mip, int[] rowIds) throws LpSolveException {
+        Map<String, LinearTerm> objTerms = getObjTerms(mip);
+        List<Variable> activeVars = getActiveVars(mip);
+        // Create a problem with (constraints, rows):
+        LpSolve solver = LpSolve.makeLp(0, activeVars.size());
+        solver.setAddRowmode(true);
+
+        double[] obj = new double[activeVars.size() + 1];
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < activeVars.size(); i++) {
+            Variable v = activeVars.get(i);
+            LinearTerm t = objTerms.get(v.getName());
+            obj[i + 1] = valueAfterCapping(t);
+            solver.setColName(i + 1, v.getName());
+            columns.put(v.getName(), i + 1);
+        }
+        solver.setObjFn(obj);
+
+        // setup variables:
+        for (int i = 0; i < activeVars.size(); i++) {
+            Variable v = activeVars.get(i);
+            setupColumn(solver, i + 1, v.getName(), v.getType(), v.getLowerBound(), v.getUpperBound());
+        }
+
+        // add constraints
+        int rows = 0;
+        for (Constraint c : mip.getConstraints()) {
+            int added = addRows(solver, mip, columns, c);
+            rowIds[rows] = c.isIndicator() ? -1 : c.getId();
+            rows += added;
+        }
+        // Generated constraints come last, and have no id
+        new GeneratedConstraintLoader(mip).load(mip.getConstraintGenerators(), chunk -> {
+            for (Constraint c : chunk) {
+                addRows(solver, mip, columns, c);
+            }
+        });
+        solver.setAddRowmode(false);
+        return solver;
+    }
+
+    /**
+     * Adds the constraint as a sparse row, or as several rows for an indicator constraint.
+     *
+     * @return the number of rows added
+     */
+    private int addRows(LpSolve solver, IMIP mip, Map<String, Integer> columns, Constraint c) throws LpSolveException {
+        if (!c.getQuadraticTerms().isEmpty()) {
+            throw new MIPUnsupportedException("Constraint has quadratic terms, not supported by LPSolve. " + c);
+        }
+        // Constraints keep their terms merged, so they can be passed on as a sparse row directly
+        int[] colno = new int[c.linearSize() + 1];
+        double[] row = new double[c.linearSize() + 1];
+        int count = 0;
+        for (int i = 0; i < c.linearSize(); i++) {
+            Variable v = mip.getVar(c.getLinearVarName(i));
+            if (v == null) {
+                throw new MIPException("Invalid variable name in constraint: " + c);
+            }
+            if (v.ignore()) {
+                continue;
+            }
+            colno[count] = columns.get(v.getName());
+            row[count++] = valueAfterCapping(c.getLinearCoefficient(i));
+        }
+        if (c.isIndicator()) {
+            Integer column = columns.get(c.getIndicatorVarName());
+            if (column == null) {
+                throw new MIPException("Invalid indicator variable in constraint: " + c);
+            }
+            return addIndicatorRows(solver, count, colno, row, column, c.getType(), c.getConstant(), c.getIndicatorValue());
+        }
+        solver.addConstraintex(count, row, colno, getType(c.getType()), c.getConstant());
+        // solver.setRowName(i+1, c.toString());
+        return 1;
+    }
+
+    /**
+     * Creates the problem by streaming the rows of the mapped MIP, so only one row at a time is on the heap.
+     */
+    private LpSolve buildMappedModel(MappedMIP mip, int[] rowIds) throws LpSolveException {
+        // The LPSolve column of each MIP column, 0 for ignored ones
+        int[] columns = new int[mip.getNumColumns()];
+        int numColumns = 0;
+        for (int i = 0; i < columns.length; i++) {
+            if (!mip.isIgnored(i)) {
+                columns[i] = ++numColumns;
+            }
+        }
+        LpSolve solver = LpSolve.makeLp(0, numColumns);
+        solver.setAddRowmode(true);
+
+        double[] obj = new double[numColumns + 1];
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] > 0) {
+                obj[columns[i]] = valueAfterCapping(mip.getObjectiveCoefficient(i));
+                setupColumn(solver, columns[i], mip.getColumnName(i), mip.getColumnType(i),
+                        mip.getLowerBound(i), mip.getUpperBound(i));
+            }
+        }
+        solver.setObjFn(obj);
+
+        int rows = 0;
+        int[] colno = new int[16];
+        double[] row = new double[16];
+        MappedMIP.RowCursor cursor = mip.rows();
+        while (cursor.next()) {
+            if (colno.length < cursor.size() + 1) {
+                colno = new int[cursor.size() + 1];
+                row = new double[cursor.size() + 1];
+            }
+            int count = 0;
+            for (int k = 0; k < cursor.size(); k++) {
+                int column = columns[cursor.getColumn(k)];
+                if (column > 0) {
+                    colno[count] = column;
+                    row[count++] = valueAfterCapping(cursor.getCoefficient(k));
+                }
+            }
+            if (cursor.getIndicatorColumn() >= 0) {
+                int column = columns[cursor.getIndicatorColumn()];
+                if (column == 0) {
+                    throw new MIPException("Ignored indicator variable in constraint " + cursor.getId());
+                }
+                for (int i = addIndicatorRows(solver, count, colno, row, column, cursor.getType(),
+                        cursor.getConstant(), cursor.getIndicatorValue()); i > 0; i--) {
+                    rowIds[rows++] = -1;
+                }
+            } else {
+                solver.addConstraintex(count, row, colno, getType(cursor.getType()), cursor.getConstant());
+                rowIds[rows++] = cursor.getId();
+            }
+        }
+        solver.setAddRowmode(false);
+        return solver;
+    }
+
+    private void setupColumn(LpSolve solver, int column, String name, VarType t, double lowerBound, double upperBound)
+            throws LpSolveException {
+        solver.setColName(column, name);
+        if (t == VarType.BOOLEAN) {
+            solver.setBinary(column, true);
+        }
+        if (t == VarType.DOUBLE) {
+            solver.setBounds(column, boundAfterCapping(name, lowerBound, upperBound, true),
+                    boundAfterCapping(name, lowerBound, upperBound, false));
+        }
+        if (t == VarType.INT) {
+            solver.setBounds(column, boundAfterCapping(name, lowerBound, upperBound, true),
+                    boundAfterCapping(name, lowerBound, upperBound, false));
+            solver.setInt(column, true);
+        }
+    }
+
+    private MIPInfeasibleException findIIS(IMIP mip) {
+        double timeLimit = mip.getDoubleSolveParam(SolveParam.IIS_TIME_LIMIT, mip.getDoubleSolveParam(SolveParam.TIME_LIMIT, -1d));
+        int threads = mip.getIntSolveParam(SolveParam.IIS_THREADS, Runtime.getRuntime().availableProcessors());
+        logger.info("MIP is infeasible, computing an irreducible infeasible subset.");
+        return new IISFinder(LPSolveMIPSolver::new, threads).findIIS(mip, timeLimit);
+    }
+
+    /**
+     * LPSolve has no indicator constraints, so they are linearized with a big-M derived from the
+     * variable bounds: the row is only enforced when the indicator variable takes its indicator value.
+     *
+     * @return the number of rows added
+     */
+    private int addIndicatorRows(LpSolve solver, int count, int[] colno, double[] row, int column,
+                                 CompareType type, double b, boolean indicatorValue) throws LpSolveException {
+        double minActivity = 0;
+        double maxActivity = 0;
+        int indicatorIndex = count;
+        for (int k = 0; k < count; k++) {
+            if (colno[k] == column) {
+                indicatorIndex = k;
+            }
+            double a = row[k];
+            double lower = Math.max(solver.getLowbo(colno[k]), -LPSOLVE_MAX_VALUE);
+            double upper = Math.min(solver.getUpbo(colno[k]), LPSOLVE_MAX_VALUE);
+            minActivity += a > 0 ? a * lower : a * upper;
+            maxActivity += a > 0 ? a * upper : a * lower;
+        }
+        if (indicatorIndex == count) {
+            // The rows have one more entry than the constraint has terms, for the indicator variable
+            colno[count] = column;
+            row[count] = 0;
+            count++;
+        }
+        // Sign of the indicator column: +1 if the row is active when y = 1, -1 if it is active when y = 0
+        double sign = indicatorValue ? 1 : -1;
+        double offset = indicatorValue ? 1 : 0;
+        int rows = 0;
+        if (type != CompareType.GEQ) {
+            // a x <= b + M (1 - z)
+            double bigM = Math.min(Math.max(maxActivity - b, 0), LPSOLVE_MAX_VALUE);
+            double[] leqRow = row.clone();
+            leqRow[indicatorIndex] += sign * bigM;
+            solver.addConstraintex(count, leqRow, colno, LpSolve.LE, b + offset * bigM);
+            rows++;
+        }
+        if (type != CompareType.LEQ) {
+            // a x >= b - M (1 - z)
+            double bigM = Math.min(Math.max(b - minActivity, 0), LPSOLVE_MAX_VALUE);
+            double[] geqRow = row.clone();
+            geqRow[indicatorIndex] -= sign * bigM;
+            solver.addConstraintex(count, geqRow, colno, LpSolve.GE, b - offset * bigM);
+            rows++;
+        }
+        return rows;
+    }
+
+    private double boundAfterCapping(String name, double lowerBound, double upperBound, boolean isLowerBound) {
+        double bound = isLowerBound ? lowerBound : upperBound;
+        if (Math.abs(bound) >= MIP.MAX_VALUE) {
+            // Treated as unbounded, just like CPLEX does
+            return isLowerBound ? -LPSOLVE_INFINITY : LPSOLVE_INFINITY;
+        }
         if (Math.abs(bound) > LPSOLVE_MAX_VALUE) {
             isCapped = true;
             bound = isLowerBound ? -LPSOLVE_MAX_VALUE : LPSOLVE_MAX_VALUE;
-            if (v.getLowerBound() > v.getUpperBound()) {
-                throw new MIPException("LPSolve can't handle numbers higher than " + LPSOLVE_MAX_VALUE + ". " +
-                        "After capping the " + (isLowerBound ? "lower" : "upper") + " bound of variable " + v.getName()
+            if (lowerBound > upperBound) {
+                throw new MIPUnsupportedException("LPSolve can't handle numbers higher than " + LPSOLVE_MAX_VALUE + ". " +
+                        "After capping the " + (isLowerBound ? "lower" : "upper") + " bound of variable " + name
                         + " the lower bound was " + "higher than the upper bound, which makes the MIP not solvable.");
             }
         }
@@ -273,16 +496,18 @@ public class LPSolveMIPSolver implements IMIPSolver {
     }
 
     private double valueAfterCapping(LinearTerm t) {
-        if (t == null) {
-            return 0;
-        } else if (t.getCoefficient() > LPSOLVE_MAX_VALUE) {
+        return t == null ? 0 : valueAfterCapping(t.getCoefficient());
+    }
+
+    private double valueAfterCapping(double coefficient) {
+        if (coefficient > LPSOLVE_MAX_VALUE) {
             isCapped = true;
             return LPSOLVE_MAX_VALUE;
-        } else if (t.getCoefficient() < -LPSOLVE_MAX_VALUE) {
+        } else if (coefficient < -LPSOLVE_MAX_VALUE) {
             isCapped = true;
             return -LPSOLVE_MAX_VALUE;
         } else {
-            return t.getCoefficient();
+            return coefficient;
         }
     }
 
@@ -298,7 +523,7 @@ public class LPSolveMIPSolver implements IMIPSolver {
 
     private Map<String, LinearTerm> getObjTerms(IMIP mip) {
         if (!mip.getQuadraticObjectiveTerms().isEmpty()) {
-            throw new MIPException("MIP has quadratic terms, not supported by LPSolve");
+            throw new MIPUnsupportedException("MIP has quadratic terms, not supported by LPSolve");
         }
         Map<String, LinearTerm> ret = new HashMap<>();
         for (LinearTerm t : mip.getLinearObjectiveTerms()) {
@@ -310,27 +535,6 @@ public class LPSolveMIPSolver implements IMIPSolver {
         return ret;
     }
 
-    private List<LinearTerm> getTerms(IMIP mip, List<Variable> activeVars, Constraint c) {
-        if (!c.getQuadraticTerms().isEmpty()) {
-            throw new MIPException("Constraint has quadratic terms, not supported by LPSolve. " + c);
-        }
-        List<LinearTerm> ret = new ArrayList<>();
-        Map<Variable, LinearTerm> varToTerm = new HashMap<>();
-        for (LinearTerm t : c.getLinearTerms()) {
-            if (varToTerm.containsKey(mip.getVar(t.getVarName()))) {
-                varToTerm.put(mip.getVar(t.getVarName()),
-                        new LinearTerm(varToTerm.get(mip.getVar(t.getVarName())).getCoefficient()
-                                + t.getCoefficient(), mip.getVar(t.getVarName())));
-            } else {
-                varToTerm.put(mip.getVar(t.getVarName()), t);
-            }
-        }
-        for (int i = 0; i < activeVars.size(); i++) {
-            ret.add(varToTerm.get(activeVars.get(i)));
-        }
-        return ret;
-    }
-
     private int getType(CompareType type) {
         if (type == CompareType.EQ) {
             return LpSolve.EQ;
@@ -345,12 +549,16 @@ public class LPSolveMIPSolver implements IMIPSolver {
     }
 
     public static void main(String argv[]) {
-        if (argv.length != 1) {
-            logger.error("Usage: edu.harvard.econcs.jopt.solver.server.cplex.LPSolveMIPSolver <port>");
+        if (argv.length < 1 || argv.length > 2) {
+            logger.error("Usage: edu.harvard.econcs.jopt.solver.server.cplex.LPSolveMIPSolver <port> <model store MB>");
             System.exit(1);
         }
         int port = Integer.parseInt(argv[0]);
-        SolverServer.createServer(port, LPSolveMIPSolver.class);
+        long modelStoreCapacity = ModelStore.DEFAULT_CAPACITY;
+        if (argv.length == 2) {
+            modelStoreCapacity = Long.parseLong(argv[1]) << 20;
+        }
+        SolverServer.createServer(port, LPSolveMIPSolver.class, modelStoreCapacity);
     }
 
     private static void initLocalLpSolve() throws Exception {
@@ -0,0 +1,65 @@
+package edu.harvard.econcs.jopt;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.mip.CompareType;
+import edu.harvard.econcs.jopt.solver.mip.ConcurrentMIPBuilder;
+import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.VarType;
+import edu.harvard.econcs.jopt.solver.mip.Variable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how the construction of a large model scales with the number of building threads.
+ * Not part of the test suite; run its main method directly.
+ */
+public class ConcurrentBuildBenchmark {
+
+    private static final int NUM_VARS = 100000;
+    private static final int NUM_CONSTRAINTS = 250000;
+    private static final int TERMS_PER_CONSTRAINT = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        Variable[] vars = new Variable[NUM_VARS];
+        for (int i = 0; i < NUM_VARS; i++) {
+            vars[i] = new Variable("x" + i, VarType.DOUBLE, 0, 1);
+        }
+        // Warm-up
+        build(vars, 4);
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            long start = System.nanoTime();
+            IMIP mip = build(vars, threads);
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.out.println(threads + " thread(s): " + mip.getNumConstraints() + " constraints, "
+                    + (long) NUM_CONSTRAINTS * TERMS_PER_CONSTRAINT + " nonzeros in " + millis + " ms");
+        }
+    }
+
+    private static IMIP build(Variable[] vars, int numThreads) throws InterruptedException {
+        ConcurrentMIPBuilder builder = new ConcurrentMIPBuilder();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = thread; i < NUM_VARS; i += numThreads) {
+                    builder.add(vars[i]);
+                }
+                for (int i = thread; i < NUM_CONSTRAINTS; i += numThreads) {
+                    Constraint c = new Constraint(CompareType.LEQ, 1);
+                    for (int j = 0; j < TERMS_PER_CONSTRAINT; j++) {
+                        c.addTerm(1, vars[(i * 7919 + j * 104729) % NUM_VARS]);
+                    }
+                    builder.add(c);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return builder.build();
+    }
+}
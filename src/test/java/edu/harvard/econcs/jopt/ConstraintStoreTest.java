@@ -0,0 +1,225 @@
+package edu.harvard.econcs.jopt;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.client.SolverClient;
+import edu.harvard.econcs.jopt.solver.mip.*;
+import edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ConstraintStoreTest {
+
+    @Test
+    public void testCanonicalTerms() {
+        Variable x = new Variable("x", VarType.DOUBLE, 0, 10);
+        Variable y = new Variable("y", VarType.DOUBLE, 0, 10);
+        Constraint c1 = new Constraint(CompareType.LEQ, 5);
+        c1.addTerm(1, y);
+        c1.addTerm(2, x);
+        c1.addTerm(1, y);
+        Constraint c2 = new Constraint(CompareType.LEQ, 5);
+        c2.addTerm(2, x);
+        c2.addTerm(2, y);
+
+        assertEquals(2, c1.linearSize());
+        assertEquals("x", c1.getLinearVarName(0));
+        assertEquals(2, c1.getLinearCoefficient("y"), 0);
+        assertEquals(c1, c2);
+        assertEquals(c1.hashCode(), c2.hashCode());
+
+        // Terms that cancel out are dropped, whether appended in order or not
+        Constraint c3 = new Constraint(CompareType.LEQ, 5);
+        c3.addTerm(2, x);
+        c3.addTerm(1, y);
+        c3.addTerm(-1, y);
+        Constraint c4 = new Constraint(CompareType.LEQ, 5);
+        c4.addTerm(1, y);
+        c4.addTerm(2, x);
+        c4.addTerm(-1, y);
+        assertEquals(1, c3.linearSize());
+        assertEquals(1, c4.linearSize());
+        assertEquals(0, c4.getLinearCoefficient("y"), 0);
+        assertEquals(c3, c4);
+        assertEquals(c3.hashCode(), c4.hashCode());
+    }
+
+    @Test
+    public void testRemoveById() {
+        MIP mip = new MIP();
+        Variable x = new Variable("x", VarType.DOUBLE, 0, 10);
+        mip.add(x);
+        Constraint[] constraints = new Constraint[3];
+        for (int i = 0; i < constraints.length; i++) {
+            // Equal content on purpose: removal must hit the given one
+            constraints[i] = new Constraint(CompareType.LEQ, 5);
+            constraints[i].addTerm(1, x);
+            mip.add(constraints[i]);
+        }
+        assertTrue(mip.remove(constraints[1]));
+        assertEquals(2, mip.getNumConstraints());
+        assertSame(constraints[0], mip.getConstraints().get(0));
+        assertSame(constraints[2], mip.getConstraints().get(1));
+        assertNull(mip.removeConstraint(1));
+        assertSame(constraints[2], mip.removeConstraint(2));
+        assertEquals(1, mip.getNumConstraints());
+
+        try {
+            new MIP().add(constraints[0]);
+            fail("A constraint can only belong to one MIP");
+        } catch (MIPException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompactIds() {
+        MIP mip = new MIP();
+        Variable x = new Variable("x", VarType.DOUBLE, 0, 10);
+        mip.add(x);
+        mip.setObjectiveMax(true);
+        mip.addObjectiveTerm(1, x);
+        Constraint[] constraints = new Constraint[4];
+        for (int i = 0; i < constraints.length; i++) {
+            constraints[i] = new Constraint(CompareType.LEQ, 10 - i);
+            constraints[i].addTerm(1, x);
+            mip.add(constraints[i]);
+        }
+        mip.remove(constraints[0]);
+        mip.remove(constraints[2]);
+        assertEquals(2, mip.getConstraintsContaining(x).size());
+        assertArrayEquals(new int[]{-1, 0, -1, 1}, mip.compactConstraintIds());
+        assertEquals(2, mip.getNumConstraintIds());
+        assertEquals(0, constraints[1].getId());
+        assertSame(constraints[3], mip.getConstraint(1));
+        assertSame(constraints[3], mip.getConstraints().get(1));
+        assertEquals(2, mip.getConstraintsContaining(x).size());
+
+        // New constraints continue after the compacted ids
+        Constraint added = new Constraint(CompareType.LEQ, 5);
+        added.addTerm(1, x);
+        mip.add(added);
+        assertEquals(2, added.getId());
+        mip.setSolveParam(SolveParam.CALC_DUALS, true);
+        IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(mip);
+        assertEquals(5, result.getObjectiveValue(), 1e-6);
+        assertEquals(0, result.getSlack(added), 1e-6);
+        assertEquals(2, result.getSlack(constraints[3]), 1e-6);
+    }
+
+    @Test
+    public void testIncidence() {
+        MIP mip = new MIP();
+        Variable x = new Variable("x", VarType.DOUBLE, 0, 10);
+        Variable y = new Variable("y", VarType.DOUBLE, 0, 10);
+        Variable z = new Variable("z", VarType.DOUBLE, 0, 10);
+        mip.add(x);
+        mip.add(y);
+        mip.add(z);
+        mip.setObjectiveMax(true);
+        mip.addObjectiveTerm(1, x);
+        mip.addObjectiveTerm(1, y);
+        mip.addObjectiveTerm(1, z);
+        Constraint xy = new Constraint(CompareType.LEQ, 4);
+        xy.addTerm(1, x);
+        xy.addTerm(1, y);
+        mip.add(xy);
+        Constraint yz = new Constraint(CompareType.LEQ, 3);
+        yz.addTerm(1, y);
+        mip.add(yz);
+        assertEquals(2, mip.getConstraintsContaining(y).size());
+
+        // Terms added after the index is built are picked up as well
+        yz.addTerm(1, z);
+        assertEquals(1, mip.getConstraintsContaining(z).size());
+        assertSame(yz, mip.getConstraintsContaining(z).get(0));
+
+        mip.remove(y);
+        assertTrue(mip.getConstraintsContaining(y).isEmpty());
+        assertEquals(1, xy.linearSize());
+        assertEquals(1, yz.linearSize());
+        IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(mip);
+        assertEquals(7, result.getObjectiveValue(), 1e-6);
+    }
+
+    @Test
+    public void testConcurrentBuild() throws InterruptedException {
+        ConcurrentMIPBuilder builder = new ConcurrentMIPBuilder();
+        builder.setObjectiveMax(true);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 10;
+            Thread thread = new Thread(() -> {
+                for (int i = offset; i < offset + 10; i++) {
+                    Variable x = new Variable("x" + i, VarType.DOUBLE, 0, 10);
+                    builder.add(x);
+                    builder.addObjectiveTerm(1, x);
+                    Constraint c = new Constraint(CompareType.LEQ, 1);
+                    c.addTerm(1, x);
+                    builder.add(c);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        IMIP mip = builder.build();
+        assertEquals(40, mip.getNumVars());
+        assertEquals(40, mip.getNumConstraints());
+        assertTrue(mip.isFrozen());
+        try {
+            mip.add(new Variable("y", VarType.DOUBLE, 0, 1));
+            fail("A built MIP is immutable");
+        } catch (MIPException e) {
+            // expected
+        }
+        try {
+            mip.getConstraint(0).setConstant(2);
+            fail("The constraints of a built MIP are immutable");
+        } catch (MIPException e) {
+            // expected
+        }
+        IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(mip);
+        assertEquals(40, result.getObjectiveValue(), 1e-6);
+    }
+
+    @Test
+    public void testConstraintGenerator() {
+        MIP mip = new MIP();
+        mip.setObjectiveMax(true);
+        final int n = 40;
+        for (int i = 0; i < n; i++) {
+            Variable x = new Variable("x" + i, VarType.BOOLEAN, 0, 1);
+            mip.add(x);
+            mip.addObjectiveTerm(i % 5 + 1, x);
+        }
+        // Pairwise conflicts between variables of the same residue mod 4
+        mip.addConstraintGenerator(() -> IntStream.range(0, n * n)
+                .filter(k -> k / n < k % n && (k / n) % 4 == (k % n) % 4)
+                .mapToObj(k -> {
+                    Constraint c = new Constraint(CompareType.LEQ, 1);
+                    c.addTerm(1, new Variable("x" + k / n, VarType.BOOLEAN, 0, 1));
+                    c.addTerm(1, new Variable("x" + k % n, VarType.BOOLEAN, 0, 1));
+                    return c;
+                })
+                .spliterator());
+        mip.setSolveParam(SolveParam.GENERATOR_THREADS, 3);
+        mip.setSolveParam(SolveParam.GENERATOR_CHUNK_SIZE, 7);
+        mip.setSolveParam(SolveParam.CALC_DUALS, true);
+        assertEquals(0, mip.getNumConstraints());
+
+        IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(mip);
+        // One variable per residue class, the one with the best coefficient
+        assertEquals(20, result.getObjectiveValue(), 1e-6);
+        assertEquals(0, result.getDuals().length);
+    }
+}
@@ -3,12 +3,17 @@ package edu.harvard.econcs.jopt;
 import edu.harvard.econcs.jopt.solver.IMIP;
 import edu.harvard.econcs.jopt.solver.IMIPResult;
 import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
 import edu.harvard.econcs.jopt.solver.SolveParam;
 import edu.harvard.econcs.jopt.solver.client.SolverClient;
 import edu.harvard.econcs.jopt.solver.ISolution;
 import edu.harvard.econcs.jopt.solver.mip.*;
 import edu.harvard.econcs.jopt.solver.server.cplex.CPLEXInstanceManager;
 import edu.harvard.econcs.jopt.solver.server.cplex.CPlexMIPSolver;
+import ilog.concert.IloAnd;
+import ilog.concert.IloConstraint;
+import ilog.concert.IloException;
+import ilog.cplex.IloCplex;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.Before;
@@ -582,6 +587,112 @@ public class CplexTest {
         System.out.println(result);
     }
 
+    /** Records what the conflict refinement of a solve saw, and can make it look stopped early **/
+    private static class RecordingCplex extends IloCplex {
+        private final IloCplex.CplexStatus conflictStatus;
+        private final List<String> groups = new ArrayList<>();
+        private double[] limitsDuringConflict = null;
+        private double[] limitsAfterSolve = null;
+
+        private RecordingCplex(IloCplex.CplexStatus conflictStatus) throws IloException {
+            this.conflictStatus = conflictStatus;
+        }
+
+        @Override
+        public IloAnd and(IloConstraint[] constraints, String name) throws IloException {
+            groups.add(name);
+            return super.and(constraints, name);
+        }
+
+        @Override
+        public boolean refineConflict(IloConstraint[] constraints, double[] prefs) throws IloException {
+            limitsDuringConflict = getLimits();
+            return super.refineConflict(constraints, prefs);
+        }
+
+        @Override
+        public IloCplex.CplexStatus getCplexStatus() throws IloException {
+            if (limitsDuringConflict != null && conflictStatus != null) {
+                return conflictStatus;
+            }
+            return super.getCplexStatus();
+        }
+
+        @Override
+        public void setDefaults() throws IloException {
+            // Called when the instance is checked in after the solve
+            if (limitsDuringConflict != null && limitsAfterSolve == null) {
+                limitsAfterSolve = getLimits();
+            }
+            super.setDefaults();
+        }
+
+        private double[] getLimits() throws IloException {
+            return new double[]{getParam(DoubleParam.TimeLimit), getParam(DoubleParam.DetTimeLimit)};
+        }
+    }
+
+    private MIPInfeasibleException solveInfeasible(IMIP mip, RecordingCplex cplex) {
+        // The only instance in the pool, so the solve uses it
+        CPLEXInstanceManager.INSTANCE.checkInCplex(cplex);
+        try {
+            new SolverClient(new CPlexMIPSolver()).solve(mip);
+            fail("The MIP is infeasible");
+            return null;
+        } catch (MIPInfeasibleException e) {
+            return e;
+        }
+    }
+
+    @Test
+    public void testConflictRefinement() throws IloException {
+        MIP mip = new MIP();
+        Variable x = new Variable("x", VarType.DOUBLE, 0, 10);
+        Variable y = new Variable("y", VarType.DOUBLE, 0, 10);
+        mip.add(x);
+        mip.add(y);
+        mip.addObjectiveTerm(1, x);
+        Constraint minX = new Constraint(CompareType.GEQ, 8);
+        minX.addTerm(1, x);
+        minX.setGroup("demand");
+        mip.add(minX);
+        Constraint minY = new Constraint(CompareType.GEQ, 8);
+        minY.addTerm(1, y);
+        minY.setGroup("demand");
+        mip.add(minY);
+        // Never needed for the conflict on its own, but reported with its group
+        Constraint maxY = new Constraint(CompareType.LEQ, 9);
+        maxY.addTerm(1, y);
+        maxY.setGroup("demand");
+        mip.add(maxY);
+        Constraint capacity = new Constraint(CompareType.LEQ, 10);
+        capacity.addTerm(1, x);
+        capacity.addTerm(1, y);
+        mip.add(capacity);
+        mip.setSolveParam(SolveParam.TIME_LIMIT, 100d);
+        mip.setSolveParam(SolveParam.DETERMINISTIC_TIME_LIMIT, 5000d);
+        mip.setSolveParam(SolveParam.CONFLICT_TIME_LIMIT, 7d);
+        mip.setSolveParam(SolveParam.CONFLICT_DETERMINISTIC_TIME_LIMIT, 300d);
+
+        RecordingCplex cplex = new RecordingCplex(null);
+        MIPInfeasibleException e = solveInfeasible(mip, cplex);
+        // The group is refined as a single IloAnd
+        assertEquals(Collections.singletonList("demand"), cplex.groups);
+        assertEquals(new HashSet<>(Arrays.asList(minX, minY, maxY, capacity)), new HashSet<>(e.getInfeasibleConstraints()));
+        assertTrue(e.isConflictComplete());
+        // The refinement ran with its own limits, and the solve's were restored after it
+        assertArrayEquals(new double[]{7, 300}, cplex.limitsDuringConflict, 1e-9);
+        assertArrayEquals(new double[]{100, 5000}, cplex.limitsAfterSolve, 1e-9);
+
+        // A refinement that hit its limit reports a partial conflict
+        CPLEXInstanceManager.INSTANCE.clear();
+        cplex = new RecordingCplex(IloCplex.CplexStatus.ConflictAbortDetTimeLim);
+        e = solveInfeasible(mip, cplex);
+        assertFalse(e.isConflictComplete());
+        assertTrue(e.isReasonKnown());
+        assertArrayEquals(new double[]{100, 5000}, cplex.limitsAfterSolve, 1e-9);
+    }
+
     private void assertNonEqualSolutions(ArrayList<ISolution> solutions, Collection<Variable> variablesOfInterest) {
         for (int i = 0; i < solutions.size(); i++) {
             ISolution sol1 = solutions.get(i);
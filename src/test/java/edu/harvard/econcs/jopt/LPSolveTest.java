@@ -3,14 +3,28 @@ package edu.harvard.econcs.jopt;
 import edu.harvard.econcs.jopt.solver.IMIP;
 import edu.harvard.econcs.jopt.solver.IMIPResult;
 import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
 import edu.harvard.econcs.jopt.solver.SolveParam;
 import edu.harvard.econcs.jopt.solver.client.SolverClient;
+import edu.harvard.econcs.jopt.solver.mip.CompareType;
+import edu.harvard.econcs.jopt.solver.mip.Constraint;
+import edu.harvard.econcs.jopt.solver.mip.MIP;
+import edu.harvard.econcs.jopt.solver.mip.VarType;
+import edu.harvard.econcs.jopt.solver.mip.Variable;
 import edu.harvard.econcs.jopt.solver.server.cplex.CPlexMIPSolver;
 import edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -59,4 +73,147 @@ public class LPSolveTest {
             logger.info("Successfully caught exception for the timeout.");
         }
     }
+
+    @Test
+    public void testInfeasibleSubset() {
+        MIP mip = provideInfeasibleExample();
+        mip.setSolveParam(SolveParam.IIS_THREADS, 2);
+
+        try {
+            new SolverClient(new LPSolveMIPSolver()).solve(mip);
+            fail("MIP should be infeasible");
+        } catch (MIPInfeasibleException e) {
+            Variable y = mip.getVar("y");
+            assertTrue(e.isConflictComplete());
+            assertEquals(2, e.getInfeasibleConstraints().size());
+            assertTrue(e.getInfeasibleConstraints().contains(mip.getConstraints().get(0)));
+            assertTrue(e.getInfeasibleConstraints().contains(mip.getConstraints().get(1)));
+            int[] ids = e.getInfeasibleConstraintIds();
+            Arrays.sort(ids);
+            assertArrayEquals(new int[]{0, 1}, ids);
+            assertEquals(Collections.singleton(y), e.getInfeasibleVariables());
+            assertEquals(MIPInfeasibleException.Cause.UPPER, e.getCause(y));
+        }
+    }
+
+    @Test
+    public void testFeasibilityRelaxation() {
+        MIP mip = provideInfeasibleExample();
+        mip.setSolveParam(SolveParam.FEASIBILITY_RELAXATION, true);
+
+        IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(mip);
+        assertTrue(result.isRelaxed());
+        assertEquals(0, result.getObjectiveValue(), 1e-6);
+        double totalViolation = 0;
+        for (double violation : result.getViolations()) {
+            totalViolation += violation;
+        }
+        assertEquals(1, totalViolation, 1e-6);
+        assertEquals(0, result.getViolation(mip.getConstraints().get(2)), 1e-6);
+    }
+
+    @Test
+    public void testGeneratedConstraintsStayHard() {
+        // With x + y <= 3 generated, the bound of y is no longer part of the conflict
+        MIP mip = provideInfeasibleExample();
+        mip.addConstraintGenerator(() -> {
+            Constraint cap = new Constraint(CompareType.LEQ, 3);
+            cap.addTerm(1, new Variable("x", VarType.DOUBLE, 0, 10));
+            cap.addTerm(1, new Variable("y", VarType.INT, 0, 3));
+            return Collections.singletonList(cap).spliterator();
+        });
+        try {
+            new SolverClient(new LPSolveMIPSolver()).solve(mip);
+            fail("MIP should be infeasible");
+        } catch (MIPInfeasibleException e) {
+            assertEquals(1, e.getInfeasibleConstraints().size());
+            assertTrue(e.getInfeasibleConstraints().contains(mip.getConstraints().get(0)));
+            assertTrue(e.getInfeasibleVariables().isEmpty());
+        }
+
+        // The relaxation can't violate the generated constraint to get away with less
+        mip.setSolveParam(SolveParam.FEASIBILITY_RELAXATION, true);
+        IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(mip);
+        assertEquals(2, result.getViolation(mip.getConstraints().get(0)), 1e-6);
+        assertTrue(result.getValue("x") + result.getValue("y") <= 3 + 1e-6);
+    }
+
+    @Test
+    public void testDualsAndSlacksById() {
+        MIP mip = new MIP();
+        Variable x = new Variable("x", VarType.DOUBLE, 0, MIP.MAX_VALUE);
+        Variable y = new Variable("y", VarType.DOUBLE, 0, MIP.MAX_VALUE);
+        mip.add(x);
+        mip.add(y);
+        mip.setObjectiveMax(true);
+        mip.addObjectiveTerm(2, x);
+        mip.addObjectiveTerm(1, y);
+        Constraint sum = new Constraint(CompareType.LEQ, 4);
+        sum.addTerm(1, x);
+        sum.addTerm(1, y);
+        mip.add(sum);
+        Constraint removed = new Constraint(CompareType.LEQ, 0);
+        removed.addTerm(1, y);
+        mip.add(removed);
+        Constraint capX = new Constraint(CompareType.LEQ, 3);
+        capX.addTerm(1, x);
+        mip.add(capX);
+        Constraint capY = new Constraint(CompareType.LEQ, 5);
+        capY.addTerm(1, y);
+        mip.add(capY);
+        mip.remove(removed);
+
+        assertEquals(4, mip.getNumConstraintIds());
+        assertNull(mip.getConstraint(1));
+        assertSame(capY, mip.getConstraint(3));
+
+        mip.setSolveParam(SolveParam.CALC_DUALS, true);
+        IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(mip);
+        assertEquals(7, result.getObjectiveValue(), 1e-6);
+        assertEquals(0, result.getSlack(sum), 1e-6);
+        assertEquals(0, result.getSlack(capX), 1e-6);
+        assertEquals(4, result.getSlack(3), 1e-6);
+        assertEquals(0, result.getDual(capY), 1e-6);
+        assertEquals(1, Math.abs(result.getDual(sum)), 1e-6);
+        assertTrue(Double.isNaN(result.getDuals()[1]));
+
+        // Ids outside the model have no dual or slack, and a constraint that was never added has no id
+        assertTrue(Double.isNaN(result.getDual(-1)));
+        assertTrue(Double.isNaN(result.getSlack(-1)));
+        Constraint unknown = new Constraint(CompareType.LEQ, 1);
+        unknown.addTerm(1, x);
+        try {
+            result.getDual(unknown);
+            fail("The constraint isn't part of the solved MIP");
+        } catch (MIPException e) {
+            assertTrue(e.getMessage().contains("not added"));
+        }
+    }
+
+    /**
+     * x + y >= 5 and x <= 1 can't hold with y <= 3, the third constraint is unrelated.
+     */
+    private MIP provideInfeasibleExample() {
+        MIP mip = new MIP();
+        Variable x = new Variable("x", VarType.DOUBLE, 0, 10);
+        Variable y = new Variable("y", VarType.INT, 0, 3);
+        Variable z = new Variable("z", VarType.DOUBLE, 0, MIP.MAX_VALUE);
+        mip.add(x);
+        mip.add(y);
+        mip.add(z);
+        mip.addObjectiveTerm(1, z);
+
+        Constraint sum = new Constraint(CompareType.GEQ, 5, "sum");
+        sum.addTerm(1, x);
+        sum.addTerm(1, y);
+        mip.add(sum);
+        Constraint capX = new Constraint(CompareType.LEQ, 1, "capX");
+        capX.addTerm(1, x);
+        mip.add(capX);
+        Constraint unrelated = new Constraint(CompareType.LEQ, 20, "unrelated");
+        unrelated.addTerm(1, z);
+        unrelated.addTerm(1, x);
+        mip.add(unrelated);
+        return mip;
+    }
 }
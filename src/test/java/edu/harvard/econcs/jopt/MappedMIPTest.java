@@ -0,0 +1,118 @@
+package edu.harvard.econcs.jopt;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.client.SolverClient;
+import edu.harvard.econcs.jopt.solver.mip.*;
+import edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.*;
+
+public class MappedMIPTest {
+
+    /**
+     * Knapsack-like model: max sum (i % 7 + 1) x_i, s.t. pairwise x_i + x_{i+1} <= 1, plus one indicator row.
+     */
+    private static void fill(IMIP mip, int n) {
+        mip.setObjectiveMax(true);
+        Variable[] x = new Variable[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = new Variable("x" + i, VarType.BOOLEAN, 0, 1);
+            mip.add(x[i]);
+            mip.addObjectiveTerm(i % 7 + 1, x[i]);
+        }
+        for (int i = 0; i + 1 < n; i++) {
+            Constraint c = new Constraint(CompareType.LEQ, 1);
+            c.addTerm(1, x[i + 1]);
+            c.addTerm(1, x[i]);
+            mip.add(c);
+        }
+        Constraint indicator = new Constraint(CompareType.LEQ, 0);
+        indicator.addTerm(1, x[1]);
+        indicator.setIndicator(x[0], true);
+        mip.add(indicator);
+    }
+
+    @Test
+    public void testSameResultAsMIP() {
+        MIP mip = new MIP();
+        fill(mip, 60);
+        MappedMIP mapped = new MappedMIP();
+        try {
+            fill(mapped, 60);
+            assertEquals(60, mapped.getNumVars());
+            assertEquals(mip.getNumConstraints(), mapped.getNumConstraints());
+            assertEquals(mip.getConstraint(3), mapped.getConstraint(3));
+            assertEquals(mip.getConstraint(59), mapped.getConstraint(59));
+
+            IMIPResult expected = new SolverClient(new LPSolveMIPSolver()).solve(mip);
+            IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(mapped);
+            assertEquals(expected.getObjectiveValue(), result.getObjectiveValue(), 1e-6);
+            assertEquals(0, result.getValue("x1"), 1e-6);
+        } finally {
+            mapped.close();
+        }
+    }
+
+    @Test
+    public void testNameDictionary() {
+        MappedMIP mapped = new MappedMIP();
+        try {
+            // Enough variables to grow the name table a few times
+            for (int i = 0; i < 5000; i++) {
+                mapped.add(new Variable("v\u00e4r" + i, VarType.DOUBLE, -i, i));
+            }
+            assertEquals(4321, mapped.getColumn("v\u00e4r4321"));
+            assertEquals(-17, mapped.getVar("v\u00e4r17").getLowerBound(), 0);
+            assertFalse(mapped.containsVar("v\u00e4r5000"));
+            try {
+                mapped.add(new Variable("v\u00e4r3", VarType.DOUBLE, 0, 1));
+                fail("Names must be unique");
+            } catch (MIPException e) {
+                // expected
+            }
+        } finally {
+            mapped.close();
+        }
+    }
+
+    @Test
+    public void testRemoveAndSerialize() throws Exception {
+        MappedMIP mapped = new MappedMIP();
+        fill(mapped, 10);
+        mapped.setSolveParam(SolveParam.CALC_DUALS, true);
+        Constraint removed = mapped.getConstraint(4);
+        assertTrue(mapped.remove(removed));
+        assertNull(mapped.getConstraint(4));
+        assertEquals(9, mapped.getNumConstraints());
+        assertEquals(5, mapped.getConstraints().get(4).getId());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(mapped);
+        }
+        MappedMIP copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (MappedMIP) in.readObject();
+        }
+        try {
+            assertEquals(mapped.getNumConstraints(), copy.getNumConstraints());
+            assertEquals(mapped.getConstraint(9), copy.getConstraint(9));
+            IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(copy);
+            assertEquals(new SolverClient(new LPSolveMIPSolver()).solve(mapped).getObjectiveValue(),
+                    result.getObjectiveValue(), 1e-6);
+            assertTrue(Double.isNaN(result.getDual(4)));
+        } finally {
+            copy.close();
+            mapped.close();
+        }
+    }
+}
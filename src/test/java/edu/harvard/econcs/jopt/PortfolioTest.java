@@ -0,0 +1,98 @@
+package edu.harvard.econcs.jopt;
+
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.IMIPSolver;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.mip.MIPResult;
+import edu.harvard.econcs.jopt.solver.server.PortfolioSolver;
+import edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class PortfolioTest {
+
+    @Test
+    public void testRace() throws Exception {
+        CountDownLatch aborted = new CountDownLatch(1);
+        IMIPSolver stalling = new IMIPSolver() {
+            public IMIPResult solve(IMIP mip) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public IMIPResult solve(IMIP mip, AbortHandle abort) {
+                while (!abort.isAborted()) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                aborted.countDown();
+                throw new MIPException("Solve aborted");
+            }
+        };
+        IMIPSolver failing = mip -> {
+            throw new MIPException("Not supported");
+        };
+        AtomicInteger created = new AtomicInteger();
+        Supplier<IMIPSolver> lpsolves = () -> {
+            created.incrementAndGet();
+            return new LPSolveMIPSolver();
+        };
+        PortfolioSolver portfolio = new PortfolioSolver(4)
+                .addVariant("lpsolve", lpsolves, Collections.singletonMap(SolveParam.MIP_EMPHASIS, 1))
+                .addVariant("stalling", stalling, Collections.emptyMap())
+                .addVariant("failing", failing, Collections.emptyMap());
+
+        IMIP mip = TestSuite.provideTrivialExample();
+        IMIPResult result = portfolio.solve(mip);
+        assertEquals(3, result.getObjectiveValue(), 1e-6);
+        // The variants solve their own copies
+        assertFalse(mip.isSolveParamSpecified(SolveParam.MIP_EMPHASIS));
+        assertTrue(aborted.await(5, TimeUnit.SECONDS));
+        // LPSolve keeps state of its solve, so each race gets its own
+        assertEquals(1, created.get());
+
+        PortfolioSolver.Variant lpsolve = portfolio.getVariants().get(0);
+        assertEquals(1, lpsolve.getWins());
+        assertEquals(1, portfolio.getVariants().get(1).getRaces());
+        assertEquals(0, portfolio.getVariants().get(1).getWins());
+
+        List<PortfolioSolver.Variant> pruned = portfolio.prune(1, 0.5);
+        assertEquals(2, pruned.size());
+        assertEquals(Collections.singletonList(lpsolve), portfolio.getVariants());
+        assertEquals(3, portfolio.solve(mip).getObjectiveValue(), 1e-6);
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    public void testBestWithinTimeLimit() {
+        // Neither result is optimal, so the better one is returned once both are done
+        IMIPSolver worse = mip -> gapResult(1);
+        IMIPSolver better = mip -> gapResult(2);
+        PortfolioSolver portfolio = new PortfolioSolver()
+                .addVariant("worse", worse, Collections.emptyMap())
+                .addVariant("better", better, Collections.emptyMap());
+        IMIP mip = TestSuite.provideTrivialExample();
+        assertEquals(2, portfolio.solve(mip).getObjectiveValue(), 1e-6);
+        assertEquals(1, portfolio.getVariants().get(1).getWins());
+    }
+
+    private static MIPResult gapResult(double objective) {
+        MIPResult result = new MIPResult(objective, Collections.emptyMap(), null);
+        result.setRelativeGap(0.5);
+        return result;
+    }
+}
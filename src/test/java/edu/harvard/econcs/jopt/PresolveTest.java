@@ -0,0 +1,201 @@
+package edu.harvard.econcs.jopt;
+
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.client.SolverClient;
+import edu.harvard.econcs.jopt.solver.mip.*;
+import edu.harvard.econcs.jopt.solver.presolve.BigMTightener;
+import edu.harvard.econcs.jopt.solver.presolve.PresolvedMIP;
+import edu.harvard.econcs.jopt.solver.presolve.Presolver;
+import edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PresolveTest {
+
+    @Test
+    public void testReductions() {
+        MIP mip = provideReducibleExample();
+        mip.setSolveParam(SolveParam.MIN_OBJ_VALUE, 11d);
+        mip.setSolveParam(SolveParam.MAX_OBJ_VALUE, 12d);
+        mip.setSolveParam(SolveParam.MIN_OBJ_THRESHOLD, 13d);
+        mip.setSolveParam(SolveParam.MAX_OBJ_THRESHOLD, 14d);
+        PresolvedMIP presolved = new Presolver().presolve(mip);
+        IMIP reduced = presolved.getReducedMIP();
+
+        assertEquals(3, reduced.getNumVars());
+        assertFalse(reduced.containsVar("f"));
+        assertFalse(reduced.containsVar("g"));
+        assertEquals(6, reduced.getVar("a").getUpperBound(), 0);
+        assertEquals(1, reduced.getNumConstraints());
+        assertEquals(10, presolved.getObjectiveOffset(), 0);
+        // The objective bounds don't include the offset of the fixed vars
+        assertEquals(1, reduced.getDoubleSolveParam(SolveParam.MIN_OBJ_VALUE), 0);
+        assertEquals(2, reduced.getDoubleSolveParam(SolveParam.MAX_OBJ_VALUE), 0);
+        assertEquals(3, reduced.getDoubleSolveParam(SolveParam.MIN_OBJ_THRESHOLD), 0);
+        assertEquals(4, reduced.getDoubleSolveParam(SolveParam.MAX_OBJ_THRESHOLD), 0);
+
+        Constraint kept = reduced.getConstraints().get(0);
+        assertEquals(10, kept.getConstant(), 0);
+        assertSame(kept, presolved.getReducedConstraint(mip.getConstraints().get(0)));
+        assertSame(kept, presolved.getReducedConstraint(mip.getConstraints().get(1)));
+        assertNull(presolved.getReducedConstraint(mip.getConstraints().get(2)));
+    }
+
+    @Test
+    public void testSameResult() {
+        IMIP mip = provideReducibleExample();
+        SolverClient client = new SolverClient(new LPSolveMIPSolver());
+        IMIPResult result = client.solve(mip);
+        mip.setSolveParam(SolveParam.JAVA_PRESOLVE, true);
+        IMIPResult presolvedResult = client.solve(mip);
+
+        assertEquals(37, presolvedResult.getObjectiveValue(), 1e-6);
+        TestSuite.compareMultipleResults(result, presolvedResult);
+    }
+
+    @Test
+    public void testBigMTightening() {
+        MIP mip = provideBigMExample();
+        BigMTightener tightener = new BigMTightener(mip);
+        IMIP tightened = tightener.tighten(mip).getReducedMIP();
+
+        Constraint bigM = tightened.getConstraints().get(2);
+        for (LinearTerm term : bigM.getLinearTerms()) {
+            assertEquals(term.getVarName().equals("used1") ? -3 : 1, term.getCoefficient(), 1e-9);
+        }
+        assertEquals(2, tightener.getReport().getTightenedRows());
+        assertEquals(1e6, tightener.getReport().getMaxCoefficientBefore(), 0);
+        assertEquals(3, tightener.getReport().getMaxCoefficientAfter(), 1e-9);
+
+        SolverClient client = new SolverClient(new LPSolveMIPSolver());
+        IMIPResult result = client.solve(mip);
+        mip.setSolveParam(SolveParam.TIGHTEN_BIG_M, true);
+        mip.setSolveParam(SolveParam.JAVA_PRESOLVE, true);
+        IMIPResult tightenedResult = client.solve(mip);
+        assertEquals(8, tightenedResult.getObjectiveValue(), 1e-6);
+        TestSuite.compareMultipleResults(result, tightenedResult);
+    }
+
+    @Test
+    public void testBigMIndicators() {
+        MIP mip = new MIP();
+        Variable x = new Variable("x", VarType.DOUBLE, 0, 5);
+        Variable z = new Variable("z", VarType.DOUBLE, 0, MIP.MAX_VALUE);
+        Variable w = new Variable("w", VarType.BOOLEAN, 0, 1);
+        mip.add(x);
+        mip.add(z);
+        mip.add(w);
+        mip.setObjectiveMax(true);
+        mip.addObjectiveTerm(1, x);
+        mip.addObjectiveTerm(-0.5, z);
+        mip.addObjectiveTerm(-1, w);
+        // z is unbounded, so M can't be tightened
+        Constraint c = new Constraint(CompareType.LEQ, 0);
+        c.addTerm(1, x);
+        c.addTerm(1, z);
+        c.addTerm(-1e6, w);
+        mip.add(c);
+
+        BigMTightener tightener = new BigMTightener(1e4, true);
+        Constraint indicator = tightener.tighten(mip).getReducedMIP().getConstraints().get(0);
+        assertTrue(indicator.isIndicator());
+        assertEquals("w", indicator.getIndicatorVarName());
+        assertFalse(indicator.getIndicatorValue());
+        assertEquals(1, tightener.getReport().getIndicators());
+
+        mip.setSolveParam(SolveParam.TIGHTEN_BIG_M, true);
+        mip.setSolveParam(SolveParam.BIG_M_INDICATORS, true);
+        IMIPResult result = new SolverClient(new LPSolveMIPSolver()).solve(mip);
+        assertEquals(4, result.getObjectiveValue(), 1e-6);
+        assertEquals(1, result.getValue("w"), 1e-6);
+    }
+
+    /**
+     * A small facility location problem: a facility can only deliver if it is used, which is modeled with a big-M.
+     * The capacity row bounds both flows by 3, so both big-Ms can be tightened to 3.
+     */
+    private MIP provideBigMExample() {
+        MIP mip = new MIP();
+        Variable used1 = new Variable("used1", VarType.BOOLEAN, 0, 1);
+        Variable used2 = new Variable("used2", VarType.BOOLEAN, 0, 1);
+        Variable flow1 = new Variable("flow1", VarType.DOUBLE, 0, MIP.MAX_VALUE);
+        Variable flow2 = new Variable("flow2", VarType.DOUBLE, 0, MIP.MAX_VALUE);
+        mip.add(used1);
+        mip.add(used2);
+        mip.add(flow1);
+        mip.add(flow2);
+        mip.setObjectiveMax(false);
+        mip.addObjectiveTerm(5, used1);
+        mip.addObjectiveTerm(4, used2);
+        mip.addObjectiveTerm(1, flow1);
+        mip.addObjectiveTerm(2, flow2);
+
+        Constraint capacity = new Constraint(CompareType.LEQ, 3);
+        capacity.addTerm(1, flow1);
+        capacity.addTerm(1, flow2);
+        mip.add(capacity);
+        Constraint demand = new Constraint(CompareType.GEQ, 3);
+        demand.addTerm(1, flow1);
+        demand.addTerm(1, flow2);
+        mip.add(demand);
+        Constraint bigM1 = new Constraint(CompareType.LEQ, 0);
+        bigM1.addTerm(1, flow1);
+        bigM1.addTerm(-1e6, used1);
+        mip.add(bigM1);
+        Constraint bigM2 = new Constraint(CompareType.LEQ, 0);
+        bigM2.addTerm(1, flow2);
+        bigM2.addTerm(-1e6, used2);
+        mip.add(bigM2);
+        return mip;
+    }
+
+    /**
+     * Only the first constraint survives presolve: the second one is parallel to it, the third one becomes a bound,
+     * the fourth one is empty after substitution and the last one is implied by the bounds.
+     */
+    private MIP provideReducibleExample() {
+        MIP mip = new MIP();
+        Variable a = new Variable("a", VarType.INT, 0, 10);
+        Variable b = new Variable("b", VarType.DOUBLE, 0, 10);
+        Variable c = new Variable("c", VarType.BOOLEAN, 0, 1);
+        Variable f = new Variable("f", VarType.DOUBLE, 2, 2);
+        Variable g = new Variable("g", VarType.BOOLEAN, 0, 1);
+        g.setIgnore(true);
+        mip.add(a);
+        mip.add(b);
+        mip.add(c);
+        mip.add(f);
+        mip.add(g);
+        mip.setObjectiveMax(true);
+        mip.addObjectiveTerm(3, a);
+        mip.addObjectiveTerm(2, b);
+        mip.addObjectiveTerm(1, c);
+        mip.addObjectiveTerm(5, f);
+
+        Constraint c1 = new Constraint(CompareType.LEQ, 12);
+        c1.addTerm(1, a);
+        c1.addTerm(1, b);
+        c1.addTerm(1, f);
+        mip.add(c1);
+        Constraint c2 = new Constraint(CompareType.LEQ, 30);
+        c2.addTerm(2, a);
+        c2.addTerm(2, b);
+        c2.addTerm(2, f);
+        mip.add(c2);
+        Constraint c3 = new Constraint(CompareType.LEQ, 6);
+        c3.addTerm(1, a);
+        mip.add(c3);
+        Constraint c4 = new Constraint(CompareType.LEQ, 5);
+        c4.addTerm(1, f);
+        c4.addTerm(1, g);
+        mip.add(c4);
+        Constraint c5 = new Constraint(CompareType.LEQ, 20);
+        c5.addTerm(1, a);
+        c5.addTerm(1, c);
+        mip.add(c5);
+        return mip;
+    }
+}
@@ -0,0 +1,729 @@
+package edu.harvard.econcs.jopt;
+
+import edu.harvard.econcs.jopt.solver.AbortHandle;
+import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPInfeasibleException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
+import edu.harvard.econcs.jopt.solver.client.AdaptiveRoutingSolver;
+import edu.harvard.econcs.jopt.solver.client.AdaptiveRoutingSolver.Route;
+import edu.harvard.econcs.jopt.solver.client.RemoteJob;
+import edu.harvard.econcs.jopt.solver.client.RemoteSolverCache;
+import edu.harvard.econcs.jopt.solver.client.SolverClient;
+import edu.harvard.econcs.jopt.solver.mip.*;
+import edu.harvard.econcs.jopt.solver.server.ChunkedUpload;
+import edu.harvard.econcs.jopt.solver.server.IRemoteMIPSolver;
+import edu.harvard.econcs.jopt.solver.server.JobStatus;
+import edu.harvard.econcs.jopt.solver.server.JobStore;
+import edu.harvard.econcs.jopt.solver.server.ModelStore;
+import edu.harvard.econcs.jopt.solver.server.RemoteMIPSolver;
+import edu.harvard.econcs.jopt.solver.server.HedgingPolicy;
+import edu.harvard.econcs.jopt.solver.server.SharedSegment;
+import edu.harvard.econcs.jopt.solver.server.SolveScheduler;
+import edu.harvard.econcs.jopt.solver.server.SolverLoadBalancer;
+import edu.harvard.econcs.jopt.solver.server.SolverServer;
+import edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Constructor;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class RemoteSolverTest {
+
+    private static int port;
+    private static SolverServer server;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        port = freePort();
+        server = SolverServer.createServer(port, LPSolveMIPSolver.class);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.shutdown();
+        RemoteSolverCache.clear();
+    }
+
+    private static MIP createMIP() {
+        MIP mip = new MIP();
+        Variable x = new Variable("x", VarType.INT, 0, 10);
+        Variable y = new Variable("y", VarType.DOUBLE, 0, 10);
+        mip.add(x);
+        mip.add(y);
+        mip.setObjectiveMax(true);
+        mip.addObjectiveTerm(2, x);
+        mip.addObjectiveTerm(1, y);
+        Constraint c = new Constraint(CompareType.LEQ, 7.5);
+        c.addTerm(1, x);
+        c.addTerm(1, y);
+        mip.add(c);
+        return mip;
+    }
+
+    @Test
+    public void testSharedMemoryTransport() {
+        assertTrue(SharedSegment.isLocalHost("localhost"));
+        MIP mip = createMIP();
+        mip.setSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, true);
+        IMIPResult shared = new SolverClient("localhost", port).solve(mip);
+        mip.setSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, false);
+        IMIPResult copied = new SolverClient("localhost", port).solve(mip);
+        assertEquals(14.5, shared.getObjectiveValue(), 1e-6);
+        assertEquals(copied.getObjectiveValue(), shared.getObjectiveValue(), 1e-6);
+        assertEquals(7, shared.getValue("x"), 1e-6);
+    }
+
+    @Test
+    public void testSharedSegmentPaths() throws Exception {
+        SharedSegment segment = SharedSegment.write("model");
+        try {
+            Path file = Paths.get(segment.getPath());
+            assertEquals(SharedSegment.getDirectory().toPath(), file.getParent());
+            if (Files.getFileStore(file).supportsFileAttributeView("posix")) {
+                assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+            }
+            assertEquals("model", segment.read());
+        } finally {
+            segment.delete();
+        }
+        // A segment naming any other file is rejected by the server
+        Path directory = Files.createTempDirectory("jopt-test");
+        Path other = Files.createFile(directory.resolve("jopt-1.segment"));
+        try {
+            Constructor<SharedSegment> constructor = SharedSegment.class.getDeclaredConstructor(String.class, long.class);
+            constructor.setAccessible(true);
+            for (String path : Arrays.asList(other.toString(),
+                    SharedSegment.getDirectory() + File.separator + ".." + File.separator + "jopt-1.segment",
+                    SharedSegment.getDirectory() + File.separator + "other.segment")) {
+                SharedSegment forged = constructor.newInstance(path, 0L);
+                try {
+                    server.getSolver().solve(forged);
+                    fail("Solved " + path);
+                } catch (MIPException e) {
+                    assertTrue(e.getMessage().contains("is not a segment"));
+                }
+            }
+        } finally {
+            Files.delete(other);
+            Files.delete(directory);
+        }
+        // A segment the server can't read makes the client send the model instead
+        Path garbage = Files.createTempFile(SharedSegment.getDirectory().toPath(), "jopt-", ".segment");
+        try {
+            Files.write(garbage, new byte[]{1, 2, 3});
+            Constructor<SharedSegment> constructor = SharedSegment.class.getDeclaredConstructor(String.class, long.class);
+            constructor.setAccessible(true);
+            assertNull(server.getSolver().solve(constructor.newInstance(garbage.toString(), 3L)));
+        } finally {
+            Files.delete(garbage);
+        }
+    }
+
+    @Test
+    public void testSharedMemoryInfeasible() {
+        MIP mip = createMIP();
+        Constraint c = new Constraint(CompareType.GEQ, 30);
+        c.addTerm(1, mip.getVar("x"));
+        c.addTerm(1, mip.getVar("y"));
+        mip.add(c);
+        try {
+            new SolverClient("localhost", port).solve(mip);
+            fail("The MIP is infeasible");
+        } catch (MIPInfeasibleException e) {
+            // The ids that came back are resolved against the local MIP
+            assertTrue(e.getInfeasibleConstraints().contains(c));
+        }
+    }
+
+    @Test
+    public void testMappedMIPFilesDeleted() throws Exception {
+        Path workDir = Files.createTempDirectory("jopt-test");
+        MappedMIP mapped = new MappedMIP(workDir.toString());
+        try {
+            Variable x = new Variable("x", VarType.INT, 0, 10);
+            mapped.add(x);
+            mapped.setObjectiveMax(true);
+            mapped.addObjectiveTerm(1, x);
+            mapped.setSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, false);
+            assertEquals(10, new SolverClient("localhost", port).solve(mapped).getObjectiveValue(), 1e-6);
+            // Only the directory of the client's copy is left
+            try (Stream<Path> files = Files.list(workDir)) {
+                assertEquals(1, files.count());
+            }
+        } finally {
+            mapped.close();
+            Files.delete(workDir);
+        }
+    }
+
+    @Test
+    public void testMappedMIPUpload() throws Exception {
+        MappedMIP mapped = new MappedMIP();
+        int balancerPort = freePort();
+        Properties props = new Properties();
+        props.setProperty("0.host", "localhost");
+        props.setProperty("0.port", Integer.toString(port));
+        SolverLoadBalancer balancer = SolverLoadBalancer.createServer(balancerPort, props);
+        try {
+            Constraint c = new Constraint(CompareType.LEQ, 100);
+            for (int i = 0; i < 200; i++) {
+                Variable x = new Variable("x" + i, VarType.INT, 0, 10);
+                mapped.add(x);
+                mapped.addObjectiveTerm(1, x);
+                c.addTerm(1, x);
+            }
+            mapped.add(c);
+            mapped.setObjectiveMax(true);
+            mapped.setSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, false);
+
+            // Sent in many small chunks
+            IRemoteMIPSolver solver = server.getSolver();
+            ChunkedUpload upload = new ChunkedUpload(solver, 1024);
+            try (ObjectOutputStream oos = new ObjectOutputStream(upload)) {
+                oos.writeObject(mapped);
+            }
+            assertEquals(100, solver.solveUploaded("upload", upload.getUploadId(), Long.MAX_VALUE).getObjectiveValue(), 1e-6);
+            try {
+                solver.uploadChunk(upload.getUploadId(), new byte[1]);
+                fail("The upload ended with the solve");
+            } catch (MIPException e) {
+                // Expected
+            }
+
+            // Through a balancer, which streams it on to the drone
+            assertEquals(100, new SolverClient("localhost", balancerPort).solve(mapped).getObjectiveValue(), 1e-6);
+            AbortHandle abort = new AbortHandle();
+            abort.setDeadline(System.currentTimeMillis() + 60000);
+            assertEquals(100, new SolverClient("localhost", balancerPort).solve(mapped, abort).getObjectiveValue(), 1e-6);
+
+            // No spooled upload is left behind
+            try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+                assertEquals(0, files.filter(f -> f.getFileName().toString().startsWith("jopt-upload-")).count());
+            }
+        } finally {
+            balancer.shutdown();
+            mapped.close();
+        }
+    }
+
+    @Test
+    public void testStubReuse() throws Exception {
+        // The server exports a single solver for all clients
+        assertSame(server.getSolver(), server.getSolver());
+        RemoteSolverCache.clear();
+        MIP mip = createMIP();
+        mip.setSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, false);
+        IMIPResult first = new SolverClient("localhost", port).solve(mip);
+        IMIPResult second = new SolverClient("localhost", port).solve(mip);
+        assertEquals(1, RemoteSolverCache.size());
+        assertEquals(first.getObjectiveValue(), second.getObjectiveValue(), 1e-6);
+    }
+
+    @Test
+    public void testJobs() throws Exception {
+        RemoteJob job = new SolverClient("localhost", port).submit(createMIP());
+        IMIPResult result = job.getResult(60000);
+        assertNotNull(result);
+        assertEquals(14.5, result.getObjectiveValue(), 1e-6);
+        assertTrue(result.getMetadata().containsKey(SolveScheduler.QUEUE_WAIT_KEY));
+        JobStatus status = job.getStatus();
+        assertEquals(JobStatus.State.DONE, status.getState());
+        assertTrue(status.getFinishedAt() >= status.getStartedAt());
+
+        // A cancel after the job finished changes nothing
+        job.cancel();
+        assertEquals(JobStatus.State.DONE, job.getStatus().getState());
+        assertEquals(14.5, job.getResult(0).getObjectiveValue(), 1e-6);
+
+        // Another client can fetch the result with the id alone
+        RemoteJob attached = RemoteJob.attach("localhost", port, job.getId());
+        assertEquals(14.5, attached.toFuture().get(60, TimeUnit.SECONDS).getObjectiveValue(), 1e-6);
+
+        // A new store on the same directory knows the finished job
+        JobStore store = new JobStore(server.getJobStore().getDirectory(), (RemoteMIPSolver) server.getSolver());
+        try {
+            assertEquals(JobStatus.State.DONE, store.getStatus(job.getId()).getState());
+            assertEquals(14.5, store.awaitResult(job.getId(), 0).getObjectiveValue(), 1e-6);
+        } finally {
+            store.shutdown();
+        }
+
+        try {
+            RemoteJob.attach("localhost", port, "unknown").getResult(0);
+            fail("The job doesn't exist");
+        } catch (MIPException e) {
+            // Expected
+        }
+
+        // A server that can't be reached is tried again until the wait is over
+        long start = System.currentTimeMillis();
+        try {
+            RemoteJob.attach("localhost", freePort(), job.getId()).getResult(1500);
+            fail("There is no server");
+        } catch (MIPException e) {
+            assertTrue(System.currentTimeMillis() - start >= 1500);
+        }
+    }
+
+    /** Stalls on the first solve in this JVM until it is aborted **/
+    public static class StallingSolver extends LPSolveMIPSolver {
+        private static final AtomicBoolean stalled = new AtomicBoolean();
+        private static final CountDownLatch aborted = new CountDownLatch(1);
+
+        @Override
+        public IMIPResult solve(IMIP mip, AbortHandle abort) {
+            if (stalled.compareAndSet(false, true)) {
+                long end = System.currentTimeMillis() + 30000;
+                while (!abort.isAborted() && System.currentTimeMillis() < end) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                aborted.countDown();
+                throw new MIPException("Solve aborted");
+            }
+            return super.solve(mip, abort);
+        }
+    }
+
+    @Test
+    public void testHedging() throws Exception {
+        int port0 = freePort();
+        SolverServer drone0 = SolverServer.createServer(port0, StallingSolver.class);
+        int port1 = freePort();
+        SolverServer drone1 = SolverServer.createServer(port1, StallingSolver.class);
+        Properties props = new Properties();
+        props.setProperty("0.host", "localhost");
+        props.setProperty("0.port", Integer.toString(port0));
+        props.setProperty("1.host", "localhost");
+        props.setProperty("1.port", Integer.toString(port1));
+        props.setProperty("hedge.percentile", "0.95");
+        props.setProperty("hedge.initialDelay", "200");
+        int balancerPort = freePort();
+        SolverLoadBalancer balancer = SolverLoadBalancer.createServer(balancerPort, props);
+        try {
+            MIP mip = createMIP();
+            mip.setSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, false);
+            mip.setSolveParam(SolveParam.MODEL_CACHE, false);
+            long time = System.currentTimeMillis();
+            IMIPResult result = new SolverClient("localhost", balancerPort).solve(mip);
+            assertTrue(System.currentTimeMillis() - time < 20000);
+            assertEquals(14.5, result.getObjectiveValue(), 1e-6);
+            HedgingPolicy hedging = balancer.getHedgingPolicy();
+            assertEquals(1, hedging.getRequests());
+            assertEquals(1, hedging.getHedges());
+            assertEquals(1, hedging.getWins());
+            // The stalled drone is cancelled
+            assertTrue(StallingSolver.aborted.await(10, TimeUnit.SECONDS));
+        } finally {
+            balancer.shutdown();
+            drone0.shutdown();
+            drone1.shutdown();
+        }
+    }
+
+    /** Stalls on every solve until it is aborted **/
+    public static class BlockingSolver extends LPSolveMIPSolver {
+        private static final CountDownLatch started = new CountDownLatch(1);
+        private static final CountDownLatch aborted = new CountDownLatch(1);
+
+        @Override
+        public IMIPResult solve(IMIP mip, AbortHandle abort) {
+            started.countDown();
+            long end = System.currentTimeMillis() + 30000;
+            while (!abort.isAborted() && System.currentTimeMillis() < end) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            aborted.countDown();
+            throw new MIPException("Solve aborted");
+        }
+    }
+
+    @Test
+    public void testAbortWithoutDeadline() throws Exception {
+        int dronePort = freePort();
+        SolverServer drone = SolverServer.createServer(dronePort, BlockingSolver.class);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AbortHandle handle = new AbortHandle();
+            SolverClient client = new SolverClient("localhost", dronePort);
+            Future<IMIPResult> solve = executor.submit(() -> client.solve(createMIP(), handle));
+            assertTrue(BlockingSolver.started.await(10, TimeUnit.SECONDS));
+            handle.abort();
+            // The server is told to cancel the request, although it has no deadline
+            assertTrue(BlockingSolver.aborted.await(10, TimeUnit.SECONDS));
+            try {
+                solve.get(10, TimeUnit.SECONDS);
+                fail("The solve was aborted");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof MIPException);
+            }
+        } finally {
+            executor.shutdownNow();
+            drone.shutdown();
+        }
+    }
+
+    @Test
+    public void testJobLimits() throws Exception {
+        int dronePort = freePort();
+        SolveScheduler scheduler = new SolveScheduler(1);
+        SolverServer drone = SolverServer.createServer(dronePort, BlockingSolver.class, ModelStore.DEFAULT_CAPACITY,
+                scheduler, Files.createTempDirectory("jopt-jobs"));
+        try {
+            JobStore store = drone.getJobStore();
+            store.setMaxPending(3, 2);
+            byte[] mip = ModelStore.serialize(createMIP());
+            MIP urgent = createMIP();
+            urgent.setSolveParam(SolveParam.PRIORITY, 1);
+            String a1 = store.submit(mip, "a");
+            awaitState(store, a1, JobStatus.State.RUNNING);
+            String a2 = store.submit(mip, "a");
+            try {
+                store.submit(mip, "a");
+                fail("Too many jobs from one client");
+            } catch (MIPException e) {
+                assertTrue(e.getMessage().contains("Job queue full"));
+            }
+            String b1 = store.submit(ModelStore.serialize(urgent), "b");
+            try {
+                store.submit(mip, "c");
+                fail("Too many jobs in total");
+            } catch (MIPException e) {
+                assertTrue(e.getMessage().contains("Job queue full"));
+            }
+            assertEquals(3, store.getPending());
+
+            // The scheduler starts the urgent job first, although it was submitted last
+            long end = System.currentTimeMillis() + 10000;
+            while (scheduler.getQueued() < 2) {
+                assertTrue("Jobs never reached the scheduler", System.currentTimeMillis() < end);
+                Thread.sleep(10);
+            }
+            store.cancel(a1);
+            awaitState(store, b1, JobStatus.State.RUNNING);
+            assertEquals(JobStatus.State.QUEUED, store.getStatus(a2).getState());
+            store.cancel(a2);
+            store.cancel(b1);
+            awaitState(store, a2, JobStatus.State.CANCELLED);
+            awaitState(store, b1, JobStatus.State.CANCELLED);
+            assertEquals(0, store.getPending());
+        } finally {
+            drone.shutdown();
+        }
+    }
+
+    private static void awaitState(JobStore store, String id, JobStatus.State state) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (store.getStatus(id).getState() != state) {
+            assertTrue("Job " + id + " never got " + state, System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testEarlyCancel() throws Exception {
+        // A cancel that overtakes its request stops it as it arrives
+        server.getSolver().cancel("early");
+        try {
+            server.getSolver().solveCancellable("early", ModelStore.serialize(createMIP()));
+            fail("The request was cancelled");
+        } catch (MIPException e) {
+            assertTrue(e.getMessage().contains("cancelled"));
+        }
+        IMIPResult result = server.getSolver().solveCancellable("early", ModelStore.serialize(createMIP()));
+        assertEquals(14.5, result.getObjectiveValue(), 1e-6);
+    }
+
+    @Test
+    public void testAdaptiveRouting() {
+        MIP mip = createMIP();
+        mip.setSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, false);
+        ModelStatistics stats = ModelStatistics.of(mip);
+        assertEquals(2, stats.getNumVars());
+        assertEquals(1, stats.getNumIntegers());
+        assertEquals(2, stats.getNumNonZeros());
+        assertFalse(stats.isQuadratic());
+
+        SolverClient remote = new SolverClient("localhost", port);
+        AdaptiveRoutingSolver small = new AdaptiveRoutingSolver(new LPSolveMIPSolver(), remote, 10, 10, 10, 0, false, 1, 0);
+        AdaptiveRoutingSolver large = new AdaptiveRoutingSolver(new LPSolveMIPSolver(), remote, 1, 10, 10, 0, false, 1, 0);
+        assertEquals(Route.LOCAL, small.route(mip));
+        assertEquals(Route.REMOTE, large.route(mip));
+        assertEquals(14.5, small.solve(mip).getObjectiveValue(), 1e-6);
+        assertEquals(14.5, large.solve(mip).getObjectiveValue(), 1e-6);
+        assertEquals(1, small.getMetrics(Route.LOCAL).getSolves());
+        assertEquals(1, large.getMetrics(Route.REMOTE).getSolves());
+
+        // Tries the other route every second solve, also once it knows the faster one
+        AdaptiveRoutingSolver learning = new AdaptiveRoutingSolver(new LPSolveMIPSolver(), remote, 10, 10, 10, 0, true, 1, 2);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(14.5, learning.solve(mip).getObjectiveValue(), 1e-6);
+        }
+        assertEquals(3, learning.getMetrics(Route.LOCAL).getSolves());
+        assertEquals(3, learning.getMetrics(Route.REMOTE).getSolves());
+
+        // But a model above the thresholds is never tried locally
+        AdaptiveRoutingSolver exploring = new AdaptiveRoutingSolver(new LPSolveMIPSolver(), remote, 1, 10, 10, 0, true, 1, 2);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(14.5, exploring.solve(mip).getObjectiveValue(), 1e-6);
+        }
+        assertEquals(0, exploring.getMetrics(Route.LOCAL).getSolves());
+        assertEquals(4, exploring.getMetrics(Route.REMOTE).getSolves());
+    }
+
+    @Test
+    public void testModelCache() {
+        MIP mip = createMIP();
+        mip.setSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, false);
+        mip.setSolveParam(SolveParam.MODEL_CACHE, true);
+        // Not stored by the other tests
+        mip.setSolveParam(SolveParam.TIME_LIMIT, 123d);
+        ModelStore store = server.getModelStore();
+        long hits = store.getHits();
+        long misses = store.getMisses();
+        SolverClient client = new SolverClient("localhost", port);
+        client.solve(mip);
+        IMIPResult result = client.solve(mip);
+        assertEquals(14.5, result.getObjectiveValue(), 1e-6);
+        assertEquals(hits + 1, store.getHits());
+        assertEquals(misses + 1, store.getMisses());
+        assertTrue(store.contains(ModelStore.hash(mip)));
+
+        // A model isn't stored under a hash it doesn't match
+        MIP other = createMIP();
+        other.setSolveParam(SolveParam.TIME_LIMIT, 456d);
+        String forged = ModelStore.hash(new byte[0]);
+        try {
+            server.getSolver().solve(forged, ModelStore.serialize(other));
+            fail("The model doesn't match the hash");
+        } catch (Exception e) {
+            assertTrue(e instanceof MIPException);
+            assertFalse(store.contains(forged));
+        }
+    }
+
+    @Test
+    public void testDelta() {
+        MIP mip = createMIP();
+        mip.setSolveParam(SolveParam.SHARED_MEMORY_TRANSPORT, false);
+        mip.setSolveParam(SolveParam.MODEL_CACHE, true);
+        SolverClient client = new SolverClient("localhost", port);
+        client.solve(mip);
+
+        MIPDelta delta = new MIPDelta(ModelStore.hash(mip))
+                .setBounds(mip.getVar("x"), 0, 5)
+                .setObjectiveCoefficient(mip.getVar("y"), 3);
+        IMIPResult result = client.solve(delta);
+        assertEquals(2 * 0 + 3 * 7.5, result.getObjectiveValue(), 1e-6);
+        // The derived model is stored as well, so deltas can build on it
+        assertTrue(server.getModelStore().contains(ModelStore.hash(delta)));
+
+        Constraint c = new Constraint(CompareType.LEQ, 2);
+        c.addTerm(1, mip.getVar("y"));
+        MIPDelta next = new MIPDelta(ModelStore.hash(delta)).add(c).setConstant(0, 20);
+        assertEquals(2 * 5 + 3 * 2, client.solve(next).getObjectiveValue(), 1e-6);
+
+        // Without the base on the server, the client applies the delta itself and uploads the result
+        MIPDelta unknown = new MIPDelta("unknown", mip).setBounds(mip.getVar("x"), 0, 1);
+        assertEquals(2 * 1 + 6.5, client.solve(unknown).getObjectiveValue(), 1e-6);
+    }
+
+    @Test
+    public void testModelStoreEviction() {
+        ModelStore store = new ModelStore(100);
+        store.put("a", createMIP(), 40);
+        store.put("b", createMIP(), 40);
+        assertNotNull(store.get("a"));
+        store.put("c", createMIP(), 40);
+        // b was used least recently
+        assertFalse(store.contains("b"));
+        assertTrue(store.contains("a"));
+        assertEquals(80, store.getSize());
+        store.put("d", createMIP(), 200);
+        assertFalse(store.contains("d"));
+        assertNull(store.get("b"));
+        assertEquals(1, store.getEvictions());
+        assertEquals(0.5, store.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        AbortHandle handle = new AbortHandle();
+        assertEquals(30, handle.getTimeLimit(30), 1e-9);
+        handle.setDeadline(System.currentTimeMillis() + 10000);
+        handle.setDeadline(Long.MAX_VALUE);
+        assertTrue(handle.getTimeLimit(30) <= 10);
+        assertTrue(handle.getTimeLimit(-1) > 9);
+        assertEquals(2, handle.getTimeLimit(2), 1e-9);
+
+        // The time left goes with the request and limits the solver
+        MIP mip = createMIP();
+        mip.setSolveParam(SolveParam.DEADLINE, (double) System.currentTimeMillis() + 60000);
+        assertEquals(14.5, new SolverClient("localhost", port).solve(mip).getObjectiveValue(), 1e-6);
+        IMIPResult result = server.getSolver().solveCancellable("budget", ModelStore.serialize(createMIP()), 60000);
+        assertEquals(14.5, result.getObjectiveValue(), 1e-6);
+
+        // Work past its deadline is dropped before it starts, at whichever hop notices
+        mip.setSolveParam(SolveParam.DEADLINE, (double) System.currentTimeMillis() - 1);
+        try {
+            new SolverClient("localhost", port).solve(mip);
+            fail("The deadline has passed");
+        } catch (MIPException e) {
+            assertTrue(e.getMessage().startsWith("Deadline passed"));
+        }
+        try {
+            server.getSolver().solveCancellable("late", ModelStore.serialize(createMIP()), 0);
+            fail("The deadline has passed");
+        } catch (MIPException e) {
+            assertTrue(e.getMessage().startsWith("Deadline passed"));
+        }
+
+        SolveScheduler scheduler = new SolveScheduler(1);
+        SolveScheduler.Ticket first = scheduler.admit(createMIP(), "host", new AbortHandle());
+        AbortHandle late = new AbortHandle();
+        late.setDeadline(System.currentTimeMillis() + 50);
+        try {
+            scheduler.admit(createMIP(), "host", late);
+            fail("The deadline passed while queued");
+        } catch (MIPException e) {
+            assertEquals(1, scheduler.getExpired());
+            assertEquals(0, scheduler.getQueued());
+        }
+        scheduler.release(first);
+    }
+
+    /** Can't be created, like a solver whose natives are missing **/
+    public static class BrokenSolver extends LPSolveMIPSolver {
+        public BrokenSolver() {
+            throw new IllegalStateException("No natives");
+        }
+    }
+
+    @Test
+    public void testSchedulerReleasedWithoutSolver() throws Exception {
+        SolveScheduler scheduler = new SolveScheduler(1);
+        RemoteMIPSolver solver = new RemoteMIPSolver(0, BrokenSolver.class, new ModelStore(), scheduler);
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    solver.solve(ModelStore.serialize(createMIP()));
+                    fail("The solver can't be created");
+                } catch (MIPException e) {
+                    assertEquals(0, scheduler.getRunning());
+                }
+            }
+        } finally {
+            UnicastRemoteObject.unexportObject(solver, true);
+        }
+    }
+
+    @Test
+    public void testScheduler() throws Exception {
+        SolveScheduler scheduler = new SolveScheduler(1);
+        scheduler.setMaxQueuedPerClient(3);
+        SolveScheduler.Ticket first = scheduler.admit(job("a", 0, null), "host", new AbortHandle());
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        AbortHandle cancelled = new AbortHandle();
+        threads.add(queue(scheduler, job("a", 0, null), "a1", order, new AbortHandle()));
+        threads.add(queue(scheduler, job("a", 0, 2000d), "a2", order, new AbortHandle()));
+        threads.add(queue(scheduler, job("a", 0, 1000d), "a3", order, cancelled));
+        threads.add(queue(scheduler, job("b", 0, null), "b1", order, new AbortHandle()));
+        threads.add(queue(scheduler, job("c", 1, null), "c1", order, new AbortHandle()));
+        try {
+            scheduler.admit(job("a", 0, null), "host", new AbortHandle());
+            fail("The fourth queued solve of a client should be rejected");
+        } catch (MIPException e) {
+            assertEquals(1, scheduler.getRejected());
+        }
+        cancelled.abort();
+        assertEquals(4, scheduler.getQueued());
+        assertEquals(1, scheduler.getWaitStats().get("a").getCount());
+
+        scheduler.release(first);
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        // Priority first, then b as a already had a turn, then a by deadline
+        assertEquals(Arrays.asList("c1", "b1", "a2", "a1"), order);
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(5, scheduler.getTotalWaitStats().getCount());
+        // Clients without solves are forgotten
+        assertTrue(scheduler.getWaitStats().isEmpty());
+    }
+
+    private static IMIP job(String tenant, int priority, Double deadline) {
+        IMIP mip = TestSuite.provideTrivialExample();
+        mip.setSolveParam(SolveParam.TENANT, tenant);
+        mip.setSolveParam(SolveParam.PRIORITY, priority);
+        if (deadline != null) {
+            mip.setSolveParam(SolveParam.DEADLINE, deadline);
+        }
+        return mip;
+    }
+
+    /**
+     * Queues the job on a new thread and waits until it is queued.
+     */
+    private static Thread queue(SolveScheduler scheduler, IMIP job, String name, List<String> order, AbortHandle abort)
+            throws InterruptedException {
+        int queued = scheduler.getQueued();
+        Thread thread = new Thread(() -> {
+            try {
+                SolveScheduler.Ticket ticket = scheduler.admit(job, "host", abort);
+                order.add(name);
+                scheduler.release(ticket);
+            } catch (MIPException e) {
+                // Aborted while queued
+            }
+        });
+        thread.start();
+        while (scheduler.getQueued() == queued) {
+            Thread.sleep(5);
+        }
+        return thread;
+    }
+}
@@ -2,10 +2,26 @@ package edu.harvard.econcs.jopt;
 
 import edu.harvard.econcs.jopt.solver.*;
 import edu.harvard.econcs.jopt.solver.client.SolverClient;
+import edu.harvard.econcs.jopt.solver.server.ParameterTuner;
 import edu.harvard.econcs.jopt.solver.server.cplex.CPlexMIPSolver;
+import edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.*;
@@ -17,6 +33,9 @@ public class SolveParamsTest {
 
     private static final Logger logger = LogManager.getLogger(SolveParamsTest.class);
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testDefaultSolveParams() {
         IMIP mip = TestSuite.provideSimpleExample();
@@ -68,4 +87,84 @@ public class SolveParamsTest {
         logger.info("Here should be no log again:");
         new SolverClient(new CPlexMIPSolver()).solve(mip);
     }
+
+    @Test
+    public void testProfile() throws IOException {
+        Map<SolveParam, Object> params = new HashMap<>();
+        params.put(SolveParam.MIP_EMPHASIS, 1);
+        params.put(SolveParam.RELATIVE_OBJ_GAP, 0);
+        params.put(SolveParam.CHECK_INIT_VALUE_FEASIBILITY, true);
+        SolveParamProfile profile = new SolveParamProfile("fast", "trivial", params);
+        assertThat(profile.getParams().get(SolveParam.RELATIVE_OBJ_GAP), is(0d));
+        Path file = folder.getRoot().toPath().resolve("fast" + ProfileRegistry.PROFILE_EXTENSION);
+        profile.save(file);
+        assertThat(SolveParamProfile.load(file).getParams(), is(profile.getParams()));
+        assertEquals(profile, SolveParamProfile.load(file));
+
+        ProfileRegistry registry = ProfileRegistry.load(folder.getRoot().toPath());
+        IMIP mip = TestSuite.provideSimpleExample();
+        assertFalse(registry.applyTo(mip));
+        mip.setSolveParam(SolveParam.MODEL_FAMILY, "trivial");
+        assertTrue(registry.applyTo(mip));
+        assertThat(mip.getIntSolveParam(SolveParam.MIP_EMPHASIS), is(1));
+        assertSame(SolveParam.MIP_EMPHASIS, SolveParam.forName("MIPEmphasis"));
+    }
+
+    @Test
+    public void testTuning() throws IOException {
+        Path archive = folder.newFolder("archive").toPath();
+        for (int i = 0; i < 3; i++) {
+            ParameterTuner.archive(TestSuite.provideTrivialExample(), archive.resolve(i + ParameterTuner.ARCHIVE_EXTENSION));
+        }
+        List<IMIP> models = ParameterTuner.loadArchive(archive);
+        assertThat(models.size(), is(3));
+
+        Map<SolveParam, List<Object>> space = Collections.singletonMap(SolveParam.MIP_EMPHASIS, Arrays.asList(0, 1));
+        ParameterTuner tuner = new ParameterTuner(new LPSolveMIPSolver(), space, 42);
+        tuner.setTimeLimit(5);
+        SolveParamProfile profile = tuner.tune(models, 60000, "tuned", "trivial");
+        assertThat(profile.getName(), is("tuned"));
+        assertThat(profile.getFamily(), is("trivial"));
+        assertTrue(profile.getParams().isEmpty() || profile.getParams().containsKey(SolveParam.MIP_EMPHASIS));
+    }
+
+    @Test
+    public void testSharedProfile() throws Exception {
+        Map<SolveParam, Object> params = new HashMap<>();
+        params.put(SolveParam.PARALLEL_MODE, -1);
+        params.put(SolveParam.TIME_LIMIT, 20);
+        params.put(SolveParam.DISPLAY_OUTPUT, true);
+        SolveParamProfile profile = new SolveParamProfile("shared", null, params);
+
+        IMIP mip = TestSuite.provideSimpleExample();
+        mip.setSolveParamProfile(profile);
+        // The profile replaces the default the MIP had
+        assertThat(mip.getIntSolveParam(SolveParam.PARALLEL_MODE), is(-1));
+        assertThat(mip.getDoubleSolveParam(SolveParam.TIME_LIMIT), is(20d));
+        assertTrue(mip.getBooleanSolveParam(SolveParam.DISPLAY_OUTPUT));
+        assertTrue(mip.getSpecifiedSolveParams().contains(SolveParam.TIME_LIMIT));
+
+        IMIP clone = mip.typedClone();
+        clone.setSolveParam(SolveParam.TIME_LIMIT, 5);
+        assertSame(profile, clone.getSolveParamProfile());
+        assertThat(clone.getDoubleSolveParam(SolveParam.TIME_LIMIT), is(5d));
+        assertThat(mip.getDoubleSolveParam(SolveParam.TIME_LIMIT), is(20d));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(mip);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            IMIP copy = (IMIP) in.readObject();
+            assertThat(copy.getIntSolveParam(SolveParam.PARALLEL_MODE), is(-1));
+            assertThat(copy.getSolveParamProfile().getParams(), is(profile.getParams()));
+            // Copies are equal, so solvers can reuse what they derived from the profile
+            assertEquals(profile, copy.getSolveParamProfile());
+            assertEquals(profile.hashCode(), copy.getSolveParamProfile().hashCode());
+        }
+
+        for (SolveParam param : SolveParam.values()) {
+            assertSame(param, SolveParam.values().get(param.ordinal()));
+        }
+    }
 }
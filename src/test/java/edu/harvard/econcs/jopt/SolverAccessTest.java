@@ -1,13 +1,37 @@
 package edu.harvard.econcs.jopt;
 
+import edu.harvard.econcs.jopt.solver.AbortHandle;
 import edu.harvard.econcs.jopt.solver.IMIP;
+import edu.harvard.econcs.jopt.solver.IMIPResult;
+import edu.harvard.econcs.jopt.solver.IMIPSolver;
+import edu.harvard.econcs.jopt.solver.MIPException;
+import edu.harvard.econcs.jopt.solver.MIPUnsupportedException;
+import edu.harvard.econcs.jopt.solver.SolveParam;
 import edu.harvard.econcs.jopt.solver.client.SolverClient;
+import edu.harvard.econcs.jopt.solver.mip.MIPResult;
+import edu.harvard.econcs.jopt.solver.mip.ModelStatistics;
+import edu.harvard.econcs.jopt.solver.mip.ModelStatistics.ProblemClass;
+import edu.harvard.econcs.jopt.solver.server.ProblemClassSolver;
+import edu.harvard.econcs.jopt.solver.server.cplex.CPLEXInstanceManager;
 import edu.harvard.econcs.jopt.solver.server.cplex.CPlexMIPSolver;
+import edu.harvard.econcs.jopt.solver.server.cplex.MemoryBudget;
+import edu.harvard.econcs.jopt.solver.server.cplex.ThreadBudget;
 import edu.harvard.econcs.jopt.solver.server.lpsolve.LPSolveMIPSolver;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -61,4 +85,190 @@ public class SolverAccessTest {
 			fail(e.getMessage());
 		}
 	}
+
+	@Test
+	public void problemClassRoutingTest() {
+		IMIP mip = TestSuite.provideTrivialExample();
+		assertEquals(ProblemClass.MILP, ModelStatistics.of(mip).getProblemClass());
+		// Stands in for CPLEX, whose native libraries may be missing
+		IMIPSolver cplex = m -> new MIPResult(-1, Collections.emptyMap(), null);
+		ProblemClassSolver solver = new ProblemClassSolver(cplex, new LPSolveMIPSolver(), 10, 10, 10);
+		assertEquals(3, solver.solve(mip).getObjectiveValue(), 1e-6);
+		assertEquals(1, solver.getLPSolveSolves());
+
+		IMIP qp = TestSuite.provideTrivialExample();
+		qp.addObjectiveTerm(1, qp.getVar("a"), qp.getVar("a"));
+		assertEquals(ProblemClass.QP, ModelStatistics.of(qp).getProblemClass());
+		assertEquals(-1, solver.solve(qp).getObjectiveValue(), 1e-6);
+		assertEquals(1, solver.getCplexSolves());
+
+		IMIPSolver rejecting = m -> {
+			throw new MIPUnsupportedException("Not supported");
+		};
+		ProblemClassSolver fallback = new ProblemClassSolver(cplex, rejecting, 10, 10, 10);
+		assertEquals(-1, fallback.solve(mip).getObjectiveValue(), 1e-6);
+		assertEquals(1, fallback.getFallbacks());
+
+		// Other failures, e.g. timeouts, aren't solved again with CPLEX
+		IMIPSolver timingOut = m -> {
+			throw new MIPException("Solving the MIP timed out");
+		};
+		ProblemClassSolver noFallback = new ProblemClassSolver(cplex, timingOut, 10, 10, 10);
+		try {
+			noFallback.solve(mip);
+			fail("The timeout should be passed on");
+		} catch (MIPException e) {
+			assertEquals(0, noFallback.getCplexSolves());
+		}
+
+		// CPLEX only gets the time LPSolve left of the time limit
+		IMIPSolver slowRejecting = m -> {
+			try {
+				Thread.sleep(500);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throw new MIPUnsupportedException("Not supported");
+		};
+		double[] timeLimit = new double[1];
+		IMIPSolver timedCplex = new IMIPSolver() {
+			public IMIPResult solve(IMIP m) {
+				return solve(m, new AbortHandle());
+			}
+			public IMIPResult solve(IMIP m, AbortHandle abort) {
+				timeLimit[0] = abort.getTimeLimit(m.getDoubleSolveParam(SolveParam.TIME_LIMIT, -1d));
+				return new MIPResult(-1, Collections.emptyMap(), null);
+			}
+		};
+		IMIP limited = TestSuite.provideTrivialExample();
+		limited.setSolveParam(SolveParam.TIME_LIMIT, 2d);
+		new ProblemClassSolver(timedCplex, slowRejecting, 10, 10, 10).solve(limited);
+		assertTrue(timeLimit[0] > 0 && timeLimit[0] <= 1.5);
+	}
+
+	@Test
+	public void threadBudgetTest() throws Exception {
+		ThreadBudget budget = new ThreadBudget(8, 2, ThreadBudget.Policy.SIZE_WEIGHTED);
+		ThreadBudget.Assignment small = budget.acquire(1, 2);
+		assertEquals(2, small.getThreads());
+		// A solve nested on the same thread shares the threads
+		assertEquals(2, budget.acquire(1, 0).getThreads());
+		assertEquals(2, budget.getUsedThreads());
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		CountDownLatch done = new CountDownLatch(1);
+		Future<Integer> large = executor.submit(() -> {
+			ThreadBudget.Assignment assignment = budget.acquire(3, 0);
+			done.await();
+			budget.release(assignment);
+			return assignment.getThreads();
+		});
+		while (budget.getUsedThreads() < 8) {
+			Thread.sleep(10);
+		}
+		Future<Integer> waiting = executor.submit(() -> {
+			ThreadBudget.Assignment assignment = budget.acquire(1, 0);
+			budget.release(assignment);
+			return assignment.getThreads();
+		});
+		Thread.sleep(200);
+		assertFalse(waiting.isDone());
+
+		budget.release(small);
+		// 8 * 1 / (3 + 1) with the large solve still running
+		assertEquals(2, (int) waiting.get(10, TimeUnit.SECONDS));
+		done.countDown();
+		assertEquals(6, (int) large.get(10, TimeUnit.SECONDS));
+		assertEquals(0, budget.getUsedThreads());
+		assertEquals(1, budget.getWaits());
+		executor.shutdown();
+
+		// Threads are kept for the solves that could still start
+		ThreadBudget fair = new ThreadBudget(8, 4, ThreadBudget.Policy.FAIR_SHARE);
+		ThreadBudget.Assignment first = fair.acquire(1, 0);
+		assertEquals(2, first.getThreads());
+		fair.release(first);
+		ThreadBudget.Assignment all = fair.acquire(1, 8);
+		assertEquals(8, all.getThreads());
+		// Waiting ends at the deadline; on another thread, as this one would nest
+		AbortHandle late = new AbortHandle();
+		late.setDeadline(System.currentTimeMillis() + 50);
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			other.submit(() -> fair.acquire(1, 0, late)).get(10, TimeUnit.SECONDS);
+			fail("No threads were free before the deadline");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof MIPException);
+			assertEquals(8, fair.getUsedThreads());
+		}
+		other.shutdown();
+		fair.release(all);
+
+		// Unless it is sized for concurrent solves, a solve without competition gets all cores
+		ThreadBudget unconfigured = CPLEXInstanceManager.INSTANCE.getThreadBudget();
+		assertEquals(1, unconfigured.getExpectedSolves());
+		ThreadBudget.Assignment lone = unconfigured.acquire(1, 0);
+		assertEquals(unconfigured.getMaxThreads(), lone.getThreads());
+		unconfigured.release(lone);
+		ThreadBudget plain = new ThreadBudget(32, 1, ThreadBudget.Policy.FAIR_SHARE);
+		ThreadBudget.Assignment alone = plain.acquire(1, 0);
+		assertEquals(32, alone.getThreads());
+		plain.release(alone);
+	}
+
+	@Test
+	public void memoryBudgetTest() throws Exception {
+		long gb = 1L << 30;
+		// Large enough that the native memory of the test JVM doesn't matter
+		MemoryBudget budget = new MemoryBudget(64 * gb, gb, 2);
+		budget.setMaxWait(100);
+		try {
+			budget.acquire(64 * gb);
+			fail("A model larger than the budget should be rejected");
+		} catch (MIPException e) {
+			assertEquals(1, budget.getRejections());
+		}
+
+		// Alone, a solve gets no more than its share of the budget
+		MemoryBudget.Reservation first = budget.acquire(gb);
+		assertTrue(first.getWorkMemMB() > 16 * 1024);
+		assertTrue(first.getBytes() <= 32 * gb);
+		assertEquals(first.getBytes(), budget.getReservedBytes());
+
+		// So the second expected solve still fits, but a third doesn't
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		MemoryBudget.Reservation second = executor.submit(() -> budget.acquire(gb)).get(10, TimeUnit.SECONDS);
+		assertEquals(2, budget.getActiveSolves());
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			other.submit(() -> budget.acquire(gb)).get(10, TimeUnit.SECONDS);
+			fail("A solve that doesn't fit should be rejected after the maximum wait");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof MIPException);
+		}
+		other.shutdown();
+		executor.submit(() -> budget.release(second)).get(10, TimeUnit.SECONDS);
+
+		// Without the number of solves, the shares are sized by the least working memory
+		MemoryBudget unsized = new MemoryBudget(64 * gb, 8 * gb);
+		unsized.setMaxWait(0);
+		assertEquals(8, unsized.getExpectedSolves());
+		MemoryBudget.Reservation lone = unsized.acquire(0);
+		assertTrue(lone.getBytes() <= 8 * gb);
+		MemoryBudget.Reservation concurrent = executor.submit(() -> unsized.acquire(0)).get(10, TimeUnit.SECONDS);
+		assertEquals(2, unsized.getActiveSolves());
+		executor.submit(() -> unsized.release(concurrent)).get(10, TimeUnit.SECONDS);
+		unsized.release(lone);
+
+		budget.release(first);
+		budget.setMaxWait(10000);
+		Future<Double> third = executor.submit(() -> {
+			MemoryBudget.Reservation reservation = budget.acquire(gb);
+			budget.release(reservation);
+			return reservation.getWorkMemMB();
+		});
+		assertTrue(third.get(10, TimeUnit.SECONDS) >= 1024);
+		assertEquals(0, budget.getReservedBytes());
+		executor.shutdown();
+	}
 }
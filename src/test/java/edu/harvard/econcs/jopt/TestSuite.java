@@ -23,7 +23,12 @@ import java.util.Map;
         Examples.class,
         LPSolveTest.class,
         CplexTest.class,
-        SolveParamsTest.class
+        SolveParamsTest.class,
+        PresolveTest.class,
+        ConstraintStoreTest.class,
+        MappedMIPTest.class,
+        RemoteSolverTest.class,
+        PortfolioTest.class
 })
 public class TestSuite {
 